@@ -1,41 +1,40 @@
 package com.alphamovie.lib;
 
-import android.graphics.Color;
-import android.opengl.GLES20;
-
 public class AdvancedChromaKeyShader extends ShaderBase {
-    private final float[] uMaskYCrCbCache = new float[3];
+    private final float[] maskYCrCb = new float[3];
 
-    private int mChromaKeyColor;
-    private float mSensitivity;
-    private float mSmoothing;
+    private final ShaderUniform.Float uSensitivity = declareFloat("uSensitivity");
+    private final ShaderUniform.Float uSmoothing = declareFloat("uSmoothing");
+    private final ShaderUniform.Vec3 uMaskYCrCb = declareVec3("uMaskYCrCb");
 
-    private volatile int uSensitivityHandle;
-    private volatile int uSmoothingHandle;
-    private volatile int uMaskYCrCbHandle;
+    private volatile int mChromaKeyColor;
 
     public int getChromaKeyColor() {
         return mChromaKeyColor;
     }
 
     public void setChromaKeyColor(int chromaKeyColor) {
-        mChromaKeyColor = chromaKeyColor;
+        synchronized (maskYCrCb) {
+            mChromaKeyColor = chromaKeyColor;
+            ChromaKeyMath.toYCrCb(chromaKeyColor, maskYCrCb);
+            uMaskYCrCb.set(maskYCrCb, 0);
+        }
     }
 
     public float getSensitivity() {
-        return mSensitivity;
+        return uSensitivity.get();
     }
 
     public void setSensitivity(float sensitivity) {
-        mSensitivity = Math.max(0, Math.min(1, sensitivity));
+        uSensitivity.set(Math.max(0, Math.min(1, sensitivity)));
     }
 
     public float getSmoothing() {
-        return mSmoothing;
+        return uSmoothing.get();
     }
 
     public void setSmoothing(float smoothing) {
-        mSmoothing = Math.max(0, Math.min(1, smoothing));
+        uSmoothing.set(Math.max(0, Math.min(1, smoothing)));
     }
 
     @Override
@@ -56,46 +55,8 @@ public class AdvancedChromaKeyShader extends ShaderBase {
                 "  float Cr = 0.7132 * (textureColor.r - Y);\n" +
                 "  float Cb = 0.5647 * (textureColor.b - Y);\n" +
                 "  \n" +
-                "  float blendValue = smoothstep(uSensitivity, uSensitivity + uSmoothing, distance(vec2(Cr, Cb), vec2(uMaskYCrCb.r, uMaskYCrCb.b)));\n" +
+                "  float blendValue = smoothstep(uSensitivity, uSensitivity + uSmoothing, distance(vec2(Cr, Cb), vec2(uMaskYCrCb.g, uMaskYCrCb.b)));\n" +
                 "  gl_FragColor = vec4(textureColor.rgb, textureColor.a * blendValue);\n" +
                 "}";
     }
-
-    @Override
-    public void getUniformLocations(int programID) {
-        uSensitivityHandle = getUniformLocation(programID, "uSensitivity");
-        uSmoothingHandle = getUniformLocation(programID, "uSmoothing");
-        uMaskYCrCbHandle = getUniformLocation(programID, "uMaskYCrCb");
-    }
-
-    @Override
-    public void setUniforms() {
-        final float chromaKeyR = Color.red(mChromaKeyColor) / 255f;
-        final float chromaKeyG = Color.green(mChromaKeyColor) / 255f;
-        final float chromaKeyB = Color.blue(mChromaKeyColor) / 255f;
-
-        float chromaKeyY = 0.2989f * chromaKeyR + 0.5866f * chromaKeyG + 0.1145f * chromaKeyB;
-        float chromaKeyCr = 0.7132f * (chromaKeyR - chromaKeyY);
-        float chromaKeyCb = 0.5647f * (chromaKeyB - chromaKeyY);
-
-        uMaskYCrCbCache[0] = chromaKeyY;
-        uMaskYCrCbCache[1] = chromaKeyCr;
-        uMaskYCrCbCache[2] = chromaKeyCb;
-
-        GLES20.glUniform1f(uSensitivityHandle, mSensitivity);
-        GLUtility.checkGlError("glUniform1f uSensitivity");
-        GLES20.glUniform1f(uSmoothingHandle, mSmoothing);
-        GLUtility.checkGlError("glUniform1f uSmoothing");
-        GLES20.glUniform3fv(uMaskYCrCbHandle, 1, uMaskYCrCbCache, 0);
-        GLUtility.checkGlError("glUniform3fv uMaskYCrCb");
-    }
-
-    private static int getUniformLocation(int programID, String name) {
-        int handle = GLES20.glGetUniformLocation(programID, name);
-        GLUtility.checkGlError("glGetUniformLocation " + name);
-        if (handle == -1)
-            throw new RuntimeException("Could not get uniform location for " + name);
-
-        return handle;
-    }
 }
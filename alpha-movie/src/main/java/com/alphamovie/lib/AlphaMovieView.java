@@ -19,22 +19,49 @@ package com.alphamovie.lib;
 import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
 import android.content.Context;
-import android.content.res.AssetFileDescriptor;
 import android.media.MediaDataSource;
-import android.media.MediaMetadataRetriever;
 import android.media.MediaPlayer;
 import android.net.Uri;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.Surface;
 
+import java.io.File;
 import java.io.FileDescriptor;
 import java.io.IOException;
-import java.util.HashMap;
 
 @SuppressLint("ViewConstructor")
 public class AlphaMovieView extends GLTextureView {
 
+    /**
+     * Every frame waits for the GPU to finish before it is swapped. Lowest latency,
+     * but the render thread cannot queue the next frame while the GPU is busy. This is the default.
+     *
+     * @see #setFrameSubmissionMode(int)
+     */
+    public final static int FRAME_SUBMISSION_LATENCY_FIRST = 0;
+
+    /**
+     * Frames are fenced instead of finished, and the render thread only blocks when more than
+     * {@link #setMaxFramesInFlight(int)} frames are still being processed by the GPU. Falls back to
+     * {@link #FRAME_SUBMISSION_LATENCY_FIRST} behavior on contexts without OpenGL ES 3.0 fences.
+     *
+     * @see #setFrameSubmissionMode(int)
+     */
+    public final static int FRAME_SUBMISSION_THROUGHPUT_FIRST = 1;
+
+    /**
+     * Upper bound accepted by {@link #setMaxFramesInFlight(int)}.
+     */
+    public final static int MAX_FRAMES_IN_FLIGHT_LIMIT = 4;
+
+    /**
+     * Pace draws at the frame rate of the current video. This is the default.
+     *
+     * @see #setTargetFrameRate(float)
+     */
+    public final static float FRAME_RATE_CONTENT = 0;
+
     private static final int GL_CONTEXT_VERSION = 2;
 
     private static final int NOT_DEFINED = -1;
@@ -47,6 +74,29 @@ public class AlphaMovieView extends GLTextureView {
 
     private OnVideoStartedListener onVideoStartedListener;
     private OnVideoEndedListener onVideoEndedListener;
+    private FrameTimingDispatcher frameTimingDispatcher;
+    private VideoLoad pendingLoad;
+
+    // Only touched on the main thread.
+    private VideoPlaylist playlist;
+    private int playlistIndex = -1;
+    private PreloadedPlayer preloadedPlayer;
+    private boolean switchWhenPreloaded;
+    private int consecutivePreloadFailures;
+    private OnPlaylistItemChangedListener onPlaylistItemChangedListener;
+    private FramePacer framePacer;
+    private RenderScaleController renderScaleController;
+    private float targetFrameRate = FRAME_RATE_CONTENT;
+    private float contentFrameRate;
+
+    // Kept so they can be applied to the next player of a playlist.
+    private Surface videoSurface;
+    private boolean looping;
+    private boolean screenOnWhilePlaying;
+    private MediaPlayer.OnErrorListener onErrorListener;
+    private MediaPlayer.OnSeekCompleteListener onSeekCompleteListener;
+    private volatile VideoMetadataCache videoMetadataCache;
+    private HttpRangeCache httpRangeCache;
 
     private boolean isSurfaceCreated;
     private boolean isDataSourceSet;
@@ -70,9 +120,22 @@ public class AlphaMovieView extends GLTextureView {
         initMediaPlayer();
 
         renderer = new VideoRenderer();
+        renderer.setProgramBinaryCache(ProgramBinaryCache.getDefault(getContext()));
+        videoMetadataCache = VideoMetadataCache.getDefault(getContext());
+
+        framePacer = new FramePacer(new FramePacer.OnFrameListener() {
+            @Override
+            public void onFrame(long presentationTimeNanos) {
+                setNextPresentationTime(presentationTimeNanos);
+                requestRender();
+            }
+        });
 
         this.addOnSurfacePrepareListener();
+        this.addOnRenderRequestListener();
+        this.addOnRenderScaleChangeListener();
         setRenderer(renderer);
+        setRenderMode(RENDERMODE_WHEN_DIRTY);
 
         bringToFront();
         setPreserveEGLContextOnPause(true);
@@ -81,12 +144,25 @@ public class AlphaMovieView extends GLTextureView {
 
     private void initMediaPlayer() {
         mediaPlayer = new MediaPlayer();
-        setScreenOnWhilePlaying(true);
-        setLooping(true);
+        screenOnWhilePlaying = true;
+        looping = true;
+        configureMediaPlayer(mediaPlayer);
+    }
 
-        mediaPlayer.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
+    private void configureMediaPlayer(MediaPlayer player) {
+        player.setScreenOnWhilePlaying(screenOnWhilePlaying);
+        player.setLooping(isPlayerLooping());
+        player.setOnErrorListener(onErrorListener);
+        player.setOnSeekCompleteListener(onSeekCompleteListener);
+        player.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
             @Override
             public void onCompletion(MediaPlayer mp) {
+                if (mp != mediaPlayer) {
+                    return;
+                }
+                if (playlist != null && advancePlaylist()) {
+                    return;
+                }
                 state = PlayerState.PAUSED;
                 if (onVideoEndedListener != null) {
                     onVideoEndedListener.onVideoEnded();
@@ -95,14 +171,26 @@ public class AlphaMovieView extends GLTextureView {
         });
     }
 
+    private boolean isPlayerLooping() {
+        if (playlist == null) {
+            return looping;
+        }
+        // A single looping clip is looped by the player itself, everything else is switched.
+        return playlist.isLooping() && playlist.size() == 1;
+    }
+
     private void addOnSurfacePrepareListener() {
         if (renderer != null) {
             renderer.setOnSurfacePrepareListener(new VideoRenderer.OnSurfacePrepareListener() {
                 @Override
                 public void surfacePrepared(Surface surface) {
                     isSurfaceCreated = true;
+                    if (videoSurface != null) {
+                        videoSurface.release();
+                    }
+                    // Kept until the view is released so a playlist can hand it to the next player.
+                    videoSurface = surface;
                     mediaPlayer.setSurface(surface);
-                    surface.release();
                     if (isDataSourceSet) {
                         prepareAndStartMediaPlayer();
                     }
@@ -111,6 +199,35 @@ public class AlphaMovieView extends GLTextureView {
         }
     }
 
+    private void addOnRenderRequestListener() {
+        if (renderer != null) {
+            renderer.setOnRenderRequestListener(new VideoRenderer.OnRenderRequestListener() {
+                @Override
+                public void renderRequested() {
+                    framePacer.requestFrame();
+                }
+            });
+        }
+    }
+
+    private void addOnRenderScaleChangeListener() {
+        if (renderer != null) {
+            renderer.setOnRenderScaleChangeListener(new VideoRenderer.OnRenderScaleChangeListener() {
+                @Override
+                public void renderScaleChanged(final RenderScaleController controller, final float scale) {
+                    post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (controller == renderScaleController) {
+                                setRenderScale(scale);
+                            }
+                        }
+                    });
+                }
+            });
+        }
+    }
+
     private void prepareAndStartMediaPlayer() {
         prepareAsync(new MediaPlayer.OnPreparedListener() {
             @Override
@@ -124,6 +241,15 @@ public class AlphaMovieView extends GLTextureView {
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         int videoWidth = mVideoWidth;
         int videoHeight = mVideoHeight;
+
+        // Packed videos are measured by their colour image, the matte is not displayed.
+        Shader shader = renderer != null ? renderer.getShader() : null;
+        if (shader instanceof PackedAlphaShader) {
+            PackedAlphaShader packedAlphaShader = (PackedAlphaShader) shader;
+            videoWidth = packedAlphaShader.getColorWidth(videoWidth);
+            videoHeight = packedAlphaShader.getColorHeight(videoHeight);
+        }
+
         if (videoWidth == 0 || videoHeight == 0) {
             super.onMeasure(widthMeasureSpec, heightMeasureSpec);
             return;
@@ -161,9 +287,12 @@ public class AlphaMovieView extends GLTextureView {
         setMeasuredDimension(targetWidth, targetHeight);
     }
 
-    private void onDataSourceSet(MediaMetadataRetriever retriever) {
-        mVideoWidth = Integer.parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH));
-        mVideoHeight = Integer.parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT));
+    private void onDataSourceSet(VideoMetadata metadata) {
+        // MediaPlayer.reset() clears looping.
+        mediaPlayer.setLooping(isPlayerLooping());
+        mVideoWidth = metadata.getDisplayWidth();
+        mVideoHeight = metadata.getDisplayHeight();
+        setContentFrameRate(metadata.getFrameRate());
 
         requestLayout();
         invalidate();
@@ -177,97 +306,295 @@ public class AlphaMovieView extends GLTextureView {
 
     public void setShader(Shader shader) {
         renderer.setShader(shader);
+        requestLayout();
+    }
+
+    /**
+     * Display a video that stores its alpha channel as a matte next to the colour image.
+     * Shorthand for {@link #setShader(Shader)} with a {@link PackedAlphaShader}.
+     *
+     * @param layout {@link PackedAlphaShader#LAYOUT_HORIZONTAL} or {@link PackedAlphaShader#LAYOUT_VERTICAL}
+     * @param matteScale the size of the matte relative to the colour image, in (0, 1]
+     */
+    public void setPackedAlphaLayout(int layout, float matteScale) {
+        setShader(new PackedAlphaShader(layout, matteScale));
     }
 
     public void setVideoFromAssets(String assetsFileName) {
-        reset();
+        setVideo(VideoSource.fromAssets(getContext(), assetsFileName));
+    }
 
-        try {
-            AssetFileDescriptor assetFileDescriptor = getContext().getAssets().openFd(assetsFileName);
-            mediaPlayer.setDataSource(assetFileDescriptor.getFileDescriptor(), assetFileDescriptor.getStartOffset(), assetFileDescriptor.getLength());
+    public void setVideoByUrl(String url) {
+        setVideo(VideoSource.fromUrl(url, httpRangeCache));
+    }
 
-            MediaMetadataRetriever retriever = new MediaMetadataRetriever();
-            retriever.setDataSource(assetFileDescriptor.getFileDescriptor(), assetFileDescriptor.getStartOffset(), assetFileDescriptor.getLength());
+    /**
+     * Memory-maps the file on API 23 and above, see {@link MappedFileDataSource}.
+     */
+    public void setVideoFromFile(File file) {
+        setVideo(VideoSource.fromFile(file));
+    }
 
-            onDataSourceSet(retriever);
+    public void setVideoFromFile(FileDescriptor fileDescriptor) {
+        setVideo(VideoSource.fromFile(fileDescriptor));
+    }
 
-        } catch (IOException e) {
-            Log.e(TAG, e.getMessage(), e);
-        }
+    public void setVideoFromFile(FileDescriptor fileDescriptor, int startOffset, int endOffset) {
+        setVideo(VideoSource.fromFile(fileDescriptor, startOffset, endOffset));
     }
 
-    public void setVideoByUrl(String url) {
-        reset();
+    /**
+     * The player closes {@code mediaDataSource} when it moves on to another video or is
+     * released. Reading the metadata leaves it open.
+     */
+    @TargetApi(23)
+    public void setVideoFromMediaDataSource(MediaDataSource mediaDataSource) {
+        setVideo(VideoSource.fromMediaDataSource(mediaDataSource));
+    }
 
-        try {
-            mediaPlayer.setDataSource(url);
+    /**
+     * Play a clip of a {@link ClipBundle}, with its metadata taken from the bundle's index.
+     */
+    public void setVideoFromBundle(ClipBundle bundle, String name) {
+        setVideo(VideoSource.fromBundle(bundle, name));
+    }
 
-            MediaMetadataRetriever retriever = new MediaMetadataRetriever();
-            retriever.setDataSource(url, new HashMap<String, String>());
+    public void setVideoFromUri(Context context, Uri uri) {
+        setVideo(VideoSource.fromUri(context, uri));
+    }
 
-            onDataSourceSet(retriever);
+    /**
+     * Set the video on the calling thread. Reading the metadata may block, on the network for
+     * remote sources; prefer {@link #setVideoAsync(VideoSource)} on the main thread.
+     */
+    public void setVideo(VideoSource source) {
+        clearPlaylist();
+        cancelPendingLoad();
+        reset();
 
+        try {
+            source.open();
+            source.applyTo(mediaPlayer);
+            onDataSourceSet(source.loadMetadata(videoMetadataCache));
         } catch (IOException e) {
             Log.e(TAG, e.getMessage(), e);
+        } finally {
+            source.close();
         }
     }
 
-    public void setVideoFromFile(FileDescriptor fileDescriptor) {
-        reset();
+    public VideoLoad setVideoAsync(VideoSource source) {
+        return setVideoAsync(source, null);
+    }
 
-        try {
-            mediaPlayer.setDataSource(fileDescriptor);
+    /**
+     * Open {@code source} and read its metadata on a background thread, then set it on the
+     * player on the main thread. The current video stops right away. A later call to any
+     * {@code setVideo} method cancels this one. Must be called on the main thread.
+     *
+     * @param listener notified on the main thread, may be null
+     */
+    public VideoLoad setVideoAsync(VideoSource source, OnVideoLoadListener listener) {
+        clearPlaylist();
+        return loadVideoAsync(source, listener);
+    }
 
-            MediaMetadataRetriever retriever = new MediaMetadataRetriever();
-            retriever.setDataSource(fileDescriptor);
+    private VideoLoad loadVideoAsync(VideoSource source, final OnVideoLoadListener listener) {
+        cancelPendingLoad();
+        reset();
+        isDataSourceSet = false;
 
-            onDataSourceSet(retriever);
+        pendingLoad = VideoLoad.start(source, videoMetadataCache, new VideoLoad.Callback() {
+            @Override
+            public void onLoaded(VideoLoad load, VideoMetadata metadata) {
+                pendingLoad = null;
+                try {
+                    load.getSource().applyTo(mediaPlayer);
+                } catch (IOException e) {
+                    onFailed(load, e);
+                    return;
+                }
+                onDataSourceSet(metadata);
+                if (listener != null) {
+                    listener.onVideoLoaded(metadata);
+                }
+            }
 
-        } catch (IOException e) {
-            Log.e(TAG, e.getMessage(), e);
+            @Override
+            public void onFailed(VideoLoad load, IOException error) {
+                pendingLoad = null;
+                Log.e(TAG, error.getMessage(), error);
+                if (listener != null) {
+                    listener.onVideoLoadFailed(error);
+                }
+            }
+        });
+        return pendingLoad;
+    }
+
+    /**
+     * Play the items of {@code playlist} one after the other. The next item is prepared on a
+     * second player while the current one plays, and the view switches to it as soon as the
+     * current clip completes. At most one item is prepared ahead. A later call to any
+     * {@code setVideo} method ends the playlist. Must be called on the main thread.
+     */
+    public void setPlaylist(VideoPlaylist playlist) {
+        if (playlist.size() == 0) {
+            throw new IllegalArgumentException("playlist is empty");
         }
+        clearPlaylist();
+        playlist.setOwner(this);
+        this.playlist = playlist;
+        playlistIndex = 0;
+        loadVideoAsync(playlist.get(0), null);
     }
 
-    public void setVideoFromFile(FileDescriptor fileDescriptor, int startOffset, int endOffset) {
-        reset();
+    public VideoPlaylist getPlaylist() {
+        return playlist;
+    }
 
-        try {
-            mediaPlayer.setDataSource(fileDescriptor, startOffset, endOffset);
+    /**
+     * @return the index of the playing playlist item, or -1 without a playlist.
+     */
+    public int getPlaylistIndex() {
+        return playlistIndex;
+    }
 
-            MediaMetadataRetriever retriever = new MediaMetadataRetriever();
-            retriever.setDataSource(fileDescriptor, startOffset, endOffset);
+    public void setOnPlaylistItemChangedListener(OnPlaylistItemChangedListener listener) {
+        this.onPlaylistItemChangedListener = listener;
+    }
 
-            onDataSourceSet(retriever);
+    void clearPlaylist() {
+        if (playlist == null) {
+            return;
+        }
+        if (playlist.getOwner() == this) {
+            playlist.setOwner(null);
+        }
+        playlist = null;
+        playlistIndex = -1;
+        releasePreloadedPlayer();
+        if (mediaPlayer != null && state != PlayerState.RELEASE) {
+            mediaPlayer.setLooping(looping);
+        }
+    }
 
-        } catch (IOException e) {
-            Log.e(TAG, e.getMessage(), e);
+    /**
+     * Called by {@link VideoPlaylist} when items are added or looping changes.
+     */
+    void onPlaylistChanged() {
+        if (playlist == null || state == PlayerState.RELEASE) {
+            return;
+        }
+        mediaPlayer.setLooping(isPlayerLooping());
+        if (preloadedPlayer == null && (state == PlayerState.STARTED || switchWhenPreloaded)) {
+            preloadNextItem();
         }
     }
 
-    @TargetApi(23)
-    public void setVideoFromMediaDataSource(MediaDataSource mediaDataSource) {
-        reset();
+    private void preloadNextItem() {
+        preloadItemAfter(playlistIndex);
+    }
 
-        mediaPlayer.setDataSource(mediaDataSource);
+    private void preloadItemAfter(int index) {
+        if (playlist == null || preloadedPlayer != null || isPlayerLooping()) {
+            return;
+        }
+        int next = playlist.nextIndex(index);
+        if (next < 0) {
+            return;
+        }
+        preloadedPlayer = new PreloadedPlayer(next, playlist.get(next), videoMetadataCache,
+            new PreloadedPlayer.Listener() {
+                @Override
+                public void onPreloadPrepared(PreloadedPlayer preloaded) {
+                    consecutivePreloadFailures = 0;
+                    if (switchWhenPreloaded) {
+                        switchToPreloadedPlayer();
+                    }
+                }
 
-        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
-        retriever.setDataSource(mediaDataSource);
+                @Override
+                public void onPreloadFailed(PreloadedPlayer preloaded, Exception error) {
+                    Log.e(TAG, "Could not preload playlist item " + preloaded.getIndex(), error);
+                    releasePreloadedPlayer();
+                    // Skip the broken item, unless every item failed in a row.
+                    if (++consecutivePreloadFailures < playlist.size()) {
+                        preloadItemAfter(preloaded.getIndex());
+                    } else if (switchWhenPreloaded) {
+                        switchWhenPreloaded = false;
+                        state = PlayerState.PAUSED;
+                        if (onVideoEndedListener != null) {
+                            onVideoEndedListener.onVideoEnded();
+                        }
+                    }
+                }
+            });
+    }
 
-        onDataSourceSet(retriever);
+    /**
+     * @return false if the playlist has ended.
+     */
+    private boolean advancePlaylist() {
+        if (preloadedPlayer == null) {
+            preloadNextItem();
+        }
+        if (preloadedPlayer == null) {
+            return false;
+        }
+        if (preloadedPlayer.isPrepared()) {
+            switchToPreloadedPlayer();
+        } else {
+            switchWhenPreloaded = true;
+        }
+        return true;
     }
 
-    public void setVideoFromUri(Context context, Uri uri) {
-        reset();
+    private void switchToPreloadedPlayer() {
+        PreloadedPlayer preloaded = preloadedPlayer;
+        preloadedPlayer = null;
+        switchWhenPreloaded = false;
+
+        MediaPlayer previous = mediaPlayer;
+        // Only one producer can be connected to the SurfaceTexture, so disconnect the finished
+        // player first. The texture keeps showing its last frame until the next one arrives.
+        previous.setSurface(null);
+        mediaPlayer = preloaded.takePlayer();
+        configureMediaPlayer(mediaPlayer);
+        if (videoSurface != null) {
+            mediaPlayer.setSurface(videoSurface);
+        }
+        previous.release();
+
+        playlistIndex = preloaded.getIndex();
+        VideoMetadata metadata = preloaded.getMetadata();
+        setContentFrameRate(metadata.getFrameRate());
+        if (metadata.getDisplayWidth() != mVideoWidth || metadata.getDisplayHeight() != mVideoHeight) {
+            mVideoWidth = metadata.getDisplayWidth();
+            mVideoHeight = metadata.getDisplayHeight();
+            requestLayout();
+        }
+        isDataSourceSet = true;
+        state = PlayerState.PREPARED;
+        start();
 
-        try {
-            mediaPlayer.setDataSource(context, uri);
+        if (onPlaylistItemChangedListener != null) {
+            onPlaylistItemChangedListener.onPlaylistItemChanged(playlistIndex);
+        }
+    }
 
-            MediaMetadataRetriever retriever = new MediaMetadataRetriever();
-            retriever.setDataSource(context, uri);
+    private void releasePreloadedPlayer() {
+        switchWhenPreloaded = false;
+        if (preloadedPlayer != null) {
+            preloadedPlayer.release();
+            preloadedPlayer = null;
+        }
+    }
 
-            onDataSourceSet(retriever);
-        } catch (IOException e) {
-            Log.e(TAG, e.getMessage(), e);
+    private void cancelPendingLoad() {
+        if (pendingLoad != null) {
+            pendingLoad.cancel();
+            pendingLoad = null;
         }
     }
 
@@ -282,6 +609,14 @@ public class AlphaMovieView extends GLTextureView {
         pause();
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (framePacer != null) {
+            framePacer.updateVsyncPeriod(this);
+        }
+    }
+
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
@@ -311,6 +646,7 @@ public class AlphaMovieView extends GLTextureView {
                     if (onVideoStartedListener != null) {
                         onVideoStartedListener.onVideoStarted();
                     }
+                    preloadNextItem();
                     break;
                 case PAUSED:
                     mediaPlayer.start();
@@ -325,6 +661,7 @@ public class AlphaMovieView extends GLTextureView {
                             if (onVideoStartedListener != null) {
                                 onVideoStartedListener.onVideoStarted();
                             }
+                            preloadNextItem();
                         }
                     });
                     break;
@@ -359,10 +696,16 @@ public class AlphaMovieView extends GLTextureView {
     }
 
     public void release() {
+        cancelPendingLoad();
+        clearPlaylist();
         if (mediaPlayer != null) {
             mediaPlayer.release();
             state = PlayerState.RELEASE;
         }
+        if (videoSurface != null) {
+            videoSurface.release();
+            videoSurface = null;
+        }
     }
 
     public PlayerState getState() {
@@ -389,8 +732,13 @@ public class AlphaMovieView extends GLTextureView {
         mediaPlayer.seekTo(msec);
     }
 
+    /**
+     * Loop the current video. Ignored while a playlist plays; use
+     * {@link VideoPlaylist#setLooping(boolean)} instead.
+     */
     public void setLooping(boolean looping) {
-        mediaPlayer.setLooping(looping);
+        this.looping = looping;
+        mediaPlayer.setLooping(isPlayerLooping());
     }
 
     public int getCurrentPosition() {
@@ -398,10 +746,12 @@ public class AlphaMovieView extends GLTextureView {
     }
 
     public void setScreenOnWhilePlaying(boolean screenOn) {
+        screenOnWhilePlaying = screenOn;
         mediaPlayer.setScreenOnWhilePlaying(screenOn);
     }
 
     public void setOnErrorListener(MediaPlayer.OnErrorListener onErrorListener) {
+        this.onErrorListener = onErrorListener;
         mediaPlayer.setOnErrorListener(onErrorListener);
     }
 
@@ -413,10 +763,231 @@ public class AlphaMovieView extends GLTextureView {
         this.onVideoEndedListener = onVideoEndedListener;
     }
 
+    /**
+     * Receive the pipeline timings of every presented frame, in batches on the main thread.
+     * Timings are only collected while a listener is set.
+     *
+     * @param onFrameTimingListener the listener, or null to stop collecting
+     */
+    public void setOnFrameTimingListener(OnFrameTimingListener onFrameTimingListener) {
+        if (frameTimingDispatcher != null) {
+            frameTimingDispatcher.cancel();
+        }
+        frameTimingDispatcher = onFrameTimingListener != null
+            ? new FrameTimingDispatcher(onFrameTimingListener)
+            : null;
+        renderer.setFrameTimingDispatcher(frameTimingDispatcher);
+    }
+
     public void setOnSeekCompleteListener(MediaPlayer.OnSeekCompleteListener onSeekCompleteListener) {
+        this.onSeekCompleteListener = onSeekCompleteListener;
         mediaPlayer.setOnSeekCompleteListener(onSeekCompleteListener);
     }
 
+    /**
+     * Set the cache used to skip shader compilation on context creation. By default the view
+     * uses {@link ProgramBinaryCache#getDefault(Context)}. Pass null to always compile from source.
+     * Takes effect the next time a program is created.
+     *
+     * @param programBinaryCache the cache to use, or null
+     */
+    public void setProgramBinaryCache(ProgramBinaryCache programBinaryCache) {
+        renderer.setProgramBinaryCache(programBinaryCache);
+    }
+
+    /**
+     * Cache video metadata so loading the same clip again does not parse its container.
+     * Defaults to {@link VideoMetadataCache#getDefault(Context)}.
+     *
+     * @param videoMetadataCache the cache to use, or null to read the metadata on every load
+     */
+    public void setVideoMetadataCache(VideoMetadataCache videoMetadataCache) {
+        this.videoMetadataCache = videoMetadataCache;
+    }
+
+    public VideoMetadataCache getVideoMetadataCache() {
+        return videoMetadataCache;
+    }
+
+    /**
+     * Serve {@link #setVideoByUrl(String)} through a disk cache, so replaying a clip does not
+     * download it again and the player and the metadata retriever share one download. Only used
+     * on API 23 and above.
+     *
+     * @param httpRangeCache the cache to use, or null to stream every time
+     */
+    public void setHttpRangeCache(HttpRangeCache httpRangeCache) {
+        this.httpRangeCache = httpRangeCache;
+    }
+
+    public HttpRangeCache getHttpRangeCache() {
+        return httpRangeCache;
+    }
+
+    public ProgramBinaryCache getProgramBinaryCache() {
+        return renderer.getProgramBinaryCache();
+    }
+
+    /**
+     * Choose between waiting for the GPU after every frame and pipelining frame submission.
+     * May be called from any thread; takes effect on the next frame.
+     *
+     * @param mode one of the FRAME_SUBMISSION_X constants
+     * @see #FRAME_SUBMISSION_LATENCY_FIRST
+     * @see #FRAME_SUBMISSION_THROUGHPUT_FIRST
+     */
+    public void setFrameSubmissionMode(int mode) {
+        renderer.setFrameSubmissionMode(mode);
+    }
+
+    public int getFrameSubmissionMode() {
+        return renderer.getFrameSubmissionMode();
+    }
+
+    /**
+     * Set how many frames may be queued on the GPU in {@link #FRAME_SUBMISSION_THROUGHPUT_FIRST}
+     * mode before the render thread blocks. Defaults to 2.
+     *
+     * @param maxFramesInFlight a value between 1 and {@link #MAX_FRAMES_IN_FLIGHT_LIMIT}
+     */
+    public void setMaxFramesInFlight(int maxFramesInFlight) {
+        renderer.setMaxFramesInFlight(maxFramesInFlight);
+    }
+
+    public int getMaxFramesInFlight() {
+        return renderer.getMaxFramesInFlight();
+    }
+
+    /**
+     * Draw on display vsync through {@link android.view.Choreographer}, at most once per vsync and
+     * no faster than {@link #setTargetFrameRate(float)}, instead of on every render request.
+     * Requests between two draws are coalesced into one, and on API 18 and above each frame is
+     * stamped with the vsync it is meant for. Enabled by default; has no effect before API 16.
+     * Must be called on the main thread.
+     */
+    public void setFramePacingEnabled(boolean enabled) {
+        framePacer.setEnabled(enabled);
+    }
+
+    public boolean isFramePacingEnabled() {
+        return framePacer.isEnabled();
+    }
+
+    /**
+     * Cap the rate of paced draws, including redraws for shader changes. Defaults to
+     * {@link #FRAME_RATE_CONTENT}, the frame rate of the current video, so a 24 fps clip is
+     * drawn 24 times per second on a 120 Hz display. Videos whose frame rate is unknown are drawn
+     * on every vsync that has a new frame. Rates at or above the display refresh rate draw on
+     * every vsync. Must be called on the main thread.
+     *
+     * @param frameRate the maximum draws per second, or {@link #FRAME_RATE_CONTENT}
+     */
+    public void setTargetFrameRate(float frameRate) {
+        if (frameRate < 0 || Float.isNaN(frameRate)) {
+            throw new IllegalArgumentException("frameRate");
+        }
+        targetFrameRate = frameRate;
+        updateFrameRateCap();
+    }
+
+    public float getTargetFrameRate() {
+        return targetFrameRate;
+    }
+
+    /**
+     * Adapt the {@link #setRenderScale(float) render scale} to the measured frame time, see
+     * {@link RenderScaleController#onFrame(long)}. When frames take longer than the controller's
+     * target the video is drawn into a smaller buffer and scaled up by the compositor, which
+     * relieves fill-rate bound devices; when there is room again the scale grows back. The scale
+     * starts at the controller's maximum. Must be called on the main thread.
+     *
+     * @param controller the controller to use, or null to stop adapting and keep the current scale
+     */
+    public void setRenderScaleController(RenderScaleController controller) {
+        renderScaleController = controller;
+        renderer.setRenderScaleController(controller);
+        if (controller != null) {
+            setRenderScale(controller.getScale());
+        }
+    }
+
+    public RenderScaleController getRenderScaleController() {
+        return renderScaleController;
+    }
+
+    private void setContentFrameRate(float frameRate) {
+        contentFrameRate = frameRate;
+        updateFrameRateCap();
+    }
+
+    private void updateFrameRateCap() {
+        framePacer.getCadence().setTargetFrameRate(
+            targetFrameRate == FRAME_RATE_CONTENT ? contentFrameRate : targetFrameRate);
+    }
+
+    /**
+     * @return the GL facade used on the render thread, which controls glGetError() checks and
+     * per-frame call counting.
+     */
+    public GLInstrumentation getGLInstrumentation() {
+        return renderer.getInstrumentation();
+    }
+
+    /**
+     * @return the manager of the GL objects shared with other views on the same render thread,
+     * or null while the view has no GL context. Useful to inspect the live programs and textures.
+     */
+    public GLResourceManager getGLResourceManager() {
+        return renderer.getResourceManager();
+    }
+
+    /**
+     * @return a snapshot of the decoded, presented, skipped and repeated frame counters since
+     * the view was created or {@link #resetFrameStats()} was last called.
+     */
+    public FrameStats getFrameStats() {
+        FrameStats stats = new FrameStats();
+        renderer.getFrameStats(stats);
+        return stats;
+    }
+
+    /**
+     * Like {@link #getFrameStats()}, but fills an existing snapshot to avoid allocating.
+     */
+    public void getFrameStats(FrameStats out) {
+        renderer.getFrameStats(out);
+    }
+
+    /**
+     * Restart the counters reported by {@link #getFrameStats()} from zero.
+     */
+    public void resetFrameStats() {
+        renderer.resetFrameStats();
+    }
+
+    /**
+     * @return the number of frames drawn by the render thread since the view was created.
+     */
+    public long getDrawnFrameCount() {
+        return renderer.getDrawnFrameCount();
+    }
+
+    /**
+     * @return the number of draws that did not present a new video frame. In the default
+     * {@link #RENDERMODE_WHEN_DIRTY} mode this only grows on shader, size or resume redraws.
+     */
+    public long getRedundantDrawCount() {
+        return renderer.getRedundantDrawCount();
+    }
+
+    /**
+     * @return the number of uniform uploads skipped because the value had not changed since the
+     * previous frame.
+     */
+    public long getSkippedUniformUploadCount() {
+        return renderer.getInstrumentation().getSkippedUniformUploadCount();
+    }
+
     public MediaPlayer getMediaPlayer() {
         return mediaPlayer;
     }
@@ -432,4 +1003,24 @@ public class AlphaMovieView extends GLTextureView {
     public interface OnVideoEndedListener {
         void onVideoEnded();
     }
+
+    public interface OnVideoLoadListener {
+        void onVideoLoaded(VideoMetadata metadata);
+
+        void onVideoLoadFailed(IOException error);
+    }
+
+    public interface OnPlaylistItemChangedListener {
+        /**
+         * Called on the main thread when playback switched to another playlist item.
+         */
+        void onPlaylistItemChanged(int index);
+    }
+
+    public interface OnFrameTimingListener {
+        /**
+         * @param timings the frames presented since the previous call. Only valid during the call.
+         */
+        void onFrameTimings(FrameTimings timings);
+    }
 }
\ No newline at end of file
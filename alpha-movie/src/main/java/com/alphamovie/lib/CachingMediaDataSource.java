@@ -0,0 +1,42 @@
+package com.alphamovie.lib;
+
+import android.annotation.TargetApi;
+import android.media.MediaDataSource;
+
+import java.io.IOException;
+
+/**
+ * A {@link MediaDataSource} that reads a URL through an {@link HttpRangeCache}. Closed by the
+ * player or retriever it is given to.
+ */
+@TargetApi(23)
+public final class CachingMediaDataSource extends MediaDataSource {
+    private final HttpRangeCache.Source source;
+
+    public CachingMediaDataSource(HttpRangeCache cache, String url) throws IOException {
+        this.source = cache.open(url);
+    }
+
+    @Override
+    public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        if (size == 0) {
+            return 0;
+        }
+        return source.read(position, buffer, offset, size);
+    }
+
+    @Override
+    public long getSize() throws IOException {
+        return source.length();
+    }
+
+    @Override
+    public void close() {
+        source.close();
+    }
+
+    @Override
+    public String toString() {
+        return "cached:" + source.getUrl();
+    }
+}
@@ -0,0 +1,237 @@
+package com.alphamovie.lib;
+
+/**
+ * Bakes the keying of {@link AdvancedChromaKeyShader} into a 3D lookup table from RGB to alpha.
+ * <p>
+ * The table has {@link #getSize()} entries per channel and is laid out as a 2D atlas of
+ * {@code size * size} by {@code size} single byte texels: blue selects a slice of
+ * {@code size} columns, red the column within that slice and green the row. Texel
+ * {@code (r, g, b)} holds the blend factor for the colour {@code (r, g, b) / (size - 1)}.
+ * <p>
+ * {@link LutChromaKeyShader} samples the table with the nearest blue slice and bilinear filtering
+ * within the slice; {@link #lookup} does the same on the CPU so the quantization error can be
+ * measured against the analytic keying with {@link #measureError}. This class is not thread
+ * safe.
+ */
+public final class ChromaKeyLut {
+    public final static int DEFAULT_SIZE = 32;
+    public final static int MIN_SIZE = 2;
+
+    /**
+     * The largest size whose atlas width, {@code size * size}, stays within the 4096 texel texture
+     * size that practically all OpenGL ES 2.0 devices support.
+     */
+    public final static int MAX_SIZE = 64;
+
+    private final int size;
+    private final byte[] data;
+
+    private boolean valid;
+    private int keyColor;
+    private float sensitivity;
+    private float smoothing;
+    private int generation;
+
+    public ChromaKeyLut() {
+        this(DEFAULT_SIZE);
+    }
+
+    public ChromaKeyLut(int size) {
+        if (size < MIN_SIZE || size > MAX_SIZE) {
+            throw new IllegalArgumentException("size");
+        }
+        this.size = size;
+        this.data = new byte[size * size * size];
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getAtlasWidth() {
+        return size * size;
+    }
+
+    public int getAtlasHeight() {
+        return size;
+    }
+
+    /**
+     * @return the atlas texels, row by row. Valid after the first call to {@link #update}.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return a number that changes every time the table is regenerated.
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Regenerate the table if any of the parameters changed since the last call.
+     *
+     * @return true if the table was regenerated.
+     */
+    public boolean update(int keyColor, float sensitivity, float smoothing) {
+        keyColor |= 0xff000000;
+        if (valid && this.keyColor == keyColor && this.sensitivity == sensitivity && this.smoothing == smoothing) {
+            return false;
+        }
+        this.keyColor = keyColor;
+        this.sensitivity = sensitivity;
+        this.smoothing = smoothing;
+        generate();
+        valid = true;
+        generation++;
+        return true;
+    }
+
+    private void generate() {
+        float[] keyYCrCb = new float[3];
+        ChromaKeyMath.toYCrCb(keyColor, keyYCrCb);
+        float keyCr = keyYCrCb[1];
+        float keyCb = keyYCrCb[2];
+        float step = 1f / (size - 1);
+        int rowStride = size * size;
+        for (int b = 0; b < size; b++) {
+            for (int g = 0; g < size; g++) {
+                int row = g * rowStride + b * size;
+                for (int r = 0; r < size; r++) {
+                    float alpha = ChromaKeyMath.advancedAlpha(r * step, g * step, b * step,
+                        keyCr, keyCb, sensitivity, smoothing);
+                    data[row + r] = (byte) (int) (alpha * 255f + 0.5f);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sample the table the way {@link LutChromaKeyShader} does.
+     *
+     * @param r red in [0, 1]
+     * @param g green in [0, 1]
+     * @param b blue in [0, 1]
+     * @return the blend factor in [0, 1]
+     */
+    public float lookup(float r, float g, float b) {
+        int last = size - 1;
+        int slice = (int) (b * last + 0.5f);
+        float x = r * last;
+        float y = g * last;
+        int x0 = Math.min((int) x, last - 1);
+        int y0 = Math.min((int) y, last - 1);
+        float fx = x - x0;
+        float fy = y - y0;
+
+        int rowStride = size * size;
+        int i00 = y0 * rowStride + slice * size + x0;
+        int i10 = i00 + 1;
+        int i01 = i00 + rowStride;
+        int i11 = i01 + 1;
+        float top = (data[i00] & 0xff) * (1f - fx) + (data[i10] & 0xff) * fx;
+        float bottom = (data[i01] & 0xff) * (1f - fx) + (data[i11] & 0xff) * fx;
+        return (top * (1f - fy) + bottom * fy) / 255f;
+    }
+
+    /**
+     * Compare {@link #lookup} against {@link ChromaKeyMath#advancedAlpha} on a regular grid of
+     * 8-bit colours. The benchmark module's {@code ChromaKeyLutError} measures the shaders
+     * themselves.
+     *
+     * @param step the distance between sampled values of each channel, in [1, 255]. 1 samples
+     * every 8-bit colour.
+     */
+    public QuantizationError measureError(int step) {
+        if (step < 1 || step > 255) {
+            throw new IllegalArgumentException("step");
+        }
+        float[] keyYCrCb = new float[3];
+        ChromaKeyMath.toYCrCb(keyColor, keyYCrCb);
+
+        double sum = 0;
+        float max = 0;
+        int maxColor = 0;
+        long samples = 0;
+        long visible = 0;
+        for (int r = 0; r < 256; r += step) {
+            for (int g = 0; g < 256; g += step) {
+                for (int b = 0; b < 256; b += step) {
+                    float rf = r / 255f;
+                    float gf = g / 255f;
+                    float bf = b / 255f;
+                    float expected = ChromaKeyMath.advancedAlpha(rf, gf, bf,
+                        keyYCrCb[1], keyYCrCb[2], sensitivity, smoothing);
+                    float error = Math.abs(lookup(rf, gf, bf) - expected);
+                    sum += error;
+                    samples++;
+                    if (error > max) {
+                        max = error;
+                        maxColor = 0xff000000 | (r << 16) | (g << 8) | b;
+                    }
+                    // More than one step of an 8-bit alpha channel.
+                    if (error * 255f > 1f) {
+                        visible++;
+                    }
+                }
+            }
+        }
+        return new QuantizationError(max, maxColor, (float) (sum / samples), (float) visible / samples, samples);
+    }
+
+    /**
+     * The result of {@link #measureError}.
+     */
+    public static final class QuantizationError {
+        private final float maxError;
+        private final int maxErrorColor;
+        private final float meanError;
+        private final float visibleFraction;
+        private final long sampleCount;
+
+        QuantizationError(float maxError, int maxErrorColor, float meanError, float visibleFraction, long sampleCount) {
+            this.maxError = maxError;
+            this.maxErrorColor = maxErrorColor;
+            this.meanError = meanError;
+            this.visibleFraction = visibleFraction;
+            this.sampleCount = sampleCount;
+        }
+
+        /**
+         * @return the largest absolute difference in alpha, in [0, 1].
+         */
+        public float getMaxError() {
+            return maxError;
+        }
+
+        /**
+         * @return the colour with the largest error, as 0xAARRGGBB.
+         */
+        public int getMaxErrorColor() {
+            return maxErrorColor;
+        }
+
+        public float getMeanError() {
+            return meanError;
+        }
+
+        /**
+         * @return the fraction of samples whose error exceeds one step of an 8-bit alpha channel.
+         */
+        public float getVisibleFraction() {
+            return visibleFraction;
+        }
+
+        public long getSampleCount() {
+            return sampleCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("max %.4f at #%06x, mean %.5f, %.2f%% above 1/255 (%d samples)",
+                maxError, maxErrorColor & 0xffffff, meanError, visibleFraction * 100f, sampleCount);
+        }
+    }
+}
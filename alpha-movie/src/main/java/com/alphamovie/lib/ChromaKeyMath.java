@@ -0,0 +1,74 @@
+package com.alphamovie.lib;
+
+/**
+ * The colour maths of the keying shaders for one pixel, in plain Java: the YCrCb conversion of
+ * {@link AdvancedChromaKeyShader} and the blend factors of the advanced and basic shaders.
+ * <p>
+ * Used by the shaders for their key colour, by {@link ChromaKeyLut} and by
+ * {@link CpuChromaKeyer}.
+ */
+public final class ChromaKeyMath {
+    static final float Y_R = 0.2989f;
+    static final float Y_G = 0.5866f;
+    static final float Y_B = 0.1145f;
+    static final float CR_SCALE = 0.7132f;
+    static final float CB_SCALE = 0.5647f;
+    static final float INV_255 = 1f / 255f;
+
+    private ChromaKeyMath() {
+    }
+
+    /**
+     * Convert an RGB colour to the YCrCb values used by the keying shaders.
+     *
+     * @param color the colour as 0xAARRGGBB. Alpha is ignored.
+     * @param out receives Y, Cr and Cb at indices 0 to 2
+     */
+    public static void toYCrCb(int color, float[] out) {
+        float r = ((color >> 16) & 0xff) * INV_255;
+        float g = ((color >> 8) & 0xff) * INV_255;
+        float b = (color & 0xff) * INV_255;
+        float y = Y_R * r + Y_G * g + Y_B * b;
+        out[0] = y;
+        out[1] = CR_SCALE * (r - y);
+        out[2] = CB_SCALE * (b - y);
+    }
+
+    /**
+     * The blend factor computed by {@link AdvancedChromaKeyShader} for one pixel.
+     *
+     * @return 0 for fully keyed out, 1 for fully kept.
+     */
+    public static float advancedAlpha(float r, float g, float b, float keyCr, float keyCb,
+                                      float sensitivity, float smoothing) {
+        float y = Y_R * r + Y_G * g + Y_B * b;
+        float dCr = CR_SCALE * (r - y) - keyCr;
+        float dCb = CB_SCALE * (b - y) - keyCb;
+        float distance = (float) Math.sqrt(dCr * dCr + dCb * dCb);
+        return smoothstep(sensitivity, sensitivity + smoothing, distance);
+    }
+
+    /**
+     * The blend factor computed by {@link BasicChromaKeyShader} for one pixel.
+     *
+     * @return 0 for keyed out, 1 for kept.
+     */
+    public static float basicAlpha(float r, float g, float b, float keyR, float keyG, float keyB,
+                                   float accuracy) {
+        boolean keyed = Math.abs(r - keyR) <= accuracy
+            && Math.abs(g - keyG) <= accuracy
+            && Math.abs(b - keyB) <= accuracy;
+        return keyed ? 0f : 1f;
+    }
+
+    private static float smoothstep(float edge0, float edge1, float x) {
+        if (x <= edge0) {
+            return 0f;
+        }
+        if (x >= edge1) {
+            return 1f;
+        }
+        float t = (x - edge0) / (edge1 - edge0);
+        return t * t * (3f - 2f * t);
+    }
+}
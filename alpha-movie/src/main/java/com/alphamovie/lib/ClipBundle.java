@@ -0,0 +1,166 @@
+package com.alphamovie.lib;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.MediaDataSource;
+import android.media.MediaMetadataRetriever;
+import android.media.MediaPlayer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Many clips in one file, written by {@link ClipBundleWriter} or the converter's
+ * {@code clip-bundle} tool.
+ * <p>
+ * The bundle is opened once: one file descriptor stays open and the index is read from a
+ * single mapping until {@link #close()}. Clips are handed to the player as regions of that
+ * descriptor, and their metadata comes from the index, so loading a clip opens no file and
+ * starts no {@link MediaMetadataRetriever}.
+ * <p>
+ * Bundles shipped as assets must be stored uncompressed, e.g. with
+ * {@code aaptOptions { noCompress 'clips' }} for bundles named {@code *.clips}.
+ */
+public final class ClipBundle implements Closeable {
+    private final FileDescriptor fileDescriptor;
+    private final long startOffset;
+    private final FileRangeReader reader;
+    private final ClipBundleIndex index;
+    private volatile boolean closed;
+
+    public static ClipBundle openAsset(Context context, String assetName) throws IOException {
+        AssetFileDescriptor assetFileDescriptor = context.getAssets().openFd(assetName);
+        try {
+            // Closing the stream closes the descriptor as well.
+            FileInputStream in = assetFileDescriptor.createInputStream();
+            return new ClipBundle(in, assetFileDescriptor.getFileDescriptor(),
+                assetFileDescriptor.getStartOffset(), assetFileDescriptor.getLength());
+        } catch (IOException e) {
+            assetFileDescriptor.close();
+            throw e;
+        }
+    }
+
+    public static ClipBundle open(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return new ClipBundle(in, in.getFD(), 0, -1);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    private ClipBundle(FileInputStream in, FileDescriptor fileDescriptor, long startOffset, long length)
+        throws IOException {
+        this.fileDescriptor = fileDescriptor;
+        this.startOffset = startOffset;
+        this.reader = new FileRangeReader(in.getChannel(), in, startOffset, length, true);
+        this.index = ClipBundleIndex.read(reader);
+    }
+
+    public ClipBundleIndex getIndex() {
+        return index;
+    }
+
+    public boolean contains(String name) {
+        return index.get(name) != null;
+    }
+
+    public VideoMetadata getMetadata(String name) {
+        ClipBundleIndex.Entry entry = getEntry(name);
+        return new VideoMetadata(entry.getWidth(), entry.getHeight(), entry.getRotation(),
+            entry.getDurationMs(), entry.getFrameRate());
+    }
+
+    /**
+     * @return a source that plays the clip from the bundle's descriptor. Valid until the bundle
+     * is closed.
+     */
+    public VideoSource getSource(String name) {
+        final ClipBundleIndex.Entry entry = getEntry(name);
+        final VideoMetadata metadata = getMetadata(name);
+        return new VideoSource() {
+            @Override
+            void applyTo(MediaPlayer mediaPlayer) throws IOException {
+                checkOpen();
+                mediaPlayer.setDataSource(fileDescriptor, startOffset + entry.getOffset(), entry.getLength());
+            }
+
+            @Override
+            void applyTo(MediaMetadataRetriever retriever) throws IOException {
+                checkOpen();
+                retriever.setDataSource(fileDescriptor, startOffset + entry.getOffset(), entry.getLength());
+            }
+
+            @Override
+            VideoMetadata loadMetadata(VideoMetadataCache cache) {
+                return metadata;
+            }
+
+            @Override
+            public String toString() {
+                return "bundle:" + entry.getName();
+            }
+        };
+    }
+
+    /**
+     * @return a data source that reads the clip from the bundle's mapping. Closing it leaves
+     * the bundle open.
+     */
+    @TargetApi(23)
+    public MediaDataSource getMediaDataSource(String name) {
+        final ClipBundleIndex.Entry entry = getEntry(name);
+        return new MediaDataSource() {
+            @Override
+            public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+                checkOpen();
+                if (position >= entry.getLength()) {
+                    return -1;
+                }
+                int count = (int) Math.min(size, entry.getLength() - position);
+                return reader.read(entry.getOffset() + position, buffer, offset, count);
+            }
+
+            @Override
+            public long getSize() {
+                return entry.getLength();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private ClipBundleIndex.Entry getEntry(String name) {
+        ClipBundleIndex.Entry entry = index.get(name);
+        if (entry == null) {
+            throw new IllegalArgumentException("No clip " + name + " in bundle");
+        }
+        return entry;
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Bundle is closed");
+        }
+    }
+
+    /**
+     * Players already playing a clip keep their own copy of the descriptor and are unaffected.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        reader.close();
+    }
+}
@@ -0,0 +1,171 @@
+package com.alphamovie.lib;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+
+/**
+ * The index at the start of a clip bundle written by {@link ClipBundleWriter}.
+ * <p>
+ * A bundle is a header, an index of entries and then the clips, stored unchanged and each
+ * starting at a multiple of {@link #ALIGNMENT}. All numbers are big-endian:
+ * <pre>
+ * int    magic 'AMCB'
+ * int    version
+ * int    entry count
+ * int    header and index length in bytes
+ * entries:
+ *   short  name length, then the name in UTF-8
+ *   long   offset of the clip from the start of the bundle
+ *   long   length of the clip
+ *   int    width, int height, int rotation
+ *   long   duration in milliseconds
+ *   float  frame rate, or 0 if unknown
+ * </pre>
+ */
+public final class ClipBundleIndex {
+    public final static int MAGIC = 0x414d4342;
+    public final static int VERSION = 1;
+    public final static int HEADER_SIZE = 16;
+    /**
+     * Clips start on page boundaries, so mapping or reading one never touches a page of another.
+     */
+    public final static int ALIGNMENT = 4096;
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Entry[] entries;
+    private final HashMap<String, Entry> entriesByName;
+
+    private ClipBundleIndex(Entry[] entries) {
+        this.entries = entries;
+        this.entriesByName = new HashMap<String, Entry>(entries.length * 2);
+        for (Entry entry : entries) {
+            entriesByName.put(entry.name, entry);
+        }
+    }
+
+    /**
+     * @param reader positioned over the bundle, so offset 0 is its first byte
+     */
+    public static ClipBundleIndex read(FileRangeReader reader) throws IOException {
+        ByteBuffer header = reader.slice(0, HEADER_SIZE);
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+            throw new IOException("Not a clip bundle");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported clip bundle version " + version);
+        }
+        int count = header.getInt();
+        int indexLength = header.getInt();
+        if (count < 0 || indexLength < HEADER_SIZE || indexLength > reader.length()) {
+            throw new IOException("Corrupt clip bundle header");
+        }
+        ByteBuffer index = reader.slice(HEADER_SIZE, indexLength - HEADER_SIZE);
+        return parse(index, count, reader.length());
+    }
+
+    private static ClipBundleIndex parse(ByteBuffer index, int count, long bundleLength) throws IOException {
+        Entry[] entries = new Entry[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[index.getShort() & 0xffff];
+                index.get(name);
+                Entry entry = new Entry(new String(name, UTF_8), index.getLong(), index.getLong(),
+                    index.getInt(), index.getInt(), index.getInt(), index.getLong(), index.getFloat());
+                if (entry.offset < 0 || entry.length < 0 || entry.offset + entry.length > bundleLength) {
+                    throw new IOException("Clip " + entry.name + " lies outside the bundle");
+                }
+                entries[i] = entry;
+            }
+        } catch (RuntimeException e) {
+            // BufferUnderflowException from a truncated index.
+            throw new IOException("Corrupt clip bundle index", e);
+        }
+        return new ClipBundleIndex(entries);
+    }
+
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * @return the entries in the order they were added to the bundle.
+     */
+    public Entry get(int index) {
+        return entries[index];
+    }
+
+    /**
+     * @return the entry, or null if there is no clip of that name.
+     */
+    public Entry get(String name) {
+        return entriesByName.get(name);
+    }
+
+    public static final class Entry {
+        private final String name;
+        private final long offset;
+        private final long length;
+        private final int width;
+        private final int height;
+        private final int rotation;
+        private final long durationMs;
+        private final float frameRate;
+
+        Entry(String name, long offset, long length, int width, int height, int rotation,
+              long durationMs, float frameRate) {
+            this.name = name;
+            this.offset = offset;
+            this.length = length;
+            this.width = width;
+            this.height = height;
+            this.rotation = rotation;
+            this.durationMs = durationMs;
+            this.frameRate = frameRate;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the offset of the clip from the start of the bundle.
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getRotation() {
+            return rotation;
+        }
+
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        public float getFrameRate() {
+            return frameRate;
+        }
+
+        @Override
+        public String toString() {
+            return name + " @" + offset + "+" + length + " " + width + "x" + height + " rotation " + rotation
+                + " " + durationMs + "ms " + frameRate + "fps";
+        }
+    }
+}
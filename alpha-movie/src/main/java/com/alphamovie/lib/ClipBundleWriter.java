@@ -0,0 +1,146 @@
+package com.alphamovie.lib;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Packs clips into a bundle for {@code ClipBundle}, see {@link ClipBundleIndex} for the format.
+ * The clips are copied unchanged; their metadata is read from their {@code moov} box or given
+ * by the caller.
+ */
+public final class ClipBundleWriter {
+    private final ArrayList<Clip> clips = new ArrayList<Clip>();
+    private final HashSet<String> names = new HashSet<String>();
+
+    /**
+     * Add an MP4 clip, reading its metadata from the file.
+     */
+    public ClipBundleWriter add(String name, File file) throws IOException {
+        Mp4Probe probe = Mp4Probe.probe(file);
+        return add(name, file, probe.width, probe.height, probe.rotation, probe.durationMs, probe.frameRate);
+    }
+
+    public ClipBundleWriter add(String name, File file, int width, int height, int rotation,
+                                long durationMs, float frameRate) {
+        if (name.getBytes(ClipBundleIndex.UTF_8).length > 0xffff) {
+            throw new IllegalArgumentException("Name too long: " + name);
+        }
+        if (!names.add(name)) {
+            throw new IllegalArgumentException("Duplicate clip name " + name);
+        }
+        clips.add(new Clip(name, file, width, height, rotation, durationMs, frameRate));
+        return this;
+    }
+
+    public int size() {
+        return clips.size();
+    }
+
+    public void write(File bundle) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(bundle));
+        try {
+            write(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    public void write(OutputStream out) throws IOException {
+        int indexLength = ClipBundleIndex.HEADER_SIZE;
+        for (Clip clip : clips) {
+            // Name length and name, offset, length, width, height, rotation, duration, frame rate.
+            indexLength += 2 + clip.name.getBytes(ClipBundleIndex.UTF_8).length + 8 + 8 + 4 * 3 + 8 + 4;
+        }
+
+        long[] offsets = new long[clips.size()];
+        long[] lengths = new long[clips.size()];
+        long position = align(indexLength);
+        for (int i = 0; i < clips.size(); i++) {
+            offsets[i] = position;
+            lengths[i] = clips.get(i).file.length();
+            position = align(position + lengths[i]);
+        }
+
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream(indexLength);
+        DataOutputStream index = new DataOutputStream(indexBytes);
+        index.writeInt(ClipBundleIndex.MAGIC);
+        index.writeInt(ClipBundleIndex.VERSION);
+        index.writeInt(clips.size());
+        index.writeInt(indexLength);
+        for (int i = 0; i < clips.size(); i++) {
+            Clip clip = clips.get(i);
+            byte[] name = clip.name.getBytes(ClipBundleIndex.UTF_8);
+            index.writeShort(name.length);
+            index.write(name);
+            index.writeLong(offsets[i]);
+            index.writeLong(lengths[i]);
+            index.writeInt(clip.width);
+            index.writeInt(clip.height);
+            index.writeInt(clip.rotation);
+            index.writeLong(clip.durationMs);
+            index.writeFloat(clip.frameRate);
+        }
+        index.flush();
+        indexBytes.writeTo(out);
+
+        byte[] buffer = new byte[64 * 1024];
+        position = indexLength;
+        for (int i = 0; i < clips.size(); i++) {
+            position = pad(out, position, offsets[i]);
+            InputStream in = new FileInputStream(clips.get(i).file);
+            try {
+                long copied = 0;
+                int read;
+                while (copied < lengths[i] && (read = in.read(buffer, 0, (int) Math.min(buffer.length, lengths[i] - copied))) > 0) {
+                    out.write(buffer, 0, read);
+                    copied += read;
+                }
+                if (copied != lengths[i]) {
+                    throw new IOException(clips.get(i).file + " changed while packing");
+                }
+            } finally {
+                in.close();
+            }
+            position += lengths[i];
+        }
+    }
+
+    private static long align(long position) {
+        return (position + ClipBundleIndex.ALIGNMENT - 1) / ClipBundleIndex.ALIGNMENT * ClipBundleIndex.ALIGNMENT;
+    }
+
+    private static long pad(OutputStream out, long position, long target) throws IOException {
+        // Gaps are always shorter than the alignment.
+        out.write(new byte[ClipBundleIndex.ALIGNMENT], 0, (int) (target - position));
+        return target;
+    }
+
+    private static final class Clip {
+        final String name;
+        final File file;
+        final int width;
+        final int height;
+        final int rotation;
+        final long durationMs;
+        final float frameRate;
+
+        Clip(String name, File file, int width, int height, int rotation, long durationMs, float frameRate) {
+            this.name = name;
+            this.file = file;
+            this.width = width;
+            this.height = height;
+            this.rotation = rotation;
+            this.durationMs = durationMs;
+            this.frameRate = frameRate;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.alphamovie.lib;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A GL-free implementation of the keying done by {@link AdvancedChromaKeyShader} and
+ * {@link BasicChromaKeyShader}.
+ * <p>
+ * Keys with {@link ChromaKeyMath}, the same YCrCb coefficients, key distance and smoothstep as
+ * the advanced shader, or the per-channel threshold test of the basic shader, so it can be used
+ * as a reference for the shaders, to pre-key assets offline, or on machines without a GPU. The
+ * benchmark module's {@code checkChromaKeyShaders} task evaluates the shader sources against
+ * this class.
+ * <p>
+ * Frames are either {@code int[]} ARGB pixels or {@link ByteBuffer} RGBA bytes. Keying never
+ * allocates per pixel. When created with a {@link ForkJoinPool}, frames larger than
+ * {@link #getParallelThreshold()} pixels are split across the pool's workers.
+ * <p>
+ * On Android this class needs API 21 for {@link ForkJoinPool}; nothing else in the library
+ * loads it.
+ * <p>
+ * Instances may be shared between threads once configured; the setters are not synchronized
+ * with keying in progress.
+ */
+// Also compiled as plain Java by the converter and the benchmarks, so @TargetApi is not available.
+@SuppressWarnings("NewApi")
+public final class CpuChromaKeyer {
+    /**
+     * Soft keying on the distance in the CrCb plane, like {@link AdvancedChromaKeyShader}.
+     */
+    public final static int MODE_ADVANCED = 0;
+
+    /**
+     * Hard keying when every channel is within the accuracy of the key colour, like
+     * {@link BasicChromaKeyShader}.
+     */
+    public final static int MODE_BASIC = 1;
+
+    public final static int DEFAULT_PARALLEL_THRESHOLD = 64 * 1024;
+
+    private static final float INV_255 = ChromaKeyMath.INV_255;
+
+    private final ForkJoinPool pool;
+
+    private int mode = MODE_ADVANCED;
+    private int keyColor = 0xff00ff00;
+    private float sensitivity;
+    private float smoothing;
+    private float accuracy;
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    // Derived from the key colour.
+    private float keyR;
+    private float keyG;
+    private float keyB;
+    private float keyCr;
+    private float keyCb;
+
+    /**
+     * Create a keyer that processes frames on the calling thread.
+     */
+    public CpuChromaKeyer() {
+        this(null);
+    }
+
+    /**
+     * Create a keyer that splits large frames across {@code pool}.
+     *
+     * @param pool the pool to run on, or null to key on the calling thread
+     */
+    public CpuChromaKeyer(ForkJoinPool pool) {
+        this.pool = pool;
+        setKeyColor(keyColor);
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    /**
+     * @param mode {@link #MODE_ADVANCED} or {@link #MODE_BASIC}
+     */
+    public void setMode(int mode) {
+        if (mode != MODE_ADVANCED && mode != MODE_BASIC) {
+            throw new IllegalArgumentException("mode");
+        }
+        this.mode = mode;
+    }
+
+    public int getKeyColor() {
+        return keyColor;
+    }
+
+    /**
+     * @param keyColor the colour to key out, as 0xAARRGGBB. Alpha is ignored.
+     */
+    public void setKeyColor(int keyColor) {
+        this.keyColor = keyColor;
+        keyR = ((keyColor >> 16) & 0xff) * INV_255;
+        keyG = ((keyColor >> 8) & 0xff) * INV_255;
+        keyB = (keyColor & 0xff) * INV_255;
+        float[] keyYCrCb = new float[3];
+        ChromaKeyMath.toYCrCb(keyColor, keyYCrCb);
+        keyCr = keyYCrCb[1];
+        keyCb = keyYCrCb[2];
+    }
+
+    public float getSensitivity() {
+        return sensitivity;
+    }
+
+    public void setSensitivity(float sensitivity) {
+        this.sensitivity = Math.max(0, Math.min(1, sensitivity));
+    }
+
+    public float getSmoothing() {
+        return smoothing;
+    }
+
+    public void setSmoothing(float smoothing) {
+        this.smoothing = Math.max(0, Math.min(1, smoothing));
+    }
+
+    public float getAccuracy() {
+        return accuracy;
+    }
+
+    /**
+     * @param accuracy the per-channel tolerance used by {@link #MODE_BASIC}, in [0, 1]
+     */
+    public void setAccuracy(float accuracy) {
+        this.accuracy = Math.max(0, Math.min(1, accuracy));
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * @param parallelThreshold the number of pixels below which a frame, or a part of it, is
+     * keyed on a single thread
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        if (parallelThreshold < 1) {
+            throw new IllegalArgumentException("parallelThreshold");
+        }
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * @return the blend factor for one 0xAARRGGBB pixel with the current settings.
+     */
+    public float alpha(int argb) {
+        float r = ((argb >> 16) & 0xff) * INV_255;
+        float g = ((argb >> 8) & 0xff) * INV_255;
+        float b = (argb & 0xff) * INV_255;
+        return alpha(r, g, b);
+    }
+
+    private float alpha(float r, float g, float b) {
+        if (mode == MODE_BASIC) {
+            return ChromaKeyMath.basicAlpha(r, g, b, keyR, keyG, keyB, accuracy);
+        }
+        return ChromaKeyMath.advancedAlpha(r, g, b, keyCr, keyCb, sensitivity, smoothing);
+    }
+
+    /**
+     * Key {@code count} ARGB pixels. The alpha of every destination pixel is the source alpha
+     * multiplied by the blend factor in {@link #MODE_ADVANCED}, and the blend factor alone in
+     * {@link #MODE_BASIC}, as the shaders write it. The colour channels are copied. {@code src}
+     * and {@code dst} may be the same array.
+     */
+    public void key(int[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+        checkRange(src.length, srcOffset, count);
+        checkRange(dst.length, dstOffset, count);
+        if (pool == null || count <= parallelThreshold) {
+            keyRange(src, srcOffset, dst, dstOffset, count);
+        } else {
+            pool.invoke(new IntArrayTask(src, srcOffset, dst, dstOffset, count));
+        }
+    }
+
+    /**
+     * Key {@code count} RGBA pixels starting at the current positions of the buffers. Positions
+     * are not modified. {@code src} and {@code dst} may be the same buffer.
+     */
+    public void key(ByteBuffer src, ByteBuffer dst, int count) {
+        int srcOffset = src.position();
+        int dstOffset = dst.position();
+        checkRange(src.limit(), srcOffset, count * 4);
+        checkRange(dst.limit(), dstOffset, count * 4);
+        if (pool == null || count <= parallelThreshold) {
+            keyRange(src, srcOffset, dst, dstOffset, count);
+        } else {
+            pool.invoke(new ByteBufferTask(src, srcOffset, dst, dstOffset, count));
+        }
+    }
+
+    private void keyRange(int[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+        for (int i = 0; i < count; i++) {
+            int argb = src[srcOffset + i];
+            int keyedAlpha = keyedAlpha(argb >>> 24, alpha(argb));
+            dst[dstOffset + i] = (keyedAlpha << 24) | (argb & 0x00ffffff);
+        }
+    }
+
+    private void keyRange(ByteBuffer src, int srcOffset, ByteBuffer dst, int dstOffset, int count) {
+        for (int i = 0; i < count; i++) {
+            int s = srcOffset + i * 4;
+            int d = dstOffset + i * 4;
+            int r = src.get(s) & 0xff;
+            int g = src.get(s + 1) & 0xff;
+            int b = src.get(s + 2) & 0xff;
+            int a = src.get(s + 3) & 0xff;
+            float blend = alpha(r * INV_255, g * INV_255, b * INV_255);
+            dst.put(d, (byte) r);
+            dst.put(d + 1, (byte) g);
+            dst.put(d + 2, (byte) b);
+            dst.put(d + 3, (byte) keyedAlpha(a, blend));
+        }
+    }
+
+    /**
+     * The advanced shader scales the source alpha by the blend factor, the basic shader replaces
+     * it.
+     */
+    private int keyedAlpha(int sourceAlpha, float blend) {
+        if (mode == MODE_BASIC) {
+            return (int) (255f * blend + 0.5f);
+        }
+        return (int) (sourceAlpha * blend + 0.5f);
+    }
+
+    private static void checkRange(int length, int offset, int count) {
+        if (offset < 0 || count < 0 || offset > length - count) {
+            throw new IndexOutOfBoundsException("offset " + offset + " count " + count + " length " + length);
+        }
+    }
+
+    private final class IntArrayTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] src;
+        private final int srcOffset;
+        private final int[] dst;
+        private final int dstOffset;
+        private final int count;
+
+        IntArrayTask(int[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+            this.src = src;
+            this.srcOffset = srcOffset;
+            this.dst = dst;
+            this.dstOffset = dstOffset;
+            this.count = count;
+        }
+
+        @Override
+        protected void compute() {
+            if (count <= parallelThreshold) {
+                keyRange(src, srcOffset, dst, dstOffset, count);
+                return;
+            }
+            int half = count / 2;
+            invokeAll(
+                new IntArrayTask(src, srcOffset, dst, dstOffset, half),
+                new IntArrayTask(src, srcOffset + half, dst, dstOffset + half, count - half));
+        }
+    }
+
+    private final class ByteBufferTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer src;
+        private final int srcOffset;
+        private final ByteBuffer dst;
+        private final int dstOffset;
+        private final int count;
+
+        ByteBufferTask(ByteBuffer src, int srcOffset, ByteBuffer dst, int dstOffset, int count) {
+            this.src = src;
+            this.srcOffset = srcOffset;
+            this.dst = dst;
+            this.dstOffset = dstOffset;
+            this.count = count;
+        }
+
+        @Override
+        protected void compute() {
+            if (count <= parallelThreshold) {
+                keyRange(src, srcOffset, dst, dstOffset, count);
+                return;
+            }
+            int half = count / 2;
+            invokeAll(
+                new ByteBufferTask(src, srcOffset, dst, dstOffset, half),
+                new ByteBufferTask(src, srcOffset + half * 4, dst, dstOffset + half * 4, count - half));
+        }
+    }
+}
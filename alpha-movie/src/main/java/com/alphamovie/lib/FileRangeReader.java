@@ -0,0 +1,220 @@
+package com.alphamovie.lib;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Random access reads from a region of a file, for demuxers that issue many small reads.
+ * <p>
+ * The region is memory-mapped when possible, so a read is one copy out of the page cache and
+ * {@link #slice} returns a view without copying at all. Where mapping fails, e.g. for large
+ * files on devices with a 32-bit address space, reads go through positional
+ * {@link FileChannel} reads and a read-ahead window. The window doubles while the reads are
+ * sequential, up to {@link #MAX_READ_AHEAD}, and drops back to {@link #MIN_READ_AHEAD} after a
+ * seek, so random reads do not pull in data that is never used.
+ * <p>
+ * Reads are serialized.
+ */
+public final class FileRangeReader implements Closeable {
+    public final static int MIN_READ_AHEAD = 16 * 1024;
+    public final static int MAX_READ_AHEAD = 1024 * 1024;
+
+    private final FileChannel channel;
+    private final Closeable owner;
+    private final long offset;
+    private final long length;
+
+    private final MappedByteBuffer mapped;
+    // A duplicate of mapped whose position is moved by reads, so they do not allocate.
+    private final ByteBuffer mappedView;
+
+    // The read-ahead window, channel reads only. Holds window.limit() bytes from windowStart.
+    private ByteBuffer window;
+    private long windowStart;
+    private int readAhead = MIN_READ_AHEAD;
+    private long nextSequentialPosition = -1;
+
+    private long bytesServed;
+    private long readCount;
+    private long hitCount;
+    private boolean closed;
+
+    public static FileRangeReader open(File file, boolean map) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            return new FileRangeReader(channel, in, 0, channel.size(), map);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param owner closed along with the channel, may be null
+     * @param length the length of the region, or -1 for the rest of the file
+     * @param map try to memory-map the region
+     */
+    public FileRangeReader(FileChannel channel, Closeable owner, long offset, long length, boolean map)
+        throws IOException {
+        if (length < 0) {
+            length = Math.max(0, channel.size() - offset);
+        }
+        this.channel = channel;
+        this.owner = owner;
+        this.offset = offset;
+        this.length = length;
+
+        MappedByteBuffer mapped = null;
+        if (map && length > 0 && length <= Integer.MAX_VALUE) {
+            try {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            } catch (IOException e) {
+                // Out of address space; the channel still works.
+            }
+        }
+        this.mapped = mapped;
+        this.mappedView = mapped != null ? mapped.duplicate() : null;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public boolean isMapped() {
+        return mapped != null;
+    }
+
+    /**
+     * @return the number of bytes read, or -1 at the end of the region
+     */
+    public synchronized int read(long position, byte[] buffer, int offset, int size) throws IOException {
+        if (closed) {
+            throw new IOException("Reader is closed");
+        }
+        if (position < 0 || size < 0) {
+            throw new IllegalArgumentException();
+        }
+        if (position >= length) {
+            return -1;
+        }
+        int count = (int) Math.min(size, length - position);
+        readCount++;
+        if (mapped != null) {
+            mappedView.position((int) position);
+            mappedView.get(buffer, offset, count);
+            hitCount++;
+        } else {
+            count = readThroughWindow(position, buffer, offset, count);
+        }
+        bytesServed += count;
+        return count;
+    }
+
+    /**
+     * @return a read-only view of {@code size} bytes at {@code position}, shorter at the end of
+     * the region. Shares the mapping when the region is mapped, and is a copy otherwise.
+     */
+    public synchronized ByteBuffer slice(long position, int size) throws IOException {
+        if (closed) {
+            throw new IOException("Reader is closed");
+        }
+        int count = (int) Math.max(0, Math.min(size, length - position));
+        readCount++;
+        bytesServed += count;
+        if (mapped != null) {
+            hitCount++;
+            ByteBuffer view = mapped.duplicate();
+            view.position((int) position);
+            view.limit((int) position + count);
+            return view.slice().asReadOnlyBuffer();
+        }
+        ByteBuffer copy = ByteBuffer.allocate(count);
+        readFully(copy, position);
+        copy.flip();
+        return copy.asReadOnlyBuffer();
+    }
+
+    private int readThroughWindow(long position, byte[] buffer, int offset, int count) throws IOException {
+        if (window != null && position >= windowStart && position + count <= windowStart + window.limit()) {
+            hitCount++;
+        } else {
+            boolean sequential = position == nextSequentialPosition;
+            readAhead = sequential ? Math.min(readAhead * 2, MAX_READ_AHEAD) : MIN_READ_AHEAD;
+            if (count > readAhead) {
+                // Larger than the window would be, read straight into the caller's buffer.
+                ByteBuffer target = ByteBuffer.wrap(buffer, offset, count);
+                readFully(target, position);
+                nextSequentialPosition = position + count;
+                return count;
+            }
+            int fill = (int) Math.min(readAhead, length - position);
+            if (window == null || window.capacity() < fill) {
+                window = ByteBuffer.allocate(Math.max(fill, window != null ? window.capacity() * 2 : 0));
+            }
+            window.clear();
+            window.limit(fill);
+            readFully(window, position);
+            window.flip();
+            windowStart = position;
+        }
+        window.position((int) (position - windowStart));
+        window.get(buffer, offset, count);
+        nextSequentialPosition = position + count;
+        return count;
+    }
+
+    private void readFully(ByteBuffer target, long position) throws IOException {
+        long filePosition = offset + position;
+        while (target.hasRemaining()) {
+            int read = channel.read(target, filePosition);
+            if (read < 0) {
+                throw new IOException("File is shorter than " + (offset + length) + " bytes");
+            }
+            filePosition += read;
+        }
+    }
+
+    /**
+     * @return the number of bytes returned by reads and slices.
+     */
+    public synchronized long getBytesServed() {
+        return bytesServed;
+    }
+
+    public synchronized long getReadCount() {
+        return readCount;
+    }
+
+    /**
+     * @return the number of reads served from the mapping or the read-ahead window, without a
+     * system call.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * The mapping, if any, stays valid until it is garbage collected; slices remain readable.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        window = null;
+        try {
+            channel.close();
+        } finally {
+            if (owner != null) {
+                owner.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.alphamovie.lib;
+
+/**
+ * Decides on which display vsyncs a pending frame is drawn so that draws do not exceed a target
+ * frame rate, such as the frame rate of the video.
+ * <p>
+ * Each draw makes the next one due one target frame interval later, so the draws never average
+ * more than the target rate. A pending frame may be drawn up to one and a half vsync periods
+ * before it is due, but no earlier than one frame interval: a video decoded at the target rate is
+ * then drawn on the first vsync after each frame arrives, even if its frames arrive a little
+ * early, and 24 fps on a 60 Hz display settles into the usual 3:2 pattern. Faster content is
+ * thinned out evenly. The schedule keeps its phase while frames keep coming and restarts from
+ * the current vsync after an idle gap. With no target every vsync may draw. All methods must be
+ * called on one thread.
+ */
+public final class FrameCadence {
+    /**
+     * The vsync period assumed until {@link #setVsyncPeriodNanos(long)} is called.
+     */
+    public final static long DEFAULT_VSYNC_PERIOD_NANOS = 1000000000L / 60;
+
+    private long vsyncPeriodNanos = DEFAULT_VSYNC_PERIOD_NANOS;
+    private float targetFrameRate;
+    private long frameIntervalNanos;
+    private long nextDueNanos;
+    private boolean scheduled;
+
+    private long drawnFrames;
+    private long deferredVsyncs;
+
+    /**
+     * @param frameRate the maximum number of draws per second, or 0 for no limit beyond vsync
+     */
+    public void setTargetFrameRate(float frameRate) {
+        if (frameRate < 0 || Float.isNaN(frameRate)) {
+            throw new IllegalArgumentException("frameRate");
+        }
+        targetFrameRate = frameRate;
+        frameIntervalNanos = frameRate > 0 ? (long) (1e9 / frameRate) : 0;
+        scheduled = false;
+    }
+
+    public float getTargetFrameRate() {
+        return targetFrameRate;
+    }
+
+    public void setVsyncPeriodNanos(long vsyncPeriodNanos) {
+        if (vsyncPeriodNanos <= 0) {
+            throw new IllegalArgumentException("vsyncPeriodNanos");
+        }
+        this.vsyncPeriodNanos = vsyncPeriodNanos;
+    }
+
+    public long getVsyncPeriodNanos() {
+        return vsyncPeriodNanos;
+    }
+
+    /**
+     * Call on every vsync while a frame is pending.
+     *
+     * @param frameTimeNanos the time of the vsync, in {@link System#nanoTime()} time base
+     * @return true if the pending frame should be drawn for this vsync
+     */
+    public boolean onVsync(long frameTimeNanos) {
+        long earliest = nextDueNanos - Math.min(frameIntervalNanos, vsyncPeriodNanos * 3 / 2);
+        if (scheduled && frameTimeNanos <= earliest) {
+            deferredVsyncs++;
+            return false;
+        }
+        if (!scheduled || frameTimeNanos - nextDueNanos >= frameIntervalNanos) {
+            // First frame or after an idle gap: start a new schedule at this vsync.
+            nextDueNanos = frameTimeNanos + frameIntervalNanos;
+            scheduled = frameIntervalNanos > 0;
+        } else {
+            nextDueNanos += frameIntervalNanos;
+        }
+        drawnFrames++;
+        return true;
+    }
+
+    /**
+     * @return the time at which a frame drawn for the vsync at {@code frameTimeNanos} is
+     * expected on screen: the vsync after it.
+     */
+    public long getPresentationTimeNanos(long frameTimeNanos) {
+        return frameTimeNanos + vsyncPeriodNanos;
+    }
+
+    /**
+     * @return the number of vsyncs {@link #onVsync(long)} has drawn on.
+     */
+    public long getDrawnFrames() {
+        return drawnFrames;
+    }
+
+    /**
+     * @return the number of vsyncs a pending frame was held back on to keep the target rate.
+     */
+    public long getDeferredVsyncs() {
+        return deferredVsyncs;
+    }
+}
@@ -0,0 +1,137 @@
+package com.alphamovie.lib;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.View;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Turns render requests from any thread into at most one draw per display vsync, spaced by a
+ * {@link FrameCadence}. Requests that arrive between two vsyncs are drawn once, on the next vsync
+ * the cadence allows. Vsync callbacks are only requested while a draw is pending.
+ * <p>
+ * Before API 16 there is no {@link Choreographer} and requests are passed on right away.
+ */
+final class FramePacer {
+    interface OnFrameListener {
+        /**
+         * Called on the main thread when the pending frame should be drawn.
+         *
+         * @param presentationTimeNanos when the frame is expected on screen
+         */
+        void onFrame(long presentationTimeNanos);
+    }
+
+    private final OnFrameListener listener;
+    private final FrameCadence cadence = new FrameCadence();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean pending;
+    private volatile boolean enabled = true;
+
+    // Only touched on the main thread.
+    private Object frameCallback;
+
+    private final Runnable postFrameCallback = new Runnable() {
+        @Override
+        public void run() {
+            postFrameCallback();
+        }
+    };
+
+    FramePacer(OnFrameListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Must be called on the main thread.
+     */
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled && pending) {
+            // Hand over the frame the disabled pacer would have drawn.
+            pending = false;
+            listener.onFrame(0);
+        }
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    FrameCadence getCadence() {
+        return cadence;
+    }
+
+    /**
+     * Take the vsync period from the display {@code view} is shown on. Must be called on the
+     * main thread, e.g. when the view is attached.
+     */
+    @TargetApi(17)
+    void updateVsyncPeriod(View view) {
+        if (Build.VERSION.SDK_INT < 17) {
+            return;
+        }
+        Display display = view.getDisplay();
+        if (display != null && display.getRefreshRate() > 0) {
+            cadence.setVsyncPeriodNanos((long) (1e9 / display.getRefreshRate()));
+        }
+    }
+
+    /**
+     * Ask for a frame. May be called from any thread.
+     */
+    void requestFrame() {
+        if (!enabled || Build.VERSION.SDK_INT < 16) {
+            listener.onFrame(0);
+            return;
+        }
+        pending = true;
+        schedule();
+    }
+
+    private void schedule() {
+        if (!scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            postFrameCallback();
+        } else {
+            mainHandler.post(postFrameCallback);
+        }
+    }
+
+    @TargetApi(16)
+    private void postFrameCallback() {
+        if (frameCallback == null) {
+            frameCallback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    onVsync(frameTimeNanos);
+                }
+            };
+        }
+        Choreographer.getInstance().postFrameCallback((Choreographer.FrameCallback) frameCallback);
+    }
+
+    private void onVsync(long frameTimeNanos) {
+        if (pending && enabled && cadence.onVsync(frameTimeNanos)) {
+            pending = false;
+            listener.onFrame(cadence.getPresentationTimeNanos(frameTimeNanos));
+        }
+        if (pending && enabled) {
+            postFrameCallback();
+            return;
+        }
+        scheduled.set(false);
+        // A request that came in after the check above found the pacer still scheduled.
+        if (pending && enabled) {
+            schedule();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.alphamovie.lib;
+
+/**
+ * A snapshot of the frame counters of an {@link AlphaMovieView}.
+ * <p>
+ * Every frame the decoder delivers is either presented, skipped because a newer frame arrived
+ * before the next draw, or still pending. Draws without a new frame are counted as repeats.
+ * The counters are read one after the other without stopping the render thread, so a snapshot
+ * may be off by the frame in flight, but the decoded count is always read last and never lags
+ * behind the sum of presented and skipped frames.
+ */
+public final class FrameStats {
+    private long decodedFrameCount;
+    private long presentedFrameCount;
+    private long skippedFrameCount;
+    private long repeatedFrameCount;
+
+    void set(long decoded, long presented, long skipped, long repeated) {
+        decodedFrameCount = decoded;
+        presentedFrameCount = presented;
+        skippedFrameCount = skipped;
+        repeatedFrameCount = repeated;
+    }
+
+    void subtract(FrameStats baseline) {
+        decodedFrameCount -= baseline.decodedFrameCount;
+        presentedFrameCount -= baseline.presentedFrameCount;
+        skippedFrameCount -= baseline.skippedFrameCount;
+        repeatedFrameCount -= baseline.repeatedFrameCount;
+    }
+
+    /**
+     * @return the number of frames the decoder delivered to the SurfaceTexture.
+     */
+    public long getDecodedFrameCount() {
+        return decodedFrameCount;
+    }
+
+    /**
+     * @return the number of decoded frames that were drawn.
+     */
+    public long getPresentedFrameCount() {
+        return presentedFrameCount;
+    }
+
+    /**
+     * @return the number of decoded frames that were replaced by a newer one before they could
+     * be drawn.
+     */
+    public long getSkippedFrameCount() {
+        return skippedFrameCount;
+    }
+
+    /**
+     * @return the number of draws that showed the previous frame again.
+     */
+    public long getRepeatedFrameCount() {
+        return repeatedFrameCount;
+    }
+
+    /**
+     * @return the total number of draws, presented plus repeated.
+     */
+    public long getDrawnFrameCount() {
+        return presentedFrameCount + repeatedFrameCount;
+    }
+
+    @Override
+    public String toString() {
+        return "FrameStats{decoded=" + decodedFrameCount
+            + ", presented=" + presentedFrameCount
+            + ", skipped=" + skippedFrameCount
+            + ", repeated=" + repeatedFrameCount + '}';
+    }
+}
@@ -0,0 +1,106 @@
+package com.alphamovie.lib;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+/**
+ * Decides how a finished frame is handed to the GPU before the swap.
+ * <p>
+ * In {@link AlphaMovieView#FRAME_SUBMISSION_LATENCY_FIRST} mode every frame ends with
+ * glFinish(), so the render thread waits for the GPU to drain before the next frame is queued.
+ * In {@link AlphaMovieView#FRAME_SUBMISSION_THROUGHPUT_FIRST} mode a fence is inserted after
+ * every frame and the render thread only blocks once more than the allowed number of frames
+ * are still in flight. Fences need an OpenGL ES 3.0 context; without one the throughput mode
+ * falls back to glFinish().
+ * <p>
+ * All methods except the setters must be called on the GL thread.
+ */
+final class FrameSubmitter {
+    private static final long FENCE_WAIT_TIMEOUT_NS = 100000000L;
+
+    private volatile int mode = AlphaMovieView.FRAME_SUBMISSION_LATENCY_FIRST;
+    private volatile int maxFramesInFlight = 2;
+
+    private final long[] fences = new long[AlphaMovieView.MAX_FRAMES_IN_FLIGHT_LIMIT];
+    private int fenceHead;
+    private int fenceCount;
+    private boolean fencesSupported;
+
+    void setMode(int mode) {
+        if (mode != AlphaMovieView.FRAME_SUBMISSION_LATENCY_FIRST
+            && mode != AlphaMovieView.FRAME_SUBMISSION_THROUGHPUT_FIRST) {
+            throw new IllegalArgumentException("mode");
+        }
+        this.mode = mode;
+    }
+
+    int getMode() {
+        return mode;
+    }
+
+    void setMaxFramesInFlight(int maxFramesInFlight) {
+        if (maxFramesInFlight < 1 || maxFramesInFlight > AlphaMovieView.MAX_FRAMES_IN_FLIGHT_LIMIT) {
+            throw new IllegalArgumentException("maxFramesInFlight");
+        }
+        this.maxFramesInFlight = maxFramesInFlight;
+    }
+
+    int getMaxFramesInFlight() {
+        return maxFramesInFlight;
+    }
+
+    /**
+     * Called from onSurfaceCreated. Fences of a previous context died with it.
+     */
+    void onContextCreated() {
+        fenceHead = 0;
+        fenceCount = 0;
+        fencesSupported = GLUtility.isGLES3Context();
+    }
+
+    /**
+     * Called at the end of onDrawFrame, after the last draw call of the frame.
+     */
+    void onFrameSubmitted() {
+        if (mode == AlphaMovieView.FRAME_SUBMISSION_THROUGHPUT_FIRST && fencesSupported) {
+            submitFenced(maxFramesInFlight);
+        } else {
+            waitForAllFences();
+            GLES20.glFinish();
+        }
+    }
+
+    @TargetApi(18)
+    private void submitFenced(int maxInFlight) {
+        // Retire the oldest frames until there is room for this one.
+        while (fenceCount >= maxInFlight) {
+            waitForOldestFence();
+        }
+
+        long fence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        if (fence == 0) {
+            GLES20.glFinish();
+            return;
+        }
+        fences[(fenceHead + fenceCount) % fences.length] = fence;
+        fenceCount++;
+    }
+
+    private void waitForAllFences() {
+        while (fenceCount > 0) {
+            waitForOldestFence();
+        }
+    }
+
+    @TargetApi(18)
+    private void waitForOldestFence() {
+        long fence = fences[fenceHead];
+        fences[fenceHead] = 0;
+        fenceHead = (fenceHead + 1) % fences.length;
+        fenceCount--;
+
+        GLES30.glClientWaitSync(fence, GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_WAIT_TIMEOUT_NS);
+        GLES30.glDeleteSync(fence);
+    }
+}
@@ -0,0 +1,116 @@
+package com.alphamovie.lib;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A preallocated single-producer, single-consumer ring of frame timings.
+ * <p>
+ * The render thread {@link #write}s one entry per frame and the consumer {@link #drain}s them
+ * in batches into a {@link FrameTimings}. Neither side allocates or blocks. When the ring is
+ * full new entries are dropped and counted rather than overwriting entries the consumer may be
+ * reading.
+ */
+public final class FrameTimingBuffer {
+    private final int mask;
+    private final long[] surfaceTimestamps;
+    private final long[] frameAvailableTimes;
+    private final long[] texImageUpdatedTimes;
+    private final long[] drawStartTimes;
+    private final long[] drawDurations;
+    private final long[] swapDurations;
+    private final long[] gpuDurations;
+    private final boolean[] repeats;
+
+    // Next sequence to write, only advanced by the producer.
+    private final AtomicLong head = new AtomicLong();
+    // Next sequence to read, only advanced by the consumer.
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public FrameTimingBuffer(int capacity) {
+        if (capacity < 1 || capacity > (1 << 20)) {
+            throw new IllegalArgumentException("capacity");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        surfaceTimestamps = new long[size];
+        frameAvailableTimes = new long[size];
+        texImageUpdatedTimes = new long[size];
+        drawStartTimes = new long[size];
+        drawDurations = new long[size];
+        swapDurations = new long[size];
+        gpuDurations = new long[size];
+        repeats = new boolean[size];
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return the number of entries waiting to be drained.
+     */
+    public int size() {
+        return (int) (head.get() - tail.get());
+    }
+
+    /**
+     * Record one frame. Only called by the producer thread.
+     *
+     * @return false if the ring was full and the entry was dropped.
+     */
+    public boolean write(long surfaceTimestamp, long frameAvailableTime, long texImageUpdatedTime,
+                         long drawStartTime, long drawDuration, long swapDuration, long gpuDuration,
+                         boolean repeat) {
+        long sequence = head.get();
+        if (sequence - tail.get() > mask) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        int i = (int) sequence & mask;
+        surfaceTimestamps[i] = surfaceTimestamp;
+        frameAvailableTimes[i] = frameAvailableTime;
+        texImageUpdatedTimes[i] = texImageUpdatedTime;
+        drawStartTimes[i] = drawStartTime;
+        drawDurations[i] = drawDuration;
+        swapDurations[i] = swapDuration;
+        gpuDurations[i] = gpuDuration;
+        repeats[i] = repeat;
+        // Publishes the entry to the consumer.
+        head.lazySet(sequence + 1);
+        return true;
+    }
+
+    /**
+     * Move up to {@code out.getCapacity()} entries into {@code out}, replacing its contents.
+     * Only called by the consumer thread.
+     *
+     * @return the number of entries drained.
+     */
+    public int drain(FrameTimings out) {
+        long start = tail.get();
+        int count = (int) Math.min(head.get() - start, out.getCapacity());
+        for (int n = 0; n < count; n++) {
+            int i = (int) (start + n) & mask;
+            out.surfaceTimestamps[n] = surfaceTimestamps[i];
+            out.frameAvailableTimes[n] = frameAvailableTimes[i];
+            out.texImageUpdatedTimes[n] = texImageUpdatedTimes[i];
+            out.drawStartTimes[n] = drawStartTimes[i];
+            out.drawDurations[n] = drawDurations[i];
+            out.swapDurations[n] = swapDurations[i];
+            out.gpuDurations[n] = gpuDurations[i];
+            out.repeats[n] = repeats[i];
+        }
+        out.count = count;
+        out.droppedCount = dropped.getAndSet(0);
+        // Hands the slots back to the producer.
+        tail.lazySet(start + count);
+        return count;
+    }
+}
@@ -0,0 +1,131 @@
+package com.alphamovie.lib;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Collects frame timings on the render thread and hands them to an
+ * {@link AlphaMovieView.OnFrameTimingListener} on the main thread in batches.
+ * <p>
+ * Frames timed on the GPU are held back until their {@link GpuTimer} result arrives, a few
+ * frames later, so that every frame is delivered once with all of its timings.
+ */
+final class FrameTimingDispatcher {
+    static final int BUFFER_CAPACITY = 256;
+    static final int BATCH_CAPACITY = 64;
+    static final long BATCH_INTERVAL_MS = 250;
+
+    private final AlphaMovieView.OnFrameTimingListener listener;
+    private final FrameTimingBuffer buffer = new FrameTimingBuffer(BUFFER_CAPACITY);
+    private final FrameTimings batch = new FrameTimings(BATCH_CAPACITY);
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Runnable deliver = new Runnable() {
+        @Override
+        public void run() {
+            scheduled.set(false);
+            while (buffer.drain(batch) > 0 || batch.getDroppedCount() > 0) {
+                listener.onFrameTimings(batch);
+                if (batch.getCount() < batch.getCapacity()) {
+                    break;
+                }
+            }
+        }
+    };
+
+    // Frames waiting for their GPU time, oldest first. Only touched on the render thread.
+    private final PendingFrame[] pending = new PendingFrame[GpuTimer.QUERY_COUNT];
+    private int pendingHead;
+    private int pendingCount;
+
+    FrameTimingDispatcher(AlphaMovieView.OnFrameTimingListener listener) {
+        this.listener = listener;
+        for (int i = 0; i < pending.length; i++) {
+            pending[i] = new PendingFrame();
+        }
+    }
+
+    /**
+     * Called on the render thread once per presented frame.
+     *
+     * @param gpuTimed true if the frame is timed by a {@link GpuTimer}. The frame is then held
+     * back until {@link #recordGpuDuration(long, long)} reports its GPU time.
+     */
+    void record(long surfaceTimestamp, long frameAvailableTime, long texImageUpdatedTime,
+                long drawStartTime, long drawDuration, long swapDuration, boolean repeat,
+                boolean gpuTimed) {
+        if (!gpuTimed) {
+            // Keep the order of delivery.
+            flushPending(Long.MAX_VALUE, -1);
+            write(surfaceTimestamp, frameAvailableTime, texImageUpdatedTime, drawStartTime,
+                drawDuration, swapDuration, -1, repeat);
+            return;
+        }
+        if (pendingCount == pending.length) {
+            // The timer never holds more frames than this; only a lost result gets here.
+            PendingFrame oldest = pending[pendingHead];
+            flushPending(oldest.drawStartTime, -1);
+        }
+        PendingFrame frame = pending[(pendingHead + pendingCount) % pending.length];
+        frame.surfaceTimestamp = surfaceTimestamp;
+        frame.frameAvailableTime = frameAvailableTime;
+        frame.texImageUpdatedTime = texImageUpdatedTime;
+        frame.drawStartTime = drawStartTime;
+        frame.drawDuration = drawDuration;
+        frame.swapDuration = swapDuration;
+        frame.repeat = repeat;
+        pendingCount++;
+    }
+
+    /**
+     * Called on the render thread when the GPU time of the frame that started drawing at
+     * {@code drawStartTime} is known. Held frames up to that one are delivered; older ones
+     * without a result are delivered with a GPU duration of -1.
+     */
+    void recordGpuDuration(long drawStartTime, long gpuDuration) {
+        flushPending(drawStartTime, gpuDuration);
+    }
+
+    private void flushPending(long drawStartTime, long gpuDuration) {
+        while (pendingCount > 0) {
+            PendingFrame frame = pending[pendingHead];
+            if (frame.drawStartTime > drawStartTime) {
+                break;
+            }
+            pendingHead = (pendingHead + 1) % pending.length;
+            pendingCount--;
+            write(frame.surfaceTimestamp, frame.frameAvailableTime, frame.texImageUpdatedTime,
+                frame.drawStartTime, frame.drawDuration, frame.swapDuration,
+                frame.drawStartTime == drawStartTime ? gpuDuration : -1, frame.repeat);
+        }
+    }
+
+    private void write(long surfaceTimestamp, long frameAvailableTime, long texImageUpdatedTime,
+                       long drawStartTime, long drawDuration, long swapDuration, long gpuDuration,
+                       boolean repeat) {
+        buffer.write(surfaceTimestamp, frameAvailableTime, texImageUpdatedTime,
+            drawStartTime, drawDuration, swapDuration, gpuDuration, repeat);
+        if (scheduled.compareAndSet(false, true)) {
+            handler.postDelayed(deliver, BATCH_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * Stop delivering, e.g. after the listener was replaced. Pending timings are dropped.
+     */
+    void cancel() {
+        handler.removeCallbacks(deliver);
+    }
+
+    private static final class PendingFrame {
+        long surfaceTimestamp;
+        long frameAvailableTime;
+        long texImageUpdatedTime;
+        long drawStartTime;
+        long drawDuration;
+        long swapDuration;
+        boolean repeat;
+    }
+}
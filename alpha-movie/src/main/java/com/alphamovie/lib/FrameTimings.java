@@ -0,0 +1,118 @@
+package com.alphamovie.lib;
+
+/**
+ * A batch of per-frame pipeline timings, filled by {@link FrameTimingBuffer#drain}.
+ * <p>
+ * All times are {@link System#nanoTime()} values, which on Android use the same monotonic clock
+ * as {@code SurfaceTexture.getTimestamp()}, so they can be subtracted from each
+ * other. Durations are in nanoseconds. Values that are not known are -1.
+ * <p>
+ * A batch is reused for every delivery; copy what you need before returning from the callback.
+ */
+public final class FrameTimings {
+    final long[] surfaceTimestamps;
+    final long[] frameAvailableTimes;
+    final long[] texImageUpdatedTimes;
+    final long[] drawStartTimes;
+    final long[] drawDurations;
+    final long[] swapDurations;
+    final long[] gpuDurations;
+    final boolean[] repeats;
+    int count;
+    long droppedCount;
+
+    public FrameTimings(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity");
+        }
+        surfaceTimestamps = new long[capacity];
+        frameAvailableTimes = new long[capacity];
+        texImageUpdatedTimes = new long[capacity];
+        drawStartTimes = new long[capacity];
+        drawDurations = new long[capacity];
+        swapDurations = new long[capacity];
+        gpuDurations = new long[capacity];
+        repeats = new boolean[capacity];
+    }
+
+    public int getCapacity() {
+        return repeats.length;
+    }
+
+    /**
+     * @return the number of frames in this batch.
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of frames that were not recorded since the previous batch because the
+     * buffer was full.
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return the presentation timestamp of the video frame the SurfaceTexture latched.
+     */
+    public long getSurfaceTimestamp(int index) {
+        return surfaceTimestamps[checkIndex(index)];
+    }
+
+    /**
+     * @return when the SurfaceTexture reported the frame as available, or -1 for repeats.
+     */
+    public long getFrameAvailableTime(int index) {
+        return frameAvailableTimes[checkIndex(index)];
+    }
+
+    /**
+     * @return when updateTexImage() returned, or -1 for repeats.
+     */
+    public long getTexImageUpdatedTime(int index) {
+        return texImageUpdatedTimes[checkIndex(index)];
+    }
+
+    public long getDrawStartTime(int index) {
+        return drawStartTimes[checkIndex(index)];
+    }
+
+    /**
+     * @return the CPU time spent in the renderer for this frame.
+     */
+    public long getDrawDuration(int index) {
+        return drawDurations[checkIndex(index)];
+    }
+
+    /**
+     * @return the time eglSwapBuffers() took, or -1 if the render thread did not report it.
+     */
+    public long getSwapDuration(int index) {
+        return swapDurations[checkIndex(index)];
+    }
+
+    /**
+     * @return the GPU time of the frame, or -1 if it was not measured. GPU time needs an
+     * OpenGL ES 3.0 context with GL_EXT_disjoint_timer_query, and is also -1 for frames drawn
+     * while earlier results were still outstanding or that the GPU reported as disjoint.
+     */
+    public long getGpuDuration(int index) {
+        return gpuDurations[checkIndex(index)];
+    }
+
+    /**
+     * @return true if the frame re-presented the previous video frame.
+     */
+    public boolean isRepeat(int index) {
+        return repeats[checkIndex(index)];
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("index " + index + " count " + count);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,262 @@
+package com.alphamovie.lib;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Replays a {@link GLCommandStream} against a model of the GL state and gathers per-frame
+ * statistics for every shader in it.
+ * <p>
+ * A call is <em>redundant</em> when it sets state to the value it already has: enabling an
+ * enabled capability, binding the bound program, texture or buffer, or uploading a uniform value
+ * the program already holds. State that the stream has not set yet is unknown, so the first call
+ * for it never counts as redundant.
+ * <p>
+ * An <em>allocation</em> is a call that makes the driver allocate or copy client memory:
+ * {@code glTexImage2D} and client-side vertex arrays, which are copied on every draw.
+ * <p>
+ * A budget is a properties file of per-frame maxima keyed by shader and metric, e.g.
+ * {@code AdvancedChromaKeyShader.calls=19}. The metrics are {@code calls}, {@code redundant},
+ * {@code uniformUploads} and {@code allocations}; a shader of {@code *} applies to every shader
+ * without a key of its own. A key ending in {@code .mean}, e.g.
+ * {@code PassthroughShader.redundant.mean=7.34}, limits the mean over the frames instead.
+ */
+public final class GLCommandStats {
+    private final Map<String, ShaderStats> shaders = new LinkedHashMap<String, ShaderStats>();
+
+    /**
+     * @param resetStatePerFrame forget the modelled state at every frame, for recordings from
+     * a context shared with other renderers, which may change the state between our frames
+     */
+    public static GLCommandStats analyze(GLCommandStream stream, boolean resetStatePerFrame) {
+        GLCommandStats stats = new GLCommandStats();
+        StateModel state = new StateModel();
+        for (int f = 0; f < stream.getFrameCount(); f++) {
+            GLCommandStream.Frame frame = stream.getFrame(f);
+            if (resetStatePerFrame) {
+                state = new StateModel();
+            }
+            ShaderStats shader = stats.shaders.get(frame.getLabel());
+            if (shader == null) {
+                shader = new ShaderStats(frame.getLabel());
+                stats.shaders.put(frame.getLabel(), shader);
+            }
+
+            int redundant = 0;
+            int uniformUploads = 0;
+            int allocations = 0;
+            for (int c = 0; c < frame.getCallCount(); c++) {
+                String call = frame.getCall(c);
+                String arguments = frame.getArguments(c);
+                if (state.apply(call, arguments)) {
+                    redundant++;
+                    Integer count = shader.redundantCalls.get(call);
+                    shader.redundantCalls.put(call, count == null ? 1 : count + 1);
+                }
+                if (call.startsWith("glUniform")) {
+                    uniformUploads++;
+                }
+                if (isAllocation(call, arguments)) {
+                    allocations++;
+                }
+            }
+            shader.calls.add(frame.getCallCount());
+            shader.redundant.add(redundant);
+            shader.uniformUploads.add(uniformUploads);
+            shader.allocations.add(allocations);
+        }
+        return stats;
+    }
+
+    public Map<String, ShaderStats> getShaders() {
+        return shaders;
+    }
+
+    /**
+     * @return a message for every limit of {@code budget} that a shader exceeds, empty if the
+     * stream is within budget.
+     */
+    public List<String> checkBudget(Properties budget) {
+        List<String> violations = new ArrayList<String>();
+        for (ShaderStats shader : shaders.values()) {
+            check(budget, shader, "calls", shader.calls, violations);
+            check(budget, shader, "redundant", shader.redundant, violations);
+            check(budget, shader, "uniformUploads", shader.uniformUploads, violations);
+            check(budget, shader, "allocations", shader.allocations, violations);
+        }
+        return violations;
+    }
+
+    private static void check(Properties budget, ShaderStats shader, String name, Metric metric,
+                              List<String> violations) {
+        String limit = limit(budget, shader, name);
+        if (limit != null && metric.getMax() > Integer.parseInt(limit)) {
+            violations.add(String.format("%s: %s per frame is %d, over the budget of %s",
+                shader.getLabel(), name, metric.getMax(), limit));
+        }
+        String meanLimit = limit(budget, shader, name + ".mean");
+        if (meanLimit != null && metric.getMean() > Double.parseDouble(meanLimit)) {
+            violations.add(String.format("%s: %s per frame is %.2f on average, over the budget of %s",
+                shader.getLabel(), name, metric.getMean(), meanLimit));
+        }
+    }
+
+    private static String limit(Properties budget, ShaderStats shader, String key) {
+        String limit = budget.getProperty(shader.getLabel() + "." + key);
+        if (limit == null) {
+            limit = budget.getProperty("*." + key);
+        }
+        return limit != null ? limit.trim() : null;
+    }
+
+    static boolean isAllocation(String call, String arguments) {
+        if (call.equals("glTexImage2D")) {
+            return true;
+        }
+        return call.equals("glVertexAttribPointer") && arguments.endsWith("client");
+    }
+
+    public static final class ShaderStats {
+        private final String label;
+        private final Metric calls = new Metric();
+        private final Metric redundant = new Metric();
+        private final Metric uniformUploads = new Metric();
+        private final Metric allocations = new Metric();
+        private final Map<String, Integer> redundantCalls = new TreeMap<String, Integer>();
+
+        ShaderStats(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public int getFrameCount() {
+            return calls.frames;
+        }
+
+        public Metric getCalls() {
+            return calls;
+        }
+
+        public Metric getRedundantStateChanges() {
+            return redundant;
+        }
+
+        public Metric getUniformUploads() {
+            return uniformUploads;
+        }
+
+        public Metric getAllocations() {
+            return allocations;
+        }
+
+        /**
+         * @return the number of redundant calls by GL function name.
+         */
+        public Map<String, Integer> getRedundantCalls() {
+            return redundantCalls;
+        }
+    }
+
+    /**
+     * A per-frame count, summarized over all frames of a shader.
+     */
+    public static final class Metric {
+        private int frames;
+        private long total;
+        private int max;
+
+        void add(int value) {
+            frames++;
+            total += value;
+            max = Math.max(max, value);
+        }
+
+        public int getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return frames == 0 ? 0 : (double) total / frames;
+        }
+    }
+
+    /**
+     * The subset of GL state that the library's per-frame path sets.
+     */
+    private static final class StateModel {
+        private static final int GL_ARRAY_BUFFER = 0x8892;
+
+        private final HashSet<String> enabled = new HashSet<String>();
+        private final HashSet<String> enabledAttribArrays = new HashSet<String>();
+        private final HashMap<String, String> values = new HashMap<String, String>();
+        private String program;
+        private String activeTexture;
+        private String arrayBuffer;
+
+        /**
+         * @return true if the call did not change the state.
+         */
+        boolean apply(String call, String arguments) {
+            if (call.equals("glEnable")) {
+                return !enabled.add(arguments);
+            } else if (call.equals("glEnableVertexAttribArray")) {
+                return !enabledAttribArrays.add(arguments);
+            } else if (call.equals("glUseProgram")) {
+                boolean same = arguments.equals(program);
+                program = arguments;
+                return same;
+            } else if (call.equals("glActiveTexture")) {
+                boolean same = arguments.equals(activeTexture);
+                activeTexture = arguments;
+                return same;
+            } else if (call.equals("glBindTexture")) {
+                // Bindings are per texture unit.
+                return set("texture " + activeTexture + " " + target(arguments), arguments);
+            } else if (call.equals("glBindBuffer")) {
+                if (arguments.startsWith(GL_ARRAY_BUFFER + " ")) {
+                    boolean same = arguments.equals(arrayBuffer);
+                    arrayBuffer = arguments;
+                    return same;
+                }
+                return set("buffer " + target(arguments), arguments);
+            } else if (call.equals("glVertexAttribPointer")) {
+                if (arguments.endsWith("client")) {
+                    // The client memory may have changed since the last call.
+                    values.remove("attrib " + target(arguments));
+                    return false;
+                }
+                // The pointer captures the bound array buffer.
+                return set("attrib " + target(arguments), arrayBuffer + " " + arguments);
+            } else if (call.startsWith("glUniform")) {
+                // Uniform values are per program.
+                return set("uniform " + program + " " + target(arguments), arguments);
+            } else if (call.equals("glBlendFunc") || call.equals("glClearColor")
+                || call.equals("glPixelStorei")) {
+                String key = call.equals("glPixelStorei") ? call + " " + target(arguments) : call;
+                return set(key, arguments);
+            }
+            // Draws, clears and uploads do not set state.
+            return false;
+        }
+
+        private boolean set(String key, String value) {
+            String previous = values.put(key, value);
+            return value.equals(previous);
+        }
+
+        // The first argument: the target, location or index the call applies to.
+        private static String target(String arguments) {
+            int space = arguments.indexOf(' ');
+            return space < 0 ? arguments : arguments.substring(0, space);
+        }
+    }
+}
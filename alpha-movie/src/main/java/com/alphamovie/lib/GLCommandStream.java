@@ -0,0 +1,148 @@
+package com.alphamovie.lib;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+
+/**
+ * A recording of the GL calls issued through {@link GLInstrumentation}, frame by frame, with
+ * their arguments.
+ * <p>
+ * Recordings are stored as text so they can be kept next to the code as fixtures and diffed:
+ * <pre>
+ * glstream 1
+ * frame AdvancedChromaKeyShader
+ * glClear 16640
+ * glUniform1f 2 0.8
+ * ...
+ * </pre>
+ * Each frame starts with a {@code frame} line naming the shader it was drawn with, followed by
+ * one line per call: the GL function name and its arguments separated by spaces. Lines starting
+ * with {@code #} are comments.
+ */
+public final class GLCommandStream {
+    static final String HEADER = "glstream 1";
+    private static final String FRAME = "frame";
+
+    private final ArrayList<Frame> frames = new ArrayList<Frame>();
+
+    public int getFrameCount() {
+        return frames.size();
+    }
+
+    public Frame getFrame(int index) {
+        return frames.get(index);
+    }
+
+    Frame addFrame(String label) {
+        Frame frame = new Frame(label);
+        frames.add(frame);
+        return frame;
+    }
+
+    public void write(Writer out) throws IOException {
+        out.write(HEADER);
+        out.write('\n');
+        for (int i = 0; i < frames.size(); i++) {
+            Frame frame = frames.get(i);
+            out.write(FRAME);
+            out.write(' ');
+            out.write(frame.label);
+            out.write('\n');
+            for (int c = 0; c < frame.calls.size(); c++) {
+                out.write(frame.calls.get(c));
+                String arguments = frame.arguments.get(c);
+                if (!arguments.isEmpty()) {
+                    out.write(' ');
+                    out.write(arguments);
+                }
+                out.write('\n');
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * @throws IOException if {@code in} cannot be read or is not a command stream
+     */
+    public static GLCommandStream read(Reader in) throws IOException {
+        BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+        GLCommandStream stream = new GLCommandStream();
+        Frame frame = null;
+        boolean headerSeen = false;
+        int lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            if (!headerSeen) {
+                if (!line.equals(HEADER)) {
+                    throw new IOException("line " + lineNumber + ": expected '" + HEADER + "'");
+                }
+                headerSeen = true;
+                continue;
+            }
+
+            int space = line.indexOf(' ');
+            String call = space < 0 ? line : line.substring(0, space);
+            String arguments = space < 0 ? "" : line.substring(space + 1).trim();
+            if (call.equals(FRAME)) {
+                frame = stream.addFrame(arguments);
+            } else if (frame == null) {
+                throw new IOException("line " + lineNumber + ": call before the first frame");
+            } else {
+                frame.add(call, arguments);
+            }
+        }
+        if (!headerSeen) {
+            throw new IOException("empty command stream");
+        }
+        return stream;
+    }
+
+    public static final class Frame {
+        private final String label;
+        private final ArrayList<String> calls = new ArrayList<String>();
+        private final ArrayList<String> arguments = new ArrayList<String>();
+
+        Frame(String label) {
+            this.label = label;
+        }
+
+        /**
+         * @return the simple class name of the shader the frame was drawn with.
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        public int getCallCount() {
+            return calls.size();
+        }
+
+        /**
+         * @return the GL function name of call {@code index}, e.g. {@code glUniform1f}.
+         */
+        public String getCall(int index) {
+            return calls.get(index);
+        }
+
+        /**
+         * @return the arguments of call {@code index} separated by spaces. Client-side buffers
+         * are recorded as {@code client} since their contents are not captured.
+         */
+        public String getArguments(int index) {
+            return arguments.get(index);
+        }
+
+        void add(String call, String arguments) {
+            calls.add(call);
+            this.arguments.add(arguments);
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package com.alphamovie.lib;
+
+import android.opengl.GLES20;
+import android.opengl.GLU;
+
+import java.nio.Buffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thin facade over the {@link GLES20} calls issued on the per-frame path.
+ * <p>
+ * Every call is forwarded to {@link GLES20} and can optionally be counted per call type and
+ * followed by an error check. Counting is off by default. The error policy defaults to
+ * {@link #ERROR_CHECK_PER_FRAME}, a single glGetError round-trip at the end of the frame that
+ * still fails the frame on any error. {@link #ERROR_CHECK_EVERY_CALL} checks after every call to
+ * name the failing one, at the cost of a round-trip per call, and {@link #ERROR_CHECK_OFF} skips
+ * the checks entirely.
+ * <p>
+ * {@link #startRecording(int)} captures the calls of the next frames with their arguments into
+ * a {@link GLCommandStream}. Recording allocates for every call, so timings taken while it runs
+ * are not representative.
+ * <p>
+ * Settings may be changed from any thread and take effect at the start of the next frame.
+ * Everything else must be called on the GL thread.
+ */
+public final class GLInstrumentation {
+    /**
+     * Never call glGetError() on the per-frame path.
+     */
+    public final static int ERROR_CHECK_OFF = 0;
+
+    /**
+     * Call glGetError() once at the end of every frame. This is the default.
+     */
+    public final static int ERROR_CHECK_PER_FRAME = 1;
+
+    /**
+     * Call glGetError() after every GL call, to find the call that failed.
+     */
+    public final static int ERROR_CHECK_EVERY_CALL = 2;
+
+    public enum Call {
+        CLEAR("glClear"),
+        CLEAR_COLOR("glClearColor"),
+        ENABLE("glEnable"),
+        BLEND_FUNC("glBlendFunc"),
+        USE_PROGRAM("glUseProgram"),
+        ACTIVE_TEXTURE("glActiveTexture"),
+        BIND_TEXTURE("glBindTexture"),
+        BIND_BUFFER("glBindBuffer"),
+        PIXEL_STOREI("glPixelStorei"),
+        TEX_IMAGE_2D("glTexImage2D"),
+        VERTEX_ATTRIB_POINTER("glVertexAttribPointer"),
+        ENABLE_VERTEX_ATTRIB_ARRAY("glEnableVertexAttribArray"),
+        UNIFORM_1I("glUniform1i"),
+        UNIFORM_1F("glUniform1f"),
+        UNIFORM_3FV("glUniform3fv"),
+        UNIFORM_4FV("glUniform4fv"),
+        UNIFORM_MATRIX_4FV("glUniformMatrix4fv"),
+        DRAW_ARRAYS("glDrawArrays");
+
+        private final String glName;
+
+        Call(String glName) {
+            this.glName = glName;
+        }
+
+        public String getGLName() {
+            return glName;
+        }
+    }
+
+    private static final Call[] CALLS = Call.values();
+    private static final int MAX_ERRORS_PER_FRAME = 8;
+
+    private volatile int errorPolicy = ERROR_CHECK_PER_FRAME;
+    private volatile boolean countingEnabled;
+
+    // Latched at the start of every frame. Only touched on the GL thread.
+    private int frameErrorPolicy = ERROR_CHECK_PER_FRAME;
+    private boolean frameCounting;
+    private final int[] frameCallCounts = new int[CALLS.length];
+
+    // Published at the end of every counted frame, guarded by lastFrameCallCounts.
+    private final int[] lastFrameCallCounts = new int[CALLS.length];
+    private long countedFrames;
+
+    // Frames requested by startRecording(), taken by the GL thread at the start of a frame.
+    private final AtomicInteger requestedRecordingFrames = new AtomicInteger();
+    private volatile GLCommandStream recording;
+
+    // Only touched on the GL thread.
+    private GLCommandStream activeRecording;
+    private int remainingRecordingFrames;
+    private GLCommandStream.Frame recordingFrame;
+    private final StringBuilder recordingArguments = new StringBuilder();
+
+    // Only written on the GL thread.
+    private volatile long uniformUploads;
+    private volatile long skippedUniformUploads;
+
+    public void setErrorPolicy(int errorPolicy) {
+        if (errorPolicy < ERROR_CHECK_OFF || errorPolicy > ERROR_CHECK_EVERY_CALL) {
+            throw new IllegalArgumentException("errorPolicy");
+        }
+        this.errorPolicy = errorPolicy;
+    }
+
+    public int getErrorPolicy() {
+        return errorPolicy;
+    }
+
+    public void setCallCountingEnabled(boolean countingEnabled) {
+        this.countingEnabled = countingEnabled;
+    }
+
+    public boolean isCallCountingEnabled() {
+        return countingEnabled;
+    }
+
+    /**
+     * @return how often {@code call} was issued during the last counted frame.
+     */
+    public int getLastFrameCallCount(Call call) {
+        synchronized (lastFrameCallCounts) {
+            return lastFrameCallCounts[call.ordinal()];
+        }
+    }
+
+    /**
+     * @return the number of GL calls issued through this facade during the last counted frame.
+     */
+    public int getLastFrameTotalCallCount() {
+        synchronized (lastFrameCallCounts) {
+            int total = 0;
+            for (int count : lastFrameCallCounts) {
+                total += count;
+            }
+            return total;
+        }
+    }
+
+    /**
+     * @return the number of frames that were drawn with call counting enabled.
+     */
+    public long getCountedFrameCount() {
+        synchronized (lastFrameCallCounts) {
+            return countedFrames;
+        }
+    }
+
+    /**
+     * Record the GL calls of the next {@code frameCount} frames. A recording already in progress
+     * is replaced. The result is available from {@link #getRecording()} once the last frame is
+     * drawn.
+     */
+    public void startRecording(int frameCount) {
+        if (frameCount < 1) {
+            throw new IllegalArgumentException("frameCount");
+        }
+        recording = null;
+        requestedRecordingFrames.set(frameCount);
+    }
+
+    /**
+     * @return the last completed recording, or null while one is requested or in progress.
+     */
+    public GLCommandStream getRecording() {
+        return recording;
+    }
+
+    /**
+     * @return the number of {@link ShaderUniform} values uploaded because they changed.
+     */
+    public long getUniformUploadCount() {
+        return uniformUploads;
+    }
+
+    /**
+     * @return the number of {@link ShaderUniform} uploads skipped because the value did not change.
+     */
+    public long getSkippedUniformUploadCount() {
+        return skippedUniformUploads;
+    }
+
+    void uniformUploaded() {
+        uniformUploads++;
+    }
+
+    void uniformUploadSkipped() {
+        skippedUniformUploads++;
+    }
+
+    /**
+     * @param shader the shader the frame is drawn with, used to label recorded frames
+     */
+    void beginFrame(Object shader) {
+        int recordingFrames = requestedRecordingFrames.getAndSet(0);
+        if (recordingFrames > 0) {
+            activeRecording = new GLCommandStream();
+            remainingRecordingFrames = recordingFrames;
+        }
+        if (activeRecording != null) {
+            recordingFrame = activeRecording.addFrame(shader != null ? shader.getClass().getSimpleName() : "none");
+        }
+
+        frameErrorPolicy = errorPolicy;
+        frameCounting = countingEnabled;
+        if (frameCounting) {
+            for (int i = 0; i < frameCallCounts.length; i++) {
+                frameCallCounts[i] = 0;
+            }
+        }
+    }
+
+    void endFrame() {
+        if (frameErrorPolicy == ERROR_CHECK_PER_FRAME) {
+            checkFrameErrors();
+        }
+        if (frameCounting) {
+            synchronized (lastFrameCallCounts) {
+                System.arraycopy(frameCallCounts, 0, lastFrameCallCounts, 0, frameCallCounts.length);
+                countedFrames++;
+            }
+        }
+        if (recordingFrame != null) {
+            recordingFrame = null;
+            if (--remainingRecordingFrames == 0) {
+                recording = activeRecording;
+                activeRecording = null;
+            }
+        }
+    }
+
+    public void glClear(int mask) {
+        GLES20.glClear(mask);
+        if (recordingFrame != null) {
+            record(Call.CLEAR, mask);
+        }
+        afterCall(Call.CLEAR);
+    }
+
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        GLES20.glClearColor(red, green, blue, alpha);
+        if (recordingFrame != null) {
+            record(Call.CLEAR_COLOR, red, green, blue, alpha);
+        }
+        afterCall(Call.CLEAR_COLOR);
+    }
+
+    public void glEnable(int cap) {
+        GLES20.glEnable(cap);
+        if (recordingFrame != null) {
+            record(Call.ENABLE, cap);
+        }
+        afterCall(Call.ENABLE);
+    }
+
+    public void glBlendFunc(int sfactor, int dfactor) {
+        GLES20.glBlendFunc(sfactor, dfactor);
+        if (recordingFrame != null) {
+            record(Call.BLEND_FUNC, sfactor, dfactor);
+        }
+        afterCall(Call.BLEND_FUNC);
+    }
+
+    public void glUseProgram(int program) {
+        GLES20.glUseProgram(program);
+        if (recordingFrame != null) {
+            record(Call.USE_PROGRAM, program);
+        }
+        afterCall(Call.USE_PROGRAM);
+    }
+
+    public void glActiveTexture(int texture) {
+        GLES20.glActiveTexture(texture);
+        if (recordingFrame != null) {
+            record(Call.ACTIVE_TEXTURE, texture);
+        }
+        afterCall(Call.ACTIVE_TEXTURE);
+    }
+
+    public void glBindTexture(int target, int texture) {
+        GLES20.glBindTexture(target, texture);
+        if (recordingFrame != null) {
+            record(Call.BIND_TEXTURE, target, texture);
+        }
+        afterCall(Call.BIND_TEXTURE);
+    }
+
+    public void glBindBuffer(int target, int buffer) {
+        GLES20.glBindBuffer(target, buffer);
+        if (recordingFrame != null) {
+            record(Call.BIND_BUFFER, target, buffer);
+        }
+        afterCall(Call.BIND_BUFFER);
+    }
+
+    public void glPixelStorei(int pname, int param) {
+        GLES20.glPixelStorei(pname, param);
+        if (recordingFrame != null) {
+            record(Call.PIXEL_STOREI, pname, param);
+        }
+        afterCall(Call.PIXEL_STOREI);
+    }
+
+    public void glTexImage2D(int target, int level, int internalformat, int width, int height,
+                             int border, int format, int type, Buffer pixels) {
+        GLES20.glTexImage2D(target, level, internalformat, width, height, border, format, type, pixels);
+        if (recordingFrame != null) {
+            record(Call.TEX_IMAGE_2D,
+                target, level, internalformat, width, height, border, format, type, "client");
+        }
+        afterCall(Call.TEX_IMAGE_2D);
+    }
+
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer ptr) {
+        GLES20.glVertexAttribPointer(index, size, type, normalized, stride, ptr);
+        if (recordingFrame != null) {
+            record(Call.VERTEX_ATTRIB_POINTER, index, size, type, normalized, stride, "client");
+        }
+        afterCall(Call.VERTEX_ATTRIB_POINTER);
+    }
+
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+        GLES20.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+        if (recordingFrame != null) {
+            record(Call.VERTEX_ATTRIB_POINTER, index, size, type, normalized, stride, offset);
+        }
+        afterCall(Call.VERTEX_ATTRIB_POINTER);
+    }
+
+    public void glEnableVertexAttribArray(int index) {
+        GLES20.glEnableVertexAttribArray(index);
+        if (recordingFrame != null) {
+            record(Call.ENABLE_VERTEX_ATTRIB_ARRAY, index);
+        }
+        afterCall(Call.ENABLE_VERTEX_ATTRIB_ARRAY);
+    }
+
+    public void glUniform1i(int location, int x) {
+        GLES20.glUniform1i(location, x);
+        if (recordingFrame != null) {
+            record(Call.UNIFORM_1I, location, x);
+        }
+        afterCall(Call.UNIFORM_1I);
+    }
+
+    public void glUniform1f(int location, float x) {
+        GLES20.glUniform1f(location, x);
+        if (recordingFrame != null) {
+            record(Call.UNIFORM_1F, location, x);
+        }
+        afterCall(Call.UNIFORM_1F);
+    }
+
+    public void glUniform3fv(int location, int count, float[] v, int offset) {
+        GLES20.glUniform3fv(location, count, v, offset);
+        if (recordingFrame != null) {
+            record(Call.UNIFORM_3FV, location, count, floats(v, offset, 3 * count));
+        }
+        afterCall(Call.UNIFORM_3FV);
+    }
+
+    public void glUniform4fv(int location, int count, float[] v, int offset) {
+        GLES20.glUniform4fv(location, count, v, offset);
+        if (recordingFrame != null) {
+            record(Call.UNIFORM_4FV, location, count, floats(v, offset, 4 * count));
+        }
+        afterCall(Call.UNIFORM_4FV);
+    }
+
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+        GLES20.glUniformMatrix4fv(location, count, transpose, value, offset);
+        if (recordingFrame != null) {
+            record(Call.UNIFORM_MATRIX_4FV,
+                location, count, transpose, floats(value, offset, 16 * count));
+        }
+        afterCall(Call.UNIFORM_MATRIX_4FV);
+    }
+
+    public void glDrawArrays(int mode, int first, int count) {
+        GLES20.glDrawArrays(mode, first, count);
+        if (recordingFrame != null) {
+            record(Call.DRAW_ARRAYS, mode, first, count);
+        }
+        afterCall(Call.DRAW_ARRAYS);
+    }
+
+    private void record(Call call, Object... arguments) {
+        StringBuilder builder = recordingArguments;
+        builder.setLength(0);
+        for (int i = 0; i < arguments.length; i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+            builder.append(arguments[i]);
+        }
+        recordingFrame.add(call.glName, builder.toString());
+    }
+
+    private static String floats(float[] values, int offset, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+            builder.append(values[offset + i]);
+        }
+        return builder.toString();
+    }
+
+    private void afterCall(Call call) {
+        if (frameCounting) {
+            frameCallCounts[call.ordinal()]++;
+        }
+        if (frameErrorPolicy == ERROR_CHECK_EVERY_CALL) {
+            GLUtility.checkGlError(call.glName);
+        }
+    }
+
+    private void checkFrameErrors() {
+        int error = GLES20.glGetError();
+        if (error == GLES20.GL_NO_ERROR) {
+            return;
+        }
+
+        // Several error flags may be set at once, drain them so the next frame starts clean.
+        StringBuilder message = new StringBuilder("frame: glError");
+        int errors = 0;
+        do {
+            message.append(' ').append(error).append(" (").append(GLU.gluErrorString(error)).append(')');
+            error = GLES20.glGetError();
+        } while (error != GLES20.GL_NO_ERROR && ++errors < MAX_ERRORS_PER_FRAME);
+        throw new RuntimeException(message.toString());
+    }
+}
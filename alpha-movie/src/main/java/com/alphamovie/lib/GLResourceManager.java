@@ -0,0 +1,382 @@
+package com.alphamovie.lib;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLContext;
+
+/**
+ * Reference counted GL objects shared by the renderers of one EGL share group.
+ * <p>
+ * Holds a single static vertex buffer with the full screen quad, linked programs shared by
+ * every renderer using the same shader sources on the same context, and an inventory of the
+ * textures created through it. Renderers acquire objects when their surface is created and
+ * release them when it is destroyed; an object is deleted once its last user released it.
+ * <p>
+ * Contexts created by a {@link RenderThreadPool} all share one group and therefore one
+ * manager. A {@link GLTextureView} with its own render thread gets a manager per context.
+ * Programs are not shared between different contexts of a group, because their uniform values
+ * are program state and two render threads could not update them safely.
+ * <p>
+ * All methods except the static registry and the inventory getters must be called on a thread
+ * with a context of the group current.
+ */
+public final class GLResourceManager {
+    static final int FLOAT_SIZE_BYTES = 4;
+    static final int QUAD_STRIDE_BYTES = 5 * FLOAT_SIZE_BYTES;
+    static final int QUAD_POSITION_OFFSET_BYTES = 0;
+    static final int QUAD_UV_OFFSET_BYTES = 3 * FLOAT_SIZE_BYTES;
+    static final int QUAD_VERTEX_COUNT = 4;
+
+    private static final float[] QUAD_VERTICES = {
+        // X, Y, Z, U, V
+        -1.0f, -1.0f, 0, 0.f, 0.f,
+        1.0f, -1.0f, 0, 1.f, 0.f,
+        -1.0f, 1.0f, 0, 0.f, 1.f,
+        1.0f, 1.0f, 0, 1.f, 1.f,
+    };
+
+    /**
+     * The EGL and GL calls whose results the managers depend on.
+     */
+    static final Platform DEVICE = new Platform() {
+        @Override
+        public EGLContext getCurrentContext() {
+            return ((EGL10) EGLContext.getEGL()).eglGetCurrentContext();
+        }
+
+        @Override
+        public int createProgram(String vertexSource, String fragmentSource,
+                                 ProgramBinaryCache programBinaryCache) {
+            return GLUtility.createProgram(vertexSource, fragmentSource, programBinaryCache);
+        }
+    };
+
+    // Guarded by the class.
+    private static final HashMap<EGLContext, GLResourceManager> sManagers =
+        new HashMap<EGLContext, GLResourceManager>();
+    private static volatile Platform sPlatform = DEVICE;
+
+    // All below guarded by this.
+    private final HashSet<EGLContext> contexts = new HashSet<EGLContext>();
+    private final HashMap<ProgramKey, Program> programs = new HashMap<ProgramKey, Program>();
+    private final HashMap<Integer, String> textures = new HashMap<Integer, String>();
+    private boolean disposed;
+    private int quadBufferID;
+    private int quadBufferRefCount;
+    private long programLinkCount;
+    private long programReuseCount;
+
+    private GLResourceManager() {
+    }
+
+    /**
+     * Register a newly created context. Called by the render threads.
+     *
+     * @param shareContext the context it shares objects with, or null
+     */
+    static void onContextCreated(EGLContext context, EGLContext shareContext) {
+        synchronized (GLResourceManager.class) {
+            GLResourceManager manager = shareContext != null ? sManagers.get(shareContext) : null;
+            if (manager == null) {
+                manager = new GLResourceManager();
+            }
+            synchronized (manager) {
+                manager.contexts.add(context);
+            }
+            sManagers.put(context, manager);
+        }
+    }
+
+    /**
+     * Unregister a context that is about to be destroyed. Once the last context of a group is
+     * gone its manager is disposed; the GL objects die with the contexts.
+     */
+    static void onContextDestroyed(EGLContext context) {
+        synchronized (GLResourceManager.class) {
+            GLResourceManager manager = sManagers.remove(context);
+            if (manager != null) {
+                manager.removeContext(context);
+            }
+        }
+    }
+
+    /**
+     * @return the manager of the share group of the current context.
+     */
+    static GLResourceManager forCurrentContext() {
+        EGLContext context = currentContext();
+        synchronized (GLResourceManager.class) {
+            GLResourceManager manager = sManagers.get(context);
+            if (manager == null) {
+                // A context created outside of our render threads.
+                onContextCreated(context, null);
+                manager = sManagers.get(context);
+            }
+            return manager;
+        }
+    }
+
+    /**
+     * Replace the platform calls, for tests that run the renderer on the JVM, where EGL and GL
+     * only return default values. Pass {@link #DEVICE} to restore them.
+     */
+    static void setPlatform(Platform platform) {
+        sPlatform = platform;
+    }
+
+    private static EGLContext currentContext() {
+        EGLContext context = sPlatform.getCurrentContext();
+        if (context == null || context.equals(EGL10.EGL_NO_CONTEXT)) {
+            throw new IllegalStateException("No current EGL context");
+        }
+        return context;
+    }
+
+    private synchronized void removeContext(EGLContext context) {
+        contexts.remove(context);
+        // The programs of that context remain in the group but can no longer be reached.
+        Iterator<Map.Entry<ProgramKey, Program>> iterator = programs.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getKey().context.equals(context)) {
+                iterator.remove();
+            }
+        }
+        if (contexts.isEmpty()) {
+            disposed = true;
+            programs.clear();
+            textures.clear();
+            quadBufferID = 0;
+            quadBufferRefCount = 0;
+        }
+    }
+
+    /**
+     * @return the name of the vertex buffer holding the quad as triangle strip, with
+     * interleaved position (xyz) and texture coordinate (uv) per vertex.
+     */
+    synchronized int acquireQuadBuffer() {
+        if (quadBufferRefCount == 0) {
+            FloatBuffer vertices = ByteBuffer
+                .allocateDirect(QUAD_VERTICES.length * FLOAT_SIZE_BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+            vertices.put(QUAD_VERTICES).position(0);
+
+            int[] buffers = new int[1];
+            GLES20.glGenBuffers(1, buffers, 0);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[0]);
+            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, QUAD_VERTICES.length * FLOAT_SIZE_BYTES,
+                vertices, GLES20.GL_STATIC_DRAW);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+            GLUtility.checkGlError("glBufferData quad");
+            // Other contexts of the group only see the data once it reached the GPU.
+            GLES20.glFlush();
+            quadBufferID = buffers[0];
+        }
+        quadBufferRefCount++;
+        return quadBufferID;
+    }
+
+    synchronized void releaseQuadBuffer() {
+        if (disposed || quadBufferRefCount == 0) {
+            return;
+        }
+        if (--quadBufferRefCount == 0) {
+            GLES20.glDeleteBuffers(1, new int[]{quadBufferID}, 0);
+            quadBufferID = 0;
+        }
+    }
+
+    /**
+     * @return a linked program for the sources, shared with other users on the current context.
+     * @throws RuntimeException if the program does not compile or link
+     */
+    synchronized Program acquireProgram(String vertexSource, String fragmentSource,
+                                        ProgramBinaryCache programBinaryCache) {
+        ProgramKey key = new ProgramKey(currentContext(), vertexSource, fragmentSource);
+        Program program = programs.get(key);
+        if (program != null) {
+            program.refCount++;
+            programReuseCount++;
+            return program;
+        }
+
+        int id = sPlatform.createProgram(vertexSource, fragmentSource, programBinaryCache);
+        if (id == 0) {
+            throw new RuntimeException("Failed to create program");
+        }
+        programLinkCount++;
+        program = new Program(key, id);
+        programs.put(key, program);
+        return program;
+    }
+
+    synchronized void releaseProgram(Program program) {
+        if (disposed || program.refCount == 0) {
+            return;
+        }
+        if (--program.refCount == 0) {
+            if (programs.get(program.key) == program) {
+                programs.remove(program.key);
+            }
+            GLES20.glDeleteProgram(program.id);
+        }
+    }
+
+    /**
+     * Create a texture with nearest minification and linear magnification, bound to
+     * {@code target}.
+     *
+     * @param label shows up in {@link #toString()}
+     */
+    synchronized int createTexture(int target, String label) {
+        int[] ids = new int[1];
+        GLES20.glGenTextures(1, ids, 0);
+        GLES20.glBindTexture(target, ids[0]);
+        GLUtility.checkGlError("glBindTexture " + label);
+        GLES20.glTexParameterf(target, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameterf(target, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        textures.put(ids[0], label);
+        return ids[0];
+    }
+
+    synchronized void deleteTexture(int id) {
+        if (disposed || textures.remove(id) == null) {
+            return;
+        }
+        GLES20.glDeleteTextures(1, new int[]{id}, 0);
+    }
+
+    /**
+     * @return the number of live programs.
+     */
+    public synchronized int getProgramCount() {
+        return programs.size();
+    }
+
+    /**
+     * @return the number of live textures created through this manager.
+     */
+    public synchronized int getTextureCount() {
+        return textures.size();
+    }
+
+    /**
+     * @return the number of live vertex buffers.
+     */
+    public synchronized int getBufferCount() {
+        return quadBufferRefCount > 0 ? 1 : 0;
+    }
+
+    /**
+     * @return how often a program had to be compiled or loaded from a binary.
+     */
+    public synchronized long getProgramLinkCount() {
+        return programLinkCount;
+    }
+
+    /**
+     * @return how often an existing program was handed out instead of creating a new one.
+     */
+    public synchronized long getProgramReuseCount() {
+        return programReuseCount;
+    }
+
+    public synchronized int getContextCount() {
+        return contexts.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("GLResourceManager{contexts=").append(contexts.size())
+            .append(", programs=").append(programs.size())
+            .append(" (").append(programLinkCount).append(" linked, ")
+            .append(programReuseCount).append(" reused)")
+            .append(", buffers=").append(getBufferCount())
+            .append(", textures=").append(textures.values());
+        if (disposed) {
+            builder.append(", disposed");
+        }
+        return builder.append('}').toString();
+    }
+
+    interface Platform {
+        /**
+         * @return the context current on the calling thread, or null or EGL_NO_CONTEXT
+         */
+        EGLContext getCurrentContext();
+
+        /**
+         * @return the linked program, or 0 on failure. See {@link GLUtility#createProgram}.
+         */
+        int createProgram(String vertexSource, String fragmentSource,
+                          ProgramBinaryCache programBinaryCache);
+    }
+
+    /**
+     * A shared program and the renderer that last uploaded uniforms to it.
+     */
+    static final class Program {
+        final ProgramKey key;
+        final int id;
+        int refCount = 1;
+        private Object lastUser;
+
+        Program(ProgramKey key, int id) {
+            this.key = key;
+            this.id = id;
+        }
+
+        /**
+         * Record {@code user} as the one drawing with this program. Only called on the thread of
+         * the program's context.
+         *
+         * @return true if someone else drew with it since {@code user} did, so the uniform
+         * values of {@code user} have to be uploaded again.
+         */
+        boolean claim(Object user) {
+            if (lastUser == user) {
+                return false;
+            }
+            lastUser = user;
+            return true;
+        }
+    }
+
+    private static final class ProgramKey {
+        final EGLContext context;
+        final String vertexSource;
+        final String fragmentSource;
+
+        ProgramKey(EGLContext context, String vertexSource, String fragmentSource) {
+            this.context = context;
+            this.vertexSource = vertexSource;
+            this.fragmentSource = fragmentSource;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ProgramKey)) {
+                return false;
+            }
+            ProgramKey other = (ProgramKey) o;
+            return context.equals(other.context)
+                && vertexSource.equals(other.vertexSource)
+                && fragmentSource.equals(other.fragmentSource);
+        }
+
+        @Override
+        public int hashCode() {
+            return (context.hashCode() * 31 + vertexSource.hashCode()) * 31 + fragmentSource.hashCode();
+        }
+    }
+}
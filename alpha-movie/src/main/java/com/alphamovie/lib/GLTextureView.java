@@ -16,9 +16,13 @@
 
 package com.alphamovie.lib;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.SurfaceTexture;
+import android.opengl.EGL14;
+import android.opengl.EGLExt;
 import android.opengl.GLDebugHelper;
+import android.os.Build;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.TextureView;
@@ -86,6 +90,13 @@ public class GLTextureView
      */
     public final static int DEBUG_LOG_GL_CALLS = 2;
 
+    /**
+     * The default number of queued events run between two frames.
+     *
+     * @see #setEventBudgetPerFrame
+     */
+    public final static int DEFAULT_EVENT_BUDGET_PER_FRAME = 64;
+
     /**
      * Standard View constructor. In order to render something, you
      * must call {@link #setRenderer} to register a renderer.
@@ -226,10 +237,156 @@ public class GLTextureView
             mEGLWindowSurfaceFactory = new DefaultWindowSurfaceFactory();
         }
         mRenderer = renderer;
-        mGLThread = new GLThread(mThisWeakRef);
+        mGLThread = createRenderThread(RENDERMODE_CONTINUOUSLY);
         mGLThread.start();
     }
 
+    /**
+     * Render this view on a thread of a shared {@link RenderThreadPool} instead of a dedicated
+     * GLThread. Pass null to go back to a dedicated thread.
+     * <p>
+     * May be called before or after {@link #setRenderer(Renderer)}. If a render thread is
+     * already running it is stopped and the renderer is moved to the new thread, which
+     * calls {@link Renderer#onSurfaceCreated} again on the new EGL context. Must be called
+     * from the UI thread.
+     * <p>
+     * A pooled view shares its EGL context with other views of the same pool thread, so
+     * {@link #setGLWrapper(GLWrapper)} and {@link #setDebugFlags(int)} have no effect on it.
+     *
+     * @param pool the pool to render on, or null
+     */
+    public void setRenderThreadPool(RenderThreadPool pool) {
+        if (pool == mRenderThreadPool) {
+            return;
+        }
+        mRenderThreadPool = pool;
+        if (mGLThread != null && !mDetached) {
+            int renderMode = mGLThread.getRenderMode();
+            mGLThread.requestExitAndWait();
+            mGLThread = createRenderThread(renderMode);
+            mGLThread.start();
+
+            SurfaceTexture surfaceTexture = getSurfaceTexture();
+            if (surfaceTexture != null && isAvailable()) {
+                surfaceCreated(surfaceTexture);
+                surfaceChanged(surfaceTexture, 0, getWidth(), getHeight());
+            }
+        }
+    }
+
+    public RenderThreadPool getRenderThreadPool() {
+        return mRenderThreadPool;
+    }
+
+    /**
+     * Set the priority of this view on a shared {@link RenderThreadPool} thread. When several
+     * views of the same pool thread are ready to draw, views with a higher priority are drawn
+     * first; views of equal priority are drawn round-robin. Has no effect on views with a
+     * dedicated render thread. The default is 0.
+     *
+     * @param priority the render priority
+     */
+    public void setRenderPriority(int priority) {
+        mRenderPriority = priority;
+    }
+
+    public int getRenderPriority() {
+        return mRenderPriority;
+    }
+
+    /**
+     * Set how many {@link #queueEvent(Runnable) queued events} the render thread runs before
+     * it draws a pending frame. Events beyond the budget wait until the frame has been drawn,
+     * so a flood of events, such as parameter updates at touch rate, cannot hold back
+     * rendering. When there is no frame to draw, events are run regardless of the budget.
+     * The default is {@link #DEFAULT_EVENT_BUDGET_PER_FRAME}; use {@link Integer#MAX_VALUE}
+     * to run every queued event before each frame.
+     *
+     * @param budget the number of events to run between two frames, at least 1
+     */
+    public void setEventBudgetPerFrame(int budget) {
+        if (budget < 1) {
+            throw new IllegalArgumentException("budget");
+        }
+        mEventBudgetPerFrame = budget;
+    }
+
+    public int getEventBudgetPerFrame() {
+        return mEventBudgetPerFrame;
+    }
+
+    /**
+     * Render into a buffer smaller than the view and let the compositor scale it up to the view
+     * size. The renderer sees the reduced size in {@link Renderer#onSurfaceChanged}, so a scale
+     * of 0.5 draws a quarter of the pixels. Useful when rendering is bound by fill rate. Has no
+     * effect before API 15. Must be called on the main thread. Unlike a resize of the view this
+     * does not wait for the render thread; the next frame is drawn at the new size. The default
+     * is 1.
+     *
+     * @param scale the buffer size relative to the view size, greater than 0 and at most 1
+     */
+    public void setRenderScale(float scale) {
+        if (!(scale > 0 && scale <= 1)) {
+            throw new IllegalArgumentException("scale");
+        }
+        if (scale == mRenderScale) {
+            return;
+        }
+        mRenderScale = scale;
+        SurfaceTexture surfaceTexture = getSurfaceTexture();
+        if (mGLThread != null && !mDetached && surfaceTexture != null && isAvailable()
+            && Build.VERSION.SDK_INT >= 15) {
+            int w = scaleBufferSize(getWidth());
+            int h = scaleBufferSize(getHeight());
+            setBufferSize(surfaceTexture, w, h);
+            mGLThread.requestResize(w, h);
+        }
+    }
+
+    public float getRenderScale() {
+        return mRenderScale;
+    }
+
+    /**
+     * Stamp the next frame swapped by the render thread with the time it should be shown at,
+     * through eglPresentationTimeANDROID. Ignored before API 18.
+     *
+     * @param presentationTimeNanos a {@link System#nanoTime()} value, or 0 for none
+     */
+    void setNextPresentationTime(long presentationTimeNanos) {
+        mNextPresentationTime = presentationTimeNanos;
+    }
+
+    /*
+     * Called on the render thread right before the swap, with the view's surface current.
+     */
+    void applyPresentationTime() {
+        long presentationTime = mNextPresentationTime;
+        if (presentationTime == 0) {
+            return;
+        }
+        mNextPresentationTime = 0;
+        if (Build.VERSION.SDK_INT >= 18) {
+            setCurrentSurfacePresentationTime(presentationTime);
+        }
+    }
+
+    @TargetApi(18)
+    private static void setCurrentSurfacePresentationTime(long presentationTimeNanos) {
+        EGLExt.eglPresentationTimeANDROID(EGL14.eglGetCurrentDisplay(),
+                EGL14.eglGetCurrentSurface(EGL14.EGL_DRAW), presentationTimeNanos);
+    }
+
+    private RenderThread createRenderThread(int renderMode) {
+        RenderThread thread = mRenderThreadPool != null
+                ? mRenderThreadPool.attach(mThisWeakRef)
+                : new GLThread(mThisWeakRef);
+        if (renderMode != RENDERMODE_CONTINUOUSLY) {
+            thread.setRenderMode(renderMode);
+        }
+        return thread;
+    }
+
     /**
      * Install a custom EGLContextFactory.
      * <p>If this method is
@@ -408,9 +565,24 @@ public class GLTextureView
      * not normally called or subclassed by clients of GLTextureView.
      */
     public void surfaceChanged(SurfaceTexture texture, int format, int w, int h) {
+        if (texture != null && Build.VERSION.SDK_INT >= 15) {
+            w = scaleBufferSize(w);
+            h = scaleBufferSize(h);
+            // TextureView sizes the buffer to the view on every layout, so this has to follow it.
+            setBufferSize(texture, w, h);
+        }
         mGLThread.onWindowResize(w, h);
     }
 
+    private int scaleBufferSize(int size) {
+        return Math.max(1, Math.round(size * mRenderScale));
+    }
+
+    @TargetApi(15)
+    private static void setBufferSize(SurfaceTexture texture, int w, int h) {
+        texture.setDefaultBufferSize(w, h);
+    }
+
     /**
      * Inform the view that the activity is paused. The owner of this view must
      * call this method when the activity is paused. Calling this method will
@@ -457,10 +629,7 @@ public class GLTextureView
             if (mGLThread != null) {
                 renderMode = mGLThread.getRenderMode();
             }
-            mGLThread = new GLThread(mThisWeakRef);
-            if (renderMode != RENDERMODE_CONTINUOUSLY) {
-                mGLThread.setRenderMode(renderMode);
-            }
+            mGLThread = createRenderThread(renderMode);
             mGLThread.start();
         }
         mDetached = false;
@@ -503,7 +672,8 @@ public class GLTextureView
     }
 
     public void onSurfaceTextureUpdated(SurfaceTexture surface) {
-        requestRender();
+        // Called after every eglSwapBuffers of our own thread. Requesting a render here
+        // would turn RENDERMODE_WHEN_DIRTY into a continuous redraw loop.
     }
 
     // ----------------------------------------------------------------------
@@ -657,14 +827,38 @@ public class GLTextureView
         void destroyContext(EGL10 egl, EGLDisplay display, EGLContext context);
     }
 
-    private class DefaultContextFactory implements EGLContextFactory {
+    /**
+     * Implemented by renderers that want to know how long presenting each frame took. The render
+     * thread calls {@link #onFrameSwapped} right after eglSwapBuffers() returns, with
+     * {@link System#nanoTime()} values.
+     */
+    interface SwapTimingListener {
+        void onFrameSwapped(long swapStartTime, long swapEndTime);
+    }
+
+    /**
+     * An {@link EGLContextFactory} that can create contexts in the share group of another
+     * context. Used by {@link RenderThreadPool} so that all pool threads share one share group.
+     * Factories that only implement {@link EGLContextFactory} get unshared contexts.
+     */
+    public interface EGLSharedContextFactory extends EGLContextFactory {
+        EGLContext createContext(EGL10 egl, EGLDisplay display, EGLConfig eglConfig,
+                                 EGLContext shareContext);
+    }
+
+    private class DefaultContextFactory implements EGLSharedContextFactory {
         private int EGL_CONTEXT_CLIENT_VERSION = 0x3098;
 
         public EGLContext createContext(EGL10 egl, EGLDisplay display, EGLConfig config) {
+            return createContext(egl, display, config, EGL10.EGL_NO_CONTEXT);
+        }
+
+        public EGLContext createContext(EGL10 egl, EGLDisplay display, EGLConfig config,
+                                        EGLContext shareContext) {
             int[] attrib_list = {EGL_CONTEXT_CLIENT_VERSION, mEGLContextClientVersion,
                     EGL10.EGL_NONE };
 
-            return egl.eglCreateContext(display, config, EGL10.EGL_NO_CONTEXT,
+            return egl.eglCreateContext(display, config, shareContext,
                     mEGLContextClientVersion != 0 ? attrib_list : null);
         }
 
@@ -894,7 +1088,8 @@ public class GLTextureView
             /*
              * Get an EGL instance
              */
-            mEgl = (EGL10) EGLContext.getEGL();
+            GLTextureView view = mGLSurfaceViewWeakRef.get();
+            mEgl = view != null ? view.getEGL() : (EGL10) EGLContext.getEGL();
 
             /*
              * Get to the default display.
@@ -912,7 +1107,6 @@ public class GLTextureView
             if(!mEgl.eglInitialize(mEglDisplay, version)) {
                 throw new RuntimeException("eglInitialize failed");
             }
-            GLTextureView view = mGLSurfaceViewWeakRef.get();
             if (view == null) {
                 mEglConfig = null;
                 mEglContext = null;
@@ -929,6 +1123,7 @@ public class GLTextureView
                 mEglContext = null;
                 throwEglException("createContext");
             }
+            GLResourceManager.onContextCreated(mEglContext, null);
             if (LOG_EGL) {
                 Log.w("EglHelper", "createContext " + mEglContext + " tid=" + Thread.currentThread().getId());
             }
@@ -1064,6 +1259,7 @@ public class GLTextureView
                 Log.w("EglHelper", "finish() tid=" + Thread.currentThread().getId());
             }
             if (mEglContext != null) {
+                GLResourceManager.onContextDestroyed(mEglContext);
                 GLTextureView view = mGLSurfaceViewWeakRef.get();
                 if (view != null) {
                     view.mEGLContextFactory.destroyContext(mEgl, mEglDisplay, mEglContext);
@@ -1106,16 +1302,40 @@ public class GLTextureView
 
     }
 
+    /**
+     * The part of a render thread that GLTextureView talks to. Implemented by
+     * {@link GLThread} for a dedicated thread and by {@link RenderThreadPool} sessions for
+     * views rendered on a shared thread.
+     */
+    interface RenderThread {
+        void start();
+        void setRenderMode(int renderMode);
+        int getRenderMode();
+        void requestRender();
+        void surfaceCreated();
+        void surfaceDestroyed();
+        void onPause();
+        void onResume();
+        void onWindowResize(int w, int h);
+        void requestResize(int w, int h);
+        void requestExitAndWait();
+        void queueEvent(Runnable r);
+    }
+
     /**
      * A generic GL Thread. Takes care of initializing EGL and GL. Delegates
      * to a Renderer instance to do the actual drawing. Can be configured to
      * render continuously or on request.
      *
-     * All potentially blocking synchronization is done through the
-     * sGLThreadManager object. This avoids multiple-lock ordering issues.
+     * Each thread's state is guarded by its own lock, so a state change only
+     * wakes that thread and the callers waiting on it, not every render thread
+     * in the process. sGLThreadManager only arbitrates EGL context ownership and
+     * is never held while taking a thread's lock. Signals to other threads are
+     * deferred until the signalling thread has left its own lock, so no thread
+     * ever holds two thread locks and there is no lock ordering to get wrong.
      *
      */
-    static class GLThread extends Thread {
+    static class GLThread extends Thread implements RenderThread {
         GLThread(WeakReference<GLTextureView> glSurfaceViewWeakRef) {
             super();
             mWidth = 0;
@@ -1137,13 +1357,18 @@ public class GLTextureView
             } catch (InterruptedException e) {
                 // fall thru and exit normally
             } finally {
+                synchronized (mLock) {
+                    mExited = true;
+                    mLock.notifyAll();
+                }
                 sGLThreadManager.threadExiting(this);
+                sendDeferredSignals();
             }
         }
 
         /*
          * This private method should only be called inside a
-         * synchronized(sGLThreadManager) block.
+         * synchronized(mLock) block.
          */
         private void stopEglSurfaceLocked() {
             if (mHaveEglSurface) {
@@ -1154,15 +1379,55 @@ public class GLTextureView
 
         /*
          * This private method should only be called inside a
-         * synchronized(sGLThreadManager) block.
+         * synchronized(mLock) block.
          */
         private void stopEglContextLocked() {
             if (mHaveEglContext) {
                 mEglHelper.finish();
                 mHaveEglContext = false;
-                sGLThreadManager.releaseEglContextLocked(this);
+                sGLThreadManager.releaseEglContext(this);
+            }
+        }
+
+        /**
+         * @return how often this thread woke up from waiting for work, whether or not it found
+         * any.
+         */
+        long getWakeupCount() {
+            synchronized (mLock) {
+                return mWakeupCount;
+            }
+        }
+
+        /**
+         * @return how long this thread held its lock while deciding what to do next, not
+         * counting the time it waited.
+         */
+        long getLockHeldNanos() {
+            synchronized (mLock) {
+                return mLockHeldNanos;
+            }
+        }
+
+        private boolean hasDeferredSignals() {
+            return mDeferredReleaseRequest != null || !mDeferredWakeups.isEmpty();
+        }
+
+        /*
+         * Deliver the signals sGLThreadManager queued for other threads. Must not
+         * be called with mLock held.
+         */
+        private void sendDeferredSignals() {
+            if (mDeferredReleaseRequest != null) {
+                mDeferredReleaseRequest.requestReleaseEglContext();
+                mDeferredReleaseRequest = null;
             }
+            for (int i = 0; i < mDeferredWakeups.size(); i++) {
+                mDeferredWakeups.get(i).wakeUp();
+            }
+            mDeferredWakeups.clear();
         }
+
         private void guardedRun() throws InterruptedException {
             mEglHelper = new EglHelper(mGLSurfaceViewWeakRef);
             mHaveEglContext = false;
@@ -1179,17 +1444,20 @@ public class GLTextureView
                 boolean askedToReleaseEglContext = false;
                 int w = 0;
                 int h = 0;
-                Runnable event = null;
+                boolean runEvents = false;
+                int eventsSinceFrame = 0;
+                boolean signalBeforeWaiting = false;
 
                 while (true) {
-                    synchronized (sGLThreadManager) {
+                    synchronized (mLock) {
+                        long lockedAt = System.nanoTime();
                         while (true) {
                             if (mShouldExit) {
                                 return;
                             }
 
-                            if (! mEventQueue.isEmpty()) {
-                                event = mEventQueue.remove(0);
+                            if (eventsSinceFrame < getEventBudget() && ! mEventQueue.isEmpty()) {
+                                runEvents = true;
                                 break;
                             }
 
@@ -1198,7 +1466,7 @@ public class GLTextureView
                             if (mPaused != mRequestPaused) {
                                 pausing = mRequestPaused;
                                 mPaused = mRequestPaused;
-                                sGLThreadManager.notifyAll();
+                                mLock.notifyAll();
                                 if (LOG_PAUSE_RESUME) {
                                     Log.i("GLThread", "mPaused is now " + mPaused + " tid=" + getId());
                                 }
@@ -1263,7 +1531,7 @@ public class GLTextureView
                                 }
                                 mWaitingForSurface = true;
                                 mSurfaceIsBad = false;
-                                sGLThreadManager.notifyAll();
+                                mLock.notifyAll();
                             }
 
                             // Have we acquired the surface view surface?
@@ -1272,7 +1540,7 @@ public class GLTextureView
                                     Log.i("GLThread", "noticed surfaceView surface acquired tid=" + getId());
                                 }
                                 mWaitingForSurface = false;
-                                sGLThreadManager.notifyAll();
+                                mLock.notifyAll();
                             }
 
                             if (doRenderNotification) {
@@ -1282,7 +1550,7 @@ public class GLTextureView
                                 wantRenderNotification = false;
                                 doRenderNotification = false;
                                 mRenderComplete = true;
-                                sGLThreadManager.notifyAll();
+                                mLock.notifyAll();
                             }
 
                             // Ready to draw?
@@ -1292,17 +1560,17 @@ public class GLTextureView
                                 if (! mHaveEglContext) {
                                     if (askedToReleaseEglContext) {
                                         askedToReleaseEglContext = false;
-                                    } else if (sGLThreadManager.tryAcquireEglContextLocked(this)) {
+                                    } else if (sGLThreadManager.tryAcquireEglContext(this)) {
                                         try {
                                             mEglHelper.start();
                                         } catch (RuntimeException t) {
-                                            sGLThreadManager.releaseEglContextLocked(this);
+                                            sGLThreadManager.releaseEglContext(this);
                                             throw t;
                                         }
                                         mHaveEglContext = true;
                                         createEglContext = true;
 
-                                        sGLThreadManager.notifyAll();
+                                        mLock.notifyAll();
                                     }
                                 }
 
@@ -1331,11 +1599,28 @@ public class GLTextureView
                                         mSizeChanged = false;
                                     }
                                     mRequestRender = false;
-                                    sGLThreadManager.notifyAll();
+                                    mLock.notifyAll();
                                     break;
                                 }
                             }
 
+                            // Signal other threads before sleeping, and without holding mLock.
+                            if (hasDeferredSignals()) {
+                                signalBeforeWaiting = true;
+                                break;
+                            }
+
+                            // Announce the wait before looking at the queue a last time, so that
+                            // queueEvent either sees the announcement or its event is seen here.
+                            // With no frame to draw, events over the budget run now.
+                            mWaitingForEvents = true;
+                            if (! mEventQueue.isEmpty()) {
+                                mWaitingForEvents = false;
+                                eventsSinceFrame = 0;
+                                runEvents = true;
+                                break;
+                            }
+
                             // By design, this is the only place in a GLThread thread where we wait().
                             if (LOG_THREADS) {
                                 Log.i("GLThread", "waiting tid=" + getId()
@@ -1350,13 +1635,26 @@ public class GLTextureView
                                         + " mRequestRender: " + mRequestRender
                                         + " mRenderMode: " + mRenderMode);
                             }
-                            sGLThreadManager.wait();
+                            mLockHeldNanos += System.nanoTime() - lockedAt;
+                            mLock.wait();
+                            lockedAt = System.nanoTime();
+                            mWakeupCount++;
+                            mWaitingForEvents = false;
                         }
-                    } // end of synchronized(sGLThreadManager)
+                        mLockHeldNanos += System.nanoTime() - lockedAt;
+                    } // end of synchronized(mLock)
+
+                    if (hasDeferredSignals()) {
+                        sendDeferredSignals();
+                    }
+                    if (signalBeforeWaiting) {
+                        signalBeforeWaiting = false;
+                        continue;
+                    }
 
-                    if (event != null) {
-                        event.run();
-                        event = null;
+                    if (runEvents) {
+                        runEvents = false;
+                        eventsSinceFrame += mEventQueue.drain(getEventBudget() - eventsSinceFrame);
                         continue;
                     }
 
@@ -1365,9 +1663,9 @@ public class GLTextureView
                             Log.w("GLThread", "egl createSurface");
                         }
                         if (!mEglHelper.createSurface()) {
-                            synchronized(sGLThreadManager) {
+                            synchronized (mLock) {
                                 mSurfaceIsBad = true;
-                                sGLThreadManager.notifyAll();
+                                mLock.notifyAll();
                             }
                             continue;
                         }
@@ -1412,7 +1710,20 @@ public class GLTextureView
                             view.mRenderer.onDrawFrame(gl);
                         }
                     }
+                    {
+                        GLTextureView view = mGLSurfaceViewWeakRef.get();
+                        if (view != null) {
+                            view.applyPresentationTime();
+                        }
+                    }
+                    long swapStartTime = System.nanoTime();
                     int swapError = mEglHelper.swap();
+                    {
+                        GLTextureView view = mGLSurfaceViewWeakRef.get();
+                        if (view != null && view.mRenderer instanceof SwapTimingListener) {
+                            ((SwapTimingListener) view.mRenderer).onFrameSwapped(swapStartTime, System.nanoTime());
+                        }
+                    }
                     switch (swapError) {
                         case EGL10.EGL_SUCCESS:
                             break;
@@ -1429,9 +1740,9 @@ public class GLTextureView
                             // Log the error to help developers understand why rendering stopped.
                             EglHelper.logEglErrorAsWarning("GLThread", "eglSwapBuffers", swapError);
 
-                            synchronized(sGLThreadManager) {
+                            synchronized (mLock) {
                                 mSurfaceIsBad = true;
-                                sGLThreadManager.notifyAll();
+                                mLock.notifyAll();
                             }
                             break;
                     }
@@ -1439,16 +1750,18 @@ public class GLTextureView
                     if (wantRenderNotification) {
                         doRenderNotification = true;
                     }
+                    eventsSinceFrame = 0;
                 }
 
             } finally {
                 /*
                  * clean-up everything...
                  */
-                synchronized (sGLThreadManager) {
+                synchronized (mLock) {
                     stopEglSurfaceLocked();
                     stopEglContextLocked();
                 }
+                sendDeferredSignals();
             }
         }
 
@@ -1456,6 +1769,11 @@ public class GLTextureView
             return mHaveEglContext && mHaveEglSurface && readyToDraw();
         }
 
+        private int getEventBudget() {
+            GLTextureView view = mGLSurfaceViewWeakRef.get();
+            return view == null ? DEFAULT_EVENT_BUDGET_PER_FRAME : view.mEventBudgetPerFrame;
+        }
+
         private boolean readyToDraw() {
             return (!mPaused) && mHasSurface && (!mSurfaceIsBad)
                     && (mWidth > 0) && (mHeight > 0)
@@ -1466,35 +1784,35 @@ public class GLTextureView
             if ( !((RENDERMODE_WHEN_DIRTY <= renderMode) && (renderMode <= RENDERMODE_CONTINUOUSLY)) ) {
                 throw new IllegalArgumentException("renderMode");
             }
-            synchronized(sGLThreadManager) {
+            synchronized (mLock) {
                 mRenderMode = renderMode;
-                sGLThreadManager.notifyAll();
+                mLock.notifyAll();
             }
         }
 
         public int getRenderMode() {
-            synchronized(sGLThreadManager) {
+            synchronized (mLock) {
                 return mRenderMode;
             }
         }
 
         public void requestRender() {
-            synchronized(sGLThreadManager) {
+            synchronized (mLock) {
                 mRequestRender = true;
-                sGLThreadManager.notifyAll();
+                mLock.notifyAll();
             }
         }
 
         public void surfaceCreated() {
-            synchronized(sGLThreadManager) {
+            synchronized (mLock) {
                 if (LOG_THREADS) {
                     Log.i("GLThread", "surfaceCreated tid=" + getId());
                 }
                 mHasSurface = true;
-                sGLThreadManager.notifyAll();
+                mLock.notifyAll();
                 while((mWaitingForSurface) && (!mExited)) {
                     try {
-                        sGLThreadManager.wait();
+                        mLock.wait();
                     } catch (InterruptedException e) {
                         Thread.currentThread().interrupt();
                     }
@@ -1503,15 +1821,15 @@ public class GLTextureView
         }
 
         public void surfaceDestroyed() {
-            synchronized(sGLThreadManager) {
+            synchronized (mLock) {
                 if (LOG_THREADS) {
                     Log.i("GLThread", "surfaceDestroyed tid=" + getId());
                 }
                 mHasSurface = false;
-                sGLThreadManager.notifyAll();
+                mLock.notifyAll();
                 while((!mWaitingForSurface) && (!mExited)) {
                     try {
-                        sGLThreadManager.wait();
+                        mLock.wait();
                     } catch (InterruptedException e) {
                         Thread.currentThread().interrupt();
                     }
@@ -1520,18 +1838,18 @@ public class GLTextureView
         }
 
         public void onPause() {
-            synchronized (sGLThreadManager) {
+            synchronized (mLock) {
                 if (LOG_PAUSE_RESUME) {
                     Log.i("GLThread", "onPause tid=" + getId());
                 }
                 mRequestPaused = true;
-                sGLThreadManager.notifyAll();
+                mLock.notifyAll();
                 while ((! mExited) && (! mPaused)) {
                     if (LOG_PAUSE_RESUME) {
                         Log.i("Main thread", "onPause waiting for mPaused.");
                     }
                     try {
-                        sGLThreadManager.wait();
+                        mLock.wait();
                     } catch (InterruptedException ex) {
                         Thread.currentThread().interrupt();
                     }
@@ -1540,20 +1858,20 @@ public class GLTextureView
         }
 
         public void onResume() {
-            synchronized (sGLThreadManager) {
+            synchronized (mLock) {
                 if (LOG_PAUSE_RESUME) {
                     Log.i("GLThread", "onResume tid=" + getId());
                 }
                 mRequestPaused = false;
                 mRequestRender = true;
                 mRenderComplete = false;
-                sGLThreadManager.notifyAll();
+                mLock.notifyAll();
                 while ((! mExited) && mPaused && (!mRenderComplete)) {
                     if (LOG_PAUSE_RESUME) {
                         Log.i("Main thread", "onResume waiting for !mPaused.");
                     }
                     try {
-                        sGLThreadManager.wait();
+                        mLock.wait();
                     } catch (InterruptedException ex) {
                         Thread.currentThread().interrupt();
                     }
@@ -1562,13 +1880,13 @@ public class GLTextureView
         }
 
         public void onWindowResize(int w, int h) {
-            synchronized (sGLThreadManager) {
+            synchronized (mLock) {
                 mWidth = w;
                 mHeight = h;
                 mSizeChanged = true;
                 mRequestRender = true;
                 mRenderComplete = false;
-                sGLThreadManager.notifyAll();
+                mLock.notifyAll();
 
                 // Wait for thread to react to resize and render a frame
                 while (! mExited && !mPaused && !mRenderComplete
@@ -1577,7 +1895,7 @@ public class GLTextureView
                         Log.i("Main thread", "onWindowResize waiting for render complete from tid=" + getId());
                     }
                     try {
-                        sGLThreadManager.wait();
+                        mLock.wait();
                     } catch (InterruptedException ex) {
                         Thread.currentThread().interrupt();
                     }
@@ -1585,15 +1903,29 @@ public class GLTextureView
             }
         }
 
+        /**
+         * Like {@link #onWindowResize(int, int)}, but returns without waiting for a frame at
+         * the new size.
+         */
+        public void requestResize(int w, int h) {
+            synchronized (mLock) {
+                mWidth = w;
+                mHeight = h;
+                mSizeChanged = true;
+                mRequestRender = true;
+                mLock.notifyAll();
+            }
+        }
+
         public void requestExitAndWait() {
             // don't call this from GLThread thread or it is a guaranteed
             // deadlock!
-            synchronized(sGLThreadManager) {
+            synchronized (mLock) {
                 mShouldExit = true;
-                sGLThreadManager.notifyAll();
+                mLock.notifyAll();
                 while (! mExited) {
                     try {
-                        sGLThreadManager.wait();
+                        mLock.wait();
                     } catch (InterruptedException ex) {
                         Thread.currentThread().interrupt();
                     }
@@ -1601,9 +1933,21 @@ public class GLTextureView
             }
         }
 
-        public void requestReleaseEglContextLocked() {
-            mShouldReleaseEglContext = true;
-            sGLThreadManager.notifyAll();
+        void requestReleaseEglContext() {
+            synchronized (mLock) {
+                mShouldReleaseEglContext = true;
+                mLock.notifyAll();
+            }
+        }
+
+        /*
+         * Wake the thread to re-check its state, e.g. because the EGL context it
+         * waits for was released.
+         */
+        void wakeUp() {
+            synchronized (mLock) {
+                mLock.notifyAll();
+            }
         }
 
         /**
@@ -1614,14 +1958,18 @@ public class GLTextureView
             if (r == null) {
                 throw new IllegalArgumentException("r must not be null");
             }
-            synchronized(sGLThreadManager) {
-                mEventQueue.add(r);
-                sGLThreadManager.notifyAll();
+            mEventQueue.offer(r);
+            if (mWaitingForEvents) {
+                synchronized (mLock) {
+                    mLock.notifyAll();
+                }
             }
         }
 
+        private final Object mLock = new Object();
+
         // Once the thread is started, all accesses to the following member
-        // variables are protected by the sGLThreadManager monitor
+        // variables are protected by mLock
         private boolean mShouldExit;
         private boolean mExited;
         private boolean mRequestPaused;
@@ -1637,10 +1985,21 @@ public class GLTextureView
         private int mRenderMode;
         private boolean mRequestRender;
         private boolean mRenderComplete;
-        private ArrayList<Runnable> mEventQueue = new ArrayList<Runnable>();
         private boolean mSizeChanged = true;
+        private long mWakeupCount;
+        private long mLockHeldNanos;
+
+        // End of member variables protected by mLock.
+
+        // Added to by any thread without a lock, run by this thread.
+        private final MpscRunnableQueue mEventQueue = new MpscRunnableQueue();
+        // Set by this thread while it waits with an empty event queue.
+        private volatile boolean mWaitingForEvents;
 
-        // End of member variables protected by the sGLThreadManager monitor.
+        // Signals for other threads, queued by sGLThreadManager while this thread
+        // holds mLock and sent after it lets go. Only used by this thread.
+        private GLThread mDeferredReleaseRequest;
+        private final ArrayList<GLThread> mDeferredWakeups = new ArrayList<GLThread>();
 
         private EglHelper mEglHelper;
 
@@ -1664,15 +2023,16 @@ public class GLTextureView
         }
 
         @Override public void write(char[] buf, int offset, int count) {
-            for(int i = 0; i < count; i++) {
-                char c = buf[offset + i];
-                if ( c == '\n') {
+            int end = offset + count;
+            int start = offset;
+            for(int i = offset; i < end; i++) {
+                if (buf[i] == '\n') {
+                    mBuilder.append(buf, start, i - start);
                     flushBuilder();
-                }
-                else {
-                    mBuilder.append(c);
+                    start = i + 1;
                 }
             }
+            mBuilder.append(buf, start, end - start);
         }
 
         private void flushBuilder() {
@@ -1693,6 +2053,41 @@ public class GLTextureView
         }
     }
 
+    Renderer getRenderer() {
+        return mRenderer;
+    }
+
+    RenderThread getRenderThread() {
+        return mGLThread;
+    }
+
+    /**
+     * @return the EGL implementation the render thread initializes. Tests override this to run
+     * the render threads against a fake EGL.
+     */
+    EGL10 getEGL() {
+        return (EGL10) EGLContext.getEGL();
+    }
+
+    EGLConfigChooser getEGLConfigChooser() {
+        return mEGLConfigChooser;
+    }
+
+    EGLContextFactory getEGLContextFactory() {
+        return mEGLContextFactory;
+    }
+
+    EGLWindowSurfaceFactory getEGLWindowSurfaceFactory() {
+        return mEGLWindowSurfaceFactory;
+    }
+
+    /**
+     * Arbitrates EGL context ownership between GLThreads. Threads that cannot get
+     * the context are remembered and woken when it is released; everything else a
+     * GLThread waits for is signalled on its own lock. Never takes a GLThread's
+     * lock: signals for other threads are handed back to the calling thread and
+     * sent once it has left its own lock.
+     */
     private static class GLThreadManager {
         private static String TAG = "GLThreadManager";
 
@@ -1700,49 +2095,54 @@ public class GLTextureView
             if (LOG_THREADS) {
                 Log.i("GLThread", "exiting tid=" +  thread.getId());
             }
-            thread.mExited = true;
+            mEglWaiters.remove(thread);
             if (mEglOwner == thread) {
                 mEglOwner = null;
+                thread.mDeferredWakeups.addAll(mEglWaiters);
+                mEglWaiters.clear();
             }
-            notifyAll();
         }
 
         /*
          * Tries once to acquire the right to use an EGL
-         * context. Does not block. Requires that we are already
-         * in the sGLThreadManager monitor when this is called.
+         * context. Does not block. If another thread owns the
+         * context, it is asked to release it and the caller is
+         * woken once it does.
          *
          * @return true if the right to use an EGL context was acquired.
          */
-        public boolean tryAcquireEglContextLocked(GLThread thread) {
+        public synchronized boolean tryAcquireEglContext(GLThread thread) {
             if (mEglOwner == thread || mEglOwner == null) {
                 mEglOwner = thread;
-                notifyAll();
+                mEglWaiters.remove(thread);
                 return true;
             }
             checkGLESVersion();
             if (mMultipleGLESContextsAllowed) {
                 return true;
             }
-            // Notify the owning thread that it should release the context.
+            // Ask the owning thread to release the context.
             // TODO: implement a fairness policy. Currently
             // if the owning thread is drawing continuously it will just
             // reacquire the EGL context.
-            if (mEglOwner != null) {
-                mEglOwner.requestReleaseEglContextLocked();
+            // Ask once per wait, the caller sleeps until the release wakes it.
+            if (!mEglWaiters.contains(thread)) {
+                mEglWaiters.add(thread);
+                thread.mDeferredReleaseRequest = mEglOwner;
             }
             return false;
         }
 
         /*
-         * Releases the EGL context. Requires that we are already in the
-         * sGLThreadManager monitor when this is called.
+         * Releases the EGL context, and queues wakeups for the threads
+         * waiting for it on the calling thread.
          */
-        public void releaseEglContextLocked(GLThread thread) {
+        public synchronized void releaseEglContext(GLThread thread) {
             if (mEglOwner == thread) {
                 mEglOwner = null;
+                thread.mDeferredWakeups.addAll(mEglWaiters);
+                mEglWaiters.clear();
             }
-            notifyAll();
         }
 
         public synchronized boolean shouldReleaseEGLContextWhenPausing() {
@@ -1764,7 +2164,6 @@ public class GLTextureView
                 if (mGLESVersion < kGLES_20) {
                     mMultipleGLESContextsAllowed =
                             ! renderer.startsWith(kMSM7K_RENDERER_PREFIX);
-                    notifyAll();
                 }
                 mLimitedGLESContexts = !mMultipleGLESContextsAllowed;
                 if (LOG_SURFACE) {
@@ -1806,13 +2205,19 @@ public class GLTextureView
         private static final String kMSM7K_RENDERER_PREFIX =
                 "Q3Dimension MSM7500 ";
         private GLThread mEglOwner;
+        private final ArrayList<GLThread> mEglWaiters = new ArrayList<GLThread>();
     }
 
     private static final GLThreadManager sGLThreadManager = new GLThreadManager();
 
     private final WeakReference<GLTextureView> mThisWeakRef =
             new WeakReference<GLTextureView>(this);
-    private GLThread mGLThread;
+    private RenderThread mGLThread;
+    private RenderThreadPool mRenderThreadPool;
+    private volatile int mRenderPriority;
+    private volatile int mEventBudgetPerFrame = DEFAULT_EVENT_BUDGET_PER_FRAME;
+    private volatile long mNextPresentationTime;
+    private float mRenderScale = 1;
     private Renderer mRenderer;
     private boolean mDetached;
     private EGLConfigChooser mEGLConfigChooser;
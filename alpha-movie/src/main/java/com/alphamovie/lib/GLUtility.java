@@ -2,12 +2,102 @@ package com.alphamovie.lib;
 
 import android.opengl.GLES20;
 import android.opengl.GLU;
+import android.os.Build;
+import android.util.Log;
 
 public final class GLUtility {
+    private static final String TAG = "GLUtility";
+
     public static void checkGlError(String op) {
         int error;
         if ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
             throw new RuntimeException(op + ": glError " + error + " (" + GLU.gluErrorString(error) + ")");
         }
     }
+
+    /**
+     * Must be called with a current context.
+     * @return true if the current context exposes OpenGL ES 3.0 and the platform has bindings for it.
+     */
+    public static boolean isGLES3Context() {
+        if (Build.VERSION.SDK_INT < 18) {
+            return false;
+        }
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        return version != null && version.startsWith("OpenGL ES 3");
+    }
+
+    /**
+     * Compile and link a program, or load it from {@code programBinaryCache} if it holds a
+     * binary for these sources. Must be called with a current context.
+     *
+     * @param programBinaryCache may be null, and is ignored where program binaries are not
+     * supported
+     * @return the program, or 0 on failure. The failure is logged.
+     */
+    public static int createProgram(String vertexSource, String fragmentSource,
+                                    ProgramBinaryCache programBinaryCache) {
+        if (programBinaryCache != null && !ProgramBinaryCache.isSupported()) {
+            programBinaryCache = null;
+        }
+        if (programBinaryCache != null) {
+            int program = programBinaryCache.loadProgram(vertexSource, fragmentSource);
+            if (program != 0) {
+                return program;
+            }
+        }
+
+        int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
+        if (vertexShader == 0) {
+            return 0;
+        }
+        int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+        if (fragmentShader == 0) {
+            GLES20.glDeleteShader(vertexShader);
+            return 0;
+        }
+
+        int program = GLES20.glCreateProgram();
+        if (program != 0) {
+            GLES20.glAttachShader(program, vertexShader);
+            checkGlError("glAttachShader");
+            GLES20.glAttachShader(program, fragmentShader);
+            checkGlError("glAttachShader");
+            if (programBinaryCache != null) {
+                programBinaryCache.prepareForLink(program);
+            }
+            GLES20.glLinkProgram(program);
+            int[] linkStatus = new int[1];
+            GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+            if (linkStatus[0] != GLES20.GL_TRUE) {
+                Log.e(TAG, "Could not link program: ");
+                Log.e(TAG, GLES20.glGetProgramInfoLog(program));
+                GLES20.glDeleteProgram(program);
+                program = 0;
+            } else if (programBinaryCache != null) {
+                programBinaryCache.storeProgram(program, vertexSource, fragmentSource);
+            }
+        }
+        // The shaders are freed together with the program.
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShader);
+        return program;
+    }
+
+    private static int loadShader(int shaderType, String source) {
+        int shader = GLES20.glCreateShader(shaderType);
+        if (shader != 0) {
+            GLES20.glShaderSource(shader, source);
+            GLES20.glCompileShader(shader);
+            int[] compiled = new int[1];
+            GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
+            if (compiled[0] == 0) {
+                Log.e(TAG, "Could not compile shader " + shaderType + ":");
+                Log.e(TAG, GLES20.glGetShaderInfoLog(shader));
+                GLES20.glDeleteShader(shader);
+                shader = 0;
+            }
+        }
+        return shader;
+    }
 }
@@ -0,0 +1,166 @@
+package com.alphamovie.lib;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+/**
+ * Measures the GPU time of frames with GL_EXT_disjoint_timer_query.
+ * <p>
+ * Every timed frame is wrapped in a GL_TIME_ELAPSED_EXT query. The queries are kept in a small
+ * ring and their results are only read once the GPU reports them available, a few frames later,
+ * so the render thread never waits for them. When every query of the ring is still pending the
+ * frame is not timed.
+ * <p>
+ * The extension is only reachable through the OpenGL ES 3.0 query entry points, so timing needs
+ * an OpenGL ES 3.0 context that exposes it. Elsewhere every method is a no-op.
+ * <p>
+ * All methods must be called on the GL thread.
+ */
+final class GpuTimer {
+    static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+    static final int QUERY_COUNT = 4;
+
+    /**
+     * Returned by {@link #poll()} when no result is available yet.
+     */
+    static final long NOT_READY = -2;
+
+    private static final String EXTENSION = "GL_EXT_disjoint_timer_query";
+
+    private final int[] queries = new int[QUERY_COUNT];
+    private final long[] tags = new long[QUERY_COUNT];
+    private final int[] result = new int[1];
+    private int queryHead;
+    private int queryCount;
+    private boolean running;
+    private boolean supported;
+    private long polledTag;
+
+    /**
+     * Called from onSurfaceCreated. Queries of a previous context died with it.
+     */
+    void onContextCreated() {
+        queryHead = 0;
+        queryCount = 0;
+        running = false;
+        supported = GLUtility.isGLES3Context() && hasExtension();
+        if (supported) {
+            generateQueries();
+        }
+    }
+
+    /**
+     * Called from onSurfaceDestroyed while the context is still current. Query objects are not
+     * shared between the contexts of a share group, so they are deleted here rather than left to
+     * the resource manager.
+     */
+    void release() {
+        if (supported) {
+            deleteQueries();
+            supported = false;
+        }
+        queryCount = 0;
+        running = false;
+    }
+
+    boolean isSupported() {
+        return supported;
+    }
+
+    /**
+     * Start timing a frame, before its first GL call.
+     *
+     * @param tag identifies the frame in {@link #getPolledTag()}
+     * @return true if the frame is timed
+     */
+    boolean beginFrame(long tag) {
+        if (!supported || running || queryCount == QUERY_COUNT) {
+            return false;
+        }
+        int index = (queryHead + queryCount) % QUERY_COUNT;
+        tags[index] = tag;
+        beginQuery(queries[index]);
+        running = true;
+        return true;
+    }
+
+    /**
+     * Stop timing the frame started by {@link #beginFrame(long)}, after its last draw call.
+     */
+    void endFrame() {
+        if (running) {
+            endQuery();
+            running = false;
+            queryCount++;
+        }
+    }
+
+    /**
+     * Read the result of the oldest timed frame if the GPU has it. Results come back in the order
+     * the frames were timed.
+     *
+     * @return the GPU time of the frame in nanoseconds, -1 if the GPU reported a disjoint event
+     * that makes it meaningless, or {@link #NOT_READY}
+     */
+    long poll() {
+        if (queryCount == 0) {
+            return NOT_READY;
+        }
+        long duration = readQuery(queries[queryHead]);
+        if (duration == NOT_READY) {
+            return NOT_READY;
+        }
+        polledTag = tags[queryHead];
+        queryHead = (queryHead + 1) % QUERY_COUNT;
+        queryCount--;
+        return duration;
+    }
+
+    /**
+     * @return the tag passed to {@link #beginFrame(long)} for the frame last returned by
+     * {@link #poll()}.
+     */
+    long getPolledTag() {
+        return polledTag;
+    }
+
+    private static boolean hasExtension() {
+        String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        return extensions != null && extensions.contains(EXTENSION);
+    }
+
+    @TargetApi(18)
+    private void generateQueries() {
+        GLES30.glGenQueries(QUERY_COUNT, queries, 0);
+    }
+
+    @TargetApi(18)
+    private void deleteQueries() {
+        GLES30.glDeleteQueries(QUERY_COUNT, queries, 0);
+    }
+
+    @TargetApi(18)
+    private static void beginQuery(int query) {
+        GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, query);
+    }
+
+    @TargetApi(18)
+    private static void endQuery() {
+        GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+    }
+
+    @TargetApi(18)
+    private long readQuery(int query) {
+        GLES30.glGetQueryObjectuiv(query, GLES30.GL_QUERY_RESULT_AVAILABLE, result, 0);
+        if (result[0] == 0) {
+            return NOT_READY;
+        }
+        GLES30.glGetQueryObjectuiv(query, GLES30.GL_QUERY_RESULT, result, 0);
+        long duration = result[0] & 0xffffffffL;
+        // A frequency change or similar since the last check invalidates pending results.
+        GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, result, 0);
+        return result[0] != 0 ? -1 : duration;
+    }
+}
@@ -0,0 +1,660 @@
+package com.alphamovie.lib;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A disk cache of HTTP resources, filled chunk by chunk with range requests as the content is
+ * read.
+ * <p>
+ * Every URL is stored as a sparse data file plus a small index file recording which chunks are
+ * present, the content length and the ETag or Last-Modified validator. Later range requests
+ * send the validator in If-Range, so content that changed on the server replaces the stale
+ * chunks instead of being mixed with them; a {@link Source} that already returned stale bytes
+ * fails with an IOException and has to be opened again. Content that is fully cached is not
+ * revalidated, call {@link #clear()} if that matters. Readers of the same chunk share one
+ * download.
+ * Whole URLs are evicted, least recently used first, once the cache grows past its budget;
+ * URLs with open {@link Source}s are never evicted.
+ * <p>
+ * On Android, {@link CachingMediaDataSource} plugs it into the player.
+ */
+public final class HttpRangeCache {
+    public final static int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    private static final String DATA_SUFFIX = ".data";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final int FILE_MAGIC = 0x414d4843;
+    private static final int FILE_VERSION = 1;
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 15000;
+
+    private final File directory;
+    private final long maxBytes;
+    private final int chunkSize;
+
+    // Guarded by this. In access order, least recently used first.
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long totalBytes;
+    private boolean loaded;
+
+    private final AtomicLong hitBytes = new AtomicLong();
+    private final AtomicLong downloadedBytes = new AtomicLong();
+    private final AtomicLong requestCount = new AtomicLong();
+
+    public HttpRangeCache(File directory, long maxBytes) {
+        this(directory, maxBytes, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize the size of a range request, and the granularity the cache stores
+     */
+    public HttpRangeCache(File directory, long maxBytes, int chunkSize) {
+        if (maxBytes < chunkSize) {
+            throw new IllegalArgumentException("maxBytes");
+        }
+        if (chunkSize < 1024) {
+            throw new IllegalArgumentException("chunkSize");
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.chunkSize = chunkSize;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @return the number of bytes stored, counted in whole chunks.
+     */
+    public synchronized long getSize() {
+        ensureLoaded();
+        return totalBytes;
+    }
+
+    /**
+     * @return the number of bytes read by {@link Source}s that were already cached.
+     */
+    public long getHitBytes() {
+        return hitBytes.get();
+    }
+
+    public long getDownloadedBytes() {
+        return downloadedBytes.get();
+    }
+
+    /**
+     * @return the number of HTTP requests made.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Open {@code url} for reading. Does not touch the network until the first read.
+     */
+    public Source open(String url) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            ensureLoaded();
+            String key = hash(url);
+            entry = entries.get(key);
+            if (entry != null && !entry.url.equals(url)) {
+                // A hash collision, the other URL loses its entry.
+                remove(entry);
+                entry = null;
+            }
+            if (entry == null) {
+                entry = new Entry(key, url);
+                entries.put(key, entry);
+            }
+            entry.openCount++;
+        }
+        try {
+            entry.openFile();
+        } catch (IOException e) {
+            release(entry);
+            throw e;
+        }
+        return new Source(entry);
+    }
+
+    /**
+     * Delete every URL that is not open.
+     */
+    public synchronized void clear() {
+        ensureLoaded();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.openCount == 0) {
+                iterator.remove();
+                totalBytes -= entry.bytes;
+                entry.delete();
+            }
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        // Oldest first, so the access order starts out as the order of last use.
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(INDEX_SUFFIX)) {
+                continue;
+            }
+            String key = name.substring(0, name.length() - INDEX_SUFFIX.length());
+            Entry entry = loadEntry(key);
+            if (entry != null) {
+                entries.put(key, entry);
+                totalBytes += entry.bytes;
+            }
+        }
+    }
+
+    private Entry loadEntry(String key) {
+        File indexFile = new File(directory, key + INDEX_SUFFIX);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            try {
+                if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION || in.readInt() != chunkSize) {
+                    throw new IOException("Unknown index format");
+                }
+                Entry entry = new Entry(key, in.readUTF());
+                entry.contentLength = in.readLong();
+                String validator = in.readUTF();
+                entry.validator = validator.length() == 0 ? null : validator;
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    entry.chunks.set(in.readInt());
+                }
+                entry.bytes = (long) count * chunkSize;
+                return entry;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            indexFile.delete();
+            new File(directory, key + DATA_SUFFIX).delete();
+            return null;
+        }
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.key);
+        totalBytes -= entry.bytes;
+        entry.delete();
+    }
+
+    private void release(Entry entry) {
+        synchronized (this) {
+            // Under the same lock as open(), so a concurrent open() either sees the file closed
+            // and reopens it, or keeps it open.
+            if (--entry.openCount == 0) {
+                entry.closeFile();
+            }
+            trimToSize();
+        }
+    }
+
+    private synchronized void onChunkStored(Entry entry, long storedBytes) {
+        totalBytes += storedBytes - entry.bytes;
+        entry.bytes = storedBytes;
+        if (entries.get(entry.key) == entry) {
+            // get() above also marks the entry as recently used.
+            trimToSize();
+        }
+    }
+
+    private synchronized void trimToSize() {
+        if (totalBytes <= maxBytes) {
+            return;
+        }
+        ArrayList<Entry> evicted = new ArrayList<Entry>();
+        for (Entry entry : entries.values()) {
+            if (totalBytes - bytesOf(evicted) <= maxBytes) {
+                break;
+            }
+            if (entry.openCount == 0) {
+                evicted.add(entry);
+            }
+        }
+        for (Entry entry : evicted) {
+            remove(entry);
+        }
+    }
+
+    private static long bytesOf(ArrayList<Entry> entries) {
+        long bytes = 0;
+        for (Entry entry : entries) {
+            bytes += entry.bytes;
+        }
+        return bytes;
+    }
+
+    private static String hash(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] bytes = digest.digest(url.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Random access to one URL through the cache. Thread safe.
+     */
+    public final class Source implements Closeable {
+        private final Entry entry;
+        private volatile boolean closed;
+        // The entry generation this source returned bytes of, or -1 before the first read.
+        private volatile int generation = -1;
+
+        private Source(Entry entry) {
+            this.entry = entry;
+        }
+
+        public String getUrl() {
+            return entry.url;
+        }
+
+        /**
+         * @return the content length. Downloads the first chunk if it is not known yet.
+         */
+        public long length() throws IOException {
+            long length = entry.getContentLength();
+            if (length < 0) {
+                entry.ensureChunk(0);
+                length = entry.getContentLength();
+            }
+            return length;
+        }
+
+        /**
+         * Read up to {@code length} bytes at {@code position}, downloading the chunk they are in
+         * if needed. Never reads across a chunk boundary.
+         *
+         * @return the number of bytes read, or -1 at the end of the content
+         */
+        public int read(long position, byte[] buffer, int offset, int length) throws IOException {
+            if (closed) {
+                throw new IOException("Source is closed");
+            }
+            long contentLength = length();
+            if (position >= contentLength) {
+                return -1;
+            }
+            int chunk = (int) (position / chunkSize);
+            boolean hit = entry.ensureChunk(chunk);
+            int current = entry.getGeneration();
+            if (generation < 0) {
+                generation = current;
+            } else if (generation != current) {
+                throw new IOException("Content of " + entry.url + " changed while reading");
+            }
+            long chunkEnd = Math.min((long) (chunk + 1) * chunkSize, contentLength);
+            int count = (int) Math.min(length, chunkEnd - position);
+            int read = entry.read(position, buffer, offset, count);
+            if (hit && read > 0) {
+                hitBytes.addAndGet(read);
+            }
+            return read;
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            release(entry);
+        }
+    }
+
+    private static final class Fetch {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private IOException error;
+
+        void complete(IOException error) {
+            this.error = error;
+            done.countDown();
+        }
+
+        void await() throws IOException {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (error != null) {
+                throw new IOException("Shared download failed", error);
+            }
+        }
+    }
+
+    private final class Entry {
+        final String key;
+        final String url;
+        final File dataFile;
+        final File indexFile;
+
+        // Guarded by HttpRangeCache.this.
+        int openCount;
+        long bytes;
+
+        // Guarded by this.
+        private long contentLength = -1;
+        private String validator;
+        // Incremented when the content changes on the server.
+        private int generation;
+        private final BitSet chunks = new BitSet();
+        private final Map<Integer, Fetch> inFlight = new HashMap<Integer, Fetch>();
+        private RandomAccessFile file;
+        private FileChannel channel;
+
+        Entry(String key, String url) {
+            this.key = key;
+            this.url = url;
+            this.dataFile = new File(directory, key + DATA_SUFFIX);
+            this.indexFile = new File(directory, key + INDEX_SUFFIX);
+        }
+
+        synchronized int getGeneration() {
+            return generation;
+        }
+
+        synchronized long getContentLength() {
+            return contentLength;
+        }
+
+        synchronized void openFile() throws IOException {
+            if (file == null) {
+                file = new RandomAccessFile(dataFile, "rw");
+                channel = file.getChannel();
+            }
+        }
+
+        synchronized void closeFile() {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException ignored) {
+                }
+                file = null;
+                channel = null;
+            }
+        }
+
+        void delete() {
+            closeFile();
+            dataFile.delete();
+            indexFile.delete();
+        }
+
+        int read(long position, byte[] buffer, int offset, int length) throws IOException {
+            FileChannel channel;
+            synchronized (this) {
+                channel = this.channel;
+            }
+            if (channel == null) {
+                throw new IOException("Source is closed");
+            }
+            ByteBuffer target = ByteBuffer.wrap(buffer, offset, length);
+            while (target.hasRemaining()) {
+                if (channel.read(target, position + target.position() - offset) < 0) {
+                    break;
+                }
+            }
+            return target.position() - offset;
+        }
+
+        /**
+         * Make sure {@code chunk} is on disk, downloading it or waiting for another reader's
+         * download of it.
+         *
+         * @return true if it already was.
+         */
+        boolean ensureChunk(int chunk) throws IOException {
+            Fetch fetch;
+            boolean owner = false;
+            synchronized (this) {
+                if (chunks.get(chunk)) {
+                    return true;
+                }
+                fetch = inFlight.get(chunk);
+                if (fetch == null) {
+                    fetch = new Fetch();
+                    inFlight.put(chunk, fetch);
+                    owner = true;
+                }
+            }
+            if (!owner) {
+                fetch.await();
+                return false;
+            }
+
+            IOException error = null;
+            try {
+                download(chunk);
+            } catch (IOException e) {
+                error = e;
+                throw e;
+            } finally {
+                synchronized (this) {
+                    inFlight.remove(chunk);
+                }
+                fetch.complete(error);
+            }
+            return false;
+        }
+
+        private void download(int chunk) throws IOException {
+            long start = (long) chunk * chunkSize;
+            String requestValidator;
+            synchronized (this) {
+                requestValidator = validator;
+            }
+
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            try {
+                connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+                connection.setReadTimeout(READ_TIMEOUT_MS);
+                connection.setRequestProperty("Range", "bytes=" + start + "-" + (start + chunkSize - 1));
+                if (requestValidator != null) {
+                    connection.setRequestProperty("If-Range", requestValidator);
+                }
+                requestCount.incrementAndGet();
+                int code = connection.getResponseCode();
+
+                long total;
+                long skip;
+                if (code == HttpURLConnection.HTTP_PARTIAL) {
+                    total = parseContentRangeTotal(connection.getHeaderField("Content-Range"));
+                    skip = 0;
+                } else if (code == HttpURLConnection.HTTP_OK) {
+                    // The server ignored the range, or the content changed and If-Range failed.
+                    total = parseLong(connection.getHeaderField("Content-Length"));
+                    skip = start;
+                } else {
+                    throw new IOException("HTTP " + code + " for " + url);
+                }
+                if (total < 0) {
+                    throw new IOException("Unknown content length for " + url);
+                }
+                String etag = connection.getHeaderField("ETag");
+                String responseValidator = etag != null ? etag : connection.getHeaderField("Last-Modified");
+
+                byte[] data = new byte[(int) Math.max(0, Math.min(chunkSize, total - start))];
+                InputStream in = connection.getInputStream();
+                try {
+                    skipFully(in, skip);
+                    readFully(in, data);
+                } finally {
+                    in.close();
+                }
+                downloadedBytes.addAndGet(data.length);
+                store(chunk, data, total, responseValidator, code == HttpURLConnection.HTTP_OK);
+            } finally {
+                connection.disconnect();
+            }
+        }
+
+        private void store(int chunk, byte[] data, long total, String responseValidator,
+                           boolean fullResponse) throws IOException {
+            long storedBytes;
+            synchronized (this) {
+                boolean changed = contentLength >= 0 && contentLength != total
+                    || validator != null && fullResponse && !validator.equals(responseValidator);
+                if (changed) {
+                    // The content changed on the server, the stored chunks are stale.
+                    chunks.clear();
+                    generation++;
+                }
+                contentLength = total;
+                validator = responseValidator;
+                if (channel == null) {
+                    throw new IOException("Source is closed");
+                }
+                ByteBuffer source = ByteBuffer.wrap(data);
+                long position = (long) chunk * chunkSize;
+                while (source.hasRemaining()) {
+                    channel.write(source, position + source.position());
+                }
+                chunks.set(chunk);
+                writeIndex();
+                storedBytes = (long) chunks.cardinality() * chunkSize;
+            }
+            onChunkStored(this, storedBytes);
+        }
+
+        // Called with this locked.
+        private void writeIndex() throws IOException {
+            File temp = new File(indexFile.getPath() + ".tmp");
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_VERSION);
+                out.writeInt(chunkSize);
+                out.writeUTF(url);
+                out.writeLong(contentLength);
+                out.writeUTF(validator != null ? validator : "");
+                out.writeInt(chunks.cardinality());
+                for (int i = chunks.nextSetBit(0); i >= 0; i = chunks.nextSetBit(i + 1)) {
+                    out.writeInt(i);
+                }
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(indexFile)) {
+                temp.delete();
+                throw new IOException("Could not replace " + indexFile.getName());
+            }
+        }
+    }
+
+    static long parseContentRangeTotal(String contentRange) {
+        // bytes 0-1023/4096
+        if (contentRange == null) {
+            return -1;
+        }
+        int slash = contentRange.lastIndexOf('/');
+        return slash < 0 ? -1 : parseLong(contentRange.substring(slash + 1));
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new IOException("Unexpected end of response");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] data) throws IOException {
+        int offset = 0;
+        while (offset < data.length) {
+            int read = in.read(data, offset, data.length - offset);
+            if (read < 0) {
+                throw new IOException("Unexpected end of response");
+            }
+            offset += read;
+        }
+    }
+}
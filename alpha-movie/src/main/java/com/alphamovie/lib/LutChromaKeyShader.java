@@ -0,0 +1,160 @@
+package com.alphamovie.lib;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Keys out a colour like {@link AdvancedChromaKeyShader}, but replaces the per-pixel colour
+ * conversion, distance and smoothstep with a single lookup into a {@link ChromaKeyLut}.
+ * <p>
+ * The table is regenerated and uploaded on the render thread only when the key colour,
+ * sensitivity or smoothing change. It is bound to texture unit 1. The texture is created through
+ * the {@link GLResourceManager} of the context when the program is linked, and deleted when the
+ * renderer relinks or stops using the program.
+ */
+public class LutChromaKeyShader extends ShaderBase {
+    private static final int LUT_TEXTURE_UNIT = 1;
+
+    private final ChromaKeyLut lut;
+    private final ShaderUniform.Int sLut = declareInt("sLut");
+    private final ShaderUniform.Float uLutSize = declareFloat("uLutSize");
+
+    private volatile int mChromaKeyColor;
+    private volatile float mSensitivity;
+    private volatile float mSmoothing;
+
+    private ByteBuffer lutBuffer;
+    private GLResourceManager lutResources;
+    private int lutTextureID;
+    private int uploadedGeneration;
+
+    public LutChromaKeyShader() {
+        this(ChromaKeyLut.DEFAULT_SIZE);
+    }
+
+    /**
+     * @param lutSize the number of table entries per channel, see {@link ChromaKeyLut}
+     */
+    public LutChromaKeyShader(int lutSize) {
+        lut = new ChromaKeyLut(lutSize);
+        sLut.set(LUT_TEXTURE_UNIT);
+        uLutSize.set(lutSize);
+    }
+
+    public int getChromaKeyColor() {
+        return mChromaKeyColor;
+    }
+
+    public void setChromaKeyColor(int chromaKeyColor) {
+        mChromaKeyColor = chromaKeyColor;
+    }
+
+    public float getSensitivity() {
+        return mSensitivity;
+    }
+
+    public void setSensitivity(float sensitivity) {
+        mSensitivity = Math.max(0, Math.min(1, sensitivity));
+    }
+
+    public float getSmoothing() {
+        return mSmoothing;
+    }
+
+    public void setSmoothing(float smoothing) {
+        mSmoothing = Math.max(0, Math.min(1, smoothing));
+    }
+
+    public int getLutSize() {
+        return lut.getSize();
+    }
+
+    @Override
+    public String getFragmentShader() {
+        // The atlas coordinate needs more than mediump precision to address single texels.
+        return
+            "#extension GL_OES_EGL_image_external : require\n"
+                + "#ifdef GL_FRAGMENT_PRECISION_HIGH\n"
+                + "precision highp float;\n"
+                + "#else\n"
+                + "precision mediump float;\n"
+                + "#endif\n"
+                + "varying vec2 vTextureCoord;\n"
+                + "uniform samplerExternalOES sTexture;\n"
+                + "uniform sampler2D sLut;\n"
+                + "uniform float uLutSize;\n"
+                + "void main() {\n"
+                + "  vec4 color = texture2D(sTexture, vTextureCoord);\n"
+                + "  float last = uLutSize - 1.0;\n"
+                + "  float slice = floor(color.b * last + 0.5);\n"
+                + "  vec2 lutCoord = vec2(\n"
+                + "    (slice * uLutSize + 0.5 + color.r * last) / (uLutSize * uLutSize),\n"
+                + "    (0.5 + color.g * last) / uLutSize);\n"
+                + "  float blendValue = texture2D(sLut, lutCoord).a;\n"
+                + "  gl_FragColor = vec4(color.rgb, color.a * blendValue);\n"
+                + "}\n";
+    }
+
+    @Override
+    public void getUniformLocations(int programID) {
+        super.getUniformLocations(programID);
+
+        // A relink replaces the texture of the previous program.
+        releaseResources();
+        lutResources = GLResourceManager.forCurrentContext();
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + LUT_TEXTURE_UNIT);
+        lutTextureID = lutResources.createTexture(GLES20.GL_TEXTURE_2D, "chroma key LUT");
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        uploadedGeneration = -1;
+    }
+
+    @Override
+    void releaseResources() {
+        GLResourceManager resources = lutResources;
+        if (resources == null) {
+            return;
+        }
+        // The texture of a context that is gone went with it, and its name may belong to another
+        // texture on the current one.
+        if (resources == GLResourceManager.forCurrentContext()) {
+            resources.deleteTexture(lutTextureID);
+        }
+        lutResources = null;
+        lutTextureID = 0;
+    }
+
+    @Override
+    public void setUniforms() {
+        GLInstrumentation gl = getInstrumentation();
+        gl.glActiveTexture(GLES20.GL_TEXTURE0 + LUT_TEXTURE_UNIT);
+        gl.glBindTexture(GLES20.GL_TEXTURE_2D, lutTextureID);
+
+        lut.update(mChromaKeyColor, mSensitivity, mSmoothing);
+        if (lut.getGeneration() != uploadedGeneration) {
+            uploadLut();
+            uploadedGeneration = lut.getGeneration();
+        }
+
+        gl.glActiveTexture(GLES20.GL_TEXTURE0);
+        super.setUniforms();
+    }
+
+    private void uploadLut() {
+        byte[] data = lut.getData();
+        if (lutBuffer == null) {
+            lutBuffer = ByteBuffer.allocateDirect(data.length);
+        }
+        lutBuffer.put(data).position(0);
+
+        GLInstrumentation gl = getInstrumentation();
+        gl.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+        gl.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_ALPHA,
+            lut.getAtlasWidth(), lut.getAtlasHeight(), 0,
+            GLES20.GL_ALPHA, GLES20.GL_UNSIGNED_BYTE, lutBuffer);
+    }
+}
@@ -0,0 +1,132 @@
+package com.alphamovie.lib;
+
+import android.annotation.TargetApi;
+import android.media.MediaDataSource;
+import android.os.ParcelFileDescriptor;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * A {@link MediaDataSource} over a local file, read through a {@link FileRangeReader}: memory
+ * mapped where possible, and with adaptive read-ahead otherwise.
+ * <p>
+ * Players and retrievers close their data source when they are released. This one reopens the
+ * file on the next read, so the same instance can be given to
+ * {@link AlphaMovieView#setVideoFromMediaDataSource(MediaDataSource)} again after the view
+ * moved on to another video. A file descriptor passed in is duplicated and never closed, so it must stay open while the
+ * source is in use. The counters add up over reopens.
+ */
+@TargetApi(23)
+public final class MappedFileDataSource extends MediaDataSource {
+    private final File file;
+    private final FileDescriptor fileDescriptor;
+    private final long offset;
+    private final long length;
+    private final boolean map;
+
+    // Guarded by this.
+    private FileRangeReader reader;
+    private long closedBytesServed;
+    private long closedReadCount;
+    private long closedHitCount;
+
+    public MappedFileDataSource(File file) {
+        this(file, null, 0, -1, true);
+    }
+
+    /**
+     * @param length the length of the region, or -1 for the rest of the file
+     */
+    public MappedFileDataSource(FileDescriptor fileDescriptor, long offset, long length) {
+        this(null, fileDescriptor, offset, length, true);
+    }
+
+    /**
+     * @param map false to always read through the read-ahead window
+     */
+    public MappedFileDataSource(File file, boolean map) {
+        this(file, null, 0, -1, map);
+    }
+
+    private MappedFileDataSource(File file, FileDescriptor fileDescriptor, long offset, long length,
+                                 boolean map) {
+        this.file = file;
+        this.fileDescriptor = fileDescriptor;
+        this.offset = offset;
+        this.length = length;
+        this.map = map;
+    }
+
+    private FileRangeReader getReader() throws IOException {
+        if (reader == null) {
+            if (file != null) {
+                reader = FileRangeReader.open(file, map);
+            } else {
+                FileInputStream in = new ParcelFileDescriptor.AutoCloseInputStream(
+                    ParcelFileDescriptor.dup(fileDescriptor));
+                try {
+                    reader = new FileRangeReader(in.getChannel(), in, offset, length, map);
+                } catch (IOException e) {
+                    in.close();
+                    throw e;
+                }
+            }
+        }
+        return reader;
+    }
+
+    @Override
+    public synchronized int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+        if (size == 0) {
+            return 0;
+        }
+        return getReader().read(position, buffer, offset, size);
+    }
+
+    @Override
+    public synchronized long getSize() throws IOException {
+        return getReader().length();
+    }
+
+    public synchronized boolean isMapped() throws IOException {
+        return getReader().isMapped();
+    }
+
+    /**
+     * @return the number of bytes returned to the player or retriever.
+     */
+    public synchronized long getBytesServed() {
+        return closedBytesServed + (reader != null ? reader.getBytesServed() : 0);
+    }
+
+    public synchronized long getReadCount() {
+        return closedReadCount + (reader != null ? reader.getReadCount() : 0);
+    }
+
+    /**
+     * @return the number of reads served from the mapping or the read-ahead window.
+     */
+    public synchronized long getHitCount() {
+        return closedHitCount + (reader != null ? reader.getHitCount() : 0);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (reader != null) {
+            closedBytesServed += reader.getBytesServed();
+            closedReadCount += reader.getReadCount();
+            closedHitCount += reader.getHitCount();
+            FileRangeReader closing = reader;
+            reader = null;
+            closing.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "mapped:" + (file != null ? file.getPath() : fileDescriptor + "@" + offset + "+" + length);
+    }
+}
@@ -0,0 +1,168 @@
+package com.alphamovie.lib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the dimensions, rotation, duration and frame rate of the first video track of an MP4
+ * file from its {@code moov} box, for {@link ClipBundleWriter}. Only the boxes on the way to
+ * those values are parsed.
+ */
+final class Mp4Probe {
+    // Larger movie headers belong to clips far too long to bundle.
+    private static final long MAX_MOOV_SIZE = 16 * 1024 * 1024;
+
+    int width;
+    int height;
+    int rotation;
+    long durationMs;
+    float frameRate;
+
+    private boolean foundVideo;
+
+    private Mp4Probe() {
+    }
+
+    static Mp4Probe probe(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            long position = 0;
+            long fileLength = in.length();
+            while (position + 8 <= fileLength) {
+                in.seek(position);
+                long size = in.readInt() & 0xffffffffL;
+                int type = in.readInt();
+                int headerSize = 8;
+                if (size == 1) {
+                    size = in.readLong();
+                    headerSize = 16;
+                } else if (size == 0) {
+                    size = fileLength - position;
+                }
+                if (size < headerSize) {
+                    break;
+                }
+                if (type == fourCC("moov")) {
+                    if (size > MAX_MOOV_SIZE) {
+                        throw new IOException("moov box of " + size + " bytes in " + file);
+                    }
+                    byte[] moov = new byte[(int) size - headerSize];
+                    in.readFully(moov);
+                    Mp4Probe probe = new Mp4Probe();
+                    probe.parseContainer(ByteBuffer.wrap(moov), null);
+                    if (!probe.foundVideo) {
+                        throw new IOException("No video track in " + file);
+                    }
+                    return probe;
+                }
+                position += size;
+            }
+            throw new IOException("No moov box in " + file);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Walk the boxes in {@code buffer}, descending into the containers on the way to the video
+     * track's sample table.
+     */
+    private void parseContainer(ByteBuffer buffer, Track track) throws IOException {
+        while (buffer.remaining() >= 8) {
+            int start = buffer.position();
+            long size = buffer.getInt() & 0xffffffffL;
+            int type = buffer.getInt();
+            if (size == 1) {
+                size = buffer.getLong();
+            } else if (size == 0) {
+                size = buffer.limit() - start;
+            }
+            if (size < buffer.position() - start || start + size > buffer.limit()) {
+                throw new IOException("Malformed box");
+            }
+            ByteBuffer body = buffer.duplicate();
+            body.limit((int) (start + size));
+            buffer.position((int) (start + size));
+
+            if (type == fourCC("trak")) {
+                if (foundVideo) {
+                    continue;
+                }
+                Track trak = new Track();
+                parseContainer(body, trak);
+                if (trak.isVideo) {
+                    foundVideo = true;
+                    width = trak.width;
+                    height = trak.height;
+                    rotation = trak.rotation;
+                    durationMs = trak.timescale > 0 ? trak.duration * 1000 / trak.timescale : 0;
+                    frameRate = trak.sampleCount > 0 && durationMs > 0 ? trak.sampleCount * 1000f / durationMs : 0;
+                }
+            } else if (track == null) {
+                continue;
+            } else if (type == fourCC("mdia") || type == fourCC("minf") || type == fourCC("stbl")) {
+                parseContainer(body, track);
+            } else if (type == fourCC("tkhd")) {
+                parseTrackHeader(body, track);
+            } else if (type == fourCC("hdlr")) {
+                body.position(body.position() + 8);
+                track.isVideo = body.getInt() == fourCC("vide");
+            } else if (type == fourCC("mdhd")) {
+                int version = body.get();
+                body.position(body.position() + 3);
+                if (version == 1) {
+                    body.position(body.position() + 16);
+                    track.timescale = body.getInt() & 0xffffffffL;
+                    track.duration = body.getLong();
+                } else {
+                    body.position(body.position() + 8);
+                    track.timescale = body.getInt() & 0xffffffffL;
+                    track.duration = body.getInt() & 0xffffffffL;
+                }
+            } else if (type == fourCC("stsz")) {
+                body.position(body.position() + 8);
+                track.sampleCount = body.getInt() & 0xffffffffL;
+            }
+        }
+    }
+
+    private static void parseTrackHeader(ByteBuffer body, Track track) {
+        int version = body.get();
+        body.position(body.position() + 3);
+        // Times, track ID, reserved, duration, then reserved, layer, group, volume, reserved.
+        body.position(body.position() + (version == 1 ? 32 : 20) + 16);
+        int a = body.getInt();
+        int b = body.getInt();
+        body.position(body.position() + 28);
+        track.width = body.getInt() >>> 16;
+        track.height = body.getInt() >>> 16;
+
+        // The matrix is in 16.16 fixed point, only its rotation part is of interest.
+        int one = 0x10000;
+        if (a == 0 && b == one) {
+            track.rotation = 90;
+        } else if (a == -one && b == 0) {
+            track.rotation = 180;
+        } else if (a == 0 && b == -one) {
+            track.rotation = 270;
+        } else {
+            track.rotation = 0;
+        }
+    }
+
+    static int fourCC(String type) {
+        return type.charAt(0) << 24 | type.charAt(1) << 16 | type.charAt(2) << 8 | type.charAt(3);
+    }
+
+    private static final class Track {
+        boolean isVideo;
+        int width;
+        int height;
+        int rotation;
+        long timescale;
+        long duration;
+        long sampleCount;
+    }
+}
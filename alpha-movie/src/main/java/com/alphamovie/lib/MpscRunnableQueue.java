@@ -0,0 +1,90 @@
+package com.alphamovie.lib;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * An unbounded queue of events that any number of threads add to and a single render thread
+ * runs, without locking.
+ * <p>
+ * This is a linked list where producers swap themselves in at the tail with one atomic
+ * exchange and the consumer follows {@code next} links from the head, so queueing an event
+ * costs one allocation and one exchange, and taking one never shifts an array. Only the
+ * consumer thread may call {@link #poll()}, {@link #drain(int)} and {@link #isEmpty()}.
+ * <p>
+ * Between an {@link #offer(Runnable)} exchanging the tail and linking its node, the consumer
+ * sees the queue end before that node. Callers that put the consumer to sleep when the queue
+ * looks empty must therefore publish that the consumer is about to sleep before looking a
+ * last time, and wake it when an offer finds it published; see {@code GLTextureView}'s
+ * render thread.
+ */
+public final class MpscRunnableQueue {
+    private static final AtomicReferenceFieldUpdater<MpscRunnableQueue, Node> TAIL =
+        AtomicReferenceFieldUpdater.newUpdater(MpscRunnableQueue.class, Node.class, "tail");
+
+    private volatile Node tail;
+
+    // Only touched by the consumer. Its event has already been taken.
+    private Node head;
+
+    public MpscRunnableQueue() {
+        head = new Node(null);
+        tail = head;
+    }
+
+    /**
+     * Add an event. May be called from any thread.
+     */
+    public void offer(Runnable r) {
+        if (r == null) {
+            throw new IllegalArgumentException("r must not be null");
+        }
+        Node node = new Node(r);
+        Node previous = TAIL.getAndSet(this, node);
+        previous.next = node;
+    }
+
+    /**
+     * @return the oldest event, or null if there is none. Consumer thread only.
+     */
+    public Runnable poll() {
+        Node next = head.next;
+        if (next == null) {
+            return null;
+        }
+        Runnable r = next.event;
+        next.event = null;
+        head = next;
+        return r;
+    }
+
+    /**
+     * Run up to {@code max} events in the order they were queued. Consumer thread only.
+     *
+     * @return the number of events run
+     */
+    public int drain(int max) {
+        int count = 0;
+        Runnable r;
+        while (count < max && (r = poll()) != null) {
+            r.run();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Consumer thread only.
+     */
+    public boolean isEmpty() {
+        return head.next == null;
+    }
+
+    private static final class Node {
+        Runnable event;
+        volatile Node next;
+
+        Node(Runnable event) {
+            this.event = event;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.alphamovie.lib;
+
+/**
+ * Renders videos that carry their alpha channel as a greyscale matte next to the colour image,
+ * instead of keying out a colour.
+ * <p>
+ * With {@link #LAYOUT_HORIZONTAL} the colour image is on the left and the matte on the right,
+ * with {@link #LAYOUT_VERTICAL} the colour image is on top and the matte below it. The matte
+ * may be stored at a reduced scale relative to the colour image; it is then aligned to the top
+ * left corner of its half. For example a 1280x720 colour image with a matte scale of 0.5 is
+ * packed into a 1920x720 frame horizontally, with the 640x360 matte in the top right corner.
+ * <p>
+ * {@link AlphaMovieView} measures itself using the size of the colour image only.
+ */
+public class PackedAlphaShader extends ShaderBase {
+    /**
+     * Colour image on the left, matte on the right.
+     */
+    public final static int LAYOUT_HORIZONTAL = 0;
+
+    /**
+     * Colour image on top, matte below.
+     */
+    public final static int LAYOUT_VERTICAL = 1;
+
+    private final ShaderUniform.Vec4 uColorRect = declareVec4("uColorRect");
+    private final ShaderUniform.Vec4 uMatteRect = declareVec4("uMatteRect");
+
+    private volatile int mLayout;
+    private volatile float mMatteScale;
+
+    public PackedAlphaShader() {
+        this(LAYOUT_HORIZONTAL, 1f);
+    }
+
+    public PackedAlphaShader(int layout, float matteScale) {
+        setLayout(layout, matteScale);
+    }
+
+    public int getLayout() {
+        return mLayout;
+    }
+
+    public float getMatteScale() {
+        return mMatteScale;
+    }
+
+    /**
+     * @param layout one of the LAYOUT_X constants
+     * @param matteScale the size of the matte relative to the colour image, in (0, 1]
+     */
+    public synchronized void setLayout(int layout, float matteScale) {
+        if (layout != LAYOUT_HORIZONTAL && layout != LAYOUT_VERTICAL) {
+            throw new IllegalArgumentException("layout");
+        }
+        if (!(matteScale > 0f && matteScale <= 1f)) {
+            throw new IllegalArgumentException("matteScale");
+        }
+        mLayout = layout;
+        mMatteScale = matteScale;
+
+        // Rectangles are offset.xy, size.zw in texture coordinates before the SurfaceTexture
+        // transform, where y grows towards the top of the image.
+        float colorFraction = 1f / (1f + matteScale);
+        if (layout == LAYOUT_HORIZONTAL) {
+            uColorRect.set(0f, 0f, colorFraction, 1f);
+            uMatteRect.set(colorFraction, 1f - matteScale, 1f - colorFraction, matteScale);
+        } else {
+            uColorRect.set(0f, 1f - colorFraction, 1f, colorFraction);
+            uMatteRect.set(0f, 0f, matteScale, 1f - colorFraction);
+        }
+    }
+
+    /**
+     * @return the width of the colour image inside a packed frame of the given width.
+     */
+    public int getColorWidth(int frameWidth) {
+        return mLayout == LAYOUT_HORIZONTAL ? Math.round(frameWidth / (1f + mMatteScale)) : frameWidth;
+    }
+
+    /**
+     * @return the height of the colour image inside a packed frame of the given height.
+     */
+    public int getColorHeight(int frameHeight) {
+        return mLayout == LAYOUT_VERTICAL ? Math.round(frameHeight / (1f + mMatteScale)) : frameHeight;
+    }
+
+    @Override
+    public String getVertexShader() {
+        return
+            "uniform mat4 uMVPMatrix;\n" +
+            "uniform mat4 uSTMatrix;\n" +
+            "uniform vec4 uColorRect;\n" +
+            "uniform vec4 uMatteRect;\n" +
+            "attribute vec4 aPosition;\n" +
+            "attribute vec4 aTextureCoord;\n" +
+            "varying vec2 vColorCoord;\n" +
+            "varying vec2 vMatteCoord;\n" +
+            "void main() {\n" +
+            "  gl_Position = uMVPMatrix * aPosition;\n" +
+            "  vColorCoord = (uSTMatrix * vec4(uColorRect.xy + aTextureCoord.xy * uColorRect.zw, 0.0, 1.0)).xy;\n" +
+            "  vMatteCoord = (uSTMatrix * vec4(uMatteRect.xy + aTextureCoord.xy * uMatteRect.zw, 0.0, 1.0)).xy;\n" +
+            "}\n";
+    }
+
+    @Override
+    public String getFragmentShader() {
+        return
+            "#extension GL_OES_EGL_image_external : require\n"
+                + "precision mediump float;\n"
+                + "varying vec2 vColorCoord;\n"
+                + "varying vec2 vMatteCoord;\n"
+                + "uniform samplerExternalOES sTexture;\n"
+                + "void main() {\n"
+                + "  vec3 color = texture2D(sTexture, vColorCoord).rgb;\n"
+                + "  float alpha = texture2D(sTexture, vMatteCoord).r;\n"
+                + "  gl_FragColor = vec4(color, alpha);\n"
+                + "}\n";
+    }
+}
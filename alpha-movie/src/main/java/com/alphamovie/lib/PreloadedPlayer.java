@@ -0,0 +1,107 @@
+package com.alphamovie.lib;
+
+import android.media.MediaPlayer;
+
+import java.io.IOException;
+
+/**
+ * A second {@link MediaPlayer} that loads and prepares the next playlist item in the background,
+ * without a surface, so {@link AlphaMovieView} can switch to it the moment the current clip ends.
+ * Only used on the main thread.
+ */
+final class PreloadedPlayer {
+    interface Listener {
+        void onPreloadPrepared(PreloadedPlayer preloaded);
+
+        void onPreloadFailed(PreloadedPlayer preloaded, Exception error);
+    }
+
+    private final int index;
+    private final MediaPlayer player = new MediaPlayer();
+    private final Listener listener;
+    private final VideoLoad load;
+    private VideoMetadata metadata;
+    private boolean prepared;
+    private boolean released;
+
+    PreloadedPlayer(int index, VideoSource source, VideoMetadataCache metadataCache, Listener listener) {
+        this.index = index;
+        this.listener = listener;
+        this.load = VideoLoad.start(source, metadataCache, new VideoLoad.Callback() {
+            @Override
+            public void onLoaded(VideoLoad load, VideoMetadata metadata) {
+                PreloadedPlayer.this.metadata = metadata;
+                try {
+                    load.getSource().applyTo(player);
+                } catch (IOException e) {
+                    fail(e);
+                    return;
+                }
+                prepare();
+            }
+
+            @Override
+            public void onFailed(VideoLoad load, IOException error) {
+                fail(error);
+            }
+        });
+    }
+
+    private void prepare() {
+        player.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
+            @Override
+            public void onPrepared(MediaPlayer mp) {
+                prepared = true;
+                listener.onPreloadPrepared(PreloadedPlayer.this);
+            }
+        });
+        player.setOnErrorListener(new MediaPlayer.OnErrorListener() {
+            @Override
+            public boolean onError(MediaPlayer mp, int what, int extra) {
+                fail(new IOException("MediaPlayer error " + what + ", " + extra));
+                return true;
+            }
+        });
+        player.prepareAsync();
+    }
+
+    private void fail(Exception error) {
+        if (!released) {
+            listener.onPreloadFailed(this, error);
+        }
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    boolean isPrepared() {
+        return prepared;
+    }
+
+    /**
+     * Valid once {@link #isPrepared()}.
+     */
+    VideoMetadata getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * Hand the prepared player over. The caller becomes responsible for releasing it.
+     */
+    MediaPlayer takePlayer() {
+        released = true;
+        player.setOnPreparedListener(null);
+        player.setOnErrorListener(null);
+        return player;
+    }
+
+    void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        load.cancel();
+        player.release();
+    }
+}
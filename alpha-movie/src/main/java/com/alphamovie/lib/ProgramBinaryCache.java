@@ -0,0 +1,262 @@
+package com.alphamovie.lib;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A persistent cache of linked shader programs.
+ * <p>
+ * Entries are keyed by a hash of the vertex and fragment source together with the GL vendor,
+ * renderer and version strings, so a driver update never picks up a stale binary. Program
+ * binaries need an OpenGL ES 3.0 context; on other contexts the cache is bypassed and programs
+ * are compiled from source as before. Entries that fail to load or link are deleted, and the
+ * least recently used entries are evicted once there are more than {@link #getMaxEntries()}.
+ * <p>
+ * {@link #loadProgram}, {@link #prepareForLink} and {@link #storeProgram} must be called on a
+ * thread with a current context. A single cache may be shared by all render threads.
+ */
+public final class ProgramBinaryCache {
+    private static final String TAG = "ProgramBinaryCache";
+    private static final String DIRECTORY_NAME = "alpha-movie-programs";
+    private static final String FILE_SUFFIX = ".bin";
+    private static final int FILE_MAGIC = 0x414d5042;
+    private static final int FILE_VERSION = 1;
+    private static final int MAX_BINARY_LENGTH = 4 * 1024 * 1024;
+
+    public final static int DEFAULT_MAX_ENTRIES = 32;
+
+    private static ProgramBinaryCache sDefault;
+
+    private final File directory;
+    private final int maxEntries;
+
+    /**
+     * @return the process-wide cache stored in the application cache directory.
+     */
+    public static synchronized ProgramBinaryCache getDefault(Context context) {
+        if (sDefault == null) {
+            File directory = new File(context.getApplicationContext().getCacheDir(), DIRECTORY_NAME);
+            sDefault = new ProgramBinaryCache(directory, DEFAULT_MAX_ENTRIES);
+        }
+        return sDefault;
+    }
+
+    public ProgramBinaryCache(File directory, int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries");
+        }
+        this.directory = directory;
+        this.maxEntries = maxEntries;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return true if programs can be cached on the current context.
+     */
+    public static boolean isSupported() {
+        return GLUtility.isGLES3Context();
+    }
+
+    /**
+     * Create a program from a cached binary.
+     *
+     * @return the linked program, or 0 if there is no usable entry and the caller has to
+     * compile from source.
+     */
+    @TargetApi(18)
+    public int loadProgram(String vertexSource, String fragmentSource) {
+        File file = getEntryFile(vertexSource, fragmentSource);
+        int binaryFormat;
+        ByteBuffer binary;
+        synchronized (this) {
+            if (!file.exists()) {
+                return 0;
+            }
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                try {
+                    if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                        throw new IOException("Unknown cache entry format");
+                    }
+                    binaryFormat = in.readInt();
+                    int length = in.readInt();
+                    if (length <= 0 || length > MAX_BINARY_LENGTH) {
+                        throw new IOException("Invalid binary length " + length);
+                    }
+                    byte[] bytes = new byte[length];
+                    in.readFully(bytes);
+                    binary = ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+                    binary.put(bytes).position(0);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Evicting unreadable entry " + file.getName(), e);
+                file.delete();
+                return 0;
+            }
+            file.setLastModified(System.currentTimeMillis());
+        }
+
+        int program = GLES20.glCreateProgram();
+        if (program == 0) {
+            return 0;
+        }
+        GLES30.glProgramBinary(program, binaryFormat, binary, binary.capacity());
+        int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        if (GLES20.glGetError() != GLES20.GL_NO_ERROR || linkStatus[0] != GLES20.GL_TRUE) {
+            // The driver rejected the binary, e.g. after an update that kept the version string.
+            Log.w(TAG, "Evicting rejected entry " + file.getName());
+            GLES20.glDeleteProgram(program);
+            synchronized (this) {
+                file.delete();
+            }
+            return 0;
+        }
+        return program;
+    }
+
+    /**
+     * Ask the driver to keep the binary of {@code program} retrievable. Call before linking.
+     */
+    @TargetApi(18)
+    public void prepareForLink(int program) {
+        GLES30.glProgramParameteri(program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+    }
+
+    /**
+     * Store the binary of a successfully linked program.
+     */
+    @TargetApi(18)
+    public void storeProgram(int program, String vertexSource, String fragmentSource) {
+        int[] values = new int[2];
+        GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, values, 0);
+        int length = values[0];
+        if (length <= 0 || length > MAX_BINARY_LENGTH) {
+            return;
+        }
+
+        ByteBuffer binary = ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+        GLES30.glGetProgramBinary(program, length, values, 0, values, 1, binary);
+        if (GLES20.glGetError() != GLES20.GL_NO_ERROR || values[0] <= 0) {
+            return;
+        }
+        int binaryLength = values[0];
+        int binaryFormat = values[1];
+        byte[] bytes = new byte[binaryLength];
+        binary.position(0);
+        binary.get(bytes);
+
+        File file = getEntryFile(vertexSource, fragmentSource);
+        synchronized (this) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                return;
+            }
+            File temp = new File(directory, file.getName() + ".tmp");
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+                try {
+                    out.writeInt(FILE_MAGIC);
+                    out.writeInt(FILE_VERSION);
+                    out.writeInt(binaryFormat);
+                    out.writeInt(binaryLength);
+                    out.write(bytes);
+                } finally {
+                    out.close();
+                }
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Could not rename " + temp);
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Could not store program binary", e);
+                temp.delete();
+                return;
+            }
+            trimLocked();
+        }
+    }
+
+    /**
+     * Delete all entries.
+     */
+    public synchronized void clear() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    private void trimLocked() {
+        File[] files = directory.listFiles();
+        if (files == null || files.length <= maxEntries) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long aModified = a.lastModified();
+                long bModified = b.lastModified();
+                return aModified < bModified ? -1 : (aModified == bModified ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length - maxEntries; i++) {
+            files[i].delete();
+        }
+    }
+
+    private File getEntryFile(String vertexSource, String fragmentSource) {
+        StringBuilder key = new StringBuilder(vertexSource.length() + fragmentSource.length() + 128);
+        key.append(vertexSource).append('\0')
+            .append(fragmentSource).append('\0')
+            .append(GLES20.glGetString(GLES20.GL_VENDOR)).append('\0')
+            .append(GLES20.glGetString(GLES20.GL_RENDERER)).append('\0')
+            .append(GLES20.glGetString(GLES20.GL_VERSION));
+        return new File(directory, hash(key.toString()) + FILE_SUFFIX);
+    }
+
+    private static String hash(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] bytes = digest.digest(key.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
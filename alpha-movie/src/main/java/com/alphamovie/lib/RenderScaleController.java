@@ -0,0 +1,156 @@
+package com.alphamovie.lib;
+
+/**
+ * Picks a render scale between a minimum and a maximum from measured frame times, for
+ * {@link AlphaMovieView#setRenderScaleController(RenderScaleController)}.
+ * <p>
+ * Frame times are averaged with an exponential moving average. When the average exceeds the
+ * target, the scale drops at once to the size expected to fit the target, taking the cost of a
+ * frame to grow with its pixel count. The scale only grows again, one {@link #SCALE_STEP} at a
+ * time, when the larger size is expected to take no more than {@link #GROW_HEADROOM} of the
+ * target. The gap between the two thresholds keeps the resolution from flapping between two
+ * sizes, and after every change the average starts over once {@link #setCooldownFrames(int)
+ * cooldown frames}, which include the cost of the resize itself, have passed.
+ * <p>
+ * {@link #onFrame(long)} must be called on one thread, the render thread; {@link #getScale()}
+ * may be called from any thread.
+ */
+public final class RenderScaleController {
+    /**
+     * Scales are multiples of this step.
+     */
+    public final static float SCALE_STEP = 0.05f;
+
+    /**
+     * The share of the target frame time the next larger scale must be expected to fit in.
+     */
+    public final static float GROW_HEADROOM = 0.8f;
+
+    /**
+     * The default number of frames ignored after a change of scale.
+     */
+    public final static int DEFAULT_COOLDOWN_FRAMES = 30;
+
+    private static final double SMOOTHING = 0.1;
+    private static final int MIN_SAMPLES = 10;
+    // Shrinking aims a little below the target so that noise does not undo it right away.
+    private static final double SHRINK_TARGET = 0.9;
+
+    private final float minScale;
+    private final float maxScale;
+    private final long targetFrameTimeNanos;
+    private int cooldownFrames = DEFAULT_COOLDOWN_FRAMES;
+
+    private volatile float scale;
+
+    // Only touched by the thread calling onFrame.
+    private double averageNanos;
+    private int samples;
+    private int cooldown;
+    private long changes;
+
+    /**
+     * @param minScale the smallest scale, greater than 0
+     * @param maxScale the largest scale, at least minScale and at most 1. The controller starts
+     *                 at this scale.
+     * @param targetFrameTimeNanos the frame time to stay under, e.g. a share of the frame interval
+     */
+    public RenderScaleController(float minScale, float maxScale, long targetFrameTimeNanos) {
+        if (!(minScale > 0 && minScale <= maxScale && maxScale <= 1)) {
+            throw new IllegalArgumentException("minScale and maxScale");
+        }
+        if (targetFrameTimeNanos <= 0) {
+            throw new IllegalArgumentException("targetFrameTimeNanos");
+        }
+        this.minScale = minScale;
+        this.maxScale = maxScale;
+        this.targetFrameTimeNanos = targetFrameTimeNanos;
+        this.scale = maxScale;
+    }
+
+    public float getMinScale() {
+        return minScale;
+    }
+
+    public float getMaxScale() {
+        return maxScale;
+    }
+
+    public long getTargetFrameTimeNanos() {
+        return targetFrameTimeNanos;
+    }
+
+    public void setCooldownFrames(int cooldownFrames) {
+        if (cooldownFrames < 0) {
+            throw new IllegalArgumentException("cooldownFrames");
+        }
+        this.cooldownFrames = cooldownFrames;
+    }
+
+    public int getCooldownFrames() {
+        return cooldownFrames;
+    }
+
+    /**
+     * @return the scale to render at.
+     */
+    public float getScale() {
+        return scale;
+    }
+
+    /**
+     * @return the number of times the scale changed.
+     */
+    public long getChangeCount() {
+        return changes;
+    }
+
+    /**
+     * Record the cost of one frame. {@link AlphaMovieView} passes the GPU time of the frame where
+     * GPU timer queries are available, and otherwise the time from the start of the draw until
+     * the frame was submitted. The latter includes waiting for the GPU, which in
+     * {@link AlphaMovieView#FRAME_SUBMISSION_THROUGHPUT_FIRST} mode can be a wait for earlier
+     * frames. Neither includes the swap, which the compositor may hold back.
+     *
+     * @return the scale to render at, which may have changed
+     */
+    public float onFrame(long frameTimeNanos) {
+        if (cooldown > 0) {
+            cooldown--;
+            return scale;
+        }
+        averageNanos = samples == 0
+            ? frameTimeNanos
+            : averageNanos + (frameTimeNanos - averageNanos) * SMOOTHING;
+        samples++;
+        if (samples < MIN_SAMPLES) {
+            return scale;
+        }
+
+        float current = scale;
+        if (averageNanos > targetFrameTimeNanos) {
+            if (current > minScale) {
+                double fit = current * Math.sqrt(targetFrameTimeNanos * SHRINK_TARGET / averageNanos);
+                float next = (float) Math.floor(fit / SCALE_STEP) * SCALE_STEP;
+                change(Math.max(minScale, Math.min(next, current - SCALE_STEP)));
+            }
+        } else if (current < maxScale) {
+            float next = Math.min(maxScale, Math.round((current + SCALE_STEP) / SCALE_STEP) * SCALE_STEP);
+            double ratio = next / current;
+            if (averageNanos * ratio * ratio <= targetFrameTimeNanos * GROW_HEADROOM) {
+                change(next);
+            }
+        }
+        return scale;
+    }
+
+    private void change(float next) {
+        if (next == scale) {
+            return;
+        }
+        scale = next;
+        samples = 0;
+        cooldown = cooldownFrames;
+        changes++;
+    }
+}
@@ -0,0 +1,829 @@
+package com.alphamovie.lib;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGL11;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+import javax.microedition.khronos.egl.EGLSurface;
+import javax.microedition.khronos.opengles.GL10;
+
+/**
+ * A bounded set of render threads shared by many {@link GLTextureView}s.
+ * <p>
+ * Without a pool every GLTextureView starts its own GLThread with its own EGL context. Views
+ * that are given the same pool through {@link GLTextureView#setRenderThreadPool(RenderThreadPool)}
+ * are instead spread over at most {@link #getMaxThreads()} threads. Each pool thread owns one EGL
+ * context and one window surface per view, and draws its views one after another: every view
+ * that is ready to draw is drawn once per round, higher {@link GLTextureView#setRenderPriority(int)
+ * render priorities} first and views of equal priority round-robin. Contexts of different pool
+ * threads are created in one share group when the view's {@link GLTextureView.EGLContextFactory}
+ * implements {@link GLTextureView.EGLSharedContextFactory}, which the default factory does.
+ * <p>
+ * Since views of a pool thread share one context, {@link GLTextureView.Renderer#onSurfaceChanged}
+ * is called again every time the thread switches to another view, so that renderers can restore
+ * their viewport. All views of a pool thread use the EGLConfig chosen for the first of them.
+ * <p>
+ * Pool threads are started on demand and exit once their last view is gone.
+ */
+public final class RenderThreadPool {
+    private static final String TAG = "RenderThreadPool";
+    private static final boolean LOG_THREADS = false;
+
+    public final static int DEFAULT_MAX_THREADS = 2;
+
+    private final int maxThreads;
+    private final int threadPriority;
+
+    // Guarded by this.
+    private final ArrayList<Worker> workers = new ArrayList<Worker>();
+    private EGLContext shareContext;
+
+    /**
+     * Create a pool of at most {@link #DEFAULT_MAX_THREADS} threads running at
+     * {@link Process#THREAD_PRIORITY_DISPLAY}.
+     */
+    public RenderThreadPool() {
+        this(DEFAULT_MAX_THREADS, Process.THREAD_PRIORITY_DISPLAY);
+    }
+
+    /**
+     * @param maxThreads the maximum number of render threads, at least 1
+     * @param threadPriority a Linux thread priority as used by {@link Process#setThreadPriority(int)}
+     */
+    public RenderThreadPool(int maxThreads, int threadPriority) {
+        if (maxThreads < 1) {
+            throw new IllegalArgumentException("maxThreads");
+        }
+        this.maxThreads = maxThreads;
+        this.threadPriority = threadPriority;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public int getThreadPriority() {
+        return threadPriority;
+    }
+
+    /**
+     * @return the number of render threads currently running.
+     */
+    public synchronized int getThreadCount() {
+        return workers.size();
+    }
+
+    /**
+     * @return the number of views currently attached to the pool.
+     */
+    public synchronized int getViewCount() {
+        int count = 0;
+        for (Worker worker : workers) {
+            count += worker.getSessionCount();
+        }
+        return count;
+    }
+
+    synchronized GLTextureView.RenderThread attach(WeakReference<GLTextureView> view) {
+        Worker worker = null;
+        int workerSessions = 0;
+        for (Worker candidate : workers) {
+            int sessions = candidate.getSessionCount();
+            if (worker == null || sessions < workerSessions) {
+                worker = candidate;
+                workerSessions = sessions;
+            }
+        }
+
+        // Prefer an idle thread, then a new thread while below the limit, then the least loaded one.
+        if (worker == null || (workerSessions > 0 && workers.size() < maxThreads)) {
+            worker = new Worker();
+            workers.add(worker);
+            worker.start();
+        }
+        return worker.addSession(view);
+    }
+
+    /*
+     * Called by a worker that found itself without sessions. Lock order is always
+     * pool monitor, then worker lock.
+     */
+    private void retire(Worker worker) {
+        synchronized (this) {
+            synchronized (worker.lock) {
+                if (!worker.sessions.isEmpty()) {
+                    return;
+                }
+                worker.retired = true;
+            }
+            workers.remove(worker);
+        }
+    }
+
+    private synchronized EGLContext getShareContext() {
+        return shareContext;
+    }
+
+    private synchronized void onContextCreated(EGLContext context) {
+        if (shareContext == null) {
+            shareContext = context;
+        }
+    }
+
+    private synchronized void onContextDestroyed(Worker worker, EGLContext context) {
+        if (shareContext != context) {
+            return;
+        }
+        // The share group lives on as long as one of its contexts does.
+        shareContext = null;
+        for (Worker other : workers) {
+            EGLContext otherContext = other.eglContext;
+            if (other != worker && otherContext != null) {
+                shareContext = otherContext;
+                break;
+            }
+        }
+    }
+
+    private final class Worker extends Thread {
+        final Object lock = new Object();
+
+        // Guarded by lock.
+        final ArrayList<Session> sessions = new ArrayList<Session>();
+        boolean retired;
+
+        // Only touched on the worker thread.
+        private final ArrayList<Session> exitingSessions = new ArrayList<Session>();
+        private int cursor;
+        private long round;
+        private boolean pickedForEvents;
+        private Session currentSession;
+        private EGL10 egl;
+        private EGLDisplay eglDisplay;
+        private EGLConfig eglConfig;
+        private GLTextureView.EGLContextFactory contextFactory;
+        private GL10 gl;
+
+        // Written on the worker thread, read by the pool when picking a new share context.
+        volatile EGLContext eglContext;
+
+        // Set by the worker thread while it waits with no events queued.
+        volatile boolean waitingForEvents;
+
+        Session addSession(WeakReference<GLTextureView> view) {
+            Session session = new Session(this, view);
+            synchronized (lock) {
+                sessions.add(session);
+                lock.notifyAll();
+            }
+            return session;
+        }
+
+        int getSessionCount() {
+            synchronized (lock) {
+                return sessions.size();
+            }
+        }
+
+        @Override
+        public void run() {
+            setName("RenderThreadPool " + getId());
+            Process.setThreadPriority(threadPriority);
+            if (LOG_THREADS) {
+                Log.i(TAG, "starting tid=" + getId());
+            }
+
+            try {
+                guardedRun();
+            } catch (InterruptedException e) {
+                // fall thru and exit normally
+            } finally {
+                synchronized (lock) {
+                    sessions.addAll(exitingSessions);
+                    exitingSessions.clear();
+                    for (Session session : sessions) {
+                        destroySurfaceLocked(session);
+                        session.exited = true;
+                    }
+                    sessions.clear();
+                    retired = true;
+                    lock.notifyAll();
+                }
+                finishEgl();
+                synchronized (RenderThreadPool.this) {
+                    workers.remove(this);
+                }
+                if (LOG_THREADS) {
+                    Log.i(TAG, "exiting tid=" + getId());
+                }
+            }
+        }
+
+        private void guardedRun() throws InterruptedException {
+            while (true) {
+                Session session = null;
+                boolean runEvents = false;
+                boolean idle = false;
+                boolean createSurface = false;
+                boolean sizeChanged = false;
+                boolean wantRenderNotification = false;
+                int w = 0;
+                int h = 0;
+
+                synchronized (lock) {
+                    while (true) {
+                        if (retired) {
+                            return;
+                        }
+
+                        if (updateSessionsLocked()) {
+                            lock.notifyAll();
+                        }
+                        if (!exitingSessions.isEmpty()) {
+                            break;
+                        }
+
+                        session = pickSessionLocked();
+                        if (session != null) {
+                            if (pickedForEvents) {
+                                runEvents = true;
+                                break;
+                            }
+
+                            createSurface = !session.haveEglSurface;
+                            if (session.sizeChanged) {
+                                session.sizeChanged = false;
+                                createSurface = true;
+                                wantRenderNotification = true;
+                            }
+                            sizeChanged = createSurface;
+                            w = session.width;
+                            h = session.height;
+                            session.requestRender = false;
+                            session.drawnRound = round;
+                            break;
+                        }
+
+                        if (sessions.isEmpty()) {
+                            idle = true;
+                            break;
+                        }
+
+                        // Announce the wait before looking at the queues a last time, so that
+                        // queueEvent either sees the announcement or its event is seen here.
+                        waitingForEvents = true;
+                        if (hasQueuedEventsLocked()) {
+                            waitingForEvents = false;
+                            continue;
+                        }
+                        lock.wait();
+                        waitingForEvents = false;
+                    }
+                }
+
+                if (!exitingSessions.isEmpty()) {
+                    releaseExitingSessions();
+                    continue;
+                }
+
+                if (idle) {
+                    retire(this);
+                    continue;
+                }
+
+                if (runEvents) {
+                    if (session.haveEglSurface) {
+                        makeCurrent(session);
+                    }
+                    session.eventsSinceDraw += session.eventQueue.drain(
+                            session.getEventBudget() - session.eventsSinceDraw);
+                    continue;
+                }
+
+                drawSession(session, createSurface, sizeChanged, w, h);
+                session.eventsSinceDraw = 0;
+
+                if (wantRenderNotification) {
+                    synchronized (lock) {
+                        session.renderComplete = true;
+                        lock.notifyAll();
+                    }
+                }
+            }
+        }
+
+        /*
+         * Applies the state changes requested by the views. Must be called with lock held.
+         * @return true if a view may be waiting for one of the changes.
+         */
+        private boolean updateSessionsLocked() {
+            boolean changed = false;
+            for (int i = sessions.size() - 1; i >= 0; i--) {
+                Session session = sessions.get(i);
+                if (session.shouldExit) {
+                    // Released by releaseExitingSessions() once the lock is dropped.
+                    sessions.remove(i);
+                    exitingSessions.add(session);
+                    continue;
+                }
+
+                if (session.paused != session.requestPaused) {
+                    session.paused = session.requestPaused;
+                    if (session.paused) {
+                        destroySurfaceLocked(session);
+                    }
+                    changed = true;
+                }
+
+                if (!session.hasSurface && !session.waitingForSurface) {
+                    destroySurfaceLocked(session);
+                    session.waitingForSurface = true;
+                    session.surfaceIsBad = false;
+                    changed = true;
+                }
+
+                if (session.hasSurface && session.waitingForSurface) {
+                    session.waitingForSurface = false;
+                    changed = true;
+                }
+            }
+            return changed;
+        }
+
+        private boolean hasQueuedEventsLocked() {
+            for (int i = 0; i < sessions.size(); i++) {
+                if (!sessions.get(i).eventQueue.isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /*
+         * Picks the next session to serve: any session with queued events within its event
+         * budget, otherwise the highest-priority session that is ready to draw and has not
+         * been drawn this round. Sets pickedForEvents to tell the two apart. A session that
+         * cannot draw runs its events regardless of the budget. Must be called with lock held.
+         */
+        private Session pickSessionLocked() {
+            pickedForEvents = false;
+            int count = sessions.size();
+            if (count == 0) {
+                return null;
+            }
+
+            for (int pass = 0; pass < 2; pass++) {
+                Session best = null;
+                int bestPriority = 0;
+                int bestIndex = 0;
+                boolean anyReady = false;
+                for (int n = 0; n < count; n++) {
+                    int index = (cursor + n) % count;
+                    Session session = sessions.get(index);
+                    boolean ready = session.readyToDraw();
+                    if (!session.eventQueue.isEmpty()) {
+                        if (!ready) {
+                            session.eventsSinceDraw = 0;
+                        }
+                        if (session.eventsSinceDraw < session.getEventBudget()) {
+                            cursor = index + 1;
+                            pickedForEvents = true;
+                            return session;
+                        }
+                    }
+                    if (!ready) {
+                        continue;
+                    }
+                    anyReady = true;
+                    if (session.drawnRound == round) {
+                        continue;
+                    }
+                    int priority = session.getPriority();
+                    if (best == null || priority > bestPriority) {
+                        best = session;
+                        bestPriority = priority;
+                        bestIndex = index;
+                    }
+                }
+
+                if (best != null) {
+                    cursor = bestIndex + 1;
+                    return best;
+                }
+                if (!anyReady) {
+                    return null;
+                }
+                // Everything that is ready has been drawn this round, start the next one.
+                round++;
+            }
+            return null;
+        }
+
+        private void drawSession(Session session, boolean createSurface, boolean sizeChanged,
+                                 int w, int h) {
+            GLTextureView view = session.viewRef.get();
+            if (view == null) {
+                return;
+            }
+
+            if (eglContext == null) {
+                startEgl(view);
+            }
+
+            if (createSurface && !createSurface(session, view)) {
+                synchronized (lock) {
+                    session.surfaceIsBad = true;
+                    lock.notifyAll();
+                }
+                return;
+            }
+
+            boolean switched = currentSession != session;
+            if (!makeCurrent(session)) {
+                synchronized (lock) {
+                    session.surfaceIsBad = true;
+                    lock.notifyAll();
+                }
+                return;
+            }
+
+            GLTextureView.Renderer renderer = view.getRenderer();
+            if (session.needsSurfaceCreated) {
+                renderer.onSurfaceCreated(gl, eglConfig);
+                session.needsSurfaceCreated = false;
+                sizeChanged = true;
+                w = session.width;
+                h = session.height;
+            }
+
+            if (sizeChanged) {
+                session.surfaceWidth = w;
+                session.surfaceHeight = h;
+            }
+            if (sizeChanged || switched) {
+                renderer.onSurfaceChanged(gl, session.surfaceWidth, session.surfaceHeight);
+            }
+
+            renderer.onDrawFrame(gl);
+
+            view.applyPresentationTime();
+            long swapStartTime = System.nanoTime();
+            boolean swapped = egl.eglSwapBuffers(eglDisplay, session.eglSurface);
+            if (renderer instanceof GLTextureView.SwapTimingListener) {
+                ((GLTextureView.SwapTimingListener) renderer).onFrameSwapped(swapStartTime, System.nanoTime());
+            }
+            if (!swapped) {
+                int error = egl.eglGetError();
+                if (error == EGL11.EGL_CONTEXT_LOST) {
+                    Log.i(TAG, "egl context lost tid=" + getId());
+                    loseContext();
+                } else {
+                    Log.w(TAG, "eglSwapBuffers failed: " + error);
+                    synchronized (lock) {
+                        session.surfaceIsBad = true;
+                        lock.notifyAll();
+                    }
+                }
+            }
+        }
+
+        private void startEgl(GLTextureView view) {
+            egl = view.getEGL();
+            eglDisplay = egl.eglGetDisplay(EGL10.EGL_DEFAULT_DISPLAY);
+            if (eglDisplay == EGL10.EGL_NO_DISPLAY) {
+                throw new RuntimeException("eglGetDisplay failed");
+            }
+            int[] version = new int[2];
+            if (!egl.eglInitialize(eglDisplay, version)) {
+                throw new RuntimeException("eglInitialize failed");
+            }
+
+            eglConfig = view.getEGLConfigChooser().chooseConfig(egl, eglDisplay);
+            contextFactory = view.getEGLContextFactory();
+
+            EGLContext share = getShareContext();
+            EGLContext context;
+            if (share != null && contextFactory instanceof GLTextureView.EGLSharedContextFactory) {
+                context = ((GLTextureView.EGLSharedContextFactory) contextFactory)
+                        .createContext(egl, eglDisplay, eglConfig, share);
+            } else {
+                share = null;
+                context = contextFactory.createContext(egl, eglDisplay, eglConfig);
+            }
+            if (context == null || context == EGL10.EGL_NO_CONTEXT) {
+                throw new RuntimeException("createContext failed: " + egl.eglGetError());
+            }
+
+            eglContext = context;
+            GLResourceManager.onContextCreated(context, share);
+            gl = (GL10) context.getGL();
+            onContextCreated(context);
+        }
+
+        private boolean createSurface(Session session, GLTextureView view) {
+            synchronized (lock) {
+                destroySurfaceLocked(session);
+            }
+
+            GLTextureView.EGLWindowSurfaceFactory factory = view.getEGLWindowSurfaceFactory();
+            EGLSurface surface = factory.createWindowSurface(egl, eglDisplay, eglConfig,
+                    view.getSurfaceTexture());
+            if (surface == null || surface == EGL10.EGL_NO_SURFACE) {
+                return false;
+            }
+
+            session.eglSurface = surface;
+            session.surfaceFactory = factory;
+            synchronized (lock) {
+                session.haveEglSurface = true;
+            }
+            return true;
+        }
+
+        private boolean makeCurrent(Session session) {
+            if (currentSession == session) {
+                return true;
+            }
+            if (!egl.eglMakeCurrent(eglDisplay, session.eglSurface, session.eglSurface, eglContext)) {
+                Log.w(TAG, "eglMakeCurrent failed: " + egl.eglGetError());
+                currentSession = null;
+                return false;
+            }
+            currentSession = session;
+            return true;
+        }
+
+        /*
+         * Gives the renderers of exiting views a chance to release their GL objects, which live
+         * on in the share group, then lets the views go. Called without the lock, so that the
+         * other views of this thread are not blocked while a renderer cleans up.
+         */
+        private void releaseExitingSessions() {
+            for (int i = 0; i < exitingSessions.size(); i++) {
+                Session session = exitingSessions.get(i);
+                GLTextureView view = session.viewRef.get();
+                if (view != null && session.haveEglSurface && !session.needsSurfaceCreated
+                        && makeCurrent(session)) {
+                    view.getRenderer().onSurfaceDestroyed(gl);
+                }
+                synchronized (lock) {
+                    destroySurfaceLocked(session);
+                    session.exited = true;
+                    lock.notifyAll();
+                }
+            }
+            exitingSessions.clear();
+        }
+
+        private void destroySurfaceLocked(Session session) {
+            if (session.eglSurface == null) {
+                return;
+            }
+            if (currentSession == session) {
+                egl.eglMakeCurrent(eglDisplay, EGL10.EGL_NO_SURFACE, EGL10.EGL_NO_SURFACE,
+                        EGL10.EGL_NO_CONTEXT);
+                currentSession = null;
+            }
+            session.surfaceFactory.destroySurface(egl, eglDisplay, session.eglSurface);
+            session.eglSurface = null;
+            session.haveEglSurface = false;
+        }
+
+        private void loseContext() {
+            synchronized (lock) {
+                for (Session session : sessions) {
+                    destroySurfaceLocked(session);
+                    session.needsSurfaceCreated = true;
+                }
+            }
+            destroyContext();
+        }
+
+        private void destroyContext() {
+            EGLContext context = eglContext;
+            if (context == null) {
+                return;
+            }
+            GLResourceManager.onContextDestroyed(context);
+            contextFactory.destroyContext(egl, eglDisplay, context);
+            eglContext = null;
+            gl = null;
+            onContextDestroyed(this, context);
+        }
+
+        private void finishEgl() {
+            destroyContext();
+            if (eglDisplay != null) {
+                egl.eglTerminate(eglDisplay);
+                eglDisplay = null;
+            }
+        }
+    }
+
+    /**
+     * The per-view side of a pool thread. All fields except the ones marked otherwise are
+     * guarded by the lock of the owning worker.
+     */
+    private static final class Session implements GLTextureView.RenderThread {
+        final Worker worker;
+        final WeakReference<GLTextureView> viewRef;
+
+        boolean shouldExit;
+        boolean exited;
+        boolean requestPaused;
+        boolean paused;
+        boolean hasSurface;
+        boolean surfaceIsBad;
+        boolean waitingForSurface;
+        boolean haveEglSurface;
+        boolean requestRender = true;
+        boolean renderComplete;
+        boolean sizeChanged = true;
+        int width;
+        int height;
+        int renderMode = GLTextureView.RENDERMODE_CONTINUOUSLY;
+        long drawnRound = -1;
+
+        // Added to by any thread without a lock, run by the worker.
+        final MpscRunnableQueue eventQueue = new MpscRunnableQueue();
+
+        // Only touched on the worker thread.
+        int eventsSinceDraw;
+        EGLSurface eglSurface;
+        GLTextureView.EGLWindowSurfaceFactory surfaceFactory;
+        boolean needsSurfaceCreated = true;
+        int surfaceWidth;
+        int surfaceHeight;
+
+        Session(Worker worker, WeakReference<GLTextureView> viewRef) {
+            this.worker = worker;
+            this.viewRef = viewRef;
+        }
+
+        int getPriority() {
+            GLTextureView view = viewRef.get();
+            return view == null ? 0 : view.getRenderPriority();
+        }
+
+        int getEventBudget() {
+            GLTextureView view = viewRef.get();
+            return view == null ? GLTextureView.DEFAULT_EVENT_BUDGET_PER_FRAME : view.getEventBudgetPerFrame();
+        }
+
+        boolean readyToDraw() {
+            return (!paused) && hasSurface && (!surfaceIsBad)
+                    && (width > 0) && (height > 0)
+                    && (requestRender || (renderMode == GLTextureView.RENDERMODE_CONTINUOUSLY));
+        }
+
+        private boolean ableToDraw() {
+            return haveEglSurface && readyToDraw();
+        }
+
+        @Override
+        public void start() {
+            // The worker thread is already running.
+        }
+
+        @Override
+        public void setRenderMode(int renderMode) {
+            if (!((GLTextureView.RENDERMODE_WHEN_DIRTY <= renderMode)
+                    && (renderMode <= GLTextureView.RENDERMODE_CONTINUOUSLY))) {
+                throw new IllegalArgumentException("renderMode");
+            }
+            synchronized (worker.lock) {
+                this.renderMode = renderMode;
+                worker.lock.notifyAll();
+            }
+        }
+
+        @Override
+        public int getRenderMode() {
+            synchronized (worker.lock) {
+                return renderMode;
+            }
+        }
+
+        @Override
+        public void requestRender() {
+            synchronized (worker.lock) {
+                requestRender = true;
+                worker.lock.notifyAll();
+            }
+        }
+
+        @Override
+        public void surfaceCreated() {
+            synchronized (worker.lock) {
+                hasSurface = true;
+                worker.lock.notifyAll();
+                while (waitingForSurface && !exited) {
+                    waitOnWorker();
+                }
+            }
+        }
+
+        @Override
+        public void surfaceDestroyed() {
+            synchronized (worker.lock) {
+                hasSurface = false;
+                worker.lock.notifyAll();
+                while (!waitingForSurface && !exited) {
+                    waitOnWorker();
+                }
+            }
+        }
+
+        @Override
+        public void onPause() {
+            synchronized (worker.lock) {
+                requestPaused = true;
+                worker.lock.notifyAll();
+                while (!exited && !paused) {
+                    waitOnWorker();
+                }
+            }
+        }
+
+        @Override
+        public void onResume() {
+            synchronized (worker.lock) {
+                requestPaused = false;
+                requestRender = true;
+                renderComplete = false;
+                worker.lock.notifyAll();
+                while (!exited && paused && !renderComplete) {
+                    waitOnWorker();
+                }
+            }
+        }
+
+        @Override
+        public void onWindowResize(int w, int h) {
+            synchronized (worker.lock) {
+                width = w;
+                height = h;
+                sizeChanged = true;
+                requestRender = true;
+                renderComplete = false;
+                worker.lock.notifyAll();
+
+                // Wait for the worker to react to the resize and render a frame.
+                while (!exited && !paused && !renderComplete && ableToDraw()) {
+                    waitOnWorker();
+                }
+            }
+        }
+
+        @Override
+        public void requestResize(int w, int h) {
+            synchronized (worker.lock) {
+                width = w;
+                height = h;
+                sizeChanged = true;
+                requestRender = true;
+                worker.lock.notifyAll();
+            }
+        }
+
+        @Override
+        public void requestExitAndWait() {
+            // Like GLThread, this must not be called from the render thread itself.
+            synchronized (worker.lock) {
+                shouldExit = true;
+                worker.lock.notifyAll();
+                while (!exited) {
+                    waitOnWorker();
+                }
+            }
+        }
+
+        @Override
+        public void queueEvent(Runnable r) {
+            if (r == null) {
+                throw new IllegalArgumentException("r must not be null");
+            }
+            eventQueue.offer(r);
+            if (worker.waitingForEvents) {
+                synchronized (worker.lock) {
+                    worker.lock.notifyAll();
+                }
+            }
+        }
+
+        private void waitOnWorker() {
+            try {
+                worker.lock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
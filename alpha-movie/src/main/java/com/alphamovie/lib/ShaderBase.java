@@ -1,12 +1,30 @@
 package com.alphamovie.lib;
 
-public abstract class ShaderBase implements Shader {
+import android.opengl.GLES20;
+
+import java.util.ArrayList;
+import java.util.List;
 
+public abstract class ShaderBase implements Shader {
+    private final List<ShaderUniform> uniforms = new ArrayList<ShaderUniform>();
+    private GLInstrumentation instrumentation = new GLInstrumentation();
 
     public ShaderBase() {
 
     }
 
+    /**
+     * @return the GL facade that per-frame calls in {@link #setUniforms()} should go through.
+     * Set by the renderer the shader is attached to.
+     */
+    protected GLInstrumentation getInstrumentation() {
+        return instrumentation;
+    }
+
+    void setInstrumentation(GLInstrumentation instrumentation) {
+        this.instrumentation = instrumentation;
+    }
+
     @Override
     public String getVertexShader() {
         return
@@ -24,11 +42,82 @@ public abstract class ShaderBase implements Shader {
     @Override
     public abstract String getFragmentShader();
 
+    /**
+     * Declare a uniform of the fragment or vertex shader. Declared uniforms are located when the
+     * program is linked and uploaded by {@link #setUniforms()} whenever their value changed.
+     * Call from the constructor or a field initializer.
+     */
+    protected final ShaderUniform.Int declareInt(String name) {
+        return declare(new ShaderUniform.Int(name));
+    }
+
+    protected final ShaderUniform.Float declareFloat(String name) {
+        return declare(new ShaderUniform.Float(name));
+    }
+
+    protected final ShaderUniform.Vec3 declareVec3(String name) {
+        return declare(new ShaderUniform.Vec3(name));
+    }
+
+    protected final ShaderUniform.Vec4 declareVec4(String name) {
+        return declare(new ShaderUniform.Vec4(name));
+    }
+
+    protected final ShaderUniform.Mat4 declareMat4(String name) {
+        return declare(new ShaderUniform.Mat4(name));
+    }
+
+    private <T extends ShaderUniform> T declare(T uniform) {
+        for (ShaderUniform declared : uniforms) {
+            if (declared.getName().equals(uniform.getName())) {
+                throw new IllegalArgumentException("Uniform " + uniform.getName() + " is already declared");
+            }
+        }
+        uniforms.add(uniform);
+        return uniform;
+    }
+
+    /**
+     * Locates the declared uniforms. Subclasses that override this must call through.
+     */
     @Override
     public void getUniformLocations(int programID) {
+        for (int i = 0; i < uniforms.size(); i++) {
+            uniforms.get(i).resolve(programID);
+        }
     }
 
+    /**
+     * Deletes GL objects the shader created for its program in
+     * {@link #getUniformLocations(int)}. Called on the GL thread when the renderer relinks or
+     * stops using the program.
+     */
+    void releaseResources() {
+    }
+
+    void invalidateUniforms() {
+        for (int i = 0; i < uniforms.size(); i++) {
+            uniforms.get(i).invalidate();
+        }
+    }
+
+    /**
+     * Uploads the declared uniforms that changed. Subclasses that override this must call through.
+     */
     @Override
     public void setUniforms() {
+        GLInstrumentation gl = instrumentation;
+        for (int i = 0; i < uniforms.size(); i++) {
+            uniforms.get(i).upload(gl);
+        }
+    }
+
+    protected static int getUniformLocation(int programID, String name) {
+        int handle = GLES20.glGetUniformLocation(programID, name);
+        GLUtility.checkGlError("glGetUniformLocation " + name);
+        if (handle == -1)
+            throw new RuntimeException("Could not get uniform location for " + name);
+
+        return handle;
     }
 }
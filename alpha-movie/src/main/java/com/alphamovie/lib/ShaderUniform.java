@@ -0,0 +1,189 @@
+package com.alphamovie.lib;
+
+/**
+ * A uniform declared by a {@link ShaderBase}, holding the value to upload and whether it changed.
+ * <p>
+ * Values may be set from any thread. The render thread uploads a value only when it changed since
+ * the last upload or the program was recreated; otherwise the upload is skipped and counted by
+ * {@link GLInstrumentation#getSkippedUniformUploadCount()}. Setting a value equal to the current
+ * one does not mark the uniform as changed. The tracking assumes one program per shader instance,
+ * so a shader should only be set on one view at a time.
+ */
+public abstract class ShaderUniform {
+    private final String name;
+    private int location = -1;
+    private volatile boolean dirty = true;
+
+    ShaderUniform(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Look up the location in a newly linked program. The value is uploaded again on the next
+     * frame, because a new program starts with default values.
+     */
+    final void resolve(int programID) {
+        location = ShaderBase.getUniformLocation(programID, name);
+        dirty = true;
+    }
+
+    /**
+     * Upload the value if it changed. Must be called on the render thread with the program in use.
+     */
+    final void upload(GLInstrumentation gl) {
+        if (!dirty) {
+            gl.uniformUploadSkipped();
+            return;
+        }
+        synchronized (this) {
+            dirty = false;
+            upload(gl, location);
+        }
+        gl.uniformUploaded();
+    }
+
+    /**
+     * Force an upload on the next frame, e.g. because another user of the program overwrote it.
+     */
+    final void invalidate() {
+        dirty = true;
+    }
+
+    final void markChanged() {
+        dirty = true;
+    }
+
+    abstract void upload(GLInstrumentation gl, int location);
+
+    public static final class Int extends ShaderUniform {
+        private int value;
+
+        Int(String name) {
+            super(name);
+        }
+
+        public synchronized int get() {
+            return value;
+        }
+
+        public synchronized void set(int value) {
+            if (this.value != value) {
+                this.value = value;
+                markChanged();
+            }
+        }
+
+        @Override
+        void upload(GLInstrumentation gl, int location) {
+            gl.glUniform1i(location, value);
+        }
+    }
+
+    public static final class Float extends ShaderUniform {
+        private float value;
+
+        Float(String name) {
+            super(name);
+        }
+
+        public synchronized float get() {
+            return value;
+        }
+
+        public synchronized void set(float value) {
+            if (this.value != value) {
+                this.value = value;
+                markChanged();
+            }
+        }
+
+        @Override
+        void upload(GLInstrumentation gl, int location) {
+            gl.glUniform1f(location, value);
+        }
+    }
+
+    /**
+     * Base for uniforms backed by a float array.
+     */
+    abstract static class FloatArray extends ShaderUniform {
+        final float[] values;
+
+        FloatArray(String name, int size) {
+            super(name);
+            values = new float[size];
+        }
+
+        /**
+         * @param out receives the current values at {@code offset}
+         */
+        public synchronized void get(float[] out, int offset) {
+            System.arraycopy(values, 0, out, offset, values.length);
+        }
+
+        /**
+         * @param in the new values starting at {@code offset}
+         */
+        public synchronized void set(float[] in, int offset) {
+            if (UniformValues.copyIfChanged(values, in, offset)) {
+                markChanged();
+            }
+        }
+    }
+
+    public static final class Vec3 extends FloatArray {
+        Vec3(String name) {
+            super(name, 3);
+        }
+
+        public synchronized void set(float x, float y, float z) {
+            if (values[0] != x || values[1] != y || values[2] != z) {
+                values[0] = x;
+                values[1] = y;
+                values[2] = z;
+                markChanged();
+            }
+        }
+
+        @Override
+        void upload(GLInstrumentation gl, int location) {
+            gl.glUniform3fv(location, 1, values, 0);
+        }
+    }
+
+    public static final class Vec4 extends FloatArray {
+        Vec4(String name) {
+            super(name, 4);
+        }
+
+        public synchronized void set(float x, float y, float z, float w) {
+            if (values[0] != x || values[1] != y || values[2] != z || values[3] != w) {
+                values[0] = x;
+                values[1] = y;
+                values[2] = z;
+                values[3] = w;
+                markChanged();
+            }
+        }
+
+        @Override
+        void upload(GLInstrumentation gl, int location) {
+            gl.glUniform4fv(location, 1, values, 0);
+        }
+    }
+
+    public static final class Mat4 extends FloatArray {
+        Mat4(String name) {
+            super(name, 16);
+        }
+
+        @Override
+        void upload(GLInstrumentation gl, int location) {
+            gl.glUniformMatrix4fv(location, 1, false, values, 0);
+        }
+    }
+}
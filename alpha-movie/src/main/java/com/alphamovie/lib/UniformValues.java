@@ -0,0 +1,28 @@
+package com.alphamovie.lib;
+
+/**
+ * The compare-and-copy behind {@link ShaderUniform} array values, in plain Java so the benchmarks
+ * can run it without GL.
+ */
+public final class UniformValues {
+    private UniformValues() {
+    }
+
+    /**
+     * Copy {@code values.length} floats from {@code in} at {@code offset} into {@code values},
+     * writing only the elements that differ.
+     *
+     * @return whether any element changed
+     */
+    public static boolean copyIfChanged(float[] values, float[] in, int offset) {
+        boolean changed = false;
+        for (int i = 0; i < values.length; i++) {
+            float value = in[offset + i];
+            if (values[i] != value) {
+                values[i] = value;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,166 @@
+package com.alphamovie.lib;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pending {@link AlphaMovieView#setVideoAsync(VideoSource)} call.
+ * <p>
+ * Opening the source and reading its metadata run on a small executor shared by all views;
+ * the result is delivered on the main thread. A load that is cancelled on the main thread never
+ * delivers a result. Work that already started cannot be interrupted, but its result is
+ * discarded.
+ */
+public final class VideoLoad {
+    static final int THREAD_COUNT = 2;
+    static final int QUEUE_CAPACITY = 16;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static ThreadPoolExecutor sExecutor;
+    private static Handler sMainHandler;
+
+    interface Callback {
+        void onLoaded(VideoLoad load, VideoMetadata metadata);
+
+        void onFailed(VideoLoad load, IOException error);
+    }
+
+    private final VideoSource source;
+    private final VideoMetadataCache metadataCache;
+    private final Callback callback;
+    private volatile boolean cancelled;
+    private volatile boolean done;
+
+    private final Runnable work = new Runnable() {
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            VideoMetadata metadata = null;
+            IOException error = null;
+            try {
+                source.open();
+                metadata = source.loadMetadata(metadataCache);
+            } catch (IOException e) {
+                error = e;
+            }
+            deliver(metadata, error);
+        }
+    };
+
+    private VideoLoad(VideoSource source, VideoMetadataCache metadataCache, Callback callback) {
+        this.source = source;
+        this.metadataCache = metadataCache;
+        this.callback = callback;
+    }
+
+    /**
+     * Must be called on the main thread.
+     */
+    static VideoLoad start(VideoSource source, VideoMetadataCache metadataCache, Callback callback) {
+        VideoLoad load = new VideoLoad(source, metadataCache, callback);
+        try {
+            getExecutor().execute(load.work);
+        } catch (RejectedExecutionException e) {
+            load.deliver(null, new IOException("Too many pending video loads", e));
+        }
+        return load;
+    }
+
+    public VideoSource getSource() {
+        return source;
+    }
+
+    /**
+     * Stop the load if it has not delivered its result yet. When called on the main thread, the
+     * result is guaranteed not to be delivered afterwards.
+     */
+    public void cancel() {
+        if (done) {
+            return;
+        }
+        cancelled = true;
+        ThreadPoolExecutor executor;
+        synchronized (VideoLoad.class) {
+            executor = sExecutor;
+        }
+        if (executor != null) {
+            // Frees the queue slot if the work has not started.
+            executor.remove(work);
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return true once the result was delivered.
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    private void deliver(final VideoMetadata metadata, final IOException error) {
+        getMainHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (cancelled) {
+                        return;
+                    }
+                    done = true;
+                    if (error != null) {
+                        callback.onFailed(VideoLoad.this, error);
+                    } else {
+                        callback.onLoaded(VideoLoad.this, metadata);
+                    }
+                } finally {
+                    source.close();
+                }
+            }
+        });
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (sExecutor == null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            sExecutor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        Thread thread = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        }, "AlphaMovieLoad-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            sExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sExecutor;
+    }
+
+    private static synchronized Handler getMainHandler() {
+        if (sMainHandler == null) {
+            sMainHandler = new Handler(Looper.getMainLooper());
+        }
+        return sMainHandler;
+    }
+}
@@ -0,0 +1,124 @@
+package com.alphamovie.lib;
+
+import android.media.MediaMetadataRetriever;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The properties of a video that {@link AlphaMovieView} needs before it can lay itself out.
+ */
+public final class VideoMetadata {
+    private final int width;
+    private final int height;
+    private final int rotation;
+    private final long durationMs;
+    private final float frameRate;
+
+    VideoMetadata(int width, int height, int rotation, long durationMs, float frameRate) {
+        this.width = width;
+        this.height = height;
+        this.rotation = rotation;
+        this.durationMs = durationMs;
+        this.frameRate = frameRate;
+    }
+
+    static VideoMetadata extract(MediaMetadataRetriever retriever) {
+        long durationMs = parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION));
+        // Only reported from API 28 on; older platforms return null.
+        long frameCount = parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_FRAME_COUNT));
+        float frameRate = frameCount > 0 && durationMs > 0 ? frameCount * 1000f / durationMs : 0;
+        return new VideoMetadata(
+            (int) parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH)),
+            (int) parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT)),
+            (int) parseLong(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION)),
+            durationMs,
+            frameRate);
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    static VideoMetadata readFrom(DataInputStream in) throws IOException {
+        return new VideoMetadata(in.readInt(), in.readInt(), in.readInt(), in.readLong(), in.readFloat());
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(rotation);
+        out.writeLong(durationMs);
+        out.writeFloat(frameRate);
+    }
+
+    /**
+     * @return the width of the encoded frames in pixels, or 0 if unknown.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return the height of the encoded frames in pixels, or 0 if unknown.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the clockwise rotation in degrees the video is meant to be displayed with:
+     * 0, 90, 180 or 270.
+     */
+    public int getRotation() {
+        return rotation;
+    }
+
+    /**
+     * @return the width as displayed, after {@link #getRotation()} is applied.
+     */
+    public int getDisplayWidth() {
+        return isRotatedSideways() ? height : width;
+    }
+
+    /**
+     * @return the height as displayed, after {@link #getRotation()} is applied.
+     */
+    public int getDisplayHeight() {
+        return isRotatedSideways() ? width : height;
+    }
+
+    private boolean isRotatedSideways() {
+        return rotation == 90 || rotation == 270;
+    }
+
+    /**
+     * @return the duration in milliseconds, or 0 if unknown.
+     */
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    /**
+     * @return the average frame rate, or 0 if unknown. Only known on API 28 and later.
+     */
+    public float getFrameRate() {
+        return frameRate;
+    }
+
+    @Override
+    public String toString() {
+        return "VideoMetadata{" + width + "x" + height
+            + ", rotation=" + rotation
+            + ", durationMs=" + durationMs
+            + ", frameRate=" + frameRate + '}';
+    }
+}
@@ -0,0 +1,206 @@
+package com.alphamovie.lib;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A process-wide cache of {@link VideoMetadata}, so loading the same clip again skips the
+ * {@link android.media.MediaMetadataRetriever}.
+ * <p>
+ * Entries are keyed by the identity of the {@link VideoSource}: the asset name and the APK it
+ * ships in, the device, inode, size and modification time of a file, or the URI or URL. Sources
+ * without a stable identity, such as a {@link android.media.MediaDataSource}, are not cached.
+ * Remote content that changes behind the same URL is not detected; call {@link #clear()} if
+ * that matters.
+ * <p>
+ * The memory tier is a bounded LRU. The optional disk tier is a single small file holding the
+ * most recently stored entries; it is read on first use and rewritten on every store, so it is
+ * meant for a few hundred entries at most. All methods are thread safe and may block on the
+ * disk tier.
+ */
+public final class VideoMetadataCache {
+    private static final String TAG = "VideoMetadataCache";
+    private static final String FILE_NAME = "alpha-movie-metadata.bin";
+    private static final int FILE_MAGIC = 0x414d4d44;
+    private static final int FILE_VERSION = 1;
+    // Longer keys, such as signed URLs, are only cached in memory.
+    private static final int MAX_DISK_KEY_LENGTH = 1024;
+
+    public final static int DEFAULT_MAX_ENTRIES = 64;
+    public final static int DEFAULT_MAX_DISK_ENTRIES = 256;
+
+    private static VideoMetadataCache sDefault;
+
+    private final LruCache<String, VideoMetadata> memory;
+    private final File file;
+    private final int maxDiskEntries;
+
+    // Guarded by this. Loaded from file on first use, in insertion order, oldest first.
+    private LinkedHashMap<String, VideoMetadata> diskEntries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @return the process-wide cache, with its disk tier in the application cache directory.
+     */
+    public static synchronized VideoMetadataCache getDefault(Context context) {
+        if (sDefault == null) {
+            File file = new File(context.getApplicationContext().getCacheDir(), FILE_NAME);
+            sDefault = new VideoMetadataCache(DEFAULT_MAX_ENTRIES, file, DEFAULT_MAX_DISK_ENTRIES);
+        }
+        return sDefault;
+    }
+
+    /**
+     * @param file the disk tier, or null to keep entries in memory only
+     */
+    public VideoMetadataCache(int maxEntries, File file, int maxDiskEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries");
+        }
+        if (file != null && maxDiskEntries < 1) {
+            throw new IllegalArgumentException("maxDiskEntries");
+        }
+        this.memory = new LruCache<String, VideoMetadata>(maxEntries);
+        this.file = file;
+        this.maxDiskEntries = maxDiskEntries;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the cached metadata, or null.
+     */
+    public VideoMetadata get(String key) {
+        VideoMetadata metadata = memory.get(key);
+        if (metadata == null && file != null) {
+            synchronized (this) {
+                metadata = getDiskEntries().get(key);
+            }
+            if (metadata != null) {
+                memory.put(key, metadata);
+            }
+        }
+        if (metadata != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return metadata;
+    }
+
+    public void put(String key, VideoMetadata metadata) {
+        memory.put(key, metadata);
+        if (file == null || key.length() > MAX_DISK_KEY_LENGTH) {
+            return;
+        }
+        synchronized (this) {
+            LinkedHashMap<String, VideoMetadata> entries = getDiskEntries();
+            // Re-inserting moves the key to the end, the most recent position.
+            entries.remove(key);
+            entries.put(key, metadata);
+            Iterator<String> oldest = entries.keySet().iterator();
+            while (entries.size() > maxDiskEntries) {
+                oldest.next();
+                oldest.remove();
+            }
+            writeDiskEntries(entries);
+        }
+    }
+
+    public synchronized void clear() {
+        memory.evictAll();
+        if (file != null) {
+            diskEntries = new LinkedHashMap<String, VideoMetadata>();
+            file.delete();
+        }
+    }
+
+    /**
+     * @return the number of lookups answered from memory or disk.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private LinkedHashMap<String, VideoMetadata> getDiskEntries() {
+        if (diskEntries == null) {
+            diskEntries = new LinkedHashMap<String, VideoMetadata>();
+            if (file.exists()) {
+                try {
+                    readDiskEntries(diskEntries);
+                } catch (IOException e) {
+                    Log.w(TAG, "Discarding unreadable " + file.getName(), e);
+                    diskEntries.clear();
+                    file.delete();
+                }
+            }
+        }
+        return diskEntries;
+    }
+
+    private void readDiskEntries(Map<String, VideoMetadata> entries) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                throw new IOException("Unknown cache file format");
+            }
+            int count = in.readInt();
+            if (count < 0 || count > maxDiskEntries) {
+                throw new IOException("Invalid entry count " + count);
+            }
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                entries.put(key, VideoMetadata.readFrom(in));
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void writeDiskEntries(Map<String, VideoMetadata> entries) {
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_VERSION);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, VideoMetadata> entry : entries.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    entry.getValue().writeTo(out);
+                }
+            } finally {
+                out.close();
+            }
+            // Readers never see a partially written file.
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not replace " + file.getName());
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not store metadata", e);
+            temp.delete();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.alphamovie.lib;
+
+import java.util.ArrayList;
+
+/**
+ * A queue of clips for {@link AlphaMovieView#setPlaylist(VideoPlaylist)}.
+ * <p>
+ * While one clip plays, the view prepares the next one on a second player and switches to it
+ * when the current clip completes, so chained clips play without a prepare gap. Items may be
+ * added while the playlist plays. A playlist belongs to one view at a time and must only be
+ * used on the main thread.
+ */
+public final class VideoPlaylist {
+    private final ArrayList<VideoSource> items = new ArrayList<VideoSource>();
+    private boolean looping;
+    private AlphaMovieView owner;
+
+    public VideoPlaylist add(VideoSource source) {
+        if (source == null) {
+            throw new IllegalArgumentException("source must not be null");
+        }
+        items.add(source);
+        if (owner != null) {
+            owner.onPlaylistChanged();
+        }
+        return this;
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    public VideoSource get(int index) {
+        return items.get(index);
+    }
+
+    /**
+     * @param looping start over with the first item after the last one completes
+     */
+    public void setLooping(boolean looping) {
+        this.looping = looping;
+        if (owner != null) {
+            owner.onPlaylistChanged();
+        }
+    }
+
+    public boolean isLooping() {
+        return looping;
+    }
+
+    /**
+     * @return the index of the item after {@code index}, or -1 at the end.
+     */
+    int nextIndex(int index) {
+        if (index + 1 < items.size()) {
+            return index + 1;
+        }
+        return looping && !items.isEmpty() ? 0 : -1;
+    }
+
+    void setOwner(AlphaMovieView owner) {
+        if (this.owner != null && this.owner != owner) {
+            this.owner.clearPlaylist();
+        }
+        this.owner = owner;
+    }
+
+    AlphaMovieView getOwner() {
+        return owner;
+    }
+}
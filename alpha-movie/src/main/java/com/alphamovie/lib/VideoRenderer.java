@@ -19,133 +19,273 @@ package com.alphamovie.lib;
 import android.graphics.SurfaceTexture;
 import android.opengl.GLES20;
 import android.opengl.Matrix;
-import android.util.Log;
 import android.view.Surface;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
-public class VideoRenderer implements GLTextureView.Renderer, SurfaceTexture.OnFrameAvailableListener {
+public class VideoRenderer implements GLTextureView.Renderer, GLTextureView.SwapTimingListener,
+    SurfaceTexture.OnFrameAvailableListener {
     private static final int COLOR_MAX_VALUE = 255;
-    private static final int FLOAT_SIZE_BYTES = 4;
-    private static final int TRIANGLE_VERTICES_DATA_STRIDE_BYTES = 5 * FLOAT_SIZE_BYTES;
-    private static final int TRIANGLE_VERTICES_DATA_POS_OFFSET = 0;
-    private static final int TRIANGLE_VERTICES_DATA_UV_OFFSET = 3;
     private static String TAG = "VideoRender";
     private static int GL_TEXTURE_EXTERNAL_OES = 0x8D65;
-    private final float[] triangleVerticesData = {
-        // X, Y, Z, U, V
-        -1.0f, -1.0f, 0, 0.f, 0.f,
-        1.0f, -1.0f, 0, 1.f, 0.f,
-        -1.0f, 1.0f, 0, 0.f, 1.f,
-        1.0f, 1.0f, 0, 1.f, 1.f,
-    };
-
-    private FloatBuffer triangleVertices;
-
-    private int uMVPMatrixHandle;
-    private int uSTMatrixHandle;
+
+    private final ShaderUniform.Mat4 uMVPMatrix = new ShaderUniform.Mat4("uMVPMatrix");
+    private final ShaderUniform.Mat4 uSTMatrix = new ShaderUniform.Mat4("uSTMatrix");
     private float[] mVPMatrix = new float[16];
     private float[] sTMatrix = new float[16];
     private int aPositionHandle;
     private int aTextureHandle;
-    private int vertexShaderID;
-    private int fragmentShaderID;
     private int programID;
     private int textureID;
+    private int quadBufferID;
+
+    // Only touched on the GL thread.
+    private GLResourceManager resources;
+    private GLResourceManager.Program program;
+    // The shader whose uniforms were located on program.
+    private Shader programShader;
+    private volatile GLResourceManager publishedResources;
 
     private SurfaceTexture surface;
-    private boolean updateSurface = false;
     private boolean updateShaderProgram = false;
     private OnSurfacePrepareListener onSurfacePrepareListener;
+    private OnRenderRequestListener onRenderRequestListener;
     private Shader shader;
+    private final FrameSubmitter frameSubmitter = new FrameSubmitter();
+    private final GpuTimer gpuTimer = new GpuTimer();
+    private final GLInstrumentation instrumentation = new GLInstrumentation();
+    private volatile ProgramBinaryCache programBinaryCache;
+
+    // Frames the SurfaceTexture announced that onDrawFrame has not latched yet.
+    private final AtomicInteger pendingFrameCount = new AtomicInteger();
+    private final AtomicLong decodedFrameCount = new AtomicLong();
+    // Only written on the GL thread.
+    private long latchedFrameTimestamp = Long.MIN_VALUE;
+    private volatile long presentedFrameCount;
+    private volatile long skippedFrameCount;
+    private volatile long repeatedFrameCount;
+    // Guarded by itself.
+    private final FrameStats frameStatsBaseline = new FrameStats();
+
+    private volatile FrameTimingDispatcher frameTimingDispatcher;
+    private volatile long frameAvailableTime = -1;
+    private volatile RenderScaleController renderScaleController;
+    private OnRenderScaleChangeListener onRenderScaleChangeListener;
+
+    // Timings of the frame waiting for its swap. Only touched on the GL thread.
+    private RenderScaleController pendingScaleController;
+    private FrameTimingDispatcher pendingTimingDispatcher;
+    private long pendingSurfaceTimestamp;
+    private long pendingFrameAvailableTime;
+    private long pendingTexImageUpdatedTime;
+    private long pendingDrawStartTime;
+    private long pendingDrawDuration;
+    private boolean pendingRepeat;
+    private boolean pendingGpuTimed;
 
     VideoRenderer() {
-        triangleVertices =
-            ByteBuffer
-                .allocateDirect(triangleVerticesData.length * FLOAT_SIZE_BYTES)
-                .order(ByteOrder.nativeOrder())
-                .asFloatBuffer();
-        triangleVertices.put(triangleVerticesData).position(0);
-
+        Matrix.setIdentityM(mVPMatrix, 0);
         Matrix.setIdentityM(sTMatrix, 0);
+        uMVPMatrix.set(mVPMatrix, 0);
+        uSTMatrix.set(sTMatrix, 0);
 
         shader = new PassthroughShader();
+        attachInstrumentation(shader);
     }
 
     @Override
     public void onDrawFrame(GL10 glUnused) {
         Shader shader = this.shader;
+        boolean newFrame = false;
+        FrameTimingDispatcher timingDispatcher = frameTimingDispatcher;
+        RenderScaleController scaleController = renderScaleController;
+        long drawStartTime = timingDispatcher != null || scaleController != null ? System.nanoTime() : 0;
+        long frameAvailableTime = -1;
+        long texImageUpdatedTime = -1;
 
         synchronized (this) {
             if (updateShaderProgram) {
                 updateShaderProgram();
                 updateShaderProgram = false;
             }
+        }
 
-            if (updateSurface) {
-                surface.updateTexImage();
-                surface.getTransformMatrix(sTMatrix);
-                updateSurface = false;
+        // updateTexImage() latches the most recent frame, any older ones are skipped.
+        int pendingFrames = pendingFrameCount.getAndSet(0);
+        if (pendingFrames > 0) {
+            frameAvailableTime = this.frameAvailableTime;
+            surface.updateTexImage();
+            if (timingDispatcher != null) {
+                texImageUpdatedTime = System.nanoTime();
             }
+            surface.getTransformMatrix(sTMatrix);
+            uSTMatrix.set(sTMatrix, 0);
+            // A frame that arrived after the previous draw took the count but before its
+            // updateTexImage() was latched there, so this latch re-presents it.
+            long timestamp = surface.getTimestamp();
+            newFrame = timestamp != latchedFrameTimestamp;
+            latchedFrameTimestamp = timestamp;
+        }
+
+        // Only the GL thread writes these counters, so plain increments are safe.
+        if (newFrame) {
+            presentedFrameCount++;
+            skippedFrameCount += pendingFrames - 1;
+        } else {
+            repeatedFrameCount++;
+            // The frames counted now were covered by an earlier latch: the latest one was
+            // presented in place of an older one, which was dropped.
+            skippedFrameCount += pendingFrames;
         }
-        GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
 
-        GLES20.glEnable(GLES20.GL_BLEND);
-        GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
-        GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+        boolean gpuTimed = drawStartTime != 0 && gpuTimer.beginFrame(drawStartTime);
 
-        GLES20.glUseProgram(programID);
-        GLUtility.checkGlError("glUseProgram");
+        GLInstrumentation gl = instrumentation;
+        gl.beginFrame(shader);
 
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GL_TEXTURE_EXTERNAL_OES, textureID);
+        gl.glClear(GLES20.GL_DEPTH_BUFFER_BIT | GLES20.GL_COLOR_BUFFER_BIT);
 
-        triangleVertices.position(TRIANGLE_VERTICES_DATA_POS_OFFSET);
-        GLES20.glVertexAttribPointer(
+        gl.glEnable(GLES20.GL_BLEND);
+        gl.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        gl.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+
+        gl.glUseProgram(programID);
+        if (program.claim(this)) {
+            // Another renderer sharing the program uploaded its own values since our last frame.
+            invalidateUniforms(shader);
+        }
+
+        gl.glActiveTexture(GLES20.GL_TEXTURE0);
+        gl.glBindTexture(GL_TEXTURE_EXTERNAL_OES, textureID);
+
+        gl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, quadBufferID);
+        gl.glVertexAttribPointer(
             aPositionHandle,
             3,
             GLES20.GL_FLOAT,
             false,
-            TRIANGLE_VERTICES_DATA_STRIDE_BYTES,
-            triangleVertices
+            GLResourceManager.QUAD_STRIDE_BYTES,
+            GLResourceManager.QUAD_POSITION_OFFSET_BYTES
         );
-        GLUtility.checkGlError("glVertexAttribPointer maPosition");
-        GLES20.glEnableVertexAttribArray(aPositionHandle);
-        GLUtility.checkGlError("glEnableVertexAttribArray aPositionHandle");
+        gl.glEnableVertexAttribArray(aPositionHandle);
 
-        triangleVertices.position(TRIANGLE_VERTICES_DATA_UV_OFFSET);
-        GLES20.glVertexAttribPointer(
+        gl.glVertexAttribPointer(
             aTextureHandle,
-            3,
+            2,
             GLES20.GL_FLOAT,
             false,
-            TRIANGLE_VERTICES_DATA_STRIDE_BYTES,
-            triangleVertices
+            GLResourceManager.QUAD_STRIDE_BYTES,
+            GLResourceManager.QUAD_UV_OFFSET_BYTES
         );
-        GLUtility.checkGlError("glVertexAttribPointer aTextureHandle");
-        GLES20.glEnableVertexAttribArray(aTextureHandle);
-        GLUtility.checkGlError("glEnableVertexAttribArray aTextureHandle");
-
-        Matrix.setIdentityM(mVPMatrix, 0);
+        gl.glEnableVertexAttribArray(aTextureHandle);
 
-        GLES20.glUniformMatrix4fv(uMVPMatrixHandle, 1, false, mVPMatrix, 0);
-        GLES20.glUniformMatrix4fv(uSTMatrixHandle, 1, false, sTMatrix, 0);
+        // Both matrices are only uploaded when they changed, which for the transform is rarely.
+        uMVPMatrix.upload(gl);
+        uSTMatrix.upload(gl);
 
         shader.setUniforms();
 
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
-        GLUtility.checkGlError("glDrawArrays");
+        gl.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, GLResourceManager.QUAD_VERTEX_COUNT);
 
-        GLES20.glFinish();
+        gl.endFrame();
+        if (gpuTimed) {
+            gpuTimer.endFrame();
+        }
+        frameSubmitter.onFrameSubmitted();
+
+        pendingScaleController = scaleController;
+        pendingDrawStartTime = drawStartTime;
+        // Up to here, so the swap and the compositor's back-pressure on it are left out.
+        pendingDrawDuration = drawStartTime != 0 ? System.nanoTime() - drawStartTime : 0;
+        pendingGpuTimed = gpuTimed;
+        pendingTimingDispatcher = timingDispatcher;
+        if (timingDispatcher != null) {
+            pendingSurfaceTimestamp = surface.getTimestamp();
+            pendingFrameAvailableTime = frameAvailableTime;
+            pendingTexImageUpdatedTime = texImageUpdatedTime;
+            pendingRepeat = !newFrame;
+        }
     }
 
+    @Override
+    public void onFrameSwapped(long swapStartTime, long swapEndTime) {
+        RenderScaleController scaleController = pendingScaleController;
+        pendingScaleController = null;
+        if (scaleController != null && !gpuTimer.isSupported()) {
+            // Without GPU times the controller gets the draw duration, which includes waiting
+            // for the GPU in onFrameSubmitted().
+            updateRenderScale(scaleController, pendingDrawDuration);
+        }
+
+        FrameTimingDispatcher timingDispatcher = pendingTimingDispatcher;
+        pendingTimingDispatcher = null;
+        if (timingDispatcher != null) {
+            timingDispatcher.record(pendingSurfaceTimestamp, pendingFrameAvailableTime,
+                pendingTexImageUpdatedTime, pendingDrawStartTime, pendingDrawDuration,
+                swapEndTime - swapStartTime, pendingRepeat, pendingGpuTimed);
+        }
+        pollGpuTimer(timingDispatcher, scaleController);
+    }
+
+    /**
+     * Hands the GPU times that came back since the last frame to the timing dispatcher and the
+     * render scale controller.
+     */
+    private void pollGpuTimer(FrameTimingDispatcher timingDispatcher,
+                              RenderScaleController scaleController) {
+        long gpuDuration;
+        while ((gpuDuration = gpuTimer.poll()) != GpuTimer.NOT_READY) {
+            if (timingDispatcher != null) {
+                timingDispatcher.recordGpuDuration(gpuTimer.getPolledTag(), gpuDuration);
+            }
+            if (scaleController != null && gpuDuration >= 0) {
+                updateRenderScale(scaleController, gpuDuration);
+            }
+        }
+    }
+
+    private void updateRenderScale(RenderScaleController scaleController, long frameTimeNanos) {
+        float scale = scaleController.getScale();
+        if (scaleController.onFrame(frameTimeNanos) != scale) {
+            OnRenderScaleChangeListener listener = onRenderScaleChangeListener;
+            if (listener != null) {
+                listener.renderScaleChanged(scaleController, scaleController.getScale());
+            }
+        }
+    }
+
+    /**
+     * Hands the GL objects back to the resource manager. Only called by render threads that keep
+     * the share group alive; otherwise the objects go away with the context.
+     */
     @Override
     public void onSurfaceDestroyed(GL10 gl) {
+        gpuTimer.release();
+        GLResourceManager resources = this.resources;
+        if (resources == null) {
+            return;
+        }
+        if (program != null) {
+            resources.releaseProgram(program);
+            releaseShaderResources(programShader);
+            program = null;
+            programShader = null;
+            programID = 0;
+        }
+        if (textureID != 0) {
+            resources.deleteTexture(textureID);
+            textureID = 0;
+        }
+        if (quadBufferID != 0) {
+            resources.releaseQuadBuffer();
+            quadBufferID = 0;
+        }
+        this.resources = null;
+        publishedResources = null;
     }
 
     @Override
@@ -155,21 +295,38 @@ public class VideoRenderer implements GLTextureView.Renderer, SurfaceTexture.OnF
 
     @Override
     public void onSurfaceCreated(GL10 glUnused, EGLConfig config) {
-        updateShaderProgram();
-        if (programID == 0)
-            return;
+        frameSubmitter.onContextCreated();
+        gpuTimer.onContextCreated();
+
+        GLResourceManager resources = GLResourceManager.forCurrentContext();
+        if (resources != this.resources) {
+            // A new context: whatever we held belonged to the old one and is gone with it.
+            program = null;
+            programShader = null;
+            programID = 0;
+            textureID = 0;
+            quadBufferID = 0;
+            this.resources = resources;
+            publishedResources = resources;
+        }
+        if (quadBufferID == 0) {
+            quadBufferID = resources.acquireQuadBuffer();
+        }
 
+        updateShaderProgram();
         prepareSurface();
     }
 
     private void updateShaderProgram() {
-        if (programID != 0) {
-            GLES20.glDeleteProgram(programID);
-            programID = 0;
+        GLResourceManager.Program previous = program;
+        program = resources.acquireProgram(shader.getVertexShader(), shader.getFragmentShader(),
+            programBinaryCache);
+        programID = program.id;
+        if (previous != null) {
+            resources.releaseProgram(previous);
+            releaseShaderResources(programShader);
         }
-        programID = createProgram(shader.getVertexShader(), shader.getFragmentShader());
-        if (programID == 0)
-            throw new RuntimeException("Failed to create program");
+        programShader = shader;
 
         updateAttributesAndUniforms();
     }
@@ -186,39 +343,17 @@ public class VideoRenderer implements GLTextureView.Renderer, SurfaceTexture.OnF
             throw new RuntimeException("Could not get attrib location for aTextureCoord");
         }
 
-        uMVPMatrixHandle = GLES20.glGetUniformLocation(programID, "uMVPMatrix");
-        GLUtility.checkGlError("glGetUniformLocation uMVPMatrix");
-        if (uMVPMatrixHandle == -1) {
-            throw new RuntimeException("Could not get attrib location for uMVPMatrix");
-        }
-
-        uSTMatrixHandle = GLES20.glGetUniformLocation(programID, "uSTMatrix");
-        GLUtility.checkGlError("glGetUniformLocation uSTMatrix");
-        if (uSTMatrixHandle == -1) {
-            throw new RuntimeException("Could not get attrib location for uSTMatrix");
-        }
+        uMVPMatrix.resolve(programID);
+        uSTMatrix.resolve(programID);
 
         shader.getUniformLocations(programID);
     }
 
     private void prepareSurface() {
-        int[] textures = new int[1];
-        GLES20.glGenTextures(1, textures, 0);
-
-        textureID = textures[0];
-        GLES20.glBindTexture(GL_TEXTURE_EXTERNAL_OES, textureID);
-        GLUtility.checkGlError("glBindTexture textureID");
-
-        GLES20.glTexParameterf(
-            GL_TEXTURE_EXTERNAL_OES,
-            GLES20.GL_TEXTURE_MIN_FILTER,
-            GLES20.GL_NEAREST
-        );
-        GLES20.glTexParameterf(
-            GL_TEXTURE_EXTERNAL_OES,
-            GLES20.GL_TEXTURE_MAG_FILTER,
-            GLES20.GL_LINEAR
-        );
+        if (textureID != 0) {
+            resources.deleteTexture(textureID);
+        }
+        textureID = resources.createTexture(GL_TEXTURE_EXTERNAL_OES, "video");
 
         surface = new SurfaceTexture(textureID);
         surface.setOnFrameAvailableListener(this);
@@ -226,86 +361,168 @@ public class VideoRenderer implements GLTextureView.Renderer, SurfaceTexture.OnF
         Surface surface = new Surface(this.surface);
         onSurfacePrepareListener.surfacePrepared(surface);
 
-        synchronized (this) {
-            updateSurface = false;
-        }
+        pendingFrameCount.set(0);
+        latchedFrameTimestamp = Long.MIN_VALUE;
     }
 
-    synchronized public void onFrameAvailable(SurfaceTexture surface) {
-        updateSurface = true;
+    public void onFrameAvailable(SurfaceTexture surface) {
+        frameAvailableTime = System.nanoTime();
+        decodedFrameCount.incrementAndGet();
+        pendingFrameCount.incrementAndGet();
+        requestRender();
     }
 
-    private int loadShader(int shaderType, String source) {
-        int shader = GLES20.glCreateShader(shaderType);
-        if (shader != 0) {
-            GLES20.glShaderSource(shader, source);
-            GLES20.glCompileShader(shader);
-            int[] compiled = new int[1];
-            GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
-            if (compiled[0] == 0) {
-                Log.e(TAG, "Could not compile shader " + shaderType + ":");
-                Log.e(TAG, GLES20.glGetShaderInfoLog(shader));
-                GLES20.glDeleteShader(shader);
-                shader = 0;
-            }
+    private void requestRender() {
+        OnRenderRequestListener listener = onRenderRequestListener;
+        if (listener != null) {
+            listener.renderRequested();
         }
+    }
+
+    void setOnSurfacePrepareListener(OnSurfacePrepareListener onSurfacePrepareListener) {
+        this.onSurfacePrepareListener = onSurfacePrepareListener;
+    }
+
+    void setOnRenderRequestListener(OnRenderRequestListener onRenderRequestListener) {
+        this.onRenderRequestListener = onRenderRequestListener;
+    }
+
+    Shader getShader() {
         return shader;
     }
 
-    private int createProgram(String vertexSource, String fragmentSource) {
-        if (vertexShaderID != 0) {
-            GLES20.glDeleteShader(vertexShaderID);
-            vertexShaderID = 0;
+    public void setShader(Shader shader) {
+        attachInstrumentation(shader);
+        synchronized (this) {
+            this.shader = shader;
+            updateShaderProgram = true;
         }
+        requestRender();
+    }
 
-        if (fragmentShaderID != 0) {
-            GLES20.glDeleteShader(fragmentShaderID);
-            fragmentShaderID = 0;
-        }
+    void setFrameTimingDispatcher(FrameTimingDispatcher frameTimingDispatcher) {
+        this.frameTimingDispatcher = frameTimingDispatcher;
+    }
+
+    void setRenderScaleController(RenderScaleController renderScaleController) {
+        this.renderScaleController = renderScaleController;
+    }
+
+    void setOnRenderScaleChangeListener(OnRenderScaleChangeListener onRenderScaleChangeListener) {
+        this.onRenderScaleChangeListener = onRenderScaleChangeListener;
+    }
+
+    void setProgramBinaryCache(ProgramBinaryCache programBinaryCache) {
+        this.programBinaryCache = programBinaryCache;
+    }
+
+    ProgramBinaryCache getProgramBinaryCache() {
+        return programBinaryCache;
+    }
+
+    void setFrameSubmissionMode(int mode) {
+        frameSubmitter.setMode(mode);
+    }
+
+    int getFrameSubmissionMode() {
+        return frameSubmitter.getMode();
+    }
 
-        int vertexShaderIDTemp = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
-        if (vertexShaderIDTemp == 0) {
-            return 0;
+    void setMaxFramesInFlight(int maxFramesInFlight) {
+        frameSubmitter.setMaxFramesInFlight(maxFramesInFlight);
+    }
+
+    int getMaxFramesInFlight() {
+        return frameSubmitter.getMaxFramesInFlight();
+    }
+
+    private void invalidateUniforms(Shader shader) {
+        uMVPMatrix.invalidate();
+        uSTMatrix.invalidate();
+        if (shader instanceof ShaderBase) {
+            ((ShaderBase) shader).invalidateUniforms();
         }
-        int fragmentShaderIDTemp = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
-        if (fragmentShaderIDTemp == 0) {
-            return 0;
+    }
+
+    private static void releaseShaderResources(Shader shader) {
+        if (shader instanceof ShaderBase) {
+            ((ShaderBase) shader).releaseResources();
         }
+    }
 
-        vertexShaderID = vertexShaderIDTemp;
-        fragmentShaderID = fragmentShaderIDTemp;
-
-        int program = GLES20.glCreateProgram();
-        if (program != 0) {
-            GLES20.glAttachShader(program, vertexShaderIDTemp);
-            GLUtility.checkGlError("glAttachShader");
-            GLES20.glAttachShader(program, fragmentShaderIDTemp);
-            GLUtility.checkGlError("glAttachShader");
-            GLES20.glLinkProgram(program);
-            int[] linkStatus = new int[1];
-            GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
-            if (linkStatus[0] != GLES20.GL_TRUE) {
-                Log.e(TAG, "Could not link program: ");
-                Log.e(TAG, GLES20.glGetProgramInfoLog(program));
-                GLES20.glDeleteProgram(program);
-                program = 0;
-            }
+    private void attachInstrumentation(Shader shader) {
+        if (shader instanceof ShaderBase) {
+            ((ShaderBase) shader).setInstrumentation(instrumentation);
         }
-        return program;
     }
 
-    void setOnSurfacePrepareListener(OnSurfacePrepareListener onSurfacePrepareListener) {
-        this.onSurfacePrepareListener = onSurfacePrepareListener;
+    /**
+     * @return the resource manager of the current context, or null while there is none.
+     */
+    public GLResourceManager getResourceManager() {
+        return publishedResources;
     }
 
-    public void setShader(Shader shader) {
-        synchronized (this) {
-            this.shader = shader;
-            updateShaderProgram = true;
+    public GLInstrumentation getInstrumentation() {
+        return instrumentation;
+    }
+
+    /**
+     * @return the number of times {@link #onDrawFrame} has run.
+     */
+    public long getDrawnFrameCount() {
+        return presentedFrameCount + repeatedFrameCount;
+    }
+
+    /**
+     * @return the number of draws that re-presented the previous video frame
+     * because the {@link SurfaceTexture} had no frame that an earlier draw had not latched.
+     */
+    public long getRedundantDrawCount() {
+        return repeatedFrameCount;
+    }
+
+    /**
+     * Fill {@code out} with the counters since the last {@link #resetFrameStats()}.
+     */
+    void getFrameStats(FrameStats out) {
+        long presented = presentedFrameCount;
+        long skipped = skippedFrameCount;
+        long repeated = repeatedFrameCount;
+        // Read last so it never lags behind presented + skipped.
+        long decoded = decodedFrameCount.get();
+        out.set(decoded, presented, skipped, repeated);
+        synchronized (frameStatsBaseline) {
+            out.subtract(frameStatsBaseline);
+        }
+    }
+
+    /**
+     * Restart the counters reported by {@link #getFrameStats} from zero. The render thread keeps
+     * counting undisturbed; the current totals simply become the new baseline.
+     */
+    void resetFrameStats() {
+        long presented = presentedFrameCount;
+        long skipped = skippedFrameCount;
+        long repeated = repeatedFrameCount;
+        long decoded = decodedFrameCount.get();
+        synchronized (frameStatsBaseline) {
+            frameStatsBaseline.set(decoded, presented, skipped, repeated);
         }
     }
 
     interface OnSurfacePrepareListener {
         void surfacePrepared(Surface surface);
     }
+
+    interface OnRenderRequestListener {
+        void renderRequested();
+    }
+
+    interface OnRenderScaleChangeListener {
+        /**
+         * Called on the GL thread when {@code controller} picked a new scale.
+         */
+        void renderScaleChanged(RenderScaleController controller, float scale);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,402 @@
+package com.alphamovie.lib;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.MediaDataSource;
+import android.media.MediaMetadataRetriever;
+import android.media.MediaPlayer;
+import android.net.Uri;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Where a video comes from, for {@link AlphaMovieView#setVideoAsync(VideoSource)}.
+ * <p>
+ * A source is opened once, then handed to a {@link MediaMetadataRetriever} on a background
+ * thread and to the view's {@link MediaPlayer} on the main thread, and closed afterwards.
+ * File descriptors passed in by the caller are never closed; ones the source opens itself are.
+ * A {@link MediaDataSource} passed in is only closed by the player, see
+ * {@link #fromMediaDataSource(MediaDataSource)}.
+ */
+public abstract class VideoSource {
+
+    public static VideoSource fromAssets(Context context, final String assetsFileName) {
+        final Context appContext = context.getApplicationContext();
+        return new VideoSource() {
+            private AssetFileDescriptor assetFileDescriptor;
+
+            @Override
+            void open() throws IOException {
+                if (assetFileDescriptor == null) {
+                    assetFileDescriptor = appContext.getAssets().openFd(assetsFileName);
+                }
+            }
+
+            @Override
+            void applyTo(MediaPlayer mediaPlayer) throws IOException {
+                open();
+                mediaPlayer.setDataSource(assetFileDescriptor.getFileDescriptor(),
+                    assetFileDescriptor.getStartOffset(), assetFileDescriptor.getLength());
+            }
+
+            @Override
+            void applyTo(MediaMetadataRetriever retriever) throws IOException {
+                open();
+                retriever.setDataSource(assetFileDescriptor.getFileDescriptor(),
+                    assetFileDescriptor.getStartOffset(), assetFileDescriptor.getLength());
+            }
+
+            @Override
+            void close() {
+                if (assetFileDescriptor != null) {
+                    try {
+                        assetFileDescriptor.close();
+                    } catch (IOException ignored) {
+                    }
+                    assetFileDescriptor = null;
+                }
+            }
+
+            @Override
+            String getCacheKey() {
+                // The APK's modification time changes with every app update.
+                File apk = new File(appContext.getApplicationInfo().sourceDir);
+                return "asset:" + apk.lastModified() + ":" + assetsFileName;
+            }
+
+            @Override
+            public String toString() {
+                return "asset:" + assetsFileName;
+            }
+        };
+    }
+
+    public static VideoSource fromUrl(final String url) {
+        return new VideoSource() {
+            @Override
+            void applyTo(MediaPlayer mediaPlayer) throws IOException {
+                mediaPlayer.setDataSource(url);
+            }
+
+            @Override
+            void applyTo(MediaMetadataRetriever retriever) {
+                retriever.setDataSource(url, new HashMap<String, String>());
+            }
+
+            @Override
+            String getCacheKey() {
+                return "url:" + url;
+            }
+
+            @Override
+            public String toString() {
+                return url;
+            }
+        };
+    }
+
+    /**
+     * Stream {@code url} through {@code cache}. Each player or retriever the source is applied to
+     * reads through its own {@link CachingMediaDataSource}, so they share the cached chunks.
+     *
+     * @param cache may be null; ignored before API 23, which has no {@link MediaDataSource}
+     */
+    public static VideoSource fromUrl(final String url, final HttpRangeCache cache) {
+        if (cache == null || Build.VERSION.SDK_INT < 23) {
+            return fromUrl(url);
+        }
+        return new VideoSource() {
+            @TargetApi(23)
+            @Override
+            void applyTo(MediaPlayer mediaPlayer) throws IOException {
+                mediaPlayer.setDataSource(new CachingMediaDataSource(cache, url));
+            }
+
+            @TargetApi(23)
+            @Override
+            void applyTo(MediaMetadataRetriever retriever) throws IOException {
+                retriever.setDataSource(new CachingMediaDataSource(cache, url));
+            }
+
+            @Override
+            String getCacheKey() {
+                return "url:" + url;
+            }
+
+            @Override
+            public String toString() {
+                return url;
+            }
+        };
+    }
+
+    /**
+     * Read {@code file} through a {@link MappedFileDataSource} on API 23 and above, and by path
+     * before.
+     */
+    public static VideoSource fromFile(final File file) {
+        return new VideoSource() {
+            @TargetApi(23)
+            @Override
+            void applyTo(MediaPlayer mediaPlayer) throws IOException {
+                if (Build.VERSION.SDK_INT >= 23) {
+                    mediaPlayer.setDataSource(new MappedFileDataSource(file));
+                } else {
+                    mediaPlayer.setDataSource(file.getPath());
+                }
+            }
+
+            @TargetApi(23)
+            @Override
+            void applyTo(MediaMetadataRetriever retriever) {
+                if (Build.VERSION.SDK_INT >= 23) {
+                    retriever.setDataSource(new MappedFileDataSource(file));
+                } else {
+                    retriever.setDataSource(file.getPath());
+                }
+            }
+
+            @Override
+            String getCacheKey() {
+                return "file:" + file.getPath() + ":" + file.length() + ":" + file.lastModified();
+            }
+
+            @Override
+            public String toString() {
+                return file.getPath();
+            }
+        };
+    }
+
+    public static VideoSource fromFile(final FileDescriptor fileDescriptor) {
+        return new VideoSource() {
+            @Override
+            void applyTo(MediaPlayer mediaPlayer) throws IOException {
+                mediaPlayer.setDataSource(fileDescriptor);
+            }
+
+            @Override
+            void applyTo(MediaMetadataRetriever retriever) {
+                retriever.setDataSource(fileDescriptor);
+            }
+
+            @Override
+            String getCacheKey() {
+                return getFileKey(fileDescriptor, 0, -1);
+            }
+
+            @Override
+            public String toString() {
+                return "fd:" + fileDescriptor;
+            }
+        };
+    }
+
+    public static VideoSource fromFile(final FileDescriptor fileDescriptor, final long offset,
+                                       final long length) {
+        return new VideoSource() {
+            @Override
+            void applyTo(MediaPlayer mediaPlayer) throws IOException {
+                mediaPlayer.setDataSource(fileDescriptor, offset, length);
+            }
+
+            @Override
+            void applyTo(MediaMetadataRetriever retriever) {
+                retriever.setDataSource(fileDescriptor, offset, length);
+            }
+
+            @Override
+            String getCacheKey() {
+                return getFileKey(fileDescriptor, offset, length);
+            }
+
+            @Override
+            public String toString() {
+                return "fd:" + fileDescriptor + "@" + offset + "+" + length;
+            }
+        };
+    }
+
+    public static VideoSource fromUri(Context context, final Uri uri) {
+        final Context appContext = context.getApplicationContext();
+        return new VideoSource() {
+            @Override
+            void applyTo(MediaPlayer mediaPlayer) throws IOException {
+                mediaPlayer.setDataSource(appContext, uri);
+            }
+
+            @Override
+            void applyTo(MediaMetadataRetriever retriever) {
+                retriever.setDataSource(appContext, uri);
+            }
+
+            @Override
+            String getCacheKey() {
+                if ("file".equals(uri.getScheme()) && uri.getPath() != null) {
+                    File file = new File(uri.getPath());
+                    return "file:" + file.getPath() + ":" + file.length() + ":" + file.lastModified();
+                }
+                return "uri:" + uri;
+            }
+
+            @Override
+            public String toString() {
+                return uri.toString();
+            }
+        };
+    }
+
+    /**
+     * @return the clip {@code name} of {@code bundle}, see {@link ClipBundle#getSource(String)}.
+     */
+    public static VideoSource fromBundle(ClipBundle bundle, String name) {
+        return bundle.getSource(name);
+    }
+
+    /**
+     * Play {@code mediaDataSource}. The player takes it over and closes it when it is reset or
+     * released, as players do. The retriever that reads the metadata would close it too when it
+     * is released, right after the source was handed to the player; it reads through a wrapper
+     * that leaves {@code mediaDataSource} open instead.
+     */
+    @TargetApi(23)
+    public static VideoSource fromMediaDataSource(final MediaDataSource mediaDataSource) {
+        return new VideoSource() {
+            @Override
+            void applyTo(MediaPlayer mediaPlayer) {
+                mediaPlayer.setDataSource(mediaDataSource);
+            }
+
+            @Override
+            void applyTo(MediaMetadataRetriever retriever) {
+                retriever.setDataSource(new UnclosedMediaDataSource(mediaDataSource));
+            }
+
+            @Override
+            public String toString() {
+                return "dataSource:" + mediaDataSource;
+            }
+        };
+    }
+
+    VideoSource() {
+    }
+
+    /**
+     * Forwards reads to a source that belongs to someone else, and ignores {@link #close()}.
+     */
+    @TargetApi(23)
+    private static final class UnclosedMediaDataSource extends MediaDataSource {
+        private final MediaDataSource source;
+
+        UnclosedMediaDataSource(MediaDataSource source) {
+            this.source = source;
+        }
+
+        @Override
+        public int readAt(long position, byte[] buffer, int offset, int size) throws IOException {
+            return source.readAt(position, buffer, offset, size);
+        }
+
+        @Override
+        public long getSize() throws IOException {
+            return source.getSize();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Acquire whatever the source needs before it can be applied. May block.
+     */
+    void open() throws IOException {
+    }
+
+    abstract void applyTo(MediaPlayer mediaPlayer) throws IOException;
+
+    /**
+     * May block, e.g. on the network.
+     */
+    abstract void applyTo(MediaMetadataRetriever retriever) throws IOException;
+
+    /**
+     * Release what {@link #open()} acquired.
+     */
+    void close() {
+    }
+
+    /**
+     * Called after {@link #open()}.
+     *
+     * @return a key that identifies the content of this source across loads and process
+     * restarts, or null if it cannot be cached
+     */
+    String getCacheKey() {
+        return null;
+    }
+
+    /**
+     * @return a key from the identity of the open file, or null before API 21, where the file
+     * behind a descriptor cannot be identified.
+     */
+    @TargetApi(21)
+    static String getFileKey(FileDescriptor fileDescriptor, long offset, long length) {
+        if (Build.VERSION.SDK_INT < 21) {
+            return null;
+        }
+        try {
+            StructStat stat = Os.fstat(fileDescriptor);
+            return "file:" + stat.st_dev + ":" + stat.st_ino + ":" + stat.st_size + ":" + stat.st_mtime
+                + ":" + offset + ":" + length;
+        } catch (ErrnoException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Look up the metadata in {@code cache}, or read it and store it there. Called after
+     * {@link #open()}. May block.
+     *
+     * @param cache may be null
+     */
+    VideoMetadata loadMetadata(VideoMetadataCache cache) throws IOException {
+        String key = cache != null ? getCacheKey() : null;
+        if (key != null) {
+            VideoMetadata metadata = cache.get(key);
+            if (metadata != null) {
+                return metadata;
+            }
+        }
+        VideoMetadata metadata = extractMetadata();
+        if (key != null) {
+            cache.put(key, metadata);
+        }
+        return metadata;
+    }
+
+    /**
+     * Read the metadata of this source and release the retriever. May block.
+     */
+    VideoMetadata extractMetadata() throws IOException {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            applyTo(retriever);
+            return VideoMetadata.extract(retriever);
+        } catch (RuntimeException e) {
+            // The retriever reports unreadable sources with IllegalArgumentException or RuntimeException.
+            throw new IOException("Could not read " + this, e);
+        } finally {
+            retriever.release();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.alphamovie.lib;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.microedition.khronos.egl.EGL10;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.egl.EGLDisplay;
+import javax.microedition.khronos.egl.EGLSurface;
+import javax.microedition.khronos.opengles.GL;
+import javax.microedition.khronos.opengles.GL10;
+
+/**
+ * An EGL whose contexts and window surfaces are plain objects, so that render threads can run
+ * in a local unit test. Every EGL call succeeds. The factories count what they create and
+ * destroy.
+ */
+final class FakeEgl implements GLTextureView.EGLConfigChooser, GLTextureView.EGLSharedContextFactory,
+        GLTextureView.EGLWindowSurfaceFactory {
+    final AtomicInteger contextsCreated = new AtomicInteger();
+    final AtomicInteger contextsDestroyed = new AtomicInteger();
+    final AtomicInteger surfacesCreated = new AtomicInteger();
+    final AtomicInteger surfacesDestroyed = new AtomicInteger();
+
+    private final EGLDisplay display = new EGLDisplay() {
+    };
+    private final EGLConfig config = new EGLConfig() {
+    };
+    private final GL10 gl = (GL10) Proxy.newProxyInstance(GL10.class.getClassLoader(),
+            new Class<?>[] {GL10.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    return defaultValue(method.getReturnType());
+                }
+            });
+    final EGL10 egl = (EGL10) Proxy.newProxyInstance(EGL10.class.getClassLoader(),
+            new Class<?>[] {EGL10.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    Class<?> type = method.getReturnType();
+                    if (type == EGLDisplay.class) {
+                        return display;
+                    }
+                    if (type == boolean.class) {
+                        return true;
+                    }
+                    if (method.getName().equals("eglGetError")) {
+                        return EGL10.EGL_SUCCESS;
+                    }
+                    return defaultValue(type);
+                }
+            });
+
+    @Override
+    public EGLConfig chooseConfig(EGL10 egl, EGLDisplay display) {
+        return config;
+    }
+
+    @Override
+    public EGLContext createContext(EGL10 egl, EGLDisplay display, EGLConfig eglConfig) {
+        contextsCreated.incrementAndGet();
+        return new EGLContext() {
+            @Override
+            public GL getGL() {
+                return gl;
+            }
+        };
+    }
+
+    @Override
+    public EGLContext createContext(EGL10 egl, EGLDisplay display, EGLConfig eglConfig,
+                                    EGLContext shareContext) {
+        return createContext(egl, display, eglConfig);
+    }
+
+    @Override
+    public void destroyContext(EGL10 egl, EGLDisplay display, EGLContext context) {
+        contextsDestroyed.incrementAndGet();
+    }
+
+    @Override
+    public EGLSurface createWindowSurface(EGL10 egl, EGLDisplay display, EGLConfig config,
+                                          Object nativeWindow) {
+        surfacesCreated.incrementAndGet();
+        return new EGLSurface() {
+        };
+    }
+
+    @Override
+    public void destroySurface(EGL10 egl, EGLDisplay display, EGLSurface surface) {
+        surfacesDestroyed.incrementAndGet();
+    }
+
+    /**
+     * Poll {@code counter} until it reaches {@code expected}.
+     *
+     * @return false if it did not within {@code timeoutMs}
+     */
+    static boolean await(AtomicInteger counter, int expected, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (counter.get() < expected) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == String.class) {
+            return "";
+        }
+        return null;
+    }
+
+    /**
+     * A view rendering through a {@link FakeEgl}. The TextureView callbacks are called directly
+     * in place of a window.
+     */
+    static final class View extends GLTextureView {
+        private final EGL10 egl;
+
+        View(FakeEgl fake) {
+            super(null);
+            egl = fake.egl;
+            setEGLConfigChooser(fake);
+            setEGLContextFactory(fake);
+            setEGLWindowSurfaceFactory(fake);
+        }
+
+        @Override
+        EGL10 getEGL() {
+            return egl;
+        }
+
+        /**
+         * Hands the render thread a surface of the given size, like a TextureView becoming
+         * available.
+         */
+        void attachSurface(int width, int height) {
+            onSurfaceTextureAvailable(null, width, height);
+        }
+
+        /**
+         * Stops the render thread, like the view being removed from its window.
+         */
+        void detach() {
+            onDetachedFromWindow();
+        }
+    }
+
+    /**
+     * Counts the calls it gets from the render thread.
+     */
+    static final class CountingRenderer implements GLTextureView.Renderer {
+        final AtomicInteger surfacesCreated = new AtomicInteger();
+        final AtomicInteger surfacesChanged = new AtomicInteger();
+        final AtomicInteger frames = new AtomicInteger();
+        final AtomicInteger surfacesDestroyed = new AtomicInteger();
+
+        // Run on the render thread from onSurfaceDestroyed, if set.
+        volatile Runnable onSurfaceDestroyed;
+
+        @Override
+        public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+            surfacesCreated.incrementAndGet();
+        }
+
+        @Override
+        public void onSurfaceChanged(GL10 gl, int width, int height) {
+            surfacesChanged.incrementAndGet();
+        }
+
+        @Override
+        public void onDrawFrame(GL10 gl) {
+            frames.incrementAndGet();
+        }
+
+        @Override
+        public void onSurfaceDestroyed(GL10 gl) {
+            surfacesDestroyed.incrementAndGet();
+            Runnable hook = onSurfaceDestroyed;
+            if (hook != null) {
+                hook.run();
+            }
+        }
+    }
+}
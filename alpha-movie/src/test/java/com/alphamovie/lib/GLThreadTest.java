@@ -0,0 +1,132 @@
+package com.alphamovie.lib;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GLThreadTest {
+    private static final int VIEW_COUNT = 8;
+    private static final long TIMEOUT_MS = 5000;
+    private static final int REQUEST_ROUNDS = 10;
+    // One wakeup does the work, the second leaves room for a spurious one.
+    private static final int MAX_WAKEUPS_PER_REQUEST = 2;
+
+    @Test(timeout = 60000)
+    public void requestRenderAndResizeOnlyWakeThatView() throws Exception {
+        for (int viewCount : new int[] {1, 8, 32}) {
+            checkWakeups(viewCount);
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void lifecycleOfManyViewsCompletes() throws Exception {
+        FakeEgl egl = new FakeEgl();
+        List<FakeEgl.View> views = new ArrayList<FakeEgl.View>();
+        List<FakeEgl.CountingRenderer> renderers = new ArrayList<FakeEgl.CountingRenderer>();
+        for (int i = 0; i < VIEW_COUNT; i++) {
+            FakeEgl.CountingRenderer renderer = new FakeEgl.CountingRenderer();
+            views.add(attachView(egl, renderer));
+            renderers.add(renderer);
+        }
+        // One thread and one context per view.
+        assertEquals(VIEW_COUNT, egl.contextsCreated.get());
+
+        for (FakeEgl.View view : views) {
+            view.onPause();
+        }
+        for (FakeEgl.View view : views) {
+            view.onResume();
+        }
+        for (int i = 0; i < VIEW_COUNT; i++) {
+            int changed = renderers.get(i).surfacesChanged.get();
+            // Only waits for a frame if the thread already has its surface back.
+            views.get(i).surfaceChanged(null, 0, 32, 32);
+            assertTrue(FakeEgl.await(renderers.get(i).surfacesChanged, changed + 1, TIMEOUT_MS));
+        }
+        for (int i = 0; i < VIEW_COUNT; i++) {
+            int frames = renderers.get(i).frames.get();
+            views.get(i).requestRender();
+            assertTrue(FakeEgl.await(renderers.get(i).frames, frames + 1, TIMEOUT_MS));
+        }
+
+        for (FakeEgl.View view : views) {
+            view.detach();
+        }
+        assertEquals(egl.contextsCreated.get(), egl.contextsDestroyed.get());
+        assertEquals(egl.surfacesCreated.get(), egl.surfacesDestroyed.get());
+    }
+
+    /**
+     * Request frames and resizes of one view among {@code viewCount} and check that no other
+     * render thread wakes up. Prints the wakeups and the time the view's thread held its lock.
+     */
+    private static void checkWakeups(int viewCount) throws Exception {
+        FakeEgl egl = new FakeEgl();
+        List<FakeEgl.View> views = new ArrayList<FakeEgl.View>();
+        for (int i = 0; i < viewCount; i++) {
+            views.add(attachView(egl, new FakeEgl.CountingRenderer()));
+        }
+        FakeEgl.View view = views.get(0);
+        FakeEgl.CountingRenderer renderer = (FakeEgl.CountingRenderer) view.getRenderer();
+        GLTextureView.GLThread thread = (GLTextureView.GLThread) view.getRenderThread();
+        // Let every thread go to sleep after its first frame.
+        Thread.sleep(50);
+        long[] wakeups = getWakeupCounts(views);
+        long lockHeldNanos = thread.getLockHeldNanos();
+
+        for (int i = 0; i < REQUEST_ROUNDS; i++) {
+            int frames = renderer.frames.get();
+            view.requestRender();
+            assertTrue(FakeEgl.await(renderer.frames, frames + 1, TIMEOUT_MS));
+            int changed = renderer.surfacesChanged.get();
+            view.surfaceChanged(null, 0, 32 + 16 * (i % 2), 32);
+            assertTrue(FakeEgl.await(renderer.surfacesChanged, changed + 1, TIMEOUT_MS));
+        }
+        // Give a wrongly woken thread time to count.
+        Thread.sleep(50);
+
+        long[] after = getWakeupCounts(views);
+        int requests = 2 * REQUEST_ROUNDS;
+        long ownWakeups = after[0] - wakeups[0];
+        long otherWakeups = 0;
+        for (int i = 1; i < viewCount; i++) {
+            otherWakeups += after[i] - wakeups[i];
+        }
+        System.out.printf("%2d views: %d requests woke the view's thread %d times and the others %d"
+                + " times, lock held %.1f us per request%n", viewCount, requests, ownWakeups,
+            otherWakeups, (thread.getLockHeldNanos() - lockHeldNanos) / 1e3 / requests);
+
+        assertEquals("wakeups of the other threads with " + viewCount + " views", 0, otherWakeups);
+        assertTrue("wakeups of the view's thread with " + viewCount + " views",
+            ownWakeups <= MAX_WAKEUPS_PER_REQUEST * requests);
+
+        for (FakeEgl.View detached : views) {
+            detached.detach();
+        }
+    }
+
+    private static long[] getWakeupCounts(List<FakeEgl.View> views) {
+        long[] counts = new long[views.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = ((GLTextureView.GLThread) views.get(i).getRenderThread()).getWakeupCount();
+        }
+        return counts;
+    }
+
+    /**
+     * @return a view with its own GLThread that has drawn its first frame.
+     */
+    private static FakeEgl.View attachView(FakeEgl egl, FakeEgl.CountingRenderer renderer)
+            throws InterruptedException {
+        FakeEgl.View view = new FakeEgl.View(egl);
+        view.setRenderer(renderer);
+        view.setRenderMode(GLTextureView.RENDERMODE_WHEN_DIRTY);
+        view.attachSurface(64, 64);
+        assertTrue(FakeEgl.await(renderer.frames, 1, TIMEOUT_MS));
+        return view;
+    }
+}
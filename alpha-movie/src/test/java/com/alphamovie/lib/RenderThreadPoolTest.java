@@ -0,0 +1,102 @@
+package com.alphamovie.lib;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RenderThreadPoolTest {
+    private static final int MAX_THREADS = 2;
+    private static final int VIEW_COUNT = 12;
+    private static final long TIMEOUT_MS = 5000;
+
+    @Test(timeout = 20000)
+    public void threadCountStaysBoundedAsViewsAreAdded() throws Exception {
+        FakeEgl egl = new FakeEgl();
+        RenderThreadPool pool = new RenderThreadPool(MAX_THREADS, 0);
+        List<FakeEgl.View> views = new ArrayList<FakeEgl.View>();
+        List<FakeEgl.CountingRenderer> renderers = new ArrayList<FakeEgl.CountingRenderer>();
+        for (int i = 0; i < VIEW_COUNT; i++) {
+            FakeEgl.CountingRenderer renderer = new FakeEgl.CountingRenderer();
+            views.add(attachView(egl, pool, renderer));
+            renderers.add(renderer);
+            assertTrue("threads with " + (i + 1) + " views", pool.getThreadCount() <= MAX_THREADS);
+            assertEquals(i + 1, pool.getViewCount());
+        }
+
+        assertEquals(MAX_THREADS, pool.getThreadCount());
+        // One context per pool thread, one window surface per view.
+        assertEquals(MAX_THREADS, egl.contextsCreated.get());
+        assertEquals(VIEW_COUNT, egl.surfacesCreated.get());
+        for (FakeEgl.CountingRenderer renderer : renderers) {
+            assertEquals(1, renderer.surfacesCreated.get());
+        }
+
+        for (FakeEgl.View view : views) {
+            view.detach();
+        }
+        assertEquals(0, pool.getViewCount());
+        for (FakeEgl.CountingRenderer renderer : renderers) {
+            assertEquals(1, renderer.surfacesDestroyed.get());
+        }
+        // The threads exit with their last view and take their contexts with them.
+        assertTrue(FakeEgl.await(egl.contextsDestroyed, MAX_THREADS, TIMEOUT_MS));
+        assertEquals(0, pool.getThreadCount());
+        assertEquals(VIEW_COUNT, egl.surfacesDestroyed.get());
+    }
+
+    @Test(timeout = 20000)
+    public void rendererCleanupDoesNotBlockTheOtherViewsOfItsThread() throws Exception {
+        FakeEgl egl = new FakeEgl();
+        RenderThreadPool pool = new RenderThreadPool(1, 0);
+        final FakeEgl.View other = attachView(egl, pool, new FakeEgl.CountingRenderer());
+        FakeEgl.CountingRenderer exiting = new FakeEgl.CountingRenderer();
+        FakeEgl.View view = attachView(egl, pool, exiting);
+
+        final AtomicBoolean otherServed = new AtomicBoolean();
+        exiting.onSurfaceDestroyed = new Runnable() {
+            @Override
+            public void run() {
+                // Another thread talks to the other view while this renderer cleans up.
+                final CountDownLatch returned = new CountDownLatch(1);
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        other.requestRender();
+                        returned.countDown();
+                    }
+                }).start();
+                try {
+                    otherServed.set(returned.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        view.detach();
+
+        assertEquals(1, exiting.surfacesDestroyed.get());
+        assertTrue(otherServed.get());
+        other.detach();
+    }
+
+    /**
+     * @return a view of {@code pool} that has drawn its first frame.
+     */
+    private static FakeEgl.View attachView(FakeEgl egl, RenderThreadPool pool,
+                                           FakeEgl.CountingRenderer renderer) throws InterruptedException {
+        FakeEgl.View view = new FakeEgl.View(egl);
+        view.setRenderThreadPool(pool);
+        view.setRenderer(renderer);
+        view.setRenderMode(GLTextureView.RENDERMODE_WHEN_DIRTY);
+        view.attachSurface(64, 64);
+        assertTrue(FakeEgl.await(renderer.frames, 1, TIMEOUT_MS));
+        return view;
+    }
+}
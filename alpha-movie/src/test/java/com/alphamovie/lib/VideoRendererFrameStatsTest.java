@@ -0,0 +1,78 @@
+package com.alphamovie.lib;
+
+import android.view.Surface;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.opengles.GL;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the frame counters of {@link VideoRenderer}.
+ * <p>
+ * SurfaceTexture does nothing on the JVM and reports a timestamp of 0 for every latch, which is
+ * what a draw sees when an earlier draw already latched the frame it was told about.
+ */
+public class VideoRendererFrameStatsTest {
+    private final EGLContext context = new EGLContext() {
+        @Override
+        public GL getGL() {
+            return null;
+        }
+    };
+    private int linkedPrograms;
+    private VideoRenderer renderer;
+
+    @Before
+    public void setUp() {
+        GLResourceManager.setPlatform(new GLResourceManager.Platform() {
+            @Override
+            public EGLContext getCurrentContext() {
+                return context;
+            }
+
+            @Override
+            public int createProgram(String vertexSource, String fragmentSource,
+                                     ProgramBinaryCache programBinaryCache) {
+                return ++linkedPrograms;
+            }
+        });
+        renderer = new VideoRenderer();
+        renderer.setOnSurfacePrepareListener(new VideoRenderer.OnSurfacePrepareListener() {
+            @Override
+            public void surfacePrepared(Surface surface) {
+            }
+        });
+        renderer.onSurfaceCreated(null, null);
+        renderer.onSurfaceChanged(null, 64, 64);
+    }
+
+    @After
+    public void tearDown() {
+        renderer.onSurfaceDestroyed(null);
+        GLResourceManager.onContextDestroyed(context);
+        GLResourceManager.setPlatform(GLResourceManager.DEVICE);
+    }
+
+    @Test
+    public void frameLatchedByAnEarlierDrawIsARepeat() {
+        renderer.onFrameAvailable(null);
+        renderer.onDrawFrame(null);
+        // Announced after the first draw took the count; its latch already showed this frame.
+        renderer.onFrameAvailable(null);
+        renderer.onDrawFrame(null);
+        renderer.onDrawFrame(null);
+
+        FrameStats stats = new FrameStats();
+        renderer.getFrameStats(stats);
+        assertEquals(2, stats.getDecodedFrameCount());
+        assertEquals(1, stats.getPresentedFrameCount());
+        assertEquals(1, stats.getSkippedFrameCount());
+        assertEquals(2, stats.getRepeatedFrameCount());
+        assertEquals(3, stats.getDrawnFrameCount());
+    }
+}
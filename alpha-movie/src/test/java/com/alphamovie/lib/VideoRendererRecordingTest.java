@@ -0,0 +1,138 @@
+package com.alphamovie.lib;
+
+import android.view.Surface;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.microedition.khronos.egl.EGLContext;
+import javax.microedition.khronos.opengles.GL;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Records the GL calls of {@link VideoRenderer} for every shader of the library and checks them
+ * against gl-budget.properties.
+ * <p>
+ * The GL and SurfaceTexture calls do nothing on the JVM, so object names, attribute and uniform
+ * locations are all 0 and the matrices stay zero. The call sequence is the one the renderer
+ * issues on a device. The recordings are written to build/glstream, where the benchmark's
+ * checkGLBudget task replays them.
+ */
+public class VideoRendererRecordingTest {
+    private static final File RECORDINGS = new File("build/glstream");
+    private static final int FRAME_COUNT = 3;
+
+    private final EGLContext context = new EGLContext() {
+        @Override
+        public GL getGL() {
+            return null;
+        }
+    };
+    private int linkedPrograms;
+
+    @Before
+    public void setUp() {
+        GLResourceManager.setPlatform(new GLResourceManager.Platform() {
+            @Override
+            public EGLContext getCurrentContext() {
+                return context;
+            }
+
+            @Override
+            public int createProgram(String vertexSource, String fragmentSource,
+                                     ProgramBinaryCache programBinaryCache) {
+                return ++linkedPrograms;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        GLResourceManager.onContextDestroyed(context);
+        GLResourceManager.setPlatform(GLResourceManager.DEVICE);
+    }
+
+    @Test
+    public void recordingsStayWithinBudget() throws IOException {
+        Shader[] shaders = {
+            new PassthroughShader(),
+            new InvertColorsShader(),
+            new BasicChromaKeyShader(),
+            new AdvancedChromaKeyShader(),
+            new LutChromaKeyShader(),
+            new PackedAlphaShader(),
+        };
+        Properties budget = loadBudget();
+        List<String> violations = new ArrayList<String>();
+        for (Shader shader : shaders) {
+            GLCommandStream recording = record(shader);
+            assertEquals(FRAME_COUNT, recording.getFrameCount());
+            write(recording, new File(RECORDINGS, shader.getClass().getSimpleName() + ".glstream"));
+            violations.addAll(GLCommandStats.analyze(recording, false).checkBudget(budget));
+        }
+        assertTrue(violations.toString(), violations.isEmpty());
+    }
+
+    /**
+     * Draws the first frame after the surface is created, a new video frame and a repeated one.
+     */
+    private static GLCommandStream record(Shader shader) {
+        VideoRenderer renderer = new VideoRenderer();
+        renderer.setOnSurfacePrepareListener(new VideoRenderer.OnSurfacePrepareListener() {
+            @Override
+            public void surfacePrepared(Surface surface) {
+            }
+        });
+        renderer.setShader(shader);
+        renderer.onSurfaceCreated(null, null);
+        renderer.onSurfaceChanged(null, 64, 64);
+
+        renderer.getInstrumentation().startRecording(FRAME_COUNT);
+        renderer.onFrameAvailable(null);
+        renderer.onDrawFrame(null);
+        renderer.onFrameAvailable(null);
+        renderer.onDrawFrame(null);
+        renderer.onDrawFrame(null);
+        GLCommandStream recording = renderer.getInstrumentation().getRecording();
+        renderer.onSurfaceDestroyed(null);
+
+        assertNotNull(recording);
+        return recording;
+    }
+
+    private static Properties loadBudget() throws IOException {
+        InputStream in = VideoRendererRecordingTest.class.getResourceAsStream("/gl-budget.properties");
+        assertNotNull("gl-budget.properties", in);
+        Properties budget = new Properties();
+        try {
+            budget.load(in);
+        } finally {
+            in.close();
+        }
+        return budget;
+    }
+
+    private static void write(GLCommandStream recording, File file) throws IOException {
+        file.getParentFile().mkdirs();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            recording.write(out);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.alphamovie.benchmark;
+
+import com.alphamovie.lib.ChromaKeyLut;
+import com.alphamovie.lib.CpuChromaKeyer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU keying of one frame on a single thread, and regeneration of the keying lookup table.
+ * {@link ChromaKeyThroughput} covers scaling across cores.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChromaKeyBenchmark {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 360;
+
+    @State(Scope.Thread)
+    public static class Keying {
+        @Param({"advanced", "basic"})
+        public String mode;
+
+        CpuChromaKeyer keyer;
+        int[] src;
+        int[] dst;
+
+        @Setup
+        public void setup() {
+            keyer = new CpuChromaKeyer();
+            keyer.setMode("basic".equals(mode) ? CpuChromaKeyer.MODE_BASIC : CpuChromaKeyer.MODE_ADVANCED);
+            keyer.setKeyColor(0xff10e020);
+            // Stay on the calling thread.
+            keyer.setParallelThreshold(Integer.MAX_VALUE);
+
+            int pixels = WIDTH * HEIGHT;
+            src = new int[pixels];
+            dst = new int[pixels];
+            Random random = new Random(42);
+            for (int i = 0; i < pixels; i++) {
+                src[i] = random.nextInt(4) == 0 ? 0xff000000 | random.nextInt(0x1000000) : 0xff10e020;
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Table {
+        @Param({"16", "32"})
+        public int size;
+
+        ChromaKeyLut lut;
+        float sensitivity;
+
+        @Setup
+        public void setup() {
+            lut = new ChromaKeyLut(size);
+        }
+    }
+
+    @Benchmark
+    public int[] keyFrame(Keying state) {
+        state.keyer.key(state.src, 0, state.dst, 0, state.src.length);
+        return state.dst;
+    }
+
+    /**
+     * Rebuild the table, as happens whenever the key settings change.
+     */
+    @Benchmark
+    public byte[] lutUpdate(Table state) {
+        // Alternate the sensitivity so every call regenerates the table.
+        state.sensitivity = state.sensitivity == 0.2f ? 0.25f : 0.2f;
+        state.lut.update(0xff10e020, state.sensitivity, 0.1f);
+        return state.lut.getData();
+    }
+}
@@ -0,0 +1,32 @@
+package com.alphamovie.benchmark;
+
+import com.alphamovie.lib.ChromaKeyMath;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ChromaKeyMath#toYCrCb}, the key colour conversion that
+ * {@code AdvancedChromaKeyShader.setChromaKeyColor} runs whenever the key colour changes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ColorConversionBenchmark {
+    private final float[] maskYCrCb = new float[3];
+    private int color = 0xff10e020;
+
+    @Benchmark
+    public float[] toYCrCb() {
+        // Vary the input so the conversion cannot be hoisted out of the loop.
+        color += 0x010101;
+        ChromaKeyMath.toYCrCb(color, maskYCrCb);
+        return maskYCrCb;
+    }
+}
@@ -0,0 +1,394 @@
+package com.alphamovie.benchmark;
+
+import com.alphamovie.lib.MpscRunnableQueue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The handoff of {@code GLTextureView.queueEvent} to the render thread.
+ * <p>
+ * {@link #monitor} models the {@code GLThread} event queue: an {@code ArrayList} guarded by the
+ * global {@code sGLThreadManager} monitor, with a {@code notifyAll()} per event and
+ * {@code remove(0)} on the render thread. The consumer polls instead of waiting so iterations
+ * can end; the cost measured is the lock handoff, not the wakeup. Producers stop adding while
+ * {@link #MAX_PENDING} events are queued so a slow consumer cannot exhaust the heap.
+ * {@link #concurrentQueue} is a lock-free baseline, and {@link #mpsc} is the
+ * {@link MpscRunnableQueue} the render threads use now. The {@code contended} groups add events
+ * from three threads, as when parameter updates arrive from several threads at touch rate.
+ * <p>
+ * The {@code latency} benchmarks measure the time from queueing an event until it has run on a
+ * consumer thread that sleeps when the queue is empty: with the monitor, every event notifies;
+ * with {@link MpscRunnableQueue}, only an event that finds the consumer waiting does.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventQueueBenchmark {
+    static final int MAX_PENDING = 1024;
+
+    // GLTextureView.DEFAULT_EVENT_BUDGET_PER_FRAME
+    static final int EVENT_BUDGET = 64;
+
+    private static final Runnable EVENT = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    @State(Scope.Group)
+    public static class MonitorQueue {
+        private final Object lock = new Object();
+        private final ArrayList<Runnable> queue = new ArrayList<Runnable>();
+
+        boolean queueEvent(Runnable r) {
+            synchronized (lock) {
+                if (queue.size() >= MAX_PENDING) {
+                    return false;
+                }
+                queue.add(r);
+                lock.notifyAll();
+                return true;
+            }
+        }
+
+        Runnable poll() {
+            synchronized (lock) {
+                return queue.isEmpty() ? null : queue.remove(0);
+            }
+        }
+    }
+
+    @State(Scope.Group)
+    public static class LockFreeQueue {
+        private final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<Runnable>();
+        private final AtomicInteger pending = new AtomicInteger();
+
+        boolean offer(Runnable r) {
+            if (pending.get() >= MAX_PENDING) {
+                return false;
+            }
+            pending.incrementAndGet();
+            return queue.offer(r);
+        }
+
+        Runnable poll() {
+            Runnable r = queue.poll();
+            if (r != null) {
+                pending.decrementAndGet();
+            }
+            return r;
+        }
+    }
+
+    @State(Scope.Group)
+    public static class MpscQueue {
+        private final MpscRunnableQueue queue = new MpscRunnableQueue();
+        private final AtomicInteger pending = new AtomicInteger();
+
+        boolean offer(Runnable r) {
+            if (pending.get() >= MAX_PENDING) {
+                return false;
+            }
+            pending.incrementAndGet();
+            queue.offer(r);
+            return true;
+        }
+
+        Runnable poll() {
+            Runnable r = queue.poll();
+            if (r != null) {
+                pending.decrementAndGet();
+            }
+            return r;
+        }
+    }
+
+    /**
+     * A consumer thread that waits for events like the render thread does, and an event that
+     * records how far it has got.
+     */
+    public abstract static class SleepingConsumer implements Runnable {
+        final Object lock = new Object();
+        volatile boolean stop;
+        volatile long done;
+        long queued;
+        private Thread thread;
+
+        final Runnable event = new Runnable() {
+            @Override
+            public void run() {
+                done++;
+            }
+        };
+
+        @Setup
+        public void start() {
+            thread = new Thread(this, "EventQueueBenchmark consumer");
+            thread.start();
+        }
+
+        @TearDown
+        public void stop() throws InterruptedException {
+            stop = true;
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+            thread.join();
+        }
+
+        abstract void queueEvent(Runnable r);
+
+        /**
+         * Queue one event and spin until it has run.
+         */
+        long roundTrip() {
+            long target = ++queued;
+            queueEvent(event);
+            while (done != target) {
+                Thread.yield();
+            }
+            return target;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class MonitorConsumer extends SleepingConsumer {
+        private final ArrayList<Runnable> queue = new ArrayList<Runnable>();
+
+        @Override
+        void queueEvent(Runnable r) {
+            synchronized (lock) {
+                queue.add(r);
+                lock.notifyAll();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Runnable r;
+                    synchronized (lock) {
+                        while (queue.isEmpty() && !stop) {
+                            lock.wait();
+                        }
+                        if (stop) {
+                            return;
+                        }
+                        r = queue.remove(0);
+                    }
+                    r.run();
+                }
+            } catch (InterruptedException e) {
+                // Exit.
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class MpscConsumer extends SleepingConsumer {
+        private final MpscRunnableQueue queue = new MpscRunnableQueue();
+        private volatile boolean waiting;
+
+        @Override
+        void queueEvent(Runnable r) {
+            queue.offer(r);
+            if (waiting) {
+                synchronized (lock) {
+                    lock.notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!stop) {
+                    if (queue.drain(EVENT_BUDGET) > 0) {
+                        continue;
+                    }
+                    synchronized (lock) {
+                        waiting = true;
+                        if (queue.isEmpty() && !stop) {
+                            lock.wait();
+                        }
+                        waiting = false;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Exit.
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Burst {
+        /**
+         * Events queued before the render thread drains them, as when a view is configured
+         * before its first frame.
+         */
+        @Param({"1", "16"})
+        public int size;
+    }
+
+    @Benchmark
+    @Group("monitor")
+    @GroupThreads(1)
+    public boolean monitorProducer(MonitorQueue q) {
+        return q.queueEvent(EVENT);
+    }
+
+    @Benchmark
+    @Group("monitor")
+    @GroupThreads(1)
+    public Runnable monitorConsumer(MonitorQueue q) {
+        Runnable r = q.poll();
+        if (r != null) {
+            r.run();
+        }
+        return r;
+    }
+
+    @Benchmark
+    @Group("concurrentQueue")
+    @GroupThreads(1)
+    public boolean concurrentQueueProducer(LockFreeQueue q) {
+        return q.offer(EVENT);
+    }
+
+    @Benchmark
+    @Group("concurrentQueue")
+    @GroupThreads(1)
+    public Runnable concurrentQueueConsumer(LockFreeQueue q) {
+        Runnable r = q.poll();
+        if (r != null) {
+            r.run();
+        }
+        return r;
+    }
+
+    @Benchmark
+    @Group("mpsc")
+    @GroupThreads(1)
+    public boolean mpscProducer(MpscQueue q) {
+        return q.offer(EVENT);
+    }
+
+    @Benchmark
+    @Group("mpsc")
+    @GroupThreads(1)
+    public Runnable mpscConsumer(MpscQueue q) {
+        Runnable r = q.poll();
+        if (r != null) {
+            r.run();
+        }
+        return r;
+    }
+
+    @Benchmark
+    @Group("monitorContended")
+    @GroupThreads(3)
+    public boolean monitorContendedProducer(MonitorQueue q) {
+        return q.queueEvent(EVENT);
+    }
+
+    @Benchmark
+    @Group("monitorContended")
+    @GroupThreads(1)
+    public Runnable monitorContendedConsumer(MonitorQueue q) {
+        return monitorConsumer(q);
+    }
+
+    @Benchmark
+    @Group("mpscContended")
+    @GroupThreads(3)
+    public boolean mpscContendedProducer(MpscQueue q) {
+        return q.offer(EVENT);
+    }
+
+    @Benchmark
+    @Group("mpscContended")
+    @GroupThreads(1)
+    public Runnable mpscContendedConsumer(MpscQueue q) {
+        return mpscConsumer(q);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long monitorLatency(MonitorConsumer consumer) {
+        return consumer.roundTrip();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long mpscLatency(MpscConsumer consumer) {
+        return consumer.roundTrip();
+    }
+
+    /**
+     * Queue and drain a burst on one thread, measuring the uncontended cost per burst.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int monitorBurst(MonitorQueue q, Burst burst) {
+        for (int i = 0; i < burst.size; i++) {
+            q.queueEvent(EVENT);
+        }
+        int drained = 0;
+        Runnable r;
+        while ((r = q.poll()) != null) {
+            r.run();
+            drained++;
+        }
+        return drained;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int concurrentQueueBurst(LockFreeQueue q, Burst burst) {
+        for (int i = 0; i < burst.size; i++) {
+            q.offer(EVENT);
+        }
+        int drained = 0;
+        Runnable r;
+        while ((r = q.poll()) != null) {
+            r.run();
+            drained++;
+        }
+        return drained;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int mpscBurst(MpscQueue q, Burst burst) {
+        for (int i = 0; i < burst.size; i++) {
+            q.offer(EVENT);
+        }
+        int drained = 0;
+        Runnable r;
+        while ((r = q.poll()) != null) {
+            r.run();
+            drained++;
+        }
+        return drained;
+    }
+}
@@ -0,0 +1,105 @@
+package com.alphamovie.benchmark;
+
+import com.alphamovie.lib.FileRangeReader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Demuxer-like reads from a local file: {@link FileRangeReader} mapped and through its
+ * read-ahead window, against a seek and read per call. Each invocation reads
+ * {@link #READS_PER_OP} times, sequentially or at random positions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class FileReadBenchmark {
+    private static final int FILE_SIZE = 16 * 1024 * 1024;
+    private static final int READS_PER_OP = 256;
+
+    @Param({"mapped", "channel", "seek"})
+    public String mode;
+
+    @Param({"sequential", "random"})
+    public String access;
+
+    // A typical sample read, and a transport stream packet.
+    @Param({"4096", "188"})
+    public int readSize;
+
+    private File file;
+    private FileRangeReader reader;
+    private RandomAccessFile randomAccessFile;
+    private long[] positions;
+    private int next;
+    private byte[] buffer;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = File.createTempFile("file-read-benchmark", ".bin");
+        byte[] data = new byte[FILE_SIZE];
+        Random random = new Random(42);
+        random.nextBytes(data);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+
+        if ("seek".equals(mode)) {
+            randomAccessFile = new RandomAccessFile(file, "r");
+        } else {
+            reader = FileRangeReader.open(file, "mapped".equals(mode));
+        }
+
+        positions = new long[FILE_SIZE / readSize];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = "random".equals(access)
+                ? random.nextInt(FILE_SIZE - readSize)
+                : (long) i * readSize;
+        }
+        buffer = new byte[readSize];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (reader != null) {
+            reader.close();
+        }
+        if (randomAccessFile != null) {
+            randomAccessFile.close();
+        }
+        file.delete();
+    }
+
+    @Benchmark
+    public byte[] read() throws IOException {
+        for (int i = 0; i < READS_PER_OP; i++) {
+            long position = positions[next];
+            next = next + 1 < positions.length ? next + 1 : 0;
+            if (randomAccessFile != null) {
+                randomAccessFile.seek(position);
+                randomAccessFile.readFully(buffer, 0, readSize);
+            } else {
+                reader.read(position, buffer, 0, readSize);
+            }
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,66 @@
+package com.alphamovie.benchmark;
+
+import com.alphamovie.lib.FrameTimingBuffer;
+import com.alphamovie.lib.FrameTimings;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listener dispatch for per-frame timings: the render thread writes into a
+ * {@link FrameTimingBuffer} and the main thread drains it in batches of 64, as
+ * {@code FrameTimingDispatcher} does. {@link #postPerFrame} is the naive alternative of posting
+ * one callback object per frame, measured for comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameTimingDispatchBenchmark {
+    private static final int BATCH = 64;
+
+    private final FrameTimingBuffer buffer = new FrameTimingBuffer(256);
+    private final FrameTimings batch = new FrameTimings(BATCH);
+    private final ConcurrentLinkedQueue<Runnable> posted = new ConcurrentLinkedQueue<Runnable>();
+    private long time;
+    private long sink;
+
+    /**
+     * One batch: {@value #BATCH} writes followed by one drain.
+     */
+    @Benchmark
+    public int ringBatch() {
+        for (int i = 0; i < BATCH; i++) {
+            time += 16666667;
+            buffer.write(time, time + 1000, time + 2000, time + 3000, 500000, 200000, -1,
+                (i & 7) == 0);
+        }
+        return buffer.drain(batch);
+    }
+
+    @Benchmark
+    public long postPerFrame() {
+        for (int i = 0; i < BATCH; i++) {
+            time += 16666667;
+            final long surfaceTimestamp = time;
+            final long drawDuration = 500000;
+            posted.offer(new Runnable() {
+                @Override
+                public void run() {
+                    sink += surfaceTimestamp + drawDuration;
+                }
+            });
+        }
+        Runnable r;
+        while ((r = posted.poll()) != null) {
+            r.run();
+        }
+        return sink;
+    }
+}
@@ -0,0 +1,61 @@
+package com.alphamovie.benchmark;
+
+import com.alphamovie.lib.UniformValues;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link UniformValues#copyIfChanged}, the compare-and-copy {@code ShaderUniform.Mat4.set} does
+ * with the SurfaceTexture transform every frame. The uniform's lock is not included.
+ * {@link #copyUnconditionally} is the plain copy it replaces, measured for comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UniformCopyBenchmark {
+    private final float[] uniformValue = new float[16];
+    private final float[] transform = new float[16];
+    private final float[] flippedTransform = new float[16];
+    private boolean flip;
+
+    @Setup
+    public void setup() {
+        transform[0] = transform[5] = transform[10] = transform[15] = 1f;
+        // What SurfaceTexture.getTransformMatrix returns for a typical decoder: a vertical flip.
+        System.arraycopy(transform, 0, flippedTransform, 0, 16);
+        flippedTransform[5] = -1f;
+        flippedTransform[13] = 1f;
+        System.arraycopy(transform, 0, uniformValue, 0, 16);
+    }
+
+    /**
+     * The common case: the transform did not change since the previous frame.
+     */
+    @Benchmark
+    public boolean setUnchanged() {
+        return UniformValues.copyIfChanged(uniformValue, transform, 0);
+    }
+
+    /**
+     * The worst case: the transform changes every frame.
+     */
+    @Benchmark
+    public boolean setChanged() {
+        flip = !flip;
+        return UniformValues.copyIfChanged(uniformValue, flip ? flippedTransform : transform, 0);
+    }
+
+    @Benchmark
+    public float[] copyUnconditionally() {
+        System.arraycopy(transform, 0, uniformValue, 0, 16);
+        return uniformValue;
+    }
+}
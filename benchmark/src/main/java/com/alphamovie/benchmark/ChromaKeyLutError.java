@@ -0,0 +1,160 @@
+package com.alphamovie.benchmark;
+
+import com.alphamovie.lib.ChromaKeyLut;
+import com.alphamovie.lib.ChromaKeyMath;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Reports the quantization error of {@link ChromaKeyLut} for a range of table sizes, together
+ * with the time it takes to regenerate a table.
+ * <p>
+ * The error is measured between the fragment shaders of {@code LutChromaKeyShader} and
+ * {@code AdvancedChromaKeyShader}, both read from the library sources and run with a
+ * {@link FragmentShaderEvaluator}. The table is sampled like an alpha texture with linear
+ * filtering and clamping to the edge; GPUs that filter with fewer bits of sub-texel precision
+ * add a little to the error.
+ * <p>
+ * Usage: {@code ChromaKeyLutError [keyColor sensitivity smoothing [step [librarySourceDir]]]},
+ * where keyColor is hexadecimal RRGGBB.
+ */
+public final class ChromaKeyLutError {
+    private static final int[] SIZES = {16, 24, 32, 48, 64};
+    private static final int REGENERATIONS = 20;
+
+    private ChromaKeyLutError() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int keyColor = args.length >= 3 ? (int) Long.parseLong(args[0], 16) : 0x00ff00;
+        float sensitivity = args.length >= 3 ? Float.parseFloat(args[1]) : 0.1f;
+        float smoothing = args.length >= 3 ? Float.parseFloat(args[2]) : 0.05f;
+        int step = args.length >= 4 ? Integer.parseInt(args[3]) : 5;
+        File sources = new File(args.length >= 5 ? args[4] : "../alpha-movie/src/main/java/com/alphamovie/lib");
+
+        FragmentShaderEvaluator analytic = FragmentShaderEvaluator.compile(
+            FragmentShaderEvaluator.readFragmentShader(new File(sources, "AdvancedChromaKeyShader.java")));
+        float[] maskYCrCb = new float[3];
+        ChromaKeyMath.toYCrCb(keyColor, maskYCrCb);
+        analytic.set("uMaskYCrCb", maskYCrCb);
+        analytic.set("uSensitivity", sensitivity);
+        analytic.set("uSmoothing", smoothing);
+        float[] expected = run(analytic, step);
+
+        String lutSource = FragmentShaderEvaluator.readFragmentShader(new File(sources, "LutChromaKeyShader.java"));
+
+        System.out.printf("key #%06x, sensitivity %.3f, smoothing %.3f, step %d%n",
+            keyColor & 0xffffff, sensitivity, smoothing, step);
+        for (int size : SIZES) {
+            ChromaKeyLut lut = new ChromaKeyLut(size);
+            long start = System.nanoTime();
+            for (int i = 0; i < REGENERATIONS; i++) {
+                // Alternate the parameters so every call regenerates.
+                lut.update(keyColor, sensitivity + (i & 1) * 1e-6f, smoothing);
+            }
+            double regenerateMillis = (System.nanoTime() - start) / 1e6 / REGENERATIONS;
+            lut.update(keyColor, sensitivity, smoothing);
+
+            FragmentShaderEvaluator lutShader = FragmentShaderEvaluator.compile(lutSource);
+            lutShader.set("uLutSize", size);
+            lutShader.setSampler("sLut", new AtlasSampler(lut));
+            float[] actual = run(lutShader, step);
+
+            System.out.printf("size %2d (%4dx%2d, %6d bytes, %.2f ms to generate): %s%n",
+                size, lut.getAtlasWidth(), lut.getAtlasHeight(), lut.getData().length,
+                regenerateMillis, describeError(expected, actual, step));
+        }
+    }
+
+    /**
+     * @return the alpha the shader writes for every colour of the grid, in the order of
+     * {@link #describeError}.
+     */
+    private static float[] run(FragmentShaderEvaluator shader, int step) {
+        int perChannel = (255 + step) / step;
+        float[] alphas = new float[perChannel * perChannel * perChannel];
+        final float[] texel = {0, 0, 0, 1};
+        shader.set("vTextureCoord", 0.5f, 0.5f);
+        shader.setSampler("sTexture", new FragmentShaderEvaluator.Sampler() {
+            @Override
+            public void sample(float s, float t, float[] color) {
+                System.arraycopy(texel, 0, color, 0, 4);
+            }
+        });
+        int i = 0;
+        for (int r = 0; r < 256; r += step) {
+            for (int g = 0; g < 256; g += step) {
+                for (int b = 0; b < 256; b += step) {
+                    texel[0] = r / 255f;
+                    texel[1] = g / 255f;
+                    texel[2] = b / 255f;
+                    alphas[i++] = shader.run()[3];
+                }
+            }
+        }
+        return alphas;
+    }
+
+    private static String describeError(float[] expected, float[] actual, int step) {
+        double sum = 0;
+        float max = 0;
+        int maxIndex = 0;
+        int visible = 0;
+        for (int i = 0; i < expected.length; i++) {
+            float error = Math.abs(actual[i] - expected[i]);
+            sum += error;
+            if (error > max) {
+                max = error;
+                maxIndex = i;
+            }
+            // More than one step of an 8-bit alpha channel.
+            if (error * 255f > 1f) {
+                visible++;
+            }
+        }
+        int perChannel = (255 + step) / step;
+        int r = maxIndex / (perChannel * perChannel) * step;
+        int g = maxIndex / perChannel % perChannel * step;
+        int b = maxIndex % perChannel * step;
+        return String.format("max %.4f at #%02x%02x%02x, mean %.5f, %.2f%% above 1/255 (%d samples)",
+            max, r, g, b, sum / expected.length, visible * 100f / expected.length, expected.length);
+    }
+
+    /**
+     * Samples the table like an alpha texture with linear filtering and clamping to the edge.
+     */
+    private static final class AtlasSampler implements FragmentShaderEvaluator.Sampler {
+        private final byte[] data;
+        private final int width;
+        private final int height;
+
+        AtlasSampler(ChromaKeyLut lut) {
+            this.data = lut.getData();
+            this.width = lut.getAtlasWidth();
+            this.height = lut.getAtlasHeight();
+        }
+
+        @Override
+        public void sample(float s, float t, float[] out) {
+            float u = s * width - 0.5f;
+            float v = t * height - 0.5f;
+            int x0 = (int) Math.floor(u);
+            int y0 = (int) Math.floor(v);
+            float fx = u - x0;
+            float fy = v - y0;
+            float top = texel(x0, y0) * (1 - fx) + texel(x0 + 1, y0) * fx;
+            float bottom = texel(x0, y0 + 1) * (1 - fx) + texel(x0 + 1, y0 + 1) * fx;
+            out[0] = 0;
+            out[1] = 0;
+            out[2] = 0;
+            out[3] = (top * (1 - fy) + bottom * fy) / 255f;
+        }
+
+        private int texel(int x, int y) {
+            x = Math.max(0, Math.min(width - 1, x));
+            y = Math.max(0, Math.min(height - 1, y));
+            return data[y * width + x] & 0xff;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.alphamovie.benchmark;
+
+import com.alphamovie.lib.ChromaKeyMath;
+import com.alphamovie.lib.CpuChromaKeyer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Evaluates the fragment shaders of {@code AdvancedChromaKeyShader} and
+ * {@code BasicChromaKeyShader}, read from the library sources, with a
+ * {@link FragmentShaderEvaluator}, and checks that {@link CpuChromaKeyer} computes the same
+ * alpha for a grid of 8-bit colours, several key colours and settings, and partly transparent
+ * source pixels. The blend factor has to agree to float rounding and the keyed 8-bit alpha
+ * to one step.
+ * <p>
+ * The basic shader has {@code %f} placeholders for the key colour and the accuracy, which are
+ * filled in here with {@link String#format}.
+ * <p>
+ * Usage: {@code ChromaKeyShaderCheck [librarySourceDir]}. The exit status is 1 if any check fails.
+ */
+public final class ChromaKeyShaderCheck {
+    private static final int STEP = 15;
+    private static final float BLEND_TOLERANCE = 1e-5f;
+    private static final int[] KEY_COLORS = {0x00ff00, 0x0000ff, 0x33cc4d, 0xb4b4b4};
+    private static final float[][] ADVANCED_SETTINGS = {{0.1f, 0.05f}, {0.3f, 0.2f}, {0f, 0.5f}};
+    private static final float[] ACCURACIES = {0.1f, 0.25f};
+    private static final int[] SOURCE_ALPHAS = {255, 128};
+
+    private static int failures;
+
+    private ChromaKeyShaderCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        File sources = new File(args.length > 0 ? args[0] : "../alpha-movie/src/main/java/com/alphamovie/lib");
+        String advanced = FragmentShaderEvaluator.readFragmentShader(new File(sources, "AdvancedChromaKeyShader.java"));
+        String basic = FragmentShaderEvaluator.readFragmentShader(new File(sources, "BasicChromaKeyShader.java"));
+
+        System.out.println(String.format("%-40s %8s %10s %7s %s",
+            "scenario", "samples", "max blend", "max a8", "result"));
+        for (int keyColor : KEY_COLORS) {
+            for (float[] settings : ADVANCED_SETTINGS) {
+                checkAdvanced(advanced, keyColor, settings[0], settings[1]);
+            }
+            for (float accuracy : ACCURACIES) {
+                checkBasic(basic, keyColor, accuracy);
+            }
+        }
+
+        if (failures > 0) {
+            System.out.println(failures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All checks passed");
+    }
+
+    private static void checkAdvanced(String source, int keyColor, float sensitivity, float smoothing) {
+        FragmentShaderEvaluator shader = FragmentShaderEvaluator.compile(source);
+        // Loaded the way AdvancedChromaKeyShader.setChromaKeyColor does.
+        float[] maskYCrCb = new float[3];
+        ChromaKeyMath.toYCrCb(keyColor, maskYCrCb);
+        shader.set("uMaskYCrCb", maskYCrCb);
+        shader.set("uSensitivity", sensitivity);
+        shader.set("uSmoothing", smoothing);
+
+        CpuChromaKeyer keyer = new CpuChromaKeyer();
+        keyer.setMode(CpuChromaKeyer.MODE_ADVANCED);
+        keyer.setKeyColor(0xff000000 | keyColor);
+        keyer.setSensitivity(sensitivity);
+        keyer.setSmoothing(smoothing);
+
+        compare(String.format("advanced #%06x %.2f/%.2f", keyColor, sensitivity, smoothing), shader, keyer);
+    }
+
+    private static void checkBasic(String source, int keyColor, float accuracy) {
+        float red = ((keyColor >> 16) & 0xff) / 255f;
+        float green = ((keyColor >> 8) & 0xff) / 255f;
+        float blue = (keyColor & 0xff) / 255f;
+        FragmentShaderEvaluator shader = FragmentShaderEvaluator.compile(
+            String.format(Locale.US, source, red, green, blue, accuracy));
+
+        CpuChromaKeyer keyer = new CpuChromaKeyer();
+        keyer.setMode(CpuChromaKeyer.MODE_BASIC);
+        keyer.setKeyColor(0xff000000 | keyColor);
+        keyer.setAccuracy(accuracy);
+
+        compare(String.format("basic #%06x %.2f", keyColor, accuracy), shader, keyer);
+    }
+
+    private static void compare(String scenario, FragmentShaderEvaluator shader, CpuChromaKeyer keyer) {
+        shader.set("vTextureCoord", 0.5f, 0.5f);
+        final float[] texel = new float[4];
+        shader.setSampler("sTexture", new FragmentShaderEvaluator.Sampler() {
+            @Override
+            public void sample(float s, float t, float[] out) {
+                System.arraycopy(texel, 0, out, 0, 4);
+            }
+        });
+
+        int failuresBefore = failures;
+        int samples = 0;
+        float maxBlendError = 0;
+        int maxAlphaError = 0;
+        int[] pixel = new int[1];
+        for (int sourceAlpha : SOURCE_ALPHAS) {
+            for (int r = 0; r < 256; r += STEP) {
+                for (int g = 0; g < 256; g += STEP) {
+                    for (int b = 0; b < 256; b += STEP) {
+                        int argb = (sourceAlpha << 24) | (r << 16) | (g << 8) | b;
+                        texel[0] = r / 255f;
+                        texel[1] = g / 255f;
+                        texel[2] = b / 255f;
+                        texel[3] = sourceAlpha / 255f;
+                        float shaderAlpha = shader.run()[3];
+
+                        pixel[0] = argb;
+                        keyer.key(pixel, 0, pixel, 0, 1);
+                        int alphaError = Math.abs((pixel[0] >>> 24) - Math.round(shaderAlpha * 255f));
+                        maxAlphaError = Math.max(maxAlphaError, alphaError);
+                        if (sourceAlpha == 255) {
+                            float blendError = Math.abs(keyer.alpha(argb) - shaderAlpha);
+                            maxBlendError = Math.max(maxBlendError, blendError);
+                        }
+                        samples++;
+                    }
+                }
+            }
+        }
+        check(scenario + ": blend factor", maxBlendError <= BLEND_TOLERANCE);
+        check(scenario + ": keyed alpha", maxAlphaError <= 1);
+
+        System.out.println(String.format("%-40s %8d %10.2e %7d %s", scenario, samples, maxBlendError,
+            maxAlphaError, failures == failuresBefore ? "ok" : "FAIL"));
+    }
+
+    private static void check(String name, boolean passed) {
+        if (!passed) {
+            System.out.println("FAIL " + name);
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.alphamovie.benchmark;
+
+import com.alphamovie.lib.CpuChromaKeyer;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures {@link CpuChromaKeyer} throughput in megapixels per second for every parallelism
+ * level from one core up to all available cores.
+ * <p>
+ * Usage: {@code ChromaKeyThroughput [width height [seconds]]}, defaulting to a 1920x1080 frame
+ * and one second of measurement per level.
+ */
+public final class ChromaKeyThroughput {
+    private static final int WARMUP_FRAMES = 20;
+
+    private ChromaKeyThroughput() {
+    }
+
+    public static void main(String[] args) {
+        int width = args.length >= 2 ? Integer.parseInt(args[0]) : 1920;
+        int height = args.length >= 2 ? Integer.parseInt(args[1]) : 1080;
+        double seconds = args.length >= 3 ? Double.parseDouble(args[2]) : 1.0;
+
+        int pixels = width * height;
+        int[] src = new int[pixels];
+        int[] dst = new int[pixels];
+        Random random = new Random(42);
+        for (int i = 0; i < pixels; i++) {
+            // Mostly green screen with some foreground, like typical footage.
+            src[i] = random.nextInt(4) == 0 ? 0xff000000 | random.nextInt(0x1000000) : 0xff10e020;
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("frame %dx%d, %d available cores%n", width, height, cores);
+        for (int parallelism = 1; parallelism <= cores; parallelism++) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                CpuChromaKeyer keyer = new CpuChromaKeyer(pool);
+                keyer.setKeyColor(0xff00ff00);
+                keyer.setSensitivity(0.1f);
+                keyer.setSmoothing(0.05f);
+                keyer.setParallelThreshold(Math.max(16 * 1024, pixels / (parallelism * 4)));
+
+                for (int i = 0; i < WARMUP_FRAMES; i++) {
+                    keyer.key(src, 0, dst, 0, pixels);
+                }
+
+                long budget = (long) (seconds * 1e9);
+                long start = System.nanoTime();
+                long elapsed;
+                int frames = 0;
+                do {
+                    keyer.key(src, 0, dst, 0, pixels);
+                    frames++;
+                    elapsed = System.nanoTime() - start;
+                } while (elapsed < budget);
+
+                double megapixelsPerSecond = (double) pixels * frames / (elapsed / 1e9) / 1e6;
+                System.out.printf("cores %2d: %8.1f MP/s (%.1f fps)%n",
+                    parallelism, megapixelsPerSecond, frames / (elapsed / 1e9));
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+}
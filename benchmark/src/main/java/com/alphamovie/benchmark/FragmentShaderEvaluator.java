@@ -0,0 +1,650 @@
+package com.alphamovie.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Runs a GLSL ES fragment shader on the CPU one fragment at a time, so that the shader sources of
+ * the library can be compared with their Java counterparts without a GPU.
+ * <p>
+ * Only the subset the library's fragment shaders use is supported: {@code main} with float and
+ * vector locals, swizzles, arithmetic, comparisons, {@code if}/{@code else}, the vector
+ * constructors and the common built-in functions. Preprocessor lines and global declarations are
+ * skipped, so every uniform and varying the shader reads has to be given with {@link #set} or
+ * {@link #setSampler}. Arithmetic is done in 32-bit floats, as with highp; a driver evaluating
+ * mediump may differ in the last bits.
+ */
+public final class FragmentShaderEvaluator {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String FRAG_COLOR = "gl_FragColor";
+
+    /**
+     * A texture bound to a sampler uniform.
+     */
+    public interface Sampler {
+        /**
+         * @param out receives red, green, blue and alpha
+         */
+        void sample(float s, float t, float[] out);
+    }
+
+    private final Stmt main;
+    private final HashMap<String, float[]> inputs = new HashMap<String, float[]>();
+    private final HashMap<String, Sampler> samplers = new HashMap<String, Sampler>();
+
+    private FragmentShaderEvaluator(Stmt main) {
+        this.main = main;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the source uses something this evaluator does not
+     * support
+     */
+    public static FragmentShaderEvaluator compile(String source) {
+        return new FragmentShaderEvaluator(new Parser(tokenize(source)).parseMain());
+    }
+
+    /**
+     * Extract the source returned by {@code getFragmentShader()} from a shader's Java source, by
+     * concatenating the string literals of its return statement.
+     */
+    public static String readFragmentShader(File javaSource) throws IOException {
+        String java = new String(Files.readAllBytes(javaSource.toPath()), UTF_8);
+        int method = java.indexOf("getFragmentShader()");
+        int start = method < 0 ? -1 : java.indexOf("return", method);
+        if (start < 0) {
+            throw new IOException("No getFragmentShader() in " + javaSource);
+        }
+        StringBuilder source = new StringBuilder();
+        for (int i = start; i < java.length(); i++) {
+            char c = java.charAt(i);
+            if (c == ';') {
+                return source.toString();
+            }
+            if (c != '"') {
+                continue;
+            }
+            for (i++; java.charAt(i) != '"'; i++) {
+                c = java.charAt(i);
+                if (c == '\\') {
+                    c = java.charAt(++i);
+                    c = c == 'n' ? '\n' : c == 't' ? '\t' : c;
+                }
+                source.append(c);
+            }
+        }
+        throw new IOException("Unterminated getFragmentShader() in " + javaSource);
+    }
+
+    /**
+     * Set a uniform or varying of type float or vec2 to vec4.
+     */
+    public void set(String name, float... value) {
+        inputs.put(name, value.clone());
+    }
+
+    public void setSampler(String name, Sampler sampler) {
+        samplers.put(name, sampler);
+    }
+
+    /**
+     * Run {@code main} once.
+     *
+     * @return the value written to {@code gl_FragColor}
+     * @throws IllegalStateException if the shader did not write it
+     */
+    public float[] run() {
+        Env env = new Env();
+        main.exec(env);
+        float[] color = env.locals.get(FRAG_COLOR);
+        if (color == null || color.length != 4) {
+            throw new IllegalStateException(FRAG_COLOR + " not written");
+        }
+        return color;
+    }
+
+    private final class Env {
+        final HashMap<String, float[]> locals = new HashMap<String, float[]>();
+
+        float[] get(String name) {
+            float[] value = locals.get(name);
+            if (value == null) {
+                value = inputs.get(name);
+            }
+            if (value == null) {
+                throw new IllegalStateException("No value for " + name);
+            }
+            return value;
+        }
+
+        Sampler sampler(String name) {
+            Sampler sampler = samplers.get(name);
+            if (sampler == null) {
+                throw new IllegalStateException("No sampler for " + name);
+            }
+            return sampler;
+        }
+    }
+
+    private static List<String> tokenize(String source) {
+        List<String> tokens = new ArrayList<String>();
+        int i = 0;
+        int n = source.length();
+        while (i < n) {
+            char c = source.charAt(i);
+            if (c == '#' || source.startsWith("//", i)) {
+                // Preprocessor directives and comments run to the end of the line.
+                while (i < n && source.charAt(i) != '\n') {
+                    i++;
+                }
+            } else if (Character.isWhitespace(c)) {
+                i++;
+            } else if (Character.isLetter(c) || c == '_') {
+                int start = i;
+                while (i < n && (Character.isLetterOrDigit(source.charAt(i)) || source.charAt(i) == '_')) {
+                    i++;
+                }
+                tokens.add(source.substring(start, i));
+            } else if (Character.isDigit(c) || (c == '.' && i + 1 < n && Character.isDigit(source.charAt(i + 1)))) {
+                int start = i;
+                while (i < n && (Character.isDigit(source.charAt(i)) || source.charAt(i) == '.')) {
+                    i++;
+                }
+                if (i < n && (source.charAt(i) == 'e' || source.charAt(i) == 'E')) {
+                    i++;
+                    if (source.charAt(i) == '+' || source.charAt(i) == '-') {
+                        i++;
+                    }
+                    while (i < n && Character.isDigit(source.charAt(i))) {
+                        i++;
+                    }
+                }
+                tokens.add(source.substring(start, i));
+            } else {
+                String pair = i + 1 < n ? source.substring(i, i + 2) : "";
+                if (pair.equals("<=") || pair.equals(">=") || pair.equals("==") || pair.equals("!=")
+                    || pair.equals("&&") || pair.equals("||")) {
+                    tokens.add(pair);
+                    i += 2;
+                } else {
+                    tokens.add(String.valueOf(c));
+                    i++;
+                }
+            }
+        }
+        return tokens;
+    }
+
+    private static final class Parser {
+        private final List<String> tokens;
+        private int position;
+
+        Parser(List<String> tokens) {
+            this.tokens = tokens;
+        }
+
+        Stmt parseMain() {
+            while (position < tokens.size()) {
+                if (peek("void")) {
+                    next();
+                    expect("main");
+                    expect("(");
+                    expect(")");
+                    return parseBlock();
+                }
+                // A global declaration.
+                while (!next().equals(";")) {
+                }
+            }
+            throw new IllegalArgumentException("No main()");
+        }
+
+        private Stmt parseBlock() {
+            expect("{");
+            final List<Stmt> statements = new ArrayList<Stmt>();
+            while (!peek("}")) {
+                statements.add(parseStatement());
+            }
+            next();
+            return new Stmt() {
+                @Override
+                void exec(Env env) {
+                    for (int i = 0; i < statements.size(); i++) {
+                        statements.get(i).exec(env);
+                    }
+                }
+            };
+        }
+
+        private Stmt parseStatement() {
+            if (peek("{")) {
+                return parseBlock();
+            }
+            if (peek("if")) {
+                next();
+                expect("(");
+                final Expr condition = parseExpression();
+                expect(")");
+                final Stmt then = parseStatement();
+                Stmt otherwise = null;
+                if (peek("else")) {
+                    next();
+                    otherwise = parseStatement();
+                }
+                final Stmt elseStatement = otherwise;
+                return new Stmt() {
+                    @Override
+                    void exec(Env env) {
+                        if (condition.eval(env)[0] != 0) {
+                            then.exec(env);
+                        } else if (elseStatement != null) {
+                            elseStatement.exec(env);
+                        }
+                    }
+                };
+            }
+            if (peek("mediump") || peek("highp") || peek("lowp")) {
+                next();
+            }
+            if (peek("float") || peek("int") || peek("bool") || peek("vec2") || peek("vec3") || peek("vec4")) {
+                next();
+            }
+            final String name = next();
+            expect("=");
+            final Expr value = parseExpression();
+            expect(";");
+            return new Stmt() {
+                @Override
+                void exec(Env env) {
+                    env.locals.put(name, value.eval(env));
+                }
+            };
+        }
+
+        private Expr parseExpression() {
+            Expr left = parseAnd();
+            while (peek("||")) {
+                next();
+                left = new Logical(left, parseAnd(), true);
+            }
+            return left;
+        }
+
+        private Expr parseAnd() {
+            Expr left = parseEquality();
+            while (peek("&&")) {
+                next();
+                left = new Logical(left, parseEquality(), false);
+            }
+            return left;
+        }
+
+        private Expr parseEquality() {
+            Expr left = parseRelational();
+            while (peek("==") || peek("!=")) {
+                left = new Binary(next(), left, parseRelational());
+            }
+            return left;
+        }
+
+        private Expr parseRelational() {
+            Expr left = parseAdditive();
+            while (peek("<") || peek(">") || peek("<=") || peek(">=")) {
+                left = new Binary(next(), left, parseAdditive());
+            }
+            return left;
+        }
+
+        private Expr parseAdditive() {
+            Expr left = parseMultiplicative();
+            while (peek("+") || peek("-")) {
+                left = new Binary(next(), left, parseMultiplicative());
+            }
+            return left;
+        }
+
+        private Expr parseMultiplicative() {
+            Expr left = parseUnary();
+            while (peek("*") || peek("/")) {
+                left = new Binary(next(), left, parseUnary());
+            }
+            return left;
+        }
+
+        private Expr parseUnary() {
+            if (peek("-") || peek("!")) {
+                final boolean negate = next().equals("-");
+                final Expr operand = parseUnary();
+                return new Expr() {
+                    @Override
+                    float[] eval(Env env) {
+                        float[] value = operand.eval(env);
+                        float[] result = new float[value.length];
+                        for (int i = 0; i < value.length; i++) {
+                            result[i] = negate ? -value[i] : value[i] == 0 ? 1 : 0;
+                        }
+                        return result;
+                    }
+                };
+            }
+            if (peek("+")) {
+                next();
+            }
+            Expr expression = parsePrimary();
+            while (peek(".")) {
+                next();
+                expression = new Swizzle(expression, next());
+            }
+            return expression;
+        }
+
+        private Expr parsePrimary() {
+            String token = next();
+            if (token.equals("(")) {
+                Expr inner = parseExpression();
+                expect(")");
+                return inner;
+            }
+            if (Character.isDigit(token.charAt(0)) || token.charAt(0) == '.') {
+                final float[] value = {Float.parseFloat(token)};
+                return new Expr() {
+                    @Override
+                    float[] eval(Env env) {
+                        return value;
+                    }
+                };
+            }
+            if (peek("(")) {
+                next();
+                List<Expr> arguments = new ArrayList<Expr>();
+                if (!peek(")")) {
+                    arguments.add(parseExpression());
+                    while (peek(",")) {
+                        next();
+                        arguments.add(parseExpression());
+                    }
+                }
+                expect(")");
+                return new Call(token, arguments.toArray(new Expr[arguments.size()]));
+            }
+            return new Variable(token);
+        }
+
+        private boolean peek(String token) {
+            return position < tokens.size() && tokens.get(position).equals(token);
+        }
+
+        private String next() {
+            if (position >= tokens.size()) {
+                throw new IllegalArgumentException("Unexpected end of shader");
+            }
+            return tokens.get(position++);
+        }
+
+        private void expect(String token) {
+            String actual = next();
+            if (!actual.equals(token)) {
+                throw new IllegalArgumentException("Expected " + token + " but got " + actual
+                    + " at token " + (position - 1));
+            }
+        }
+    }
+
+    private abstract static class Stmt {
+        abstract void exec(Env env);
+    }
+
+    private abstract static class Expr {
+        abstract float[] eval(Env env);
+    }
+
+    private static final class Variable extends Expr {
+        final String name;
+
+        Variable(String name) {
+            this.name = name;
+        }
+
+        @Override
+        float[] eval(Env env) {
+            return env.get(name);
+        }
+    }
+
+    private static final class Swizzle extends Expr {
+        private final Expr vector;
+        private final int[] components;
+
+        Swizzle(Expr vector, String selection) {
+            this.vector = vector;
+            this.components = new int[selection.length()];
+            for (int i = 0; i < components.length; i++) {
+                int index = "xyzw".indexOf(selection.charAt(i));
+                if (index < 0) {
+                    index = "rgba".indexOf(selection.charAt(i));
+                }
+                if (index < 0) {
+                    index = "stpq".indexOf(selection.charAt(i));
+                }
+                if (index < 0) {
+                    throw new IllegalArgumentException("Bad swizzle " + selection);
+                }
+                components[i] = index;
+            }
+        }
+
+        @Override
+        float[] eval(Env env) {
+            float[] value = vector.eval(env);
+            float[] result = new float[components.length];
+            for (int i = 0; i < components.length; i++) {
+                result[i] = value[components[i]];
+            }
+            return result;
+        }
+    }
+
+    private static final class Logical extends Expr {
+        private final Expr left;
+        private final Expr right;
+        private final boolean or;
+
+        Logical(Expr left, Expr right, boolean or) {
+            this.left = left;
+            this.right = right;
+            this.or = or;
+        }
+
+        @Override
+        float[] eval(Env env) {
+            boolean value = left.eval(env)[0] != 0;
+            if (value != or) {
+                value = right.eval(env)[0] != 0;
+            }
+            return new float[]{value ? 1 : 0};
+        }
+    }
+
+    private static final class Binary extends Expr {
+        private final char operator;
+        private final boolean comparison;
+        private final Expr left;
+        private final Expr right;
+        private final String symbol;
+
+        Binary(String symbol, Expr left, Expr right) {
+            this.symbol = symbol;
+            this.operator = symbol.charAt(0);
+            this.comparison = symbol.length() == 2 || operator == '<' || operator == '>';
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        float[] eval(Env env) {
+            float[] a = left.eval(env);
+            float[] b = right.eval(env);
+            if (comparison) {
+                return new float[]{compare(a[0], b[0]) ? 1 : 0};
+            }
+            int length = Math.max(a.length, b.length);
+            float[] result = new float[length];
+            for (int i = 0; i < length; i++) {
+                float x = a[a.length == 1 ? 0 : i];
+                float y = b[b.length == 1 ? 0 : i];
+                switch (operator) {
+                    case '+':
+                        result[i] = x + y;
+                        break;
+                    case '-':
+                        result[i] = x - y;
+                        break;
+                    case '*':
+                        result[i] = x * y;
+                        break;
+                    default:
+                        result[i] = x / y;
+                        break;
+                }
+            }
+            return result;
+        }
+
+        private boolean compare(float x, float y) {
+            if (symbol.equals("<")) {
+                return x < y;
+            } else if (symbol.equals(">")) {
+                return x > y;
+            } else if (symbol.equals("<=")) {
+                return x <= y;
+            } else if (symbol.equals(">=")) {
+                return x >= y;
+            } else if (symbol.equals("==")) {
+                return x == y;
+            }
+            return x != y;
+        }
+    }
+
+    private static final class Call extends Expr {
+        private final String function;
+        private final Expr[] arguments;
+
+        Call(String function, Expr[] arguments) {
+            this.function = function;
+            this.arguments = arguments;
+        }
+
+        @Override
+        float[] eval(Env env) {
+            if (function.equals("texture2D")) {
+                String name = ((Variable) arguments[0]).name;
+                float[] coordinate = arguments[1].eval(env);
+                float[] color = new float[4];
+                env.sampler(name).sample(coordinate[0], coordinate[1], color);
+                return color;
+            }
+            float[][] values = new float[arguments.length][];
+            for (int i = 0; i < arguments.length; i++) {
+                values[i] = arguments[i].eval(env);
+            }
+            if (function.equals("vec2") || function.equals("vec3") || function.equals("vec4")) {
+                return construct(function.charAt(3) - '0', values);
+            }
+            if (function.equals("float")) {
+                return new float[]{values[0][0]};
+            }
+            if (function.equals("distance")) {
+                return new float[]{length(subtract(values[0], values[1]))};
+            }
+            if (function.equals("length")) {
+                return new float[]{length(values[0])};
+            }
+            if (function.equals("dot")) {
+                float sum = 0;
+                for (int i = 0; i < values[0].length; i++) {
+                    sum += values[0][i] * values[1][i];
+                }
+                return new float[]{sum};
+            }
+            int length = 1;
+            for (float[] value : values) {
+                length = Math.max(length, value.length);
+            }
+            float[] result = new float[length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = componentwise(values, i);
+            }
+            return result;
+        }
+
+        private float componentwise(float[][] values, int i) {
+            float x = values[0][values[0].length == 1 ? 0 : i];
+            if (function.equals("abs")) {
+                return Math.abs(x);
+            } else if (function.equals("floor")) {
+                return (float) Math.floor(x);
+            } else if (function.equals("fract")) {
+                return x - (float) Math.floor(x);
+            } else if (function.equals("sqrt")) {
+                return (float) Math.sqrt(x);
+            }
+            float y = values[1][values[1].length == 1 ? 0 : i];
+            if (function.equals("min")) {
+                return Math.min(x, y);
+            } else if (function.equals("max")) {
+                return Math.max(x, y);
+            } else if (function.equals("step")) {
+                return y < x ? 0 : 1;
+            }
+            float z = values[2][values[2].length == 1 ? 0 : i];
+            if (function.equals("clamp")) {
+                return Math.min(Math.max(x, y), z);
+            } else if (function.equals("mix")) {
+                return x * (1 - z) + y * z;
+            } else if (function.equals("smoothstep")) {
+                float t = Math.min(Math.max((z - x) / (y - x), 0), 1);
+                return t * t * (3 - 2 * t);
+            }
+            throw new IllegalArgumentException("Unsupported function " + function);
+        }
+
+        private static float[] construct(int size, float[][] values) {
+            float[] result = new float[size];
+            if (values.length == 1 && values[0].length == 1) {
+                for (int i = 0; i < size; i++) {
+                    result[i] = values[0][0];
+                }
+                return result;
+            }
+            int i = 0;
+            for (float[] value : values) {
+                for (int j = 0; j < value.length && i < size; j++) {
+                    result[i++] = value[j];
+                }
+            }
+            return result;
+        }
+
+        private static float[] subtract(float[] a, float[] b) {
+            float[] result = new float[a.length];
+            for (int i = 0; i < a.length; i++) {
+                result[i] = a[i] - b[i];
+            }
+            return result;
+        }
+
+        private static float length(float[] value) {
+            float sum = 0;
+            for (float component : value) {
+                sum += component * component;
+            }
+            return (float) Math.sqrt(sum);
+        }
+    }
+}
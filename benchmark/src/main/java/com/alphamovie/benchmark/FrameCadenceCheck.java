@@ -0,0 +1,143 @@
+package com.alphamovie.benchmark;
+
+import com.alphamovie.lib.FrameCadence;
+
+import java.util.Random;
+
+/**
+ * Runs {@link FrameCadence} against a fake clock: a display ticking at a fixed refresh rate and
+ * a decoder delivering frames at the content rate, as {@code AlphaMovieView} sees them through
+ * {@code onFrameAvailable}. For each pair of rates it checks that paced draws never exceed the
+ * cap, and, while the display and the cap keep up with the content, that no decoded frame is
+ * dropped. With a steady decoder, frames must stay on screen for an even number of vsyncs: the
+ * lengths differ by at most one, as in 3:2 pulldown. With a decoder that jitters by up to
+ * {@link #JITTER_NANOS}, a frame that arrives just after a vsync is shown a vsync later whatever
+ * the pacing does, so instead every frame must be drawn on the first vsync after it arrived.
+ * <p>
+ * Usage: {@code FrameCadenceCheck}. Prints one line per scenario; the exit status is 1 if any
+ * check fails.
+ */
+public final class FrameCadenceCheck {
+    private static final double SECONDS = 10;
+    private static final long JITTER_NANOS = 1000000;
+
+    private static int failures;
+
+    private FrameCadenceCheck() {
+    }
+
+    public static void main(String[] args) {
+        System.out.println(String.format("%-36s %8s %8s %8s %7s %5s %7s %s",
+            "scenario", "vsync/s", "draws/s", "decoded", "dropped", "late", "holds", "result"));
+        double[] refreshRates = {60, 90, 120, 144};
+        double[] contentRates = {23.976, 24, 25, 30, 50, 60};
+        for (long jitter : new long[] {0, JITTER_NANOS}) {
+            for (double refreshRate : refreshRates) {
+                for (double contentRate : contentRates) {
+                    run(refreshRate, contentRate, 0, jitter);
+                }
+            }
+            // A cap below the content rate drops frames evenly.
+            run(120, 60, 30, jitter);
+            run(60, 60, 24, jitter);
+            // Content faster than the display can only be shown at the display rate.
+            run(60, 120, 0, jitter);
+        }
+
+        if (failures > 0) {
+            System.out.println(failures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All checks passed");
+    }
+
+    /**
+     * @param cap the target frame rate, or 0 to pace at the content rate
+     * @param jitter the most a decoded frame arrives early or late
+     */
+    private static void run(double refreshRate, double contentRate, double cap, long jitter) {
+        long vsyncPeriod = (long) (1e9 / refreshRate);
+        long frameInterval = (long) (1e9 / contentRate);
+        float targetRate = (float) (cap > 0 ? cap : contentRate);
+        FrameCadence cadence = new FrameCadence();
+        cadence.setVsyncPeriodNanos(vsyncPeriod);
+        cadence.setTargetFrameRate(targetRate);
+
+        Random random = new Random(Double.doubleToLongBits(refreshRate * 1000 + contentRate));
+        long end = (long) (SECONDS * 1e9);
+        // Decoded frames arrive at a random phase to the vsyncs.
+        long firstFrame = (long) (random.nextDouble() * vsyncPeriod);
+        long decoded = 0;
+        long nextFrame = firstFrame;
+        long latestFrame = -1;
+        long drawnFrame = -1;
+        long dropped = 0;
+        long late = 0;
+        // Whether the pending frame has already waited through a vsync.
+        boolean waited = false;
+        long vsyncs = 0;
+        int minHold = Integer.MAX_VALUE;
+        int maxHold = 0;
+        int hold = 0;
+        boolean pending = false;
+
+        for (long vsync = 0; vsync < end; vsync += vsyncPeriod) {
+            while (nextFrame <= vsync) {
+                if (pending) {
+                    // The previous frame was never drawn.
+                    dropped++;
+                }
+                latestFrame = decoded++;
+                pending = true;
+                waited = false;
+                long offset = (long) ((random.nextDouble() * 2 - 1) * jitter);
+                nextFrame = firstFrame + decoded * frameInterval + offset;
+            }
+            vsyncs++;
+            hold++;
+            if (pending && cadence.onVsync(vsync)) {
+                pending = false;
+                if (waited) {
+                    late++;
+                }
+                // Skip the first frame's hold, which started with the clock rather than a draw.
+                if (drawnFrame >= 0) {
+                    minHold = Math.min(minHold, hold);
+                    maxHold = Math.max(maxHold, hold);
+                }
+                drawnFrame = latestFrame;
+                hold = 0;
+            } else if (pending) {
+                waited = true;
+            }
+        }
+
+        double drawRate = cadence.getDrawnFrames() / SECONDS;
+        boolean capped = cap > 0 && cap < contentRate;
+        boolean displayBound = contentRate > refreshRate;
+        int failuresBefore = failures;
+        check("draw rate within cap", drawRate <= targetRate * 1.01 + 1 / SECONDS);
+        if (!capped && !displayBound) {
+            check("no dropped frames", dropped == 0);
+            check("every decoded frame drawn", cadence.getDrawnFrames() >= decoded - 1);
+            check("no frame held past its first vsync", late == 0);
+        }
+        if (jitter == 0) {
+            check("even cadence", maxHold - minHold <= 1);
+        }
+
+        String scenario = String.format("%.3f fps @ %.0f Hz", contentRate, refreshRate)
+            + (cap > 0 ? String.format(" cap %.0f", cap) : "")
+            + (jitter > 0 ? String.format(" jitter %d ms", jitter / 1000000) : "");
+        System.out.println(String.format("%-36s %8.1f %8.1f %8d %7d %5d %3d-%-3d %s",
+            scenario, vsyncs / SECONDS, drawRate, decoded, dropped, late, minHold, maxHold,
+            failures == failuresBefore ? "ok" : "FAIL"));
+    }
+
+    private static void check(String name, boolean passed) {
+        if (!passed) {
+            System.out.println("FAIL " + name);
+            failures++;
+        }
+    }
+}
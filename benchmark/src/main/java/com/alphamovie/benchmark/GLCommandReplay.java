@@ -0,0 +1,103 @@
+package com.alphamovie.benchmark;
+
+import com.alphamovie.lib.GLCommandStats;
+import com.alphamovie.lib.GLCommandStream;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Replays GL command streams recorded with {@code GLInstrumentation.startRecording} and prints
+ * calls, redundant state changes, uniform uploads and allocations per frame for every shader.
+ * <p>
+ * Usage: {@code GLCommandReplay [--reset-state-per-frame] [--budget file] stream...}
+ * <p>
+ * The budget format is described in {@link GLCommandStats}. The exit status is 1 if any
+ * stream exceeds its budget.
+ */
+public final class GLCommandReplay {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private GLCommandReplay() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean resetStatePerFrame = false;
+        Properties budget = null;
+        List<String> streams = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--reset-state-per-frame")) {
+                resetStatePerFrame = true;
+            } else if (args[i].equals("--budget") && i + 1 < args.length) {
+                budget = new Properties();
+                InputStream in = new FileInputStream(args[++i]);
+                try {
+                    budget.load(in);
+                } finally {
+                    in.close();
+                }
+            } else if (args[i].startsWith("--")) {
+                usage();
+                return;
+            } else {
+                streams.add(args[i]);
+            }
+        }
+        if (streams.isEmpty()) {
+            usage();
+            return;
+        }
+
+        int violations = 0;
+        for (String path : streams) {
+            GLCommandStream stream;
+            Reader in = new InputStreamReader(new FileInputStream(path), UTF_8);
+            try {
+                stream = GLCommandStream.read(in);
+            } finally {
+                in.close();
+            }
+
+            System.out.printf("%s: %d frames%n", path, stream.getFrameCount());
+            GLCommandStats stats = GLCommandStats.analyze(stream, resetStatePerFrame);
+            for (GLCommandStats.ShaderStats shader : stats.getShaders().values()) {
+                System.out.printf("  %s, %d frames%n", shader.getLabel(), shader.getFrameCount());
+                print("calls", shader.getCalls());
+                print("redundant", shader.getRedundantStateChanges());
+                print("uniformUploads", shader.getUniformUploads());
+                print("allocations", shader.getAllocations());
+                for (Map.Entry<String, Integer> entry : shader.getRedundantCalls().entrySet()) {
+                    System.out.printf("    redundant %s: %d%n", entry.getKey(), entry.getValue());
+                }
+            }
+            if (budget != null) {
+                for (String violation : stats.checkBudget(budget)) {
+                    System.err.printf("%s: %s%n", path, violation);
+                    violations++;
+                }
+            }
+        }
+
+        if (violations > 0) {
+            System.err.printf("%d budget violation(s)%n", violations);
+            System.exit(1);
+        }
+    }
+
+    private static void print(String name, GLCommandStats.Metric metric) {
+        System.out.printf("    %-15s mean %6.2f  max %4d%n", name, metric.getMean(), metric.getMax());
+    }
+
+    private static void usage() {
+        System.err.println("usage: GLCommandReplay [--reset-state-per-frame] [--budget file] stream...");
+        System.exit(2);
+    }
+}
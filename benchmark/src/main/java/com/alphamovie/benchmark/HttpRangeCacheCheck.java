@@ -0,0 +1,336 @@
+package com.alphamovie.benchmark;
+
+import com.alphamovie.lib.HttpRangeCache;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs {@link HttpRangeCache} against a stand-in HTTP server on the loopback interface and
+ * checks the bytes it serves and the requests it makes: a cold read, a warm read from a new
+ * cache over the same directory, concurrent readers of one URL, LRU eviction under the size
+ * budget, a server that ignores ranges and content that changes behind the same URL.
+ * <p>
+ * Usage: {@code HttpRangeCacheCheck}. Prints the transfer per scenario; the exit status is 1 if
+ * any check fails.
+ */
+public final class HttpRangeCacheCheck {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    // Deliberately not a multiple of the chunk size.
+    private static final int CLIP_SIZE = 6 * CHUNK_SIZE - 1234;
+    private static final int CLIP_CHUNKS = (CLIP_SIZE + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+    private static int failures;
+
+    private HttpRangeCacheCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        StandInServer server = new StandInServer();
+        File root = createTempDirectory();
+        try {
+            server.put("/a", randomBytes(CLIP_SIZE, 1));
+            server.put("/b", randomBytes(CLIP_SIZE, 2));
+            File directory = new File(root, "cache");
+            long budget = 16L * CHUNK_SIZE;
+
+            server.resetCounters();
+            HttpRangeCache cache = new HttpRangeCache(directory, budget, CHUNK_SIZE);
+            check("cold read", readAll(cache, server.url("/a")), server.content("/a"));
+            check("cold read requests", server.requests.get(), CLIP_CHUNKS);
+            report("cold read", server, cache);
+
+            server.resetCounters();
+            cache = new HttpRangeCache(directory, budget, CHUNK_SIZE);
+            check("warm read", readAll(cache, server.url("/a")), server.content("/a"));
+            check("warm read requests", server.requests.get(), 0);
+            check("warm read hit bytes", cache.getHitBytes(), CLIP_SIZE);
+            report("warm read", server, cache);
+
+            server.resetCounters();
+            cache = new HttpRangeCache(new File(root, "concurrent"), budget, CHUNK_SIZE);
+            server.setDelayMs(20);
+            List<byte[]> results = readConcurrently(cache, server.url("/b"), 8);
+            server.setDelayMs(0);
+            for (byte[] result : results) {
+                check("concurrent read", result, server.content("/b"));
+            }
+            check("concurrent read requests", server.requests.get(), CLIP_CHUNKS);
+            report("8 concurrent readers", server, cache);
+
+            server.resetCounters();
+            cache = new HttpRangeCache(new File(root, "evict"), 8L * CHUNK_SIZE, CHUNK_SIZE);
+            readAll(cache, server.url("/a"));
+            readAll(cache, server.url("/b"));
+            check("eviction size", cache.getSize() <= 8L * CHUNK_SIZE, true);
+            server.resetCounters();
+            readAll(cache, server.url("/b"));
+            check("most recent survives eviction", server.requests.get(), 0);
+            readAll(cache, server.url("/a"));
+            check("least recent is evicted", server.requests.get(), CLIP_CHUNKS);
+            report("eviction", server, cache);
+
+            server.resetCounters();
+            server.setIgnoreRanges(true);
+            cache = new HttpRangeCache(new File(root, "no-ranges"), budget, CHUNK_SIZE);
+            check("read without range support", readAll(cache, server.url("/a")), server.content("/a"));
+            server.setIgnoreRanges(false);
+            report("server ignoring ranges", server, cache);
+
+            cache = new HttpRangeCache(new File(root, "changed"), budget, CHUNK_SIZE);
+            HttpRangeCache.Source source = cache.open(server.url("/a"));
+            byte[] first = new byte[16];
+            source.read(0, first, 0, first.length);
+            source.close();
+            server.put("/a", randomBytes(CLIP_SIZE, 3));
+            server.resetCounters();
+            // The first chunk is cached and stale; the first missing chunk reveals the change.
+            boolean failed = false;
+            try {
+                readAll(cache, server.url("/a"));
+            } catch (IOException e) {
+                failed = true;
+            }
+            check("stale read fails", failed, true);
+            check("read after content change", readAll(cache, server.url("/a")), server.content("/a"));
+            report("content change", server, cache);
+        } finally {
+            server.stop();
+            deleteRecursively(root);
+        }
+
+        if (failures > 0) {
+            System.out.println(failures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All checks passed");
+    }
+
+    private static byte[] readAll(HttpRangeCache cache, String url) throws IOException {
+        HttpRangeCache.Source source = cache.open(url);
+        try {
+            byte[] content = new byte[(int) source.length()];
+            // Odd-sized reads, like a demuxer's, that straddle chunk boundaries.
+            int position = 0;
+            while (position < content.length) {
+                int read = source.read(position, content, position, Math.min(10000, content.length - position));
+                if (read < 0) {
+                    break;
+                }
+                position += read;
+            }
+            return Arrays.copyOf(content, position);
+        } finally {
+            source.close();
+        }
+    }
+
+    private static List<byte[]> readConcurrently(final HttpRangeCache cache, final String url, int threads)
+        throws InterruptedException {
+        final List<byte[]> results = new ArrayList<byte[]>();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        byte[] result = readAll(cache, url);
+                        synchronized (results) {
+                            results.add(result);
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        check("concurrent readers finished", results.size(), threads);
+        return results;
+    }
+
+    private static void check(String name, byte[] actual, byte[] expected) {
+        if (!Arrays.equals(actual, expected)) {
+            System.out.println("FAIL " + name + ": content differs");
+            failures++;
+        }
+    }
+
+    private static void check(String name, long actual, long expected) {
+        if (actual != expected) {
+            System.out.println("FAIL " + name + ": expected " + expected + ", was " + actual);
+            failures++;
+        }
+    }
+
+    private static void check(String name, boolean actual, boolean expected) {
+        if (actual != expected) {
+            System.out.println("FAIL " + name);
+            failures++;
+        }
+    }
+
+    private static void report(String scenario, StandInServer server, HttpRangeCache cache) {
+        System.out.println(String.format("%-24s %3d requests %8d bytes served %8d bytes cached",
+            scenario, server.requests.get(), server.bytesServed.get(), cache.getSize()));
+    }
+
+    private static byte[] randomBytes(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static File createTempDirectory() throws IOException {
+        File file = File.createTempFile("http-range-cache", "");
+        if (!file.delete() || !file.mkdirs()) {
+            throw new IOException("Could not create " + file);
+        }
+        return file;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Serves byte arrays with single range requests, ETags and If-Range, like a CDN would.
+     */
+    private static final class StandInServer {
+        private final HttpServer server;
+        private final ExecutorService executor = Executors.newCachedThreadPool();
+        private final Map<String, byte[]> contents = new ConcurrentHashMap<String, byte[]>();
+        private final Map<String, String> etags = new ConcurrentHashMap<String, String>();
+        private final AtomicInteger versions = new AtomicInteger();
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicLong bytesServed = new AtomicLong();
+        private volatile boolean ignoreRanges;
+        private volatile int delayMs;
+
+        StandInServer() throws IOException {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            server.createContext("/", new HttpHandler() {
+                @Override
+                public void handle(HttpExchange exchange) throws IOException {
+                    serve(exchange);
+                }
+            });
+            server.setExecutor(executor);
+            server.start();
+        }
+
+        void put(String path, byte[] content) {
+            contents.put(path, content);
+            etags.put(path, "\"v" + versions.incrementAndGet() + "\"");
+        }
+
+        byte[] content(String path) {
+            return contents.get(path);
+        }
+
+        String url(String path) {
+            return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+        }
+
+        void resetCounters() {
+            requests.set(0);
+            bytesServed.set(0);
+        }
+
+        void setIgnoreRanges(boolean ignoreRanges) {
+            this.ignoreRanges = ignoreRanges;
+        }
+
+        void setDelayMs(int delayMs) {
+            this.delayMs = delayMs;
+        }
+
+        void stop() {
+            server.stop(0);
+            executor.shutdown();
+        }
+
+        private void serve(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            String path = exchange.getRequestURI().getPath();
+            byte[] content = contents.get(path);
+            if (content == null) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            if (delayMs > 0) {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            String etag = etags.get(path);
+            exchange.getResponseHeaders().set("ETag", etag);
+
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            boolean partial = range != null && range.startsWith("bytes=") && !ignoreRanges
+                && (ifRange == null || ifRange.equals(etag));
+            int start = 0;
+            int end = content.length - 1;
+            if (partial) {
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                start = Integer.parseInt(bounds[0]);
+                if (bounds.length > 1 && !bounds[1].isEmpty()) {
+                    end = Math.min(end, Integer.parseInt(bounds[1]));
+                }
+                if (start > end) {
+                    exchange.getResponseHeaders().set("Content-Range", "bytes */" + content.length);
+                    exchange.sendResponseHeaders(416, -1);
+                    exchange.close();
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Range",
+                    "bytes " + start + "-" + end + "/" + content.length);
+            }
+            int length = end - start + 1;
+            exchange.sendResponseHeaders(partial ? 206 : 200, length);
+            OutputStream out = exchange.getResponseBody();
+            try {
+                out.write(content, start, length);
+                bytesServed.addAndGet(length);
+            } catch (IOException e) {
+                // The client stopped reading a full response after the chunk it needed.
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.alphamovie.benchmark;
+
+import com.alphamovie.lib.RenderScaleController;
+
+import java.util.Random;
+
+/**
+ * Runs {@link RenderScaleController} against a fake GPU whose frame time is a fixed cost plus a
+ * fill cost proportional to the pixel count, with noise, and a slow first frame after every
+ * resize while the surface is recreated. Checks that the scale settles where frames fit the
+ * target under fill-rate pressure, stays at the maximum when there is room, grows back after the
+ * load goes away, and does not flap when the load sits right at the target.
+ * <p>
+ * Usage: {@code RenderScaleCheck}. Prints one line per scenario; the exit status is 1 if any
+ * check fails.
+ */
+public final class RenderScaleCheck {
+    private static final long TARGET_NANOS = 12000000;
+    private static final long FIXED_NANOS = 2000000;
+    private static final long RESIZE_NANOS = 20000000;
+    private static final int FRAMES = 6000;
+
+    private static int failures;
+
+    private RenderScaleCheck() {
+    }
+
+    public static void main(String[] args) {
+        System.out.println(String.format("%-22s %7s %7s %9s %9s %s",
+            "scenario", "scale", "changes", "mean ms", "over %", "result"));
+
+        // Full-screen keying on a weak GPU: only about 58% of the full size fits the target.
+        int before = failures;
+        Result heavy = run("fill-rate bound", 30000000, 30000000, 0.1);
+        check("heavy load settles below target", heavy.settledMeanNanos <= TARGET_NANOS);
+        check("heavy load keeps as many pixels as fit", heavy.scale >= 0.45f);
+        check("heavy load changes are few", heavy.changes <= 4);
+        report("fill-rate bound", heavy, before);
+
+        before = failures;
+        Result light = run("room to spare", 6000000, 6000000, 0.1);
+        check("light load stays at full size", light.scale == 1f && light.changes == 0);
+        report("room to spare", light, before);
+
+        // At full size frames take 2% longer than the target.
+        long borderline = TARGET_NANOS * 102 / 100 - FIXED_NANOS;
+        before = failures;
+        Result edge = run("at the target", borderline, borderline, 0.15);
+        check("load at the target does not flap", edge.changes <= 2);
+        report("at the target", edge, before);
+
+        before = failures;
+        Result recovering = run("load goes away", 30000000, 4000000, 0.1);
+        check("scale grows back after the load", recovering.scale == 1f);
+        check("recovery changes are bounded", recovering.changes <= 20);
+        report("load goes away", recovering, before);
+
+        before = failures;
+        Result floor = run("beyond the minimum", 200000000, 200000000, 0.1);
+        check("scale stops at the minimum", floor.scale == 0.25f);
+        report("beyond the minimum", floor, before);
+
+        if (failures > 0) {
+            System.out.println(failures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All checks passed");
+    }
+
+    /**
+     * @param fillNanos the fill cost at full size during the first half
+     * @param laterFillNanos the fill cost at full size during the second half
+     * @param noise the standard deviation of the frame time, relative to its mean
+     */
+    private static Result run(String name, long fillNanos, long laterFillNanos, double noise) {
+        Random random = new Random(name.hashCode());
+        RenderScaleController controller = new RenderScaleController(0.25f, 1f, TARGET_NANOS);
+        float appliedScale = controller.getScale();
+        boolean resized = false;
+        double settledTotal = 0;
+        int settledFrames = 0;
+        int over = 0;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            long fill = frame < FRAMES / 2 ? fillNanos : laterFillNanos;
+            double mean = FIXED_NANOS + fill * appliedScale * appliedScale;
+            long frameTime = (long) Math.max(0, mean * (1 + random.nextGaussian() * noise));
+            if (resized) {
+                frameTime += RESIZE_NANOS;
+                resized = false;
+            }
+            float scale = controller.onFrame(frameTime);
+            if (scale != appliedScale) {
+                appliedScale = scale;
+                resized = true;
+            }
+            // The last quarter of each half, when the scale should have settled.
+            int phaseFrame = frame % (FRAMES / 2);
+            if (phaseFrame >= FRAMES * 3 / 8) {
+                settledTotal += frameTime;
+                settledFrames++;
+                if (frameTime > TARGET_NANOS) {
+                    over++;
+                }
+            }
+        }
+        Result result = new Result();
+        result.scale = appliedScale;
+        result.changes = controller.getChangeCount();
+        result.settledMeanNanos = settledTotal / settledFrames;
+        result.overShare = over / (double) settledFrames;
+        return result;
+    }
+
+    private static void report(String scenario, Result result, int failuresBefore) {
+        System.out.println(String.format("%-22s %7.2f %7d %9.2f %9.1f %s",
+            scenario, result.scale, result.changes, result.settledMeanNanos / 1e6,
+            result.overShare * 100, failures == failuresBefore ? "ok" : "FAIL"));
+    }
+
+    private static void check(String name, boolean passed) {
+        if (!passed) {
+            System.out.println("FAIL " + name);
+            failures++;
+        }
+    }
+
+    private static final class Result {
+        float scale;
+        long changes;
+        double settledMeanNanos;
+        double overShare;
+    }
+}
@@ -0,0 +1,113 @@
+package com.alphamovie.converter;
+
+/**
+ * Packs a keyed frame into the colour-plus-matte layout read by
+ * {@code com.alphamovie.lib.PackedAlphaShader}.
+ * <p>
+ * The colour image keeps its size. The matte is the keyed alpha as opaque grey, scaled by the
+ * matte scale with an area filter and aligned to the top left corner of its half: to the right of
+ * the colour image for {@link #LAYOUT_HORIZONTAL}, below it for {@link #LAYOUT_VERTICAL}. The
+ * rest of the matte half is black. Instances are immutable and may be shared by workers.
+ */
+final class AlphaPacker {
+    /**
+     * Same value as {@code PackedAlphaShader.LAYOUT_HORIZONTAL}.
+     */
+    static final int LAYOUT_HORIZONTAL = 0;
+
+    /**
+     * Same value as {@code PackedAlphaShader.LAYOUT_VERTICAL}.
+     */
+    static final int LAYOUT_VERTICAL = 1;
+
+    private final int layout;
+    private final float matteScale;
+    private final int width;
+    private final int height;
+    private final int matteWidth;
+    private final int matteHeight;
+
+    AlphaPacker(int layout, float matteScale, int width, int height) {
+        if (layout != LAYOUT_HORIZONTAL && layout != LAYOUT_VERTICAL) {
+            throw new IllegalArgumentException("layout");
+        }
+        if (!(matteScale > 0f && matteScale <= 1f)) {
+            throw new IllegalArgumentException("matteScale");
+        }
+        this.layout = layout;
+        this.matteScale = matteScale;
+        this.width = width;
+        this.height = height;
+        this.matteWidth = scaledSize(width, matteScale);
+        this.matteHeight = scaledSize(height, matteScale);
+    }
+
+    /**
+     * The shader derives the matte rectangle from the scale alone, so the scaled size has to be a
+     * whole number of pixels or the matte would be sampled with an offset.
+     */
+    private static int scaledSize(int size, float scale) {
+        float scaled = size * scale;
+        int rounded = Math.round(scaled);
+        if (Math.abs(scaled - rounded) > 1e-3f) {
+            throw new IllegalArgumentException(
+                "Matte scale " + scale + " does not give a whole number of pixels for size " + size);
+        }
+        return rounded;
+    }
+
+    int getPackedWidth() {
+        return layout == LAYOUT_HORIZONTAL ? width + matteWidth : width;
+    }
+
+    int getPackedHeight() {
+        return layout == LAYOUT_VERTICAL ? height + matteHeight : height;
+    }
+
+    /**
+     * @param keyed the keyed frame, whose alpha becomes the matte
+     * @param out receives {@link #getPackedWidth()} by {@link #getPackedHeight()} opaque pixels
+     */
+    void pack(int[] keyed, int[] out) {
+        int packedWidth = getPackedWidth();
+        for (int y = 0; y < height; y++) {
+            int src = y * width;
+            int dst = y * packedWidth;
+            for (int x = 0; x < width; x++) {
+                out[dst + x] = keyed[src + x] | 0xff000000;
+            }
+        }
+
+        int matteX = layout == LAYOUT_HORIZONTAL ? width : 0;
+        int matteY = layout == LAYOUT_VERTICAL ? height : 0;
+        int halfWidth = getPackedWidth() - matteX;
+        int halfHeight = getPackedHeight() - matteY;
+        for (int y = 0; y < halfHeight; y++) {
+            int dst = (matteY + y) * packedWidth + matteX;
+            for (int x = 0; x < halfWidth; x++) {
+                int alpha = x < matteWidth && y < matteHeight ? matteAlpha(keyed, x, y) : 0;
+                out[dst + x] = 0xff000000 | (alpha << 16) | (alpha << 8) | alpha;
+            }
+        }
+    }
+
+    private int matteAlpha(int[] keyed, int x, int y) {
+        if (matteScale == 1f) {
+            return keyed[y * width + x] >>> 24;
+        }
+        // Average the source pixels covered by this matte pixel.
+        int x0 = (int) (x / matteScale);
+        int x1 = Math.min(width, Math.max(x0 + 1, (int) Math.ceil((x + 1) / matteScale)));
+        int y0 = (int) (y / matteScale);
+        int y1 = Math.min(height, Math.max(y0 + 1, (int) Math.ceil((y + 1) / matteScale)));
+        int sum = 0;
+        for (int sy = y0; sy < y1; sy++) {
+            int row = sy * width;
+            for (int sx = x0; sx < x1; sx++) {
+                sum += keyed[row + sx] >>> 24;
+            }
+        }
+        int count = (x1 - x0) * (y1 - y0);
+        return (sum + count / 2) / count;
+    }
+}
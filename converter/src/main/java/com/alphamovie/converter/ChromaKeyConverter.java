@@ -0,0 +1,167 @@
+package com.alphamovie.converter;
+
+import com.alphamovie.lib.CpuChromaKeyer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * Converts chroma-key footage into colour-plus-matte frames for {@code PackedAlphaShader}, so
+ * keying is paid for once before encoding instead of on every device.
+ * <p>
+ * Example, keying a clip with ffmpeg on both ends:
+ * <pre>
+ * ffmpeg -i green.mp4 -f rawvideo -pix_fmt rgba - \
+ *   | converter --raw 1280x720 --key 00ff00 --sensitivity 0.1 --smoothing 0.05 \
+ *   | ffmpeg -f rawvideo -pix_fmt rgba -s 2560x720 -r 30 -i - packed.mp4
+ * </pre>
+ */
+public final class ChromaKeyConverter {
+    private static final String USAGE =
+        "Usage: converter [options]\n"
+            + "  --input PATH         directory of images, or a raw RGBA file; '-' or omitted reads raw stdin\n"
+            + "  --output PATH        existing directory or path ending in '/' for PNG frames, or a raw RGBA file; '-' or omitted writes raw stdout\n"
+            + "  --raw WxH            frame size of raw input (required unless the input is a directory)\n"
+            + "  --key RRGGBB         colour to key out (default 00ff00)\n"
+            + "  --sensitivity F      as AdvancedChromaKeyShader, in [0, 1] (default 0.1)\n"
+            + "  --smoothing F        as AdvancedChromaKeyShader, in [0, 1] (default 0.05)\n"
+            + "  --layout L           horizontal or vertical (default horizontal)\n"
+            + "  --matte-scale F      matte size relative to the colour image, in (0, 1] (default 1)\n"
+            + "  --threads N          keying workers (default: available processors)\n"
+            + "  --queue N            frames buffered between reader and workers (default 2 * threads)\n";
+
+    private ChromaKeyConverter() {
+    }
+
+    public static void main(String[] args) {
+        try {
+            System.exit(run(args));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println("Conversion failed: " + e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            System.exit(130);
+        }
+    }
+
+    private static int run(String[] args) throws IOException, InterruptedException {
+        String input = "-";
+        String output = "-";
+        int rawWidth = -1;
+        int rawHeight = -1;
+        int keyColor = 0xff00ff00;
+        float sensitivity = 0.1f;
+        float smoothing = 0.05f;
+        int layout = AlphaPacker.LAYOUT_HORIZONTAL;
+        float matteScale = 1f;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int queue = -1;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--help") || arg.equals("-h")) {
+                System.out.print(USAGE);
+                return 0;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            String value = args[++i];
+            try {
+                if (arg.equals("--input")) {
+                    input = value;
+                } else if (arg.equals("--output")) {
+                    output = value;
+                } else if (arg.equals("--raw")) {
+                    int x = value.indexOf('x');
+                    if (x < 0) {
+                        throw new IllegalArgumentException("Invalid size " + value);
+                    }
+                    rawWidth = Integer.parseInt(value.substring(0, x));
+                    rawHeight = Integer.parseInt(value.substring(x + 1));
+                } else if (arg.equals("--key")) {
+                    keyColor = 0xff000000 | Integer.parseInt(value, 16);
+                } else if (arg.equals("--sensitivity")) {
+                    sensitivity = Float.parseFloat(value);
+                } else if (arg.equals("--smoothing")) {
+                    smoothing = Float.parseFloat(value);
+                } else if (arg.equals("--layout")) {
+                    if (value.equals("horizontal")) {
+                        layout = AlphaPacker.LAYOUT_HORIZONTAL;
+                    } else if (value.equals("vertical")) {
+                        layout = AlphaPacker.LAYOUT_VERTICAL;
+                    } else {
+                        throw new IllegalArgumentException("Unknown layout " + value);
+                    }
+                } else if (arg.equals("--matte-scale")) {
+                    matteScale = Float.parseFloat(value);
+                } else if (arg.equals("--threads")) {
+                    threads = Integer.parseInt(value);
+                } else if (arg.equals("--queue")) {
+                    queue = Integer.parseInt(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + arg);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid value for " + arg + ": " + value);
+            }
+        }
+        if (queue < 0) {
+            queue = 2 * threads;
+        }
+
+        File inputFile = input.equals("-") ? null : new File(input);
+        boolean imageInput = inputFile != null && inputFile.isDirectory();
+        if (!imageInput && (rawWidth <= 0 || rawHeight <= 0)) {
+            throw new IllegalArgumentException("--raw WxH is required for raw input");
+        }
+        File outputFile = output.equals("-") ? null : new File(output);
+        boolean imageOutput = outputFile != null && (outputFile.isDirectory() || output.endsWith("/"));
+
+        CpuChromaKeyer keyer = new CpuChromaKeyer();
+        keyer.setKeyColor(keyColor);
+        keyer.setSensitivity(sensitivity);
+        keyer.setSmoothing(smoothing);
+        if (!imageInput) {
+            // Fail on a bad matte scale before reading anything.
+            new AlphaPacker(layout, matteScale, rawWidth, rawHeight);
+        }
+
+        // Raw frames may go to stdout, so progress always goes to stderr.
+        PrintStream log = System.err;
+        FrameReader reader;
+        if (imageInput) {
+            reader = new ImageFrameReader(inputFile);
+        } else {
+            InputStream in = inputFile == null ? System.in : new FileInputStream(inputFile);
+            reader = new RawFrameReader(in, rawWidth, rawHeight);
+        }
+        try {
+            FrameWriter writer;
+            if (imageOutput) {
+                writer = new ImageFrameWriter(outputFile);
+            } else {
+                OutputStream out = outputFile == null ? System.out : new FileOutputStream(outputFile);
+                writer = new RawFrameWriter(out);
+            }
+            try {
+                ConversionPipeline pipeline = new ConversionPipeline(keyer, layout, matteScale, threads, queue);
+                pipeline.run(reader, writer, log);
+            } finally {
+                writer.close();
+            }
+        } finally {
+            reader.close();
+        }
+        return 0;
+    }
+}
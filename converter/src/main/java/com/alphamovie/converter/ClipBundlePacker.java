@@ -0,0 +1,122 @@
+package com.alphamovie.converter;
+
+import com.alphamovie.lib.ClipBundleIndex;
+import com.alphamovie.lib.ClipBundleWriter;
+import com.alphamovie.lib.FileRangeReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Packs MP4 clips into a bundle for {@code ClipBundle}, or lists the clips of a bundle.
+ * <p>
+ * Example, bundling every clip of a directory as an asset named by file name:
+ * <pre>
+ * clip-bundle pack app/src/main/assets/effects.clips clips/
+ * clip-bundle list app/src/main/assets/effects.clips
+ * </pre>
+ */
+public final class ClipBundlePacker {
+    private static final String USAGE =
+        "Usage: clip-bundle pack [--keep-extension] OUTPUT CLIP|DIRECTORY...\n"
+            + "       clip-bundle list BUNDLE\n"
+            + "  Clips are named by file name without the extension, unless --keep-extension is given.\n"
+            + "  Directories add their *.mp4 files in name order.\n";
+
+    private ClipBundlePacker() {
+    }
+
+    public static void main(String[] args) {
+        try {
+            System.exit(run(args));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println("clip-bundle failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static int run(String[] args) throws IOException {
+        if (args.length == 0 || args[0].equals("--help") || args[0].equals("-h")) {
+            System.out.print(USAGE);
+            return 0;
+        }
+        if (args[0].equals("list") && args.length == 2) {
+            list(new File(args[1]));
+            return 0;
+        }
+        if (!args[0].equals("pack")) {
+            throw new IllegalArgumentException("Unknown command " + args[0]);
+        }
+
+        boolean keepExtension = false;
+        int i = 1;
+        if (i < args.length && args[i].equals("--keep-extension")) {
+            keepExtension = true;
+            i++;
+        }
+        if (args.length - i < 2) {
+            throw new IllegalArgumentException("pack needs an output and at least one clip");
+        }
+        File output = new File(args[i++]);
+        List<File> clips = new ArrayList<File>();
+        for (; i < args.length; i++) {
+            addClips(new File(args[i]), clips);
+        }
+
+        ClipBundleWriter writer = new ClipBundleWriter();
+        for (File clip : clips) {
+            String name = clip.getName();
+            int dot = name.lastIndexOf('.');
+            if (!keepExtension && dot > 0) {
+                name = name.substring(0, dot);
+            }
+            try {
+                writer.add(name, clip);
+            } catch (IOException e) {
+                throw new IOException("Could not read " + clip + ": " + e.getMessage(), e);
+            }
+        }
+        writer.write(output);
+        System.err.println("Packed " + writer.size() + " clips into " + output + " (" + output.length() + " bytes)");
+        return 0;
+    }
+
+    private static void addClips(File file, List<File> clips) throws IOException {
+        if (!file.isDirectory()) {
+            if (!file.isFile()) {
+                throw new IOException("No such file " + file);
+            }
+            clips.add(file);
+            return;
+        }
+        File[] children = file.listFiles();
+        if (children == null) {
+            throw new IOException("Could not list " + file);
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            if (child.isFile() && child.getName().toLowerCase().endsWith(".mp4")) {
+                clips.add(child);
+            }
+        }
+    }
+
+    private static void list(File bundle) throws IOException {
+        FileRangeReader reader = FileRangeReader.open(bundle, true);
+        try {
+            ClipBundleIndex index = ClipBundleIndex.read(reader);
+            for (int i = 0; i < index.size(); i++) {
+                System.out.println(index.get(i));
+            }
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.alphamovie.converter;
+
+import com.alphamovie.lib.CpuChromaKeyer;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Streams frames from a {@link FrameReader} through keying workers into a {@link FrameWriter}.
+ * <p>
+ * A reader thread feeds a bounded queue, {@code workerCount} threads key and pack frames in any
+ * order, and the calling thread writes them back in sequence order. The number of frames alive
+ * at any time, queued, being keyed or waiting to be written, is capped at
+ * {@code queueCapacity + workerCount}, so memory use does not grow with the length of the clip.
+ */
+final class ConversionPipeline {
+    private static final long PROGRESS_INTERVAL_NANOS = 2000000000L;
+
+    private final Frame endOfStream = new Frame(-1, 0, 0, null);
+
+    private final CpuChromaKeyer keyer;
+    private final int layout;
+    private final float matteScale;
+    private final int workerCount;
+    private final BlockingQueue<Frame> pending;
+    private final Semaphore framesInFlight;
+
+    private final Object lock = new Object();
+    private final Map<Long, Frame> completed = new HashMap<Long, Frame>();
+    private long frameCount = -1;
+    private Throwable failure;
+
+    ConversionPipeline(CpuChromaKeyer keyer, int layout, float matteScale, int workerCount, int queueCapacity) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("workerCount");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity");
+        }
+        this.keyer = keyer;
+        this.layout = layout;
+        this.matteScale = matteScale;
+        this.workerCount = workerCount;
+        this.pending = new ArrayBlockingQueue<Frame>(queueCapacity);
+        this.framesInFlight = new Semaphore(queueCapacity + workerCount);
+    }
+
+    /**
+     * Convert every frame of {@code reader}. Progress is printed to {@code log}.
+     *
+     * @return the number of frames written.
+     */
+    long run(final FrameReader reader, FrameWriter writer, PrintStream log) throws IOException, InterruptedException {
+        Thread readerThread = new Thread("converter-reader") {
+            @Override
+            public void run() {
+                readFrames(reader);
+            }
+        };
+        Thread[] workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Thread("converter-worker-" + i) {
+                @Override
+                public void run() {
+                    keyFrames();
+                }
+            };
+        }
+
+        long start = System.nanoTime();
+        long lastProgress = start;
+        long written = 0;
+        readerThread.start();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        try {
+            while (true) {
+                Frame frame;
+                synchronized (lock) {
+                    while (failure == null && !completed.containsKey(written) && frameCount != written) {
+                        lock.wait();
+                    }
+                    if (failure != null) {
+                        break;
+                    }
+                    if (frameCount == written) {
+                        break;
+                    }
+                    frame = completed.remove(written);
+                }
+                writer.write(frame);
+                framesInFlight.release();
+                written++;
+
+                long now = System.nanoTime();
+                if (now - lastProgress >= PROGRESS_INTERVAL_NANOS) {
+                    lastProgress = now;
+                    log.printf("%d frames, %.1f fps%n", written, written / ((now - start) / 1e9));
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            readerThread.interrupt();
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+            readerThread.join();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+
+        Throwable failure;
+        synchronized (lock) {
+            failure = this.failure;
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        log.printf("%d frames in %.2f s, %.1f fps with %d workers%n", written, seconds, written / seconds, workerCount);
+        return written;
+    }
+
+    private void readFrames(FrameReader reader) {
+        long index = 0;
+        try {
+            while (true) {
+                framesInFlight.acquire();
+                Frame frame = reader.read(index);
+                if (frame == null) {
+                    break;
+                }
+                pending.put(frame);
+                index++;
+            }
+            synchronized (lock) {
+                frameCount = index;
+                lock.notifyAll();
+            }
+        } catch (InterruptedException e) {
+            // Stopped by run().
+            return;
+        } catch (Throwable e) {
+            fail(e);
+            return;
+        }
+
+        try {
+            for (int i = 0; i < workerCount; i++) {
+                pending.put(endOfStream);
+            }
+        } catch (InterruptedException e) {
+            // Stopped by run().
+        }
+    }
+
+    private void keyFrames() {
+        AlphaPacker packer = null;
+        int[] keyed = null;
+        try {
+            while (true) {
+                Frame frame = pending.take();
+                if (frame == endOfStream) {
+                    return;
+                }
+
+                if (packer == null || keyed.length != frame.pixels.length) {
+                    packer = new AlphaPacker(layout, matteScale, frame.width, frame.height);
+                    keyed = new int[frame.pixels.length];
+                }
+                keyer.key(frame.pixels, 0, keyed, 0, keyed.length);
+                int[] packed = new int[packer.getPackedWidth() * packer.getPackedHeight()];
+                packer.pack(keyed, packed);
+
+                Frame result = new Frame(frame.index, packer.getPackedWidth(), packer.getPackedHeight(), packed);
+                synchronized (lock) {
+                    completed.put(result.index, result);
+                    lock.notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopped by run().
+        } catch (Throwable e) {
+            fail(e);
+        }
+    }
+
+    private void fail(Throwable e) {
+        synchronized (lock) {
+            if (failure == null) {
+                failure = e;
+            }
+            lock.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.alphamovie.converter;
+
+/**
+ * One frame of 0xAARRGGBB pixels, row by row, with its position in the sequence.
+ */
+final class Frame {
+    final long index;
+    final int width;
+    final int height;
+    final int[] pixels;
+
+    Frame(long index, int width, int height, int[] pixels) {
+        this.index = index;
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+}
@@ -0,0 +1,14 @@
+package com.alphamovie.converter;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A source of frames. Only called from the pipeline's reader thread.
+ */
+interface FrameReader extends Closeable {
+    /**
+     * @return the next frame, or null at the end of the sequence.
+     */
+    Frame read(long index) throws IOException;
+}
@@ -0,0 +1,11 @@
+package com.alphamovie.converter;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A destination for packed frames. Frames are written in sequence order from a single thread.
+ */
+interface FrameWriter extends Closeable {
+    void write(Frame frame) throws IOException;
+}
@@ -0,0 +1,52 @@
+package com.alphamovie.converter;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Reads the image files of a directory in name order. Every format known to {@link ImageIO} is
+ * accepted; all images must have the same size.
+ */
+final class ImageFrameReader implements FrameReader {
+    private final File[] files;
+    private int width = -1;
+    private int height = -1;
+
+    ImageFrameReader(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Not a directory: " + directory);
+        }
+        Arrays.sort(files);
+        this.files = files;
+    }
+
+    @Override
+    public Frame read(long index) throws IOException {
+        if (index >= files.length) {
+            return null;
+        }
+        File file = files[(int) index];
+        BufferedImage image = ImageIO.read(file);
+        if (image == null) {
+            throw new IOException("Unsupported image " + file);
+        }
+        if (width < 0) {
+            width = image.getWidth();
+            height = image.getHeight();
+        } else if (image.getWidth() != width || image.getHeight() != height) {
+            throw new IOException(file + " is " + image.getWidth() + "x" + image.getHeight()
+                + ", expected " + width + "x" + height);
+        }
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        return new Frame(index, width, height, pixels);
+    }
+
+    @Override
+    public void close() {
+    }
+}
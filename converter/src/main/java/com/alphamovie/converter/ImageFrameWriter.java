@@ -0,0 +1,35 @@
+package com.alphamovie.converter;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Writes every frame to a numbered PNG file.
+ */
+final class ImageFrameWriter implements FrameWriter {
+    private final File directory;
+
+    ImageFrameWriter(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        this.directory = directory;
+    }
+
+    @Override
+    public void write(Frame frame) throws IOException {
+        BufferedImage image = new BufferedImage(frame.width, frame.height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, frame.width, frame.height, frame.pixels, 0, frame.width);
+        File file = new File(directory, String.format("frame_%06d.png", frame.index));
+        if (!ImageIO.write(image, "png", file)) {
+            throw new IOException("No PNG writer available");
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,53 @@
+package com.alphamovie.converter;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads concatenated RGBA frames of a fixed size, as produced by
+ * {@code ffmpeg -f rawvideo -pix_fmt rgba}.
+ */
+final class RawFrameReader implements FrameReader {
+    private final DataInputStream in;
+    private final int width;
+    private final int height;
+    private final byte[] buffer;
+
+    RawFrameReader(InputStream in, int width, int height) {
+        this.in = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+        this.width = width;
+        this.height = height;
+        this.buffer = new byte[width * height * 4];
+    }
+
+    @Override
+    public Frame read(long index) throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        buffer[0] = (byte) first;
+        try {
+            in.readFully(buffer, 1, buffer.length - 1);
+        } catch (EOFException e) {
+            throw new IOException("Truncated frame " + index + ", expected " + buffer.length + " bytes");
+        }
+
+        int[] pixels = new int[width * height];
+        for (int i = 0, b = 0; i < pixels.length; i++, b += 4) {
+            pixels[i] = ((buffer[b + 3] & 0xff) << 24)
+                | ((buffer[b] & 0xff) << 16)
+                | ((buffer[b + 1] & 0xff) << 8)
+                | (buffer[b + 2] & 0xff);
+        }
+        return new Frame(index, width, height, pixels);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
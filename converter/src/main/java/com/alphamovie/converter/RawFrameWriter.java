@@ -0,0 +1,39 @@
+package com.alphamovie.converter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes concatenated opaque RGBA frames, ready to be piped into
+ * {@code ffmpeg -f rawvideo -pix_fmt rgba}.
+ */
+final class RawFrameWriter implements FrameWriter {
+    private final OutputStream out;
+    private byte[] buffer;
+
+    RawFrameWriter(OutputStream out) {
+        this.out = new BufferedOutputStream(out, 1 << 16);
+    }
+
+    @Override
+    public void write(Frame frame) throws IOException {
+        int[] pixels = frame.pixels;
+        if (buffer == null || buffer.length != pixels.length * 4) {
+            buffer = new byte[pixels.length * 4];
+        }
+        for (int i = 0, b = 0; i < pixels.length; i++, b += 4) {
+            int argb = pixels[i];
+            buffer[b] = (byte) (argb >> 16);
+            buffer[b + 1] = (byte) (argb >> 8);
+            buffer[b + 2] = (byte) argb;
+            buffer[b + 3] = (byte) 0xff;
+        }
+        out.write(buffer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}